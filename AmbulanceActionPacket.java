@@ -12,6 +12,9 @@ import java.lang.*;
  */
 public class AmbulanceActionPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 869166385892203368L;
+
     private Vector actions = null;
     private String actionDescription = null;
 
@@ -23,35 +26,30 @@ public class AmbulanceActionPacket implements Serializable {
   /**
    * Constructor used by ambulance client to create this packet
    * @param recordId The patient record id at the client side
-   * @param db2 The client database connection
+   * @param snapshot The rows read from the client database
    */ 
-  public AmbulanceActionPacket(int recordId, DB2Connect db2) 
+  public AmbulanceActionPacket(int recordId, RecordSnapshot snapshot) 
       throws SQLException {
           
-          String query;
-          ResultSet resultSet;
+          Vector rows;
+          SnapshotRow resultSet;
           actions = new Vector();
 
-          //Fetch the actions that are performed for this record id
-          query = "SELECT ACTION_ATTRIBUTE_ID FROM EPR.ACTION_PERFORMED " +
-              "WHERE RECORD_ID = " + recordId;
-
-          resultSet = db2.dbQuery(query);
+          //The actions that are performed for this record id
+          rows = snapshot.getRows("ACTION_PERFORMED", recordId);
 
           //Save the action attribute ids in actions Vector
-          while (resultSet.next()) {
+          for (int i = 0; i < rows.size(); i++) {
+            resultSet = (SnapshotRow) rows.elementAt(i);
             actions.add(new 
                     Integer(resultSet.getInt("ACTION_ATTRIBUTE_ID")));
           }
 
           //Check if there is a description for actions
-          query = "SELECT DESCRIPTION FROM EPR.ACTION_DESCRIPTION " +
-              "WHERE RECORD_ID = " + recordId;
-
-          resultSet = db2.dbQuery(query);
+          resultSet = snapshot.getRow("ACTION_DESCRIPTION", recordId);
 
           //Fetch the result
-          if (resultSet.next())
+          if (resultSet != null)
               actionDescription = resultSet.getString("DESCRIPTION");
       }
 
@@ -63,27 +61,65 @@ public class AmbulanceActionPacket implements Serializable {
   public void writeActionPacket(DB2Connect db2, int recordId) 
       throws SQLException {
 
-          String query;
-          Integer actionAttributeId;
+          PreparedStatement ps;
 
           //Insert the actions performed for this record id
-          for (int i = 0; i < actions.size(); i++) {
-              actionAttributeId = (Integer) actions.elementAt(i);
-
-              query = "INSERT INTO EPR.ACTION_PERFORMED " +
-                  "(RECORD_ID, ACTION_ATTRIBUTE_ID) VALUES (" +
-                  recordId + ", " + actionAttributeId.intValue() + ")";
-              
-              db2.dbQueryUpdate (query);
+          if (actions.size() > 0) {
+              ps = db2.prepareStatement("INSERT INTO EPR.ACTION_PERFORMED " +
+                  "(RECORD_ID, ACTION_ATTRIBUTE_ID) VALUES (?, ?)");
+              try {
+                  for (int i = 0; i < actions.size(); i++) {
+                      ps.setInt(1, recordId);
+                      ps.setInt(2,
+                              ((Integer) actions.elementAt(i)).intValue());
+                      ps.addBatch();
+                  }
+                  ps.executeBatch();
+              } finally {
+                  ps.close();
+              }
           }
 
           //If there is a description, insert it
           if (actionDescription != null) {
-              query = "INSERT INTO EPR.ACTION_DESCRIPTION " +
-                  "(RECORD_ID, DESCRIPTION) VALUES (" + 
-                  recordId + ",'" + actionDescription + "')";
-
-              db2.dbQueryUpdate (query);
+              ps = db2.prepareStatement("INSERT INTO EPR.ACTION_DESCRIPTION " +
+                  "(RECORD_ID, DESCRIPTION) VALUES (?, ?)");
+              try {
+                  ps.setInt(1, recordId);
+                  ps.setString(2, actionDescription);
+                  ps.executeUpdate();
+              } finally {
+                  ps.close();
+              }
           }
       }
+
+  /**
+   * Method used by the Record object to write this packet in the
+   * compact binary format
+   * @param out The stream the packet is written to
+   */
+  public void writeWire(WireOutput out) throws IOException {
+
+          out.writeUnsigned(actions.size());
+          for (int i = 0; i < actions.size(); i++)
+              out.writeInt(((Integer) actions.elementAt(i)).intValue());
+
+          out.writeString(actionDescription);
+      }
+
+  /**
+   * Method used by the Record object to re-initialize this packet from
+   * the compact binary format
+   * @param in The stream the packet is read from
+   */
+  public void readWire(WireInput in) throws IOException {
+
+          int count = in.readLength();
+          actions = new Vector(count);
+          for (int i = 0; i < count; i++)
+              actions.add(new Integer(in.readInt()));
+
+          actionDescription = in.readString();
+      }
 }
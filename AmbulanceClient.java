@@ -1,8 +1,6 @@
 import java.io.*;
 import java.security.*;
 import java.util.*;
-import javax.net.*;
-import javax.net.ssl.*;
 import java.sql.*;
 import java.util.prefs.*;
 
@@ -18,65 +16,58 @@ import java.util.prefs.*;
  * this software will be prosecuted in a court of law
  *
  */
-public class AmbulanceClient implements Runnable {
+public class AmbulanceClient implements Runnable, ChannelReplyInterface {
 
     private final int THRESHOLD = 5; 
 
-    //KeyStore containing the client certificate
-    private KeyStore clientKeyStore;
+    //Time in ms to wait for an acknowledgement before a record is resent
+    private final long ACK_TIMEOUT = 60 * 1000;
 
-    //KeyStore containing the server certificate
-    private KeyStore serverKeyStore;
+    //Creates the secure connections to the server
+    private SecureChannelFactory channelFactory;
 
-    //Used to generate a SocketFactory
-    private SSLContext sslContext;
-
-    //Source of secure random numbers
-    private SecureRandom secureRandom;
-
-    //Reference to the ambulance client's GUI
-    private AmbulanceRecord ar; 
+    //Object informed about the results, the outbox or the client's GUI
+    private SendResultInterface ar; 
 
     //Connection to server
-    private SSLSocket socket;
-    private OutputStream out;
-    private ObjectOutputStream oos;
-    private InputStream in;
-    private ObjectInputStream ois;
+    private ServerConnection connection;
+
+    //The shared channel to server, null if the separate port is used
+    private ServerChannel channel;
 
     //Reference to LogHandler object
     private LogHandler lgHandler;
 
-    //Server name in the network
-    private String serverName;
-
-    //Ambulance client name in the network
-    private String clientName;
-
     //The port number the server listens to
     private int port;
 
-    //The key to server certificate
-    private String pubKey;
+    //Tickets for the records that will be send to the server, in order
+    private Vector tickets;
 
-    //The path to directory where ceretificates are stored
-    private String certDir;
+    //Tickets for records sent but not acknowledged, keyed by client record id
+    private Hashtable inFlight;
 
-    //A vector of records that will be send to the server
-    private Vector records;
+    //The number of records that may be sent ahead of their acknowledgements
+    private int window;
 
     //Variable to signal the client to terminate this connection
     private boolean terminateStatus = true;
 
+    //The format version the records are sent in, 0 if serialized
+    private int wireFormat;
+
+    //Set when the transmission has failed and the failure is reported
+    private boolean failed = false;
+
     /**
-     * Constructor used to building record packets and generate the random
-     * secure number for secure communication
+     * Constructor used to building record packets and start the thread
+     * that sends them
      * @param lgHandler Reference to LogHandler object
-     * @param ar Reference to AmbulanceRecord object
+     * @param ar Object informed about the results of the transmission
      * @param recordId An array containing the patient record ids that 
      * will be send to server
      */
-    public AmbulanceClient(LogHandler lgHandler, AmbulanceRecord ar, 
+    public AmbulanceClient(LogHandler lgHandler, SendResultInterface ar, 
             DB2Connect dbcon, int[] recordId) throws SQLException, 
     NullPointerException, IllegalStateException, BackingStoreException {
 
@@ -84,93 +75,156 @@ public class AmbulanceClient implements Runnable {
         this.ar = ar;
 
         RegisterKey rk = new RegisterKey();
-        clientName = rk.getClientName();
-        serverName = rk.getServerName();
         port = rk.getAmbulancePort();
-        pubKey = rk.getPubKey();
-        certDir = rk.getCertDirectory();
+        channelFactory = SecureChannelFactory.getInstance();
+        channel = ServerChannel.getInstance(lgHandler);
+
+        window = rk.getSendWindow();
+        wireFormat = rk.getWireFormat();
 
-        records = new Vector();
+        tickets = new Vector();
+        inFlight = new Hashtable();
+
+        //Read all the records with a few queries before they are built
+        RecordSnapshot snapshot = new RecordSnapshot(recordId, dbcon);
 
         for(int i = 0; i < recordId.length; i++) {
-            Record r = new Record(recordId[i], dbcon);
+            Record r = new Record(recordId[i], snapshot,
+                    channelFactory.getClientName());
             if ((i + 1) == recordId.length)
                 r.setLastPacket();
-            records.add(r);
+            tickets.add(new RecordTicket(r));
         }
 
-        secureRandom = new SecureRandom();
-        secureRandom.nextInt();
-
         new Thread(this).start();
     }
 
     /**
-     * Method used to set up the server keystore
-     */ 
-    private void setupServerKeystore() throws GeneralSecurityException, 
-    IOException {
+     * Method used to write a Record object to the stream
+     * @param Record The record that will be send to server
+     * @param resend true if the record has been written before. The
+     * handle tables are then reset so the whole record is sent again
+     * and not as a reference to the one already sent.
+     */
+    public void send(Record record, boolean resend) throws IOException {
+
+        Object packet = record;
+
+        //Servers that do not know the binary format get the serialized record
+        if (wireFormat == WireRecord.FORMAT_VERSION)
+            packet = new WireRecord(record);
+
+        if (channel != null)
+            channel.send(ChannelMessage.RECORD, packet, this, resend);
+        else if (resend)
+            connection.writeFresh(packet);
+        else
+            connection.writeObject(packet);
+    }
+
+    /**
+     * Method called by the shared channel when the server has answered
+     * a record, or the channel has failed
+     * @param request The completed request
+     */
+    public void replyReceived(ChannelRequest request) {
+
+        //A record without a reply is resent by the background thread
+        if (request.hasExpired())
+            return;
+
+        if (request.hasFailed()) {
+            fail("Fel vid mottagning av data.");
+            return;
+        }
 
-        serverKeyStore = KeyStore.getInstance("JKS");
-        serverKeyStore.load(new FileInputStream(certDir + "server.public"), 
-                pubKey.toCharArray());
+        ServerAcknowledgement sa = (ServerAcknowledgement) request.getReply();
+        if (acknowledge(sa))
+            ar.resultsFromSend(sa.getRecordId(),
+                    sa.getServerRecordId(), sa.getServerMessage());
     }
 
     /**
-     * Method used to set up the client keystore
+     * Method used to get the ticket for a record in this transmission
+     * @param clientRecordId The client record id
+     * @return The ticket or null if the record is not part of this
+     * transmission
      */
-    private void setupClientKeyStore() throws GeneralSecurityException, 
-    IOException {
+    public RecordTicket getTicket(int clientRecordId) {
+        for (int i = 0; i < tickets.size(); i++) {
+            RecordTicket t = (RecordTicket) tickets.elementAt(i);
+            if (t.getClientRecordId() == clientRecordId)
+                return t;
+        }
+        return null;
+    }
 
-        clientKeyStore = KeyStore.getInstance("JKS");
-        clientKeyStore.load(
-                new FileInputStream(certDir + clientName + ".private"),
-                clientName.toCharArray());
+    /**
+     * Method used to indicate if all records are acknowledged or failed
+     * @return true if no record is waiting for an acknowledgement
+     */
+    public boolean isComplete() {
+        for (int i = 0; i < tickets.size(); i++) {
+            if (!((RecordTicket) tickets.elementAt(i)).isDone())
+                return false;
+        }
+        return true;
     }
 
     /**
-     * Method used to initialize the SSL parameters
-     */ 
-    private void setupSSLContext() throws GeneralSecurityException, 
-    IOException {
+     * Method used by the receive thread to complete the ticket that an
+     * acknowledgement belongs to. Acknowledgements for resent records
+     * that are already completed are ignored. A refused record is
+     * completed as well, the outbox sends it again later.
+     * @param sa The acknowledgement received from server
+     * @return true if a ticket was completed otherwise false
+     */
+    public synchronized boolean acknowledge(ServerAcknowledgement sa) {
 
-        TrustManagerFactory tmf = 
-            TrustManagerFactory.getInstance("SunX509");
-        tmf.init(serverKeyStore);
+        Integer key = new Integer(sa.getRecordId());
+        RecordTicket t = (RecordTicket) inFlight.remove(key);
 
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
-        kmf.init(clientKeyStore, clientName.toCharArray());
+        if (t == null)
+            t = getTicket(sa.getRecordId());
 
-        sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(),
-                secureRandom);
+        boolean completed = (t != null) && t.complete();
+
+        notifyAll();
+        return completed;
     }
 
     /**
-     * Method used to write a Record object to the stream
-     * @param Record The record that will be send to server
+     * Method used to report that the transmission has failed. The
+     * records that are not acknowledged are failed and the failure is
+     * only reported once even if both threads detect it.
+     * @param msg Message to inform the user of what went wrong
      */
-    public void send(Record record) throws IOException {
-        oos.writeObject(record);
-        oos.flush();
+    public void fail(String msg) {
+
+        synchronized (this) {
+            if (failed)
+                return;
+            failed = true;
+
+            for (int i = 0; i < tickets.size(); i++)
+                ((RecordTicket) tickets.elementAt(i)).complete();
+            inFlight.clear();
+            notifyAll();
+        }
+
+        ar.resultsFromSend(-2, -2, msg);
     }
 
     /**
      * Method used to close the socket, streams and stop the thread
      */ 
     public void terminate() throws IOException {
-        terminateStatus = false;
-        if (socket != null)
-            if (!socket.isClosed())
-                socket.close();
-        if (out != null)
-            out.close();
-        if (oos != null)
-            oos.close();
-        if (in != null)
-            in.close();
-        if (ois != null)
-            ois.close();
+        synchronized (this) {
+            terminateStatus = false;
+            notifyAll();
+        }
+        if (connection != null)
+            connection.close();
     }
 
     /**
@@ -181,9 +235,7 @@ public class AmbulanceClient implements Runnable {
         Log log;
 
         try {
-            setupServerKeystore();
-            setupClientKeyStore();
-            setupSSLContext();
+            channelFactory.getSocketFactory();
         } catch (GeneralSecurityException gse) {
             ar.resultsFromSend(-1, -1,
                     "Certifikatet är ogiltigt!" +
@@ -205,29 +257,33 @@ public class AmbulanceClient implements Runnable {
             return;
         }
 
-        SSLSocketFactory sf = sslContext.getSocketFactory();
-
-        while (terminateStatus) {
+        //The shared channel sets up its own connection
+        while (terminateStatus && channel == null) {
 
-            socket = null;
-            out = null;
-            oos = null;
-            in = null;
-            ois = null;
+            connection = null;
 
             try {  
-                socket = (SSLSocket)sf.createSocket(serverName, port);
-                out = socket.getOutputStream();
-                oos = new ObjectOutputStream(out);
-                in = socket.getInputStream();
-                ois = new ObjectInputStream(in);
+                connection = channelFactory.connect(port);
                 AmbulanceReceiveThread art = 
-                    new AmbulanceReceiveThread(lgHandler, this, ois, 
-                            records.size(), ar);
+                    new AmbulanceReceiveThread(lgHandler, this, 
+                            connection.getObjectInputStream(), ar);
                 break;
+            } catch(GeneralSecurityException gse) {
+                fail("Certifikatet är ogiltigt!" +
+                        " Kan ej ansluta till servern.");
+
+                log = new Log(gse.getMessage(),"AmbulanceClient/run",
+                        "Security problem");
+                lgHandler.addLog(log);
+                try {
+                    terminate();
+                } catch (IOException ie2) {
+                    log = new Log(ie2.getMessage(), "AmbulanceClient/run",
+                            "Failed to close socket/streams");
+                    lgHandler.addLog(log);
+                }
             } catch(IOException ie) {
-                ar.resultsFromSend(-2, -2, 
-                        "Uppkopplingsfel. Servern svarar inte.");
+                fail("Uppkopplingsfel. Servern svarar inte.");
 
                 log = new Log(ie.getMessage(), "AmbulanceClient/run",
                         "Failed to create socket/streams");
@@ -241,43 +297,90 @@ public class AmbulanceClient implements Runnable {
             }
         }
 
-        int attempts = 0;
+        int next = 0;
 
-        while(terminateStatus) {
-            Enumeration eNum = records.elements();
-            while(eNum.hasMoreElements()) {
-                Record r = (Record) eNum.nextElement();
-                try {
-                    send(r);
-                    records.remove(r);
-                } catch(IOException ie) {
-                    /*ar.resultsFromSend(-2, -2,
-                      "Fel vid sändning av data." +
-                      " Servern svarar inte");*/
-                    if ((attempts + 1) == THRESHOLD) {
-                        log = new Log(ie.getMessage(), "AmbulanceClient/run",
-                            "Failed to send the record packet");
-                        lgHandler.addLog(log);
+        /*Write the records ahead of their acknowledgements as long as the
+          window allows it, and resend the records that time out*/
+        while (terminateStatus) {
+
+            RecordTicket toSend = null;
+            RecordTicket expired = null;
+
+            synchronized (this) {
+                if (!terminateStatus || failed)
+                    break;
+
+                long now = System.currentTimeMillis();
+                long wait = ACK_TIMEOUT;
+
+                //Look for an in-flight record that has timed out
+                Enumeration eNum = inFlight.elements();
+                while (eNum.hasMoreElements() && expired == null) {
+                    RecordTicket t = (RecordTicket) eNum.nextElement();
+                    long left = t.getSentTime() + ACK_TIMEOUT - now;
+
+                    if (left <= 0)
+                        expired = t;
+                    else if (left < wait)
+                        wait = left;
+                }
+
+                if (expired != null) {
+                    //Resend only the record that has timed out
+                    if (expired.getAttempts() < THRESHOLD)
+                        toSend = expired;
+                } else if (next < tickets.size() && inFlight.size() < window) {
+                    toSend = (RecordTicket) tickets.elementAt(next++);
+                    inFlight.put(new Integer(toSend.getClientRecordId()),
+                            toSend);
+                } else {
+                    if (isComplete())
+                        break;
+
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException ie) {
+                        break;
                     }
+                    continue;
                 }
+
+                //Mark the ticket before the write so it is not resent
+                if (toSend != null)
+                    toSend.sent();
             }
-            if(records.isEmpty())
-                terminateStatus = false;
-            else 
-                attempts++;
-
-            if (attempts == THRESHOLD) {
-                ar.resultsFromSend(-2, -2, THRESHOLD + 
-                        " försök gjordes för att" +
+
+            if (toSend == null) {
+                log = new Log("No acknowledgement for record " +
+                        expired.getClientRecordId(), "AmbulanceClient/run",
+                        "Failed to send the record packet");
+                lgHandler.addLog(log);
+
+                fail(THRESHOLD + " försök gjordes för att" +
                         " skicka data till servern!\n" + 
                         " Sändning misslyckades");
+                break;
+            }
 
-                try {
-                    terminate();
-                } catch (IOException ie) {
-                    log = new Log(ie.getMessage(), "AmbulanceClient/run",
-                            "Failed to close socket/streams");
-                }
+            try {
+                send(toSend.getRecord(), toSend.getAttempts() > 1);
+            } catch(IOException ie) {
+                log = new Log(ie.getMessage(), "AmbulanceClient/run",
+                        "Failed to send the record packet");
+                lgHandler.addLog(log);
+
+                fail("Fel vid sändning av data. Servern svarar inte");
+                break;
+            }
+        }
+
+        if (failed) {
+            try {
+                terminate();
+            } catch (IOException ie) {
+                log = new Log(ie.getMessage(), "AmbulanceClient/run",
+                        "Failed to close socket/streams");
+                lgHandler.addLog(log);
             }
         }
     }
@@ -1,8 +1,6 @@
 import java.io.*;
 import java.security.*;
 import java.util.*;
-import javax.net.*;
-import javax.net.ssl.*;
 import java.util.prefs.*;
 
 /**
@@ -19,50 +17,30 @@ import java.util.prefs.*;
  */
 public class AmbulanceClientPatient implements Runnable {
 
-    //Ambulance client private key keystore
-    private KeyStore clientKeyStore;
+    //Time in ms to wait for a reply on the shared channel
+    private final long REPLY_TIMEOUT = 2 * 60 * 1000;
 
-    //Server public key keystore
-    private KeyStore serverKeyStore;
-
-    //Used to generate a SocketFactory
-    private SSLContext sslContext;
-
-    //A source of secure random numbers
-    private SecureRandom secureRandom;
+    //Creates the secure connections to the server
+    private SecureChannelFactory channelFactory;
 
     //A reference to the ambulance client's GUI. 
     private RecordInformationPane rip;
 
-    //Socket to server
-    private SSLSocket socket;
+    //Connection to the server, used to write and read objects
+    private ServerConnection connection;
 
-    //Connection to the server, used to write objects to.
-    private OutputStream out;
-    private ObjectOutputStream oos;
+    //The shared channel to server, null if the separate port is used
+    private ServerChannel channel;
 
-    //Connection to the server, used to read objects from
-    private InputStream in;
-    private ObjectInputStream ois;
+    //The request waiting for a reply on the shared channel
+    private ChannelRequest currentRequest = null;
 
     //Reference to LogHandler object
     private LogHandler lgHandler;
 
-    //Server name in the network
-    private String serverName;
-
-    //Client name in the network
-    private String clientName;
-
     //The port number the server listen for incoming requests
     private int port;
 
-    //The key to server certificate
-    private String pubKey;
-
-    //Path to directory where certificates are stored
-    private String certDir;
-
     //Variable used by GUI to signal the client to terminate this connection
     private boolean terminateStatus = false;
 
@@ -73,8 +51,8 @@ public class AmbulanceClientPatient implements Runnable {
     private Thread thread;
 
     /**
-     * Constructor used to create the patient information packet,
-     * and generate the random secure number for secure communication
+     * Constructor used to create the patient information packet and
+     * start the background thread
      * @param lgHandler Reference to LogHandler object
      * @param personNumber The patient's person number
      * @param aip Refernece to the ambulance client GUI
@@ -87,79 +65,26 @@ public class AmbulanceClientPatient implements Runnable {
         this.rip = rip;
 
         RegisterKey rk = new RegisterKey();
-        clientName = rk.getClientName();
-        serverName = rk.getServerName();
         port = rk.getAmbulancePatientPort();
-        pubKey = rk.getPubKey();
-        certDir = rk.getCertDirectory();
-
-        secureRandom = new SecureRandom();
-        secureRandom.nextInt();
+        channelFactory = SecureChannelFactory.getInstance();
+        channel = ServerChannel.getInstance(lgHandler);
 
         api = new AmbulancePatientInformation(personNumber);
         thread = new Thread(this);
         thread.start();
     }
 
-    /**
-     * Method used to set up the server key store
-     */
-    private void setupServerKeystore() throws GeneralSecurityException, 
-    IOException {
-
-        serverKeyStore = KeyStore.getInstance("JKS");
-        serverKeyStore.load(new FileInputStream(certDir + "server.public"), 
-                pubKey.toCharArray());
-    }
-
-    /**
-     * Method used to set up the ambulance client key store
-     */ 
-    private void setupClientKeyStore() throws GeneralSecurityException, 
-    IOException {
-
-        clientKeyStore = KeyStore.getInstance("JKS");
-        clientKeyStore.load(
-                new FileInputStream(certDir + clientName + ".private"),
-                clientName.toCharArray());
-    }
-
-    /**
-     * Method used to initialize the SSL parameters
-     */ 
-    private void setupSSLContext() throws GeneralSecurityException, 
-    IOException {
-
-        TrustManagerFactory tmf = 
-            TrustManagerFactory.getInstance("SunX509");
-        tmf.init(serverKeyStore);
-
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
-        kmf.init(clientKeyStore, clientName.toCharArray());
-
-        sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(),
-                secureRandom);
-    }
-
     /**
      * Method used to terminate the background thread. This method 
      * is used by this object and the AmbulanceInformationPane.
      */ 
     public void terminate() {
         terminateStatus = true;
+        if (currentRequest != null)
+            currentRequest.cancel();
         try {
-            if (socket != null)
-                if (!socket.isClosed())
-                    socket.close();
-            if (out != null)
-                out.close();
-            if (oos != null)
-                oos.close();
-            if (in != null)
-                in.close();
-            if (ois != null)
-                ois.close();
+            if (connection != null)
+                connection.close();
         } catch (IOException ie) {
             Log log = new Log(ie.getMessage(),
                     "AmbulanceClientPatient/terminate",
@@ -186,6 +111,50 @@ public class AmbulanceClientPatient implements Runnable {
         thread.sleep(sec*1000);
     }
 
+    /**
+     * Method used to run the request over the shared channel to server
+     */
+    private void runOverChannel() {
+
+        rip.setMessage("Skickar förfråga till servern");
+
+        try {
+            currentRequest = channel.send(ChannelMessage.PATIENT, api, null);
+            if (terminateStatus)
+                currentRequest.cancel();
+
+            rip.setMessage("Väntar på svar från servern");
+            api = (AmbulancePatientInformation)
+                currentRequest.waitForReply(REPLY_TIMEOUT);
+        } catch (IOException ie) {
+            currentRequest = null;
+            if (terminateStatus)
+                return;
+
+            Log log = new Log(ie.getMessage(),
+                    "AmbulanceClientPatient/runOverChannel",
+                    "Failed to read the packet");
+            lgHandler.addLog(log);
+
+            rip.setMessage("Fel vid mottagning av data");
+
+            terminate();
+            return;
+        }
+        currentRequest = null;
+
+        //Check to see if server failed to fetch the information
+        if (api.informationFailed())
+            rip.setMessage("Fel hos servern: " + api.getMessage());
+        else
+            rip.setMessage(api.getMessage());
+
+        //Pass the reference to the AmbulanceInformationPane
+        rip.setPatientInformation(api);
+
+        terminate();
+    }
+
     /**
      * Method used to run the background thread. This method handle the
      * connect, send, read procedures
@@ -194,10 +163,13 @@ public class AmbulanceClientPatient implements Runnable {
 
         Log log;
 
+        if (channel != null) {
+            runOverChannel();
+            return;
+        }
+
         try {
-            setupServerKeystore();
-            setupClientKeyStore();
-            setupSSLContext();
+            channelFactory.getSocketFactory();
         } catch (GeneralSecurityException gse) {
             log = new Log(gse.getMessage(), 
                     "AmbulanceClientPatient/run",
@@ -218,27 +190,27 @@ public class AmbulanceClientPatient implements Runnable {
             return;
         }
 
-        SSLSocketFactory sf = sslContext.getSocketFactory();
-
         rip.setMessage("Ansluter till servern");
 
         //Try to connect to server
         while(!terminateStatus) {
 
-            socket = null;
-            out = null;
-            oos = null;
-            in = null;
-            ois = null;
+            connection = null;
 
             try {
-                socket = (SSLSocket)sf.createSocket(serverName, port);
-                out = socket.getOutputStream();
-                oos = new ObjectOutputStream(out);
-                in = socket.getInputStream();
-                ois = new ObjectInputStream(in);
+                connection = channelFactory.connect(port);
                 break;
-            } catch(IOException ie) {
+            } catch (GeneralSecurityException gse) {
+                log = new Log(gse.getMessage(),
+                        "AmbulanceClientPatient/run",
+                        "Security problem");
+                lgHandler.addLog(log);
+
+                rip.setMessage("Certifikaten är ej giltiga");
+
+                terminate();
+                return;
+            } catch (IOException ie) {
                 log = new Log(ie.getMessage(),
                         "AmbulanceClientPatient/run",
                         "Failed to create socket/streams");
@@ -269,8 +241,7 @@ public class AmbulanceClientPatient implements Runnable {
         // Try to send the packet to the server
         while(!terminateStatus) {
             try {
-                oos.writeObject(api);
-                oos.flush();
+                connection.writeObject(api);
                 break;
             } catch(IOException ie) {
                 log = new Log(ie.getMessage(), 
@@ -297,7 +268,7 @@ public class AmbulanceClientPatient implements Runnable {
             try {
                 rip.setMessage("Väntar på svar från servern");
                 //read the update packet from the stream
-                api = (AmbulancePatientInformation)ois.readObject();
+                api = (AmbulancePatientInformation)connection.readObject();
 
                 //Check to see if server failed to fetch updates
                 if (api.informationFailed()) {
@@ -1,8 +1,6 @@
 import java.io.*;
 import java.security.*;
 import java.util.*;
-import javax.net.*;
-import javax.net.ssl.*;
 import java.sql.*;
 import java.util.prefs.*;
 
@@ -20,50 +18,45 @@ import java.util.prefs.*;
  */
 public class AmbulanceClientUpdate implements Runnable {
 
-    //KeyStore containing client certificate
-    private KeyStore clientKeyStore;
+    //Time in ms to wait for a reply on the shared channel
+    private final long REPLY_TIMEOUT = 5 * 60 * 1000;
 
-    //KeyStore containing server certificate
-    private KeyStore serverKeyStore;
+    //Creates the secure connections to the server
+    private SecureChannelFactory channelFactory;
 
-    //Used to generate a SocketFactory
-    private SSLContext sslContext;
+    //Time in ms between two checks for a synchronization in progress
+    private final long LOCK_CHECK = 1000;
 
-    //A source of secure random numbers
-    private SecureRandom secureRandom;
+    //Set while a synchronization is running in this process
+    private static boolean syncRunning = false;
 
-    //Reference to ambulance GUI.
-    private SynchronizeDialog sd;
+    //Lock for syncRunning
+    private static Object syncLock = new Object();
 
-    //Socket to server
-    private SSLSocket socket;
+    //Object informed about the progress, normally the ambulance GUI
+    private SyncResultInterface sd;
 
-    //Connection to the server, used to write objects to.
-    private ObjectOutputStream oos;
-    private OutputStream out;
+    //Set if the connection is tried again until the user cancels
+    private boolean retry;
 
-    //Connection to the server, used to read objects from
-    private ObjectInputStream ois;
-    private InputStream in;
+    //Set when the synchronization has completed
+    private boolean completed = false;
 
-    //Reference to LogHandler object
-    private LogHandler lgHandler;
+    //Connection to the server, used to write and read objects
+    private ServerConnection connection;
+
+    //The shared channel to server, null if the separate port is used
+    private ServerChannel channel;
 
-    //Server name in the network
-    private String serverName;
+    //The request waiting for a reply on the shared channel
+    private ChannelRequest currentRequest = null;
 
-    //Ambulance client name in the network
-    private String clientName;
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
 
     //The port number the server listens to
     private int port;
 
-    //The key to server certificate
-    private String pubKey;
-
-    //Path to directory where certificates are stored
-    private String certDir;
-
     //Variable used by GUI to signal the client to terminate this connection
     private boolean terminateStatus = false;
 
@@ -73,100 +66,64 @@ public class AmbulanceClientUpdate implements Runnable {
     //The update packet that will be send to the server
     private UpdatePacket updatePacket;
 
+    //The number of updates in each page on the update port
+    private int pageSize;
+
     //Reference to this thread
     private Thread thread;
 
     /**
-     * Constructor used to initialize the lokal variables,
-     * and generate the random secure number for secure communication
+     * Constructor used to initialize the lokal variables and start
+     * the background thread
      * @param lgHandler Reference to LogHandler object
      * @param sd Refernece to the ambulance client GUI
      * @param dbcon Refernece to the database
      */
-    public AmbulanceClientUpdate(LogHandler lgHandler, SynchronizeDialog sd, 
+    public AmbulanceClientUpdate(LogHandler lgHandler, SyncResultInterface sd,
             DB2Connect dbcon) throws SQLException, NullPointerException, 
     IllegalStateException, BackingStoreException {
+        this(lgHandler, sd, dbcon, true);
+    }
+
+    /**
+     * Constructor used to initialize the lokal variables and start
+     * the background thread
+     * @param lgHandler Reference to LogHandler object
+     * @param sd Object informed about the progress
+     * @param dbcon Refernece to the database
+     * @param retry true if the connection is tried again until the user
+     * cancels, false to give up at the first failure
+     */
+    public AmbulanceClientUpdate(LogHandler lgHandler, SyncResultInterface sd,
+            DB2Connect dbcon, boolean retry) throws SQLException,
+    NullPointerException, IllegalStateException, BackingStoreException {
 
         this.lgHandler = lgHandler;
         this.sd = sd;
         this.dbcon = dbcon;
+        this.retry = retry;
 
         RegisterKey rk = new RegisterKey();
-        clientName = rk.getClientName();
-        serverName = rk.getServerName();
         port = rk.getAmbulanceUpdatePort();
-        pubKey = rk.getPubKey();
-        certDir = rk.getCertDirectory();
-
-        updatePacket = new UpdatePacket(dbcon);
-
-        secureRandom = new SecureRandom();
-        secureRandom.nextInt();
+        pageSize = rk.getSyncPageSize();
+        channelFactory = SecureChannelFactory.getInstance();
+        channel = ServerChannel.getInstance(lgHandler);
 
         thread = new Thread(this);
         thread.start();
     }
 
-    /**
-     * Method used to set up the server key store, extracting 
-     * the server public key
-     */
-    private void setupServerKeystore() throws GeneralSecurityException, 
-    IOException {
-
-        serverKeyStore = KeyStore.getInstance("JKS");
-        serverKeyStore.load(new FileInputStream(certDir + "server.public"), 
-                pubKey.toCharArray());
-    }
-
-    /**
-     * Method used to set up the ambulance client key store
-     */ 
-    private void setupClientKeyStore() throws GeneralSecurityException, 
-    IOException {
-
-        clientKeyStore = KeyStore.getInstance("JKS");
-        clientKeyStore.load(
-                new FileInputStream(certDir + clientName + ".private"),
-                clientName.toCharArray());
-    }
-
-    /**
-     * Method used to initialize the SSL parameters
-     */ 
-    private void setupSSLContext() throws GeneralSecurityException, 
-    IOException {
-
-        TrustManagerFactory tmf = 
-            TrustManagerFactory.getInstance("SunX509");
-        tmf.init(serverKeyStore);
-
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
-        kmf.init(clientKeyStore, clientName.toCharArray());
-
-        sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(),
-                secureRandom);
-    }
-
     /**
      * Method used to terminate the background thread. This method 
      * is used by AmbulanceClientUpdate and the AmbulanceRecord.
      */ 
     public void terminate() {
         terminateStatus = true;
+        if (currentRequest != null)
+            currentRequest.cancel();
         try {
-            if (socket != null)
-                if (!socket.isClosed())
-                    socket.close();
-            if (out != null)
-                out.close();
-            if (oos != null)
-                oos.close();
-            if (in != null)
-                in.close();
-            if (ois != null)
-                ois.close();
+            if (connection != null)
+                connection.close();
         } catch (IOException ie) {
             Log log = new Log(ie.getMessage(),
                     "AmbulanceClientUpdate/terminate",
@@ -185,6 +142,21 @@ public class AmbulanceClientUpdate implements Runnable {
         return terminateStatus;
     }
 
+    /**
+     * Method used to indicate if the synchronization has completed
+     * @return true if the updates are written and the server is informed
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Method used to wait until the background thread has finished
+     */
+    public void waitFor() throws InterruptedException {
+        thread.join();
+    }
+
     /**
      * Method used to sleep this thread
      * @param sec The amount of time this thread will sleep in seconds
@@ -194,17 +166,159 @@ public class AmbulanceClientUpdate implements Runnable {
     }
 
     /**
-     * Method used to run the background thread. This method handle the
-     * connect, send, read procedures
-     */ 
+     * Method used to send a request on the shared channel and wait for
+     * the reply. The wait is ended if the user cancels.
+     * @param type The message type, see ChannelMessage
+     * @param payload The packet to send
+     * @return The packet received as reply
+     */
+    private Object request(int type, Object payload) throws IOException {
+        currentRequest = channel.send(type, payload, null);
+        if (terminateStatus)
+            currentRequest.cancel();
+        try {
+            return currentRequest.waitForReply(REPLY_TIMEOUT);
+        } finally {
+            currentRequest = null;
+        }
+    }
+
+    /**
+     * Method used to run the synchronization over the shared channel
+     * to server
+     */
+    private void runOverChannel() {
+
+        Log log;
+
+        sd.setMessage("Skickar förfråga till servern");
+
+        try {
+            updatePacket = (UpdatePacket) request(ChannelMessage.UPDATE,
+                    updatePacket);
+        } catch (IOException ie) {
+            if (terminateStatus)
+                return;
+
+            log = new Log(ie.getMessage(),
+                    "AmbulanceClientUpdate/runOverChannel",
+                    "Failed to read the packet");
+            lgHandler.addLog(log);
+
+            sd.setMessage("Fel vid mottagning av data");
+
+            terminate();
+            return;
+        }
+
+        //Check to see if server failed to fetch updates
+        if (updatePacket.doesUpdateFailed()) {
+            sd.setMessage("Fel hos servern: " + updatePacket.getMessage());
+            terminate();
+            return;
+        }
+
+        sd.setMessage("Skriver uppdateringar till den lokala databasen");
+
+        if (!updatePacket.loadSnapshot(dbcon, lgHandler)) {
+            sd.setMessage(updatePacket.getMessage());
+            terminate();
+            return;
+        }
+
+        //write the updates to the client database
+        updatePacket.writeUpdates(dbcon, lgHandler);
+
+        /*Inform the client about the update status*/
+        sd.setMessage(updatePacket.getMessage());
+
+        //Send the update version to server
+        try {
+            request(ChannelMessage.UPDATE_VERSION,
+                    updatePacket.getClientUpdateTime());
+
+            completed = true;
+            sd.setMessage("Synkroniseringen utförd");
+            sd.syncComplete();
+        } catch (IOException ie) {
+            log = new Log(ie.getMessage(),
+                    "AmbulanceClientUpdate/runOverChannel",
+                    "Failed to send the version");
+            lgHandler.addLog(log);
+
+            sd.setMessage("Fel vid sändning av svar till servern");
+        }
+
+        terminate();
+    }
+
+    /**
+     * Method used to run the background thread. Only one synchronization
+     * runs at a time, a second one waits for the first to finish.
+     */
     public void run() {
 
+        synchronized (syncLock) {
+            if (syncRunning)
+                sd.setMessage("Väntar på en pågående synkronisering");
+            while (syncRunning && !terminateStatus) {
+                try {
+                    syncLock.wait(LOCK_CHECK);
+                } catch (InterruptedException ie) {
+                    lgHandler.addLog(new Log(ie.getMessage(),
+                                "AmbulanceClientUpdate/run",
+                                "InterruptedException"));
+                    terminate();
+                }
+            }
+            if (terminateStatus)
+                return;
+            syncRunning = true;
+        }
+
+        try {
+            synchronize();
+        } finally {
+            dbcon.releaseConnection();
+            synchronized (syncLock) {
+                syncRunning = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Method used to run the synchronization. This method handle the
+     * connect, send, read procedures
+     */
+    private void synchronize() {
+
         Log log;
 
+        /*The packet is created when no other synchronization runs, so
+          it has the version the other one has written*/
         try {
-            setupServerKeystore();
-            setupClientKeyStore();
-            setupSSLContext();
+            updatePacket = new UpdatePacket(dbcon);
+            updatePacket.setAcceptSnapshot(true);
+        } catch (SQLException sql) {
+            log = new Log(sql.getMessage(),
+                    "AmbulanceClientUpdate/synchronize",
+                    "Failed to read the update version");
+            lgHandler.addLog(log);
+
+            sd.setMessage("Kunde inte läsa den lokala databasen");
+
+            terminate();
+            return;
+        }
+
+        if (channel != null) {
+            runOverChannel();
+            return;
+        }
+
+        try {
+            channelFactory.getSocketFactory();
         } catch (GeneralSecurityException gse) {
             log = new Log(gse.getMessage(), 
                     "AmbulanceClientUpdate/run",
@@ -225,26 +339,26 @@ public class AmbulanceClientUpdate implements Runnable {
             return;
         }
 
-        SSLSocketFactory sf = sslContext.getSocketFactory();
-
         sd.setMessage("Ansluter till servern");
 
         //Try to connect to server
         while (!terminateStatus) {
 
-            socket = null;
-            out = null;
-            oos = null;
-            in = null;
-            ois = null;
+            connection = null;
 
             try {
-                socket = (SSLSocket)sf.createSocket(serverName, port);
-                out = socket.getOutputStream();
-                oos = new ObjectOutputStream(out);
-                in = socket.getInputStream();
-                ois = new ObjectInputStream(in);
+                connection = channelFactory.connect(port);
                 break;
+            } catch (GeneralSecurityException gse) {
+                log = new Log(gse.getMessage(),
+                        "AmbulanceClientUpdate/run",
+                        "Security problem");
+                lgHandler.addLog(log);
+
+                sd.setMessage("Certifikaten är ej giltiga");
+
+                terminate();
+                return;
             } catch (IOException ie) {
                 log = new Log(ie.getMessage(),
                         "AmbulanceClientUpdate/run",
@@ -253,6 +367,10 @@ public class AmbulanceClientUpdate implements Runnable {
 
                 sd.setMessage("Får ingen kontakt med servern");
 
+                if (!retry) {
+                    terminate();
+                    return;
+                }
                 try {
                     sleep(10);
                 } catch (InterruptedException IE) {
@@ -273,11 +391,13 @@ public class AmbulanceClientUpdate implements Runnable {
         
         sd.setMessage("Skickar förfråga till servern");
 
+        //The updates follow the reply in pages on the update port
+        updatePacket.setPageSize(pageSize);
+
         // Try to send the packet to the server
         while(!terminateStatus) {
             try {
-                oos.writeObject(updatePacket);
-                oos.flush();
+                connection.writeObject(updatePacket);
                 break;
             } catch(IOException ie) {
                 log = new Log(ie.getMessage(), 
@@ -286,6 +406,10 @@ public class AmbulanceClientUpdate implements Runnable {
                 lgHandler.addLog(log);
 
                 sd.setMessage("Kunde inte skicka förfrågan till servern");
+                if (!retry) {
+                    terminate();
+                    return;
+                }
                 try {
                     sleep(10);
                 } catch (InterruptedException IE) {
@@ -308,7 +432,7 @@ public class AmbulanceClientUpdate implements Runnable {
             try {
                 sd.setMessage("Väntar på svar från servern");
                 //read the update packet from the stream
-                updatePacket = (UpdatePacket)ois.readObject();
+                updatePacket = (UpdatePacket)connection.readObject();
 
                 //Check to see if server failed to fetch updates
                 if (updatePacket.doesUpdateFailed()) {
@@ -343,8 +467,40 @@ public class AmbulanceClientUpdate implements Runnable {
 
             sd.setMessage("Skriver uppdateringar till den lokala databasen");
 
+            if (!updatePacket.loadSnapshot(dbcon, lgHandler)) {
+                sd.setMessage(updatePacket.getMessage());
+                terminate();
+                return;
+            }
+
             //write the updates to the client database
-            updatePacket.writeUpdates(dbcon, lgHandler);
+            if (updatePacket.isPaged()) {
+                try {
+                    updatePacket.readPages(connection, dbcon, lgHandler);
+                } catch (IOException ie) {
+                    log = new Log(ie.getMessage(),
+                            "AmbulanceClientUpdate/run",
+                            "Failed to read the update pages");
+                    lgHandler.addLog(log);
+
+                    sd.setMessage("Fel vid mottagning av data");
+
+                    terminate();
+                    return;
+                } catch (ClassNotFoundException cnfe) {
+                    log = new Log(cnfe.getMessage(),
+                            "AmbulanceClientUpdate/run",
+                            "Packet versions are not the same" +
+                            "at server or client");
+                    lgHandler.addLog(log);
+
+                    sd.setMessage("Paket versionen i server och " +
+                            "klienten är olika");
+                    terminate();
+                    return;
+                }
+            } else
+                updatePacket.writeUpdates(dbcon, lgHandler);
 
             /*Inform the client about the update status*/
             sd.setMessage(updatePacket.getMessage());
@@ -352,10 +508,10 @@ public class AmbulanceClientUpdate implements Runnable {
         //Send the update version to server
         while (!terminateStatus) {
             try {
-                oos.writeObject(updatePacket.getClientUpdateTime());
-                oos.flush();
+                connection.writeObject(updatePacket.getClientUpdateTime());
 
                 //Inform the client that the update went well
+                completed = true;
                 sd.setMessage("Synkroniseringen utförd");
                 sd.syncComplete();
 
@@ -369,6 +525,10 @@ public class AmbulanceClientUpdate implements Runnable {
                 /*Inform the client gui that the version can not be send 
                   to the server*/
                 sd.setMessage("Fel vid sändning av svar till servern");
+                if (!retry) {
+                    terminate();
+                    return;
+                }
                 try {
                     sleep(10);
                 } catch (InterruptedException IE) {
@@ -12,6 +12,9 @@ import java.lang.*;
  */ 
 public class AmbulanceExaminationPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = -2057465507724102044L;
+
     private Vector examinations;
     private Vector examinationDescriptions;
 
@@ -24,37 +27,33 @@ public class AmbulanceExaminationPacket implements Serializable {
      * Constructor used by ambulance client to create this packet 
      * @param recordId is the record id for the patient record
      *                 will be send to the server
-     * @param db2 is the database connection to the ambulance client database
+     * @param snapshot is the rows read from the ambulance client database
      */ 
-    public AmbulanceExaminationPacket(int recordId, DB2Connect db2) 
+    public AmbulanceExaminationPacket(int recordId, RecordSnapshot snapshot) 
         throws SQLException {
 
-            String query;
-            ResultSet resultSet;
+            Vector rows;
+            SnapshotRow resultSet;
             ExaminationDescriptionPacket edp;
             
             examinations = new Vector();
             examinationDescriptions = new Vector();
 
-            //Fetch the attributes that are examined for this record id 
-            query = "SELECT EXAMINATION_ATTRIBUTE FROM EPR.EXAMINATION " +
-                "WHERE RECORD_ID = " + recordId;
-
-            resultSet = db2.dbQuery(query);
+            //The attributes that are examined for this record id 
+            rows = snapshot.getRows("EXAMINATION", recordId);
 
             //Save the attribute ids in examinations vector
-            while (resultSet.next()) {
+            for (int i = 0; i < rows.size(); i++) {
+                resultSet = (SnapshotRow) rows.elementAt(i);
                 examinations.add(new Integer
                         (resultSet.getInt("EXAMINATION_ATTRIBUTE")));
             }
 
-            query = "SELECT * FROM EPR.EXAMINATION_DESCRIPTION " +
-                "WHERE RECORD_ID = " + recordId;
-
-            resultSet = db2.dbQuery(query);
+            rows = snapshot.getRows("EXAMINATION_DESCRIPTION", recordId);
 
             //Save the examination type information
-            while (resultSet.next()) {
+            for (int i = 0; i < rows.size(); i++) {
+                resultSet = (SnapshotRow) rows.elementAt(i);
                 edp = new ExaminationDescriptionPacket(
                         resultSet.getInt("EXAMINATION_TYPE_ID"),
                         resultSet.getString("DESCRIPTION_FIELD"),
@@ -72,33 +71,93 @@ public class AmbulanceExaminationPacket implements Serializable {
     public void writeExaminationPacket(DB2Connect db2, int recordId)
         throws SQLException {
 
-            String query;
-            Integer examinationAttribute;
             ExaminationDescriptionPacket edp;
+            PreparedStatement ps;
 
             //If there are examinations, insert them to the server database
-            for (int i = 0; i < examinations.size(); i++) {
-                examinationAttribute = (Integer) examinations.elementAt(i);
-
-                query = "INSERT INTO EPR.EXAMINATION (RECORD_ID, " +
-                    "EXAMINATION_ATTRIBUTE) VALUES (" + recordId +
-                    ", " + examinationAttribute.intValue() + ")";
-                db2.dbQueryUpdate (query);
+            if (examinations.size() > 0) {
+                ps = db2.prepareStatement("INSERT INTO EPR.EXAMINATION " +
+                    "(RECORD_ID, EXAMINATION_ATTRIBUTE) VALUES (?, ?)");
+                try {
+                    for (int i = 0; i < examinations.size(); i++) {
+                        ps.setInt(1, recordId);
+                        ps.setInt(2, ((Integer)
+                                    examinations.elementAt(i)).intValue());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } finally {
+                    ps.close();
+                }
             }
 
             //If there are examination descriptions, insert them
-            for (int i = 0; i < examinationDescriptions.size(); i++) {
-                edp = (ExaminationDescriptionPacket) 
-                    examinationDescriptions.elementAt(i);
-
-                query = "INSERT INTO EPR.EXAMINATION_DESCRIPTION " +
-                    "(RECORD_ID, EXAMINATION_TYPE_ID, DESCRIPTION_FIELD, " 
-                    + "WITHOUT_REMARK) VALUES (" + recordId + ", " +
-                    edp.getExaminationTypeId() + ", '" + 
-                    edp.getDescriptionField() + "', " + 
-                    edp.getWithoutRemark() + ")";
-
-                db2.dbQueryUpdate (query);
+            if (examinationDescriptions.size() > 0) {
+                ps = db2.prepareStatement("INSERT INTO " +
+                    "EPR.EXAMINATION_DESCRIPTION (RECORD_ID, " +
+                    "EXAMINATION_TYPE_ID, DESCRIPTION_FIELD, " +
+                    "WITHOUT_REMARK) VALUES (?, ?, ?, ?)");
+                try {
+                    for (int i = 0; i < examinationDescriptions.size(); i++) {
+                        edp = (ExaminationDescriptionPacket) 
+                            examinationDescriptions.elementAt(i);
+
+                        ps.setInt(1, recordId);
+                        ps.setInt(2, edp.getExaminationTypeId());
+                        ps.setString(3,
+                                String.valueOf(edp.getDescriptionField()));
+                        ps.setInt(4, edp.getWithoutRemark());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } finally {
+                    ps.close();
+                }
             }
         }
+
+    /**
+     * Method used by the Record object to write this packet in the
+     * compact binary format
+     * @param out The stream the packet is written to
+     */
+    public void writeWire(WireOutput out) throws IOException {
+
+        ExaminationDescriptionPacket edp;
+
+        out.writeUnsigned(examinations.size());
+        for (int i = 0; i < examinations.size(); i++)
+            out.writeInt(((Integer) examinations.elementAt(i)).intValue());
+
+        out.writeUnsigned(examinationDescriptions.size());
+        for (int i = 0; i < examinationDescriptions.size(); i++) {
+            edp = (ExaminationDescriptionPacket)
+                examinationDescriptions.elementAt(i);
+            out.writeInt(edp.getExaminationTypeId());
+            out.writeString(edp.getDescriptionField());
+            out.writeInt(edp.getWithoutRemark());
+        }
+    }
+
+    /**
+     * Method used by the Record object to re-initialize this packet from
+     * the compact binary format
+     * @param in The stream the packet is read from
+     */
+    public void readWire(WireInput in) throws IOException {
+
+        int count = in.readLength();
+        examinations = new Vector(count);
+        for (int i = 0; i < count; i++)
+            examinations.add(new Integer(in.readInt()));
+
+        count = in.readLength();
+        examinationDescriptions = new Vector(count);
+        for (int i = 0; i < count; i++) {
+            int examinationTypeId = in.readInt();
+            String descriptionField = in.readString();
+            examinationDescriptions.add(new ExaminationDescriptionPacket(
+                        examinationTypeId, descriptionField, in.readInt()));
+        }
+    }
 }
@@ -10,6 +10,9 @@ import java.io.*;
  */ 
 public class AmbulanceMatasPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 3709381819464787535L;
+
     //MATAS parameters
     private String medicine;
     private String allergy;
@@ -26,17 +29,15 @@ public class AmbulanceMatasPacket implements Serializable {
     /**
      * Constructor used by ambulance client to read the MATAS information
      * @param recordId is the patient record id at the ambulance client
-     * @param db2 is the database connection to the ambulance client database
+     * @param snapshot is the rows read from the ambulance client database
      */
-    public AmbulanceMatasPacket(int recordId, DB2Connect db2) 
+    public AmbulanceMatasPacket(int recordId, RecordSnapshot snapshot) 
         throws SQLException {
 
-            String query = "SELECT * FROM EPR.MATAS WHERE RECORD_ID = " +
-                recordId;
-            ResultSet resultSet = db2.dbQuery(query);
+            SnapshotRow resultSet = snapshot.getRow("MATAS", recordId);
 
             //IF there are information store it
-            if (resultSet.next()) {
+            if (resultSet != null) {
                 medicine = resultSet.getString("MEDICINE");
                 allergy = resultSet.getString("ALLERGY");
                 anamnesis = resultSet.getString("ANAMNESIS");
@@ -54,14 +55,50 @@ public class AmbulanceMatasPacket implements Serializable {
         public void writeMatasPacket(DB2Connect db2, int recordId) 
             throws  SQLException {
 
-                String query;
-
-                query = "INSERT INTO EPR.MATAS " + 
-                    "(RECORD_ID, MEDICINE, ALLERGY, " +
-                    "ANAMNESIS, DIAGNOSIS, LAST_MEAL) VALUES ( " + 
-                    recordId + ", '" + medicine + "','" + allergy + "','" + 
-                    anamnesis + "','" +  diagnosis + "', '" + lastMeal + "')";
+                PreparedStatement ps = db2.prepareStatement(
+                    "INSERT INTO EPR.MATAS (RECORD_ID, MEDICINE, ALLERGY, " +
+                    "ANAMNESIS, DIAGNOSIS, LAST_MEAL) VALUES " +
+                    "(?, ?, ?, ?, ?, ?)");
 
-                db2.dbQueryUpdate (query);
+                try {
+                    ps.setInt(1, recordId);
+                    ps.setString(2, String.valueOf(medicine));
+                    ps.setString(3, String.valueOf(allergy));
+                    ps.setString(4, String.valueOf(anamnesis));
+                    ps.setString(5, String.valueOf(diagnosis));
+                    ps.setString(6, String.valueOf(lastMeal));
+                    ps.executeUpdate();
+                } finally {
+                    ps.close();
+                }
             }
+        
+
+        /**
+         * Method used by the Record object to write this packet in the
+         * compact binary format
+         * @param out The stream the packet is written to
+         */
+        public void writeWire(WireOutput out) throws IOException {
+
+            out.writeString(medicine);
+            out.writeString(allergy);
+            out.writeString(anamnesis);
+            out.writeString(diagnosis);
+            out.writeString(lastMeal);
+        }
+
+        /**
+         * Method used by the Record object to re-initialize this packet
+         * from the compact binary format
+         * @param in The stream the packet is read from
+         */
+        public void readWire(WireInput in) throws IOException {
+
+            medicine = in.readString();
+            allergy = in.readString();
+            anamnesis = in.readString();
+            diagnosis = in.readString();
+            lastMeal = in.readString();
         }
+}
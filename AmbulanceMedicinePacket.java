@@ -11,6 +11,9 @@ import java.util.Vector;
  */ 
 public class AmbulanceMedicinePacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = -7090485438878991999L;
+
     private Vector medicines;
 
     /**
@@ -23,9 +26,9 @@ public class AmbulanceMedicinePacket implements Serializable {
      * AmbulanceMedicinePacket
      * @param recordId is the record id for the patient record that 
      *                 will be send to the server
-     * @param db2 is the database connection to the ambulance client database
+     * @param snapshot is the rows read from the ambulance client database
      */
-    public AmbulanceMedicinePacket(int recordId, DB2Connect db2) 
+    public AmbulanceMedicinePacket(int recordId, RecordSnapshot snapshot) 
         throws SQLException {
 
             int givenMedicationId = 0;
@@ -33,22 +36,21 @@ public class AmbulanceMedicinePacket implements Serializable {
             int dozage;
             Time givenTime;
             int givenById;
-            String query;
             String userName;
-            ResultSet medicineResult;
-            ResultSet effectResult;
-            ResultSet userResult;
+            SnapshotRow medicineResult;
+            SnapshotRow effectResult;
+            Vector medicineRows;
+            Vector effectRows;
+            Vector userRows;
             Vector effects;
 
             medicines = new Vector();
 
-            //Fetch the GIVEN_MEDICATIONS 
-            query = "SELECT * FROM EPR.GIVEN_MEDICATIONS " +
-                "WHERE RECORD_ID = " + recordId;
-
-            medicineResult = db2.dbQuery(query);
+            //The GIVEN_MEDICATIONS 
+            medicineRows = snapshot.getRows("GIVEN_MEDICATIONS", recordId);
 
-            while (medicineResult.next()) {
+            for (int i = 0; i < medicineRows.size(); i++) {
+                medicineResult = (SnapshotRow) medicineRows.elementAt(i);
 
                 /*givenMedicationId is used to get the related effects
                   to a medicine*/
@@ -62,26 +64,24 @@ public class AmbulanceMedicinePacket implements Serializable {
                 //A user not registered in the system
                 if (givenById == 0) {
                     givenById = 4; //TODO 
-                    userResult = db2.dbQuery(
-                            "SELECT NAME FROM EPR.MEDICATION_GIVEN_BY " +
-                           "WHERE GIVEN_MEDICATION_ID = " + 
-                           givenMedicationId);
-                    if (userResult.next())
-                        userName = userResult.getString(1); //Fetch the name
+                    userRows = snapshot.getRows("MEDICATION_GIVEN_BY",
+                            givenMedicationId);
+                    if (userRows.size() > 0)
+                        userName = ((SnapshotRow) userRows.elementAt(0))
+                            .getString("NAME"); //Fetch the name
                     else 
                         userName = "Annan";
                 } else 
                     userName = null;
                 
-                //Fetch the MEDICINE_EFFECTS
-                query = "SELECT * FROM EPR.MEDICINE_EFFECTS WHERE " +
-                     "GIVEN_MEDICINE_ID = " + givenMedicationId;
-
-                effectResult = db2.dbQuery(query);
+                //The MEDICINE_EFFECTS
+                effectRows = snapshot.getRows("MEDICINE_EFFECTS",
+                        givenMedicationId);
 
                 effects = new Vector();
 
-                while (effectResult.next()) {
+                for (int j = 0; j < effectRows.size(); j++) {
+                    effectResult = (SnapshotRow) effectRows.elementAt(j);
                     EffectPacket ep = 
                         new EffectPacket(effectResult.getTime("EFFECT_TIME"),
                                 effectResult.getString("EFFECT"));
@@ -105,59 +105,146 @@ public class AmbulanceMedicinePacket implements Serializable {
     public void writeMedicinePacket(DB2Connect db2, int recordId) 
         throws SQLException {
 
-            String query;
+            PreparedStatement insert = null;
+            PreparedStatement select = null;
+            PreparedStatement effectInsert = null;
+            PreparedStatement userInsert = null;
 
             //If no medicine is given don't do anything
             if (medicines.size() == 0)
                 return;
 
-            //Otherwise write the given medications to the server database
-            for (int i = 0; i < medicines.size(); i++) {
-                MedicineEffectPacket mep  = 
-                    (MedicineEffectPacket) medicines.elementAt(i);
+            try {
+                insert = db2.prepareStatement("INSERT INTO " +
+                    "EPR.GIVEN_MEDICATIONS (MEDICINE_ID, DOZAGE, RECORD_ID, " +
+                    "GIVEN_TIME, GIVEN_BY) VALUES (?, ?, ?, ?, ?)");
+                select = db2.prepareStatement("SELECT GIVEN_MEDICATION_ID " +
+                    "FROM EPR.GIVEN_MEDICATIONS WHERE RECORD_ID = ? AND " +
+                    "MEDICINE_ID = ? AND GIVEN_TIME = ?");
+                effectInsert = db2.prepareStatement("INSERT INTO " +
+                    "EPR.MEDICINE_EFFECTS (GIVEN_MEDICINE_ID, EFFECT_TIME, " +
+                    "EFFECT) VALUES (?, ?, ?)");
+                userInsert = db2.prepareStatement("INSERT INTO " +
+                    "EPR.MEDICATION_GIVEN_BY (NAME, GIVEN_MEDICATION_ID) " +
+                    "VALUES (?, ?)");
+
+                //Write the given medications to the server database
+                for (int i = 0; i < medicines.size(); i++) {
+                    MedicineEffectPacket mep  = 
+                        (MedicineEffectPacket) medicines.elementAt(i);
+
+                    //Write the given medication 
+                    insert.setInt(1, mep.getMedicineId());
+                    insert.setInt(2, mep.getDozage());
+                    insert.setInt(3, recordId);
+                    insert.setTime(4, mep.getGivenTime());
+                    insert.setInt(5, mep.getTheGiverId());
+                    insert.executeUpdate();
+
+                    //Fetch the generated id
+                    select.setInt(1, recordId);
+                    select.setInt(2, mep.getMedicineId());
+                    select.setTime(3, mep.getGivenTime());
+
+                    ResultSet resultSet = select.executeQuery();
+                    resultSet.next();
+                    int givenMedicationId =
+                        resultSet.getInt("GIVEN_MEDICATION_ID");
+                    resultSet.close();
+
+                    Vector effects = mep.getEffects();
+
+                    //The related effects to this medicine
+                    for (int j = 0; j < effects.size(); j++) {
+
+                        EffectPacket ep = (EffectPacket) effects.elementAt(j);
+
+                        effectInsert.setInt(1, givenMedicationId);
+                        effectInsert.setTime(2, ep.getEffectTime());
+                        effectInsert.setString(3,
+                                String.valueOf(ep.getEffectDescription()));
+                        effectInsert.addBatch();
+                    }
+
+                    //If the user is not registered in the system
+                    if (mep.getTheGiverId() == 4) { //TODO change 4 to 0
+                        userInsert.setString(1,
+                                String.valueOf(mep.getUserName()));
+                        userInsert.setInt(2, givenMedicationId);
+                        userInsert.addBatch();
+                    }
+                }
+
+                //Insert the effects and users of all medicines
+                effectInsert.executeBatch();
+                userInsert.executeBatch();
+            } finally {
+                if (insert != null)
+                    insert.close();
+                if (select != null)
+                    select.close();
+                if (effectInsert != null)
+                    effectInsert.close();
+                if (userInsert != null)
+                    userInsert.close();
+            }
+        }
+
+    /**
+     * Method used by the Record object to write this packet in the
+     * compact binary format
+     * @param out The stream the packet is written to
+     */
+    public void writeWire(WireOutput out) throws IOException {
+
+        out.writeUnsigned(medicines.size());
 
-                //Write the given medication 
-                query = "INSERT INTO EPR.GIVEN_MEDICATIONS " +
-                    "(MEDICINE_ID, DOZAGE, RECORD_ID, GIVEN_TIME, GIVEN_BY) " +
-                    "VALUES (" + mep.getMedicineId() + ", " + mep.getDozage() +
-                    ", " + recordId + ", '" + mep.getGivenTime() + "', " +
-                    mep.getTheGiverId() + ")";
+        for (int i = 0; i < medicines.size(); i++) {
+            MedicineEffectPacket mep =
+                (MedicineEffectPacket) medicines.elementAt(i);
 
-                db2.dbQueryUpdate (query);
+            out.writeInt(mep.getMedicineId());
+            out.writeInt(mep.getDozage());
+            out.writeTime(mep.getGivenTime());
+            out.writeInt(mep.getTheGiverId());
+            out.writeString(mep.getUserName());
 
-                //Fetch the generated id
-                query = "SELECT GIVEN_MEDICATION_ID FROM " +
-                    "EPR.GIVEN_MEDICATIONS WHERE RECORD_ID = " +
-                    recordId + " AND MEDICINE_ID = " + mep.getMedicineId() + 
-                    " AND GIVEN_TIME = '" + mep.getGivenTime() + "'"; 
+            Vector effects = mep.getEffects();
+            out.writeUnsigned(effects.size());
 
-                ResultSet resultSet = db2.dbQuery(query);
-                resultSet.next();
+            for (int j = 0; j < effects.size(); j++) {
+                EffectPacket ep = (EffectPacket) effects.elementAt(j);
+                out.writeTime(ep.getEffectTime());
+                out.writeString(ep.getEffectDescription());
+            }
+        }
+    }
 
-                int givenMedicationId = resultSet.getInt("GIVEN_MEDICATION_ID");
-                Vector effects = mep.getEffects();
+    /**
+     * Method used by the Record object to re-initialize this packet from
+     * the compact binary format
+     * @param in The stream the packet is read from
+     */
+    public void readWire(WireInput in) throws IOException {
 
-                //Insert the related effects to this medicine
-                for (int j = 0; j < effects.size(); j++) {
+        int count = in.readLength();
+        medicines = new Vector(count);
 
-                    EffectPacket ep = (EffectPacket) effects.elementAt(j);
+        for (int i = 0; i < count; i++) {
+            int medicineId = in.readInt();
+            int dozage = in.readInt();
+            Time givenTime = in.readTime();
+            int givenById = in.readInt();
+            String userName = in.readString();
 
-                    query ="INSERT INTO EPR.MEDICINE_EFFECTS " +
-                        "(GIVEN_MEDICINE_ID, EFFECT_TIME, EFFECT) " 
-                        + "VALUES (" + givenMedicationId + ", '" + 
-                        ep.getEffectTime() + "', '" + 
-                        ep.getEffectDescription() + "')";
+            int effectCount = in.readLength();
+            Vector effects = new Vector(effectCount);
 
-                    db2.dbQueryUpdate (query);
-                }
+            for (int j = 0; j < effectCount; j++)
+                effects.add(new EffectPacket(in.readTime(), in.readString()));
 
-                //If the user is not registered in the system
-                if (mep.getTheGiverId() == 4) { //TODO change 4 to 0
-                    db2.dbQueryUpdate ("INSERT INTO EPR.MEDICATION_GIVEN_BY " +
-                            "(NAME, GIVEN_MEDICATION_ID) VALUES ( '" +
-                             mep.getUserName() + "', " + givenMedicationId +
-                            ")");
-                }
-            }
+            medicines.add(new MedicineEffectPacket(medicineId, dozage,
+                        givenTime, givenById, effects, userName));
         }
+    }
 }
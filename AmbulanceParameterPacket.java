@@ -12,6 +12,9 @@ import java.lang.*;
  */
 public class AmbulanceParameterPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = -3285385226323842330L;
+
     //Regular parameters
     private Vector parameters = null;
 
@@ -50,13 +53,13 @@ public class AmbulanceParameterPacket implements Serializable {
     /**
      * Constructor used by ambulance client to create this packet
      * @param recordId The patient record id at the client side
-     * @param db2 The client database connection
+     * @param snapshot The rows read from the client database
      */ 
-    public AmbulanceParameterPacket(int recordId, DB2Connect db2) 
+    public AmbulanceParameterPacket(int recordId, RecordSnapshot snapshot) 
         throws SQLException {
 
-            String query;
-            ResultSet resultSet;
+            Vector rows;
+            SnapshotRow resultSet;
 
             parameters = new Vector();
             bloodPressure = new Vector();
@@ -70,60 +73,45 @@ public class AmbulanceParameterPacket implements Serializable {
             EyePacket e;
             BodyPositionPacket bpp;
 
-            //Fetch observed paramters for this record id
-            query = "SELECT * FROM EPR.OBSERVATIONS_OF_PATIENT_PARAMETERS " +
-                "WHERE RECORD_ID = " + recordId;
-
-            resultSet = db2.dbQuery(query);
+            //Observed paramters for this record id
+            rows = snapshot.getRows("OBSERVATIONS_OF_PATIENT_PARAMETERS",
+                    recordId);
 
             //Store regular parameters in parameters Vector
-            while (resultSet.next()) {
+            for (int i = 0; i < rows.size(); i++) {
+                resultSet = (SnapshotRow) rows.elementAt(i);
                 p = new ParameterPacket(resultSet.getTime("OBSERVATION_TIME"),
                         resultSet.getInt("OBSERVATION_PARAMETER_ID"),
                         resultSet.getString("VALUE"));
                 parameters.add(p);
             }
 
-            //System.out.println("OBSERVATIONS_OF_PATIENT_PARAMETERS pass");
-
-            //Fetch fracture areas
-            query = "SELECT * FROM EPR.FRACTURE WHERE RECORD_ID = " +
-                recordId;
-
-            resultSet = db2.dbQuery(query);
+            //Fracture areas
+            resultSet = snapshot.getRow("FRACTURE", recordId);
 
             //Store areas in the fracture
-            if (resultSet.next()) {
+            if (resultSet != null) {
                 fracture = new byte[FRACTURE_AREAS];
                 for (int i = 0; i < FRACTURE_AREAS; i++)
                     fracture[i] = resultSet.getByte(i + 2);
             }
 
-            //System.out.println("FRACTURE pass");
-
-            //Fetch luxation areas
-            query = "SELECT * FROM EPR.LUXATION WHERE RECORD_ID = " +
-                recordId;
-
-            resultSet = db2.dbQuery(query);
+            //Luxation areas
+            resultSet = snapshot.getRow("LUXATION", recordId);
 
             //Store areas in the luxation
-            if (resultSet.next()) {
+            if (resultSet != null) {
                 luxation = new byte[LUXATION_AREAS];
                 for (int i = 0; i < LUXATION_AREAS; i++)
                     luxation[i] = resultSet.getByte(i +2);
             }
 
-            //System.out.println("LUXATION pass");
-
-            //Fetch blood pressure observations
-            query = "SELECT * FROM EPR.BLOOD_PRESSURE WHERE RECORD_ID = " +
-                recordId;
-
-            resultSet = db2.dbQuery(query);
+            //Blood pressure observations
+            rows = snapshot.getRows("BLOOD_PRESSURE", recordId);
 
             //Store blood pressure observations in bloodPressure
-            while (resultSet.next()) {
+            for (int i = 0; i < rows.size(); i++) {
+                resultSet = (SnapshotRow) rows.elementAt(i);
                 b = new BloodPressurePacket(
                         resultSet.getTime("OBSERVATION_TIME"),
                         resultSet.getInt("DIASTOL"),
@@ -131,16 +119,12 @@ public class AmbulanceParameterPacket implements Serializable {
                 bloodPressure.add(b);
             }
 
-            //System.out.println("BLOOD_PRESSURE pass");
-
-            //Fetch GCS observations
-            query = "SELECT * FROM EPR.GCS WHERE RECORD_ID = " +
-                recordId;
-
-            resultSet = db2.dbQuery(query);
+            //GCS observations
+            rows = snapshot.getRows("GCS", recordId);
 
             //Store GCS observations in gcs
-            while (resultSet.next()) {
+            for (int i = 0; i < rows.size(); i++) {
+                resultSet = (SnapshotRow) rows.elementAt(i);
                 g = new GCSPacket(resultSet.getTime("OBSERVATION_TIME"),
                         resultSet.getInt("EYES"),
                         resultSet.getInt("MOTOR_ACTIVITY"),
@@ -148,64 +132,44 @@ public class AmbulanceParameterPacket implements Serializable {
                 gcs.add(g);
             }
 
-            //System.out.println("GCS pass");
-
-            //Fetch Eye observations
-            query = "SELECT * FROM EPR.EYE WHERE RECORD_ID = " +
-                recordId;
-
-            resultSet = db2.dbQuery(query);
+            //Eye observations
+            rows = snapshot.getRows("EYE", recordId);
 
             //Store Eye observations in eye
-            while (resultSet.next()) {
+            for (int i = 0; i < rows.size(); i++) {
+                resultSet = (SnapshotRow) rows.elementAt(i);
                 e = new EyePacket(resultSet.getTime("OBSERVATION_TIME"),
                         resultSet.getString("LEFT"),
                         resultSet.getString("RIGHT"));
                 eye.add(e);
             }
 
-            //System.out.println("EYE pass");
-            
-            //Fetch body positions
-            query = "SELECT * FROM EPR.BODY_POSITION_OBSERVATION " +
-                "WHERE RECORD_ID = " + recordId;
-
-            resultSet = db2.dbQuery(query);
+            //Body positions
+            rows = snapshot.getRows("BODY_POSITION_OBSERVATION", recordId);
 
             //Store body positions in body vector
-            while (resultSet.next()) {
+            for (int i = 0; i < rows.size(); i++) {
+                resultSet = (SnapshotRow) rows.elementAt(i);
                 bpp = new BodyPositionPacket(
                         resultSet.getTime("OBSERVATION_TIME"),
                         resultSet.getInt("POSITION"));
                 body.add(bpp);
             }
 
-            //System.out.println("BODY_POSITION_OBSERVATION pass");
-            
-            //Fetch miscellaneous comments
-            query = "SELECT * FROM EPR.MISC WHERE RECORD_ID = " +
-                recordId;
-            
-            resultSet = db2.dbQuery(query);
+            //Miscellaneous comments
+            resultSet = snapshot.getRow("MISC", recordId);
             
             //Store the comments 
-            if (resultSet.next())
+            if (resultSet != null)
                 miscComments = resultSet.getString("MISCTEXT");
 
-            //System.out.println("MISC pass");
-            
-            //Fetch paralysis observation 
-            query = "SELECT * FROM EPR.PARALYSIS WHERE RECORD_ID = " +
-                recordId;
-            
-            resultSet = db2.dbQuery(query);
+            //Paralysis observation 
+            resultSet = snapshot.getRow("PARALYSIS", recordId);
             
-            if (resultSet.next())
+            if (resultSet != null)
                 pp = new ParalysisPacket(
                         resultSet.getInt("RIGHT_SIDE"),
                         resultSet.getInt("LEFT_SIDE"));
-
-            //System.out.println("PARALYSIS pass");
         }
 
     /**
@@ -216,165 +180,322 @@ public class AmbulanceParameterPacket implements Serializable {
     public void writeParameterPacket(DB2Connect db2, int recordId) 
         throws SQLException {
 
-            String query1;
-            String query2;
             ParameterPacket p;
             BloodPressurePacket b;
             GCSPacket g;
             EyePacket e;
             BodyPositionPacket bpp;
+            PreparedStatement ps;
 
             if (parameters.size() > 0) {
-                query1 = 
+                ps = db2.prepareStatement(
                     "INSERT INTO EPR.OBSERVATIONS_OF_PATIENT_PARAMETERS " +
                     "(OBSERVATION_TIME, RECORD_ID, " +
-                    "OBSERVATION_PARAMETER_ID, VALUE) VALUES ('";
-
-                //Insert the parameter packet for this record id
-                for (int i = 0; i < parameters.size(); i++) {
-                    p = (ParameterPacket) parameters.elementAt(i);
-
-                    query2 = query1 +  p.getObsTime() + "', " + recordId + 
-                        ", " +p.getParamId() + ", '" + 
-                        p.getParamValue() + "')";
-
-                    db2.dbQueryUpdate (query2);
+                    "OBSERVATION_PARAMETER_ID, VALUE) VALUES (?, ?, ?, ?)");
+                try {
+                    //Insert the parameter packet for this record id
+                    for (int i = 0; i < parameters.size(); i++) {
+                        p = (ParameterPacket) parameters.elementAt(i);
+                        ps.setTime(1, p.getObsTime());
+                        ps.setInt(2, recordId);
+                        ps.setInt(3, p.getParamId());
+                        ps.setString(4, String.valueOf(p.getParamValue()));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } finally {
+                    ps.close();
                 }
             }
 
-            //System.out.println("OBSERVATIONS_OF_PATIENT_PARAMETERS pass");
-            
             if (fracture != null) {
                 //Insert the fracture areas
-                query1 = "INSERT INTO EPR.FRACTURE VALUES (";
-                query2 = " " + recordId;
-
-                for (int i = 0; i < FRACTURE_AREAS; i++) { 
-                    if (fracture[i] == 0)
-                        query2 = query2 + "," + null;
-                    else
-                        query2 = query2 + ",'" + (char)fracture[i] + "'";
+                ps = db2.prepareStatement("INSERT INTO EPR.FRACTURE " +
+                    "VALUES (" + placeholders(FRACTURE_AREAS + 1) + ")");
+                try {
+                    ps.setInt(1, recordId);
+                    for (int i = 0; i < FRACTURE_AREAS; i++) { 
+                        if (fracture[i] == 0)
+                            ps.setNull(i + 2, Types.CHAR);
+                        else
+                            ps.setString(i + 2,
+                                    String.valueOf((char) fracture[i]));
+                    }
+                    ps.executeUpdate();
+                } finally {
+                    ps.close();
                 }
-                //Build the final query
-                query1 = query1 + query2 + ")";
-
-                //System.out.println(query1);
-
-                db2.dbQueryUpdate (query1);
             }
 
-            //System.out.println("FRACTURE pass");
-
             if (luxation != null) {
                 //Insert the luxation areas
-                query1 = "INSERT INTO EPR.LUXATION VALUES (";
-                query2 = " " + recordId;
-
-                for (int i = 0; i < LUXATION_AREAS; i++)
-                    query2 = query2 + ",'" + (char)luxation[i] + "'";
-
-                //Build the final query
-                query1 = query1 + query2 + ")";
-
-                //System.out.println(query1);
-
-                db2.dbQueryUpdate (query1);
+                ps = db2.prepareStatement("INSERT INTO EPR.LUXATION " +
+                    "VALUES (" + placeholders(LUXATION_AREAS + 1) + ")");
+                try {
+                    ps.setInt(1, recordId);
+                    for (int i = 0; i < LUXATION_AREAS; i++)
+                        ps.setString(i + 2,
+                                String.valueOf((char) luxation[i]));
+                    ps.executeUpdate();
+                } finally {
+                    ps.close();
+                }
             }
 
-            //System.out.println("LUXATION pass");
-
             if (bloodPressure.size() > 0) {
                 //Insert the blood pressure observations
-                query1 = "INSERT INTO EPR.BLOOD_PRESSURE ( " +
-                    "OBSERVATION_TIME, RECORD_ID, DIASTOL, SYSTOL ) VALUES" +
-                    "('";
-
-                //Insert the blood pressure observations
-                for (int i = 0; i < bloodPressure.size(); i++) {
-                    b = (BloodPressurePacket) bloodPressure.elementAt(i);
-
-                    query2 = query1 + b.getObsTime() + "'," + recordId + 
-                        ", " + b.getDiastol() + ", " + b.getSystol() + ")";
-
-                    db2.dbQueryUpdate (query2);
+                ps = db2.prepareStatement("INSERT INTO EPR.BLOOD_PRESSURE (" +
+                    "OBSERVATION_TIME, RECORD_ID, DIASTOL, SYSTOL) VALUES " +
+                    "(?, ?, ?, ?)");
+                try {
+                    for (int i = 0; i < bloodPressure.size(); i++) {
+                        b = (BloodPressurePacket) bloodPressure.elementAt(i);
+                        ps.setTime(1, b.getObsTime());
+                        ps.setInt(2, recordId);
+                        ps.setInt(3, b.getDiastol());
+                        ps.setInt(4, b.getSystol());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } finally {
+                    ps.close();
                 }
             }
 
-            //System.out.println("BLOOD_PRESSURE pass");
-
             if (gcs.size() > 0) {
                 //Insert GCS observations
-                query1 = "INSERT INTO EPR.GCS (" +
+                ps = db2.prepareStatement("INSERT INTO EPR.GCS (" +
                     "OBSERVATION_TIME, RECORD_ID, EYES, MOTOR_ACTIVITY, " +
-                    "VERBAL) VALUES ('";
-
-                for (int i = 0; i < gcs.size(); i++) {
-                    g = (GCSPacket) gcs.elementAt(i);
-
-                    query2 = query1 + g.getObsTime() + "'," + recordId + "," +
-                        g.getEyeValue() + "," + g.getMotorValue() + "," +
-                        g.getVerbalValue() + ")";
-
-                    db2.dbQueryUpdate (query2);
+                    "VERBAL) VALUES (?, ?, ?, ?, ?)");
+                try {
+                    for (int i = 0; i < gcs.size(); i++) {
+                        g = (GCSPacket) gcs.elementAt(i);
+                        ps.setTime(1, g.getObsTime());
+                        ps.setInt(2, recordId);
+                        ps.setInt(3, g.getEyeValue());
+                        ps.setInt(4, g.getMotorValue());
+                        ps.setInt(5, g.getVerbalValue());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } finally {
+                    ps.close();
                 }
             }
 
-            //System.out.println("GSC pass");
-            
             if (eye.size() > 0) {
                 //Insert the pupil observations
-                query1 = "INSERT INTO EPR.EYE ( " +
-                    "OBSERVATION_TIME, RECORD_ID, LEFT, RIGHT) " +
-                    "VALUES ('";
-
-                for (int i = 0; i < eye.size(); i++) {
-                    e = (EyePacket) eye.elementAt(i);
-                    query2 = query1 + e.getObsTime() + "'," + recordId + ",'" +
-                        e.getLeft() + "','" + e.getRight() + "')";
-
-                    db2.dbQueryUpdate (query2);
+                ps = db2.prepareStatement("INSERT INTO EPR.EYE (" +
+                    "OBSERVATION_TIME, RECORD_ID, LEFT, RIGHT) VALUES " +
+                    "(?, ?, ?, ?)");
+                try {
+                    for (int i = 0; i < eye.size(); i++) {
+                        e = (EyePacket) eye.elementAt(i);
+                        ps.setTime(1, e.getObsTime());
+                        ps.setInt(2, recordId);
+                        ps.setString(3, String.valueOf(e.getLeft()));
+                        ps.setString(4, String.valueOf(e.getRight()));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } finally {
+                    ps.close();
                 }
             }
 
-            //System.out.println("EYE pass");
-            
             if (body.size() > 0) {
                 //Insert the body position observations
-                query1 = "INSERT INTO EPR.BODY_POSITION_OBSERVATION " +
-                    "(OBSERVATION_TIME, RECORD_ID, POSITION) VALUES ('";
-
-                for (int i = 0; i < body.size(); i++) {
-                    bpp = (BodyPositionPacket) body.elementAt(i);
-
-                    query2 = query1 + bpp.getObsTime() + "'," + recordId +
-                        "," + bpp.getPosition() + ")";
-
-                    db2.dbQueryUpdate (query2);
+                ps = db2.prepareStatement("INSERT INTO " +
+                    "EPR.BODY_POSITION_OBSERVATION (OBSERVATION_TIME, " +
+                    "RECORD_ID, POSITION) VALUES (?, ?, ?)");
+                try {
+                    for (int i = 0; i < body.size(); i++) {
+                        bpp = (BodyPositionPacket) body.elementAt(i);
+                        ps.setTime(1, bpp.getObsTime());
+                        ps.setInt(2, recordId);
+                        ps.setInt(3, bpp.getPosition());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } finally {
+                    ps.close();
                 }
             }
 
-            //System.out.println("BODY_POSITION_OBSERVATION pass");
-            
             if (miscComments != null) {
                 //Insert miscellaneous comments
-                query1 = "INSERT INTO EPR.MISC (RECORD_ID, MISCTEXT) "+
-                    "VALUES (" + recordId + ",'" + miscComments + "')";
+                ps = db2.prepareStatement("INSERT INTO EPR.MISC " +
+                    "(RECORD_ID, MISCTEXT) VALUES (?, ?)");
+                try {
+                    ps.setInt(1, recordId);
+                    ps.setString(2, miscComments);
+                    ps.executeUpdate();
+                } finally {
+                    ps.close();
+                }
+            }
+
+            if (pp != null) {
+                //Insert paralysis observations
+                ps = db2.prepareStatement("INSERT INTO EPR.PARALYSIS " +
+                    "(RECORD_ID, RIGHT_SIDE, LEFT_SIDE) VALUES (?, ?, ?)");
+                try {
+                    ps.setInt(1, recordId);
+                    ps.setInt(2, pp.getRightSide());
+                    ps.setInt(3, pp.getLeftSide());
+                    ps.executeUpdate();
+                } finally {
+                    ps.close();
+                }
+            }
+        }
+
+    /**
+     * Method used to build the parameter markers of an insert
+     * @param count The number of parameters
+     * @return The markers separated by commas
+     */
+    private String placeholders(int count) {
+        StringBuffer strBuf = new StringBuffer();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                strBuf.append(", ");
+            strBuf.append("?");
+        }
+        return strBuf.toString();
+    }
+
+    /**
+     * Method used by the Record object to write this packet in the
+     * compact binary format
+     * @param out The stream the packet is written to
+     */
+    public void writeWire(WireOutput out) throws IOException {
+
+            ParameterPacket p;
+            BloodPressurePacket b;
+            GCSPacket g;
+            EyePacket e;
+            BodyPositionPacket bpp;
 
-                db2.dbQueryUpdate (query1);
+            out.writeUnsigned(parameters.size());
+            for (int i = 0; i < parameters.size(); i++) {
+                p = (ParameterPacket) parameters.elementAt(i);
+                out.writeTime(p.getObsTime());
+                out.writeInt(p.getParamId());
+                out.writeString(p.getParamValue());
             }
 
-            //System.out.println("MISC pass");
+            out.writeAreas(fracture);
+            out.writeAreas(luxation);
 
+            out.writeUnsigned(bloodPressure.size());
+            for (int i = 0; i < bloodPressure.size(); i++) {
+                b = (BloodPressurePacket) bloodPressure.elementAt(i);
+                out.writeTime(b.getObsTime());
+                out.writeInt(b.getDiastol());
+                out.writeInt(b.getSystol());
+            }
+
+            out.writeUnsigned(gcs.size());
+            for (int i = 0; i < gcs.size(); i++) {
+                g = (GCSPacket) gcs.elementAt(i);
+                out.writeTime(g.getObsTime());
+                out.writeInt(g.getEyeValue());
+                out.writeInt(g.getMotorValue());
+                out.writeInt(g.getVerbalValue());
+            }
+
+            out.writeUnsigned(eye.size());
+            for (int i = 0; i < eye.size(); i++) {
+                e = (EyePacket) eye.elementAt(i);
+                out.writeTime(e.getObsTime());
+                out.writeString(e.getLeft());
+                out.writeString(e.getRight());
+            }
+
+            out.writeUnsigned(body.size());
+            for (int i = 0; i < body.size(); i++) {
+                bpp = (BodyPositionPacket) body.elementAt(i);
+                out.writeTime(bpp.getObsTime());
+                out.writeInt(bpp.getPosition());
+            }
+
+            out.writeString(miscComments);
+
+            out.writeBoolean(pp != null);
             if (pp != null) {
-                //Insert paralysis observations
-                query1 = "INSERT INTO EPR.PARALYSIS " +
-                    "(RECORD_ID, RIGHT_SIDE, LEFT_SIDE) VALUES (" +
-                    recordId + "," + pp.getRightSide() + "," +
-                    pp.getLeftSide() + ")";
+                out.writeInt(pp.getRightSide());
+                out.writeInt(pp.getLeftSide());
+            }
+        }
 
-                db2.dbQueryUpdate (query1);
+    /**
+     * Method used by the Record object to re-initialize this packet from
+     * the compact binary format
+     * @param in The stream the packet is read from
+     */
+    public void readWire(WireInput in) throws IOException {
+
+            int count;
+            Time obsTime;
+
+            count = in.readLength();
+            parameters = new Vector(count);
+            for (int i = 0; i < count; i++) {
+                obsTime = in.readTime();
+                int paramId = in.readInt();
+                parameters.add(new ParameterPacket(obsTime, paramId,
+                            in.readString()));
+            }
+
+            fracture = in.readAreas();
+            luxation = in.readAreas();
+
+            //The areas are written to the database by position
+            if ((fracture != null && fracture.length != FRACTURE_AREAS) ||
+                    (luxation != null && luxation.length != LUXATION_AREAS))
+                throw new StreamCorruptedException("Wrong number of areas");
+
+            count = in.readLength();
+            bloodPressure = new Vector(count);
+            for (int i = 0; i < count; i++) {
+                obsTime = in.readTime();
+                int diastol = in.readInt();
+                bloodPressure.add(new BloodPressurePacket(obsTime, diastol,
+                            in.readInt()));
+            }
+
+            count = in.readLength();
+            gcs = new Vector(count);
+            for (int i = 0; i < count; i++) {
+                obsTime = in.readTime();
+                int eyes = in.readInt();
+                int motor = in.readInt();
+                gcs.add(new GCSPacket(obsTime, eyes, motor, in.readInt()));
             }
 
-            //System.out.println("PARALYSIS pass");
+            count = in.readLength();
+            eye = new Vector(count);
+            for (int i = 0; i < count; i++) {
+                obsTime = in.readTime();
+                String left = in.readString();
+                eye.add(new EyePacket(obsTime, left, in.readString()));
+            }
+
+            count = in.readLength();
+            body = new Vector(count);
+            for (int i = 0; i < count; i++) {
+                obsTime = in.readTime();
+                body.add(new BodyPositionPacket(obsTime, in.readInt()));
+            }
+
+            miscComments = in.readString();
+
+            if (in.readBoolean()) {
+                int rightSide = in.readInt();
+                pp = new ParalysisPacket(rightSide, in.readInt());
+            } else
+                pp = null;
         }
 }
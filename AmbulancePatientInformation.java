@@ -8,6 +8,9 @@ import java.io.*;
  */ 
 public class AmbulancePatientInformation implements Serializable { 
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 7400669152275897181L;
+
     private String personNumber = null;
     private String[] personInformation;
     private String message;
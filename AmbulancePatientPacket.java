@@ -9,6 +9,9 @@ import java.sql.*;
  */ 
 public class AmbulancePatientPacket implements Serializable { 
 
+    //Version of the serialized form
+    private static final long serialVersionUID = -934518236776814426L;
+
     private String personNumber = null;
     private String firstName = null;
     private String lastName = null;
@@ -25,17 +28,14 @@ public class AmbulancePatientPacket implements Serializable {
      * the serialized object
      * @param recordId is the record id of the patient record
      *                 that will be send to the server
-     * @param db2 is the database connection to the ambulance 
-     *            client database   
+     * @param snapshot is the rows read from the ambulance
+     *                 client database
      */ 
-    public AmbulancePatientPacket(int recordId, DB2Connect db2) 
+    public AmbulancePatientPacket(int recordId, RecordSnapshot snapshot) 
         throws SQLException {
 
-            String query = "SELECT * FROM EPR.PATIENT WHERE RECORD_ID = " + 
-                recordId;
-
-            ResultSet resultSet = db2.dbQuery(query);
-            boolean patientExists = resultSet.next();
+            SnapshotRow resultSet = snapshot.getRow("PATIENT", recordId);
+            boolean patientExists = resultSet != null;
 
             if (patientExists)
             {
@@ -57,59 +57,105 @@ public class AmbulancePatientPacket implements Serializable {
     public void writePatientPacket(DB2Connect db2, int recordId) 
         throws SQLException {
 
-        String query;
         String[] personInformation;
+        PreparedStatement ps = null;
         
-        /**
-         * If there is no person number information or the
-         * information is not complete, Insert the available
-         * information
-         */
-        if ((personNumber == null) || (personNumber.length() != 12)) {
-            query = "INSERT INTO EPR.PATIENT " +
-                "(RECORD_ID, PERSON_ID, FIRST_NAME, LAST_NAME, ADDRESS, " +
-                "RELATIVE_INFORMATION, INCOMPLETE) VALUES (" + recordId +
-                ",'" + personNumber +"','" + firstName + "','" + lastName +
-                "','" + address + "','" + relative + "', 1)";
-
-            db2.dbQueryUpdate (query);
+        try {
             /**
-             * If a person number is given, search after the person
-             * in Person Number Register
-             */ 
-        } else {
-            //Create a reference to PersonInformation object
-            PersonInformation pI = new PersonInformation();
-
-            try {
-                pI.personSearch(personNumber);
-                personInformation = pI.getInformation();
-                query = "INSERT INTO EPR.PATIENT " +
-                    "(RECORD_ID, PERSON_ID, FIRST_NAME, LAST_NAME, " +
-                    "ADDRESS, ZIPCODE, CITY, COUNTY, RELATIVE_INFORMATION, " +
-                    "INCOMPLETE) VALUES (" + recordId + ",'" + personNumber + 
-                    "','" + personInformation[0] + "','" + 
-                    personInformation[1] + "','" + personInformation[2] + 
-                    "','" + personInformation[3] + "','" + 
-                    personInformation[4] + "','" + personInformation[5] + 
-                    "','" + relative + "', 0)";
-
-                db2.dbQueryUpdate (query);
+             * If there is no person number information or the
+             * information is not complete, Insert the available
+             * information
+             */
+            if ((personNumber == null) || (personNumber.length() != 12)) {
+                ps = prepareIncomplete(db2, recordId);
                 /**
-                 * If the given person number does not exist ,
-                 * insert the known inforamtion to the database anyway
-                 */     
-            } catch(IllegalArgumentException g) {
-                query = "INSERT INTO EPR.PATIENT " +
-                    "(RECORD_ID, PERSON_ID, FIRST_NAME, LAST_NAME, ADDRESS, " +
-                    "RELATIVE_INFORMATION, INCOMPLETE) VALUES (" + 
-                    recordId + ",'" + personNumber +"','" + firstName + 
-                    "','" + lastName + "','" + address + "','" + 
-                    relative + "', 1)";
-
-                db2.dbQueryUpdate (query);
+                 * If a person number is given, search after the person
+                 * in Person Number Register
+                 */ 
+            } else {
+                //Create a reference to PersonInformation object
+                PersonInformation pI = new PersonInformation();
+
+                try {
+                    pI.personSearch(personNumber);
+                    personInformation = pI.getInformation();
+                    ps = db2.prepareStatement("INSERT INTO EPR.PATIENT " +
+                        "(RECORD_ID, PERSON_ID, FIRST_NAME, LAST_NAME, " +
+                        "ADDRESS, ZIPCODE, CITY, COUNTY, " +
+                        "RELATIVE_INFORMATION, INCOMPLETE) VALUES " +
+                        "(?, ?, ?, ?, ?, ?, ?, ?, ?, 0)");
+                    ps.setInt(1, recordId);
+                    ps.setString(2, personNumber);
+                    for (int i = 0; i < 6; i++)
+                        ps.setString(i + 3,
+                                String.valueOf(personInformation[i]));
+                    ps.setString(9, String.valueOf(relative));
+                    /**
+                     * If the given person number does not exist ,
+                     * insert the known inforamtion to the database anyway
+                     */     
+                } catch(IllegalArgumentException g) {
+                    ps = prepareIncomplete(db2, recordId);
+                }
             }
+
+            ps.executeUpdate();
+        } finally {
+            if (ps != null)
+                ps.close();
         }
     }
-}
 
+    /**
+     * Method used to prepare the insert of the information as it was
+     * entered, used when the person could not be found
+     * @param db2 is the connection to server database
+     * @param recordId is the record id for the patient record at
+     *                 server side
+     * @return The prepared insert
+     */
+    private PreparedStatement prepareIncomplete(DB2Connect db2, int recordId)
+        throws SQLException {
+
+        //The strings are written as before, a missing one as 'null'
+        PreparedStatement ps = db2.prepareStatement("INSERT INTO " +
+                "EPR.PATIENT (RECORD_ID, PERSON_ID, FIRST_NAME, LAST_NAME, " +
+                "ADDRESS, RELATIVE_INFORMATION, INCOMPLETE) VALUES " +
+                "(?, ?, ?, ?, ?, ?, 1)");
+        ps.setInt(1, recordId);
+        ps.setString(2, String.valueOf(personNumber));
+        ps.setString(3, String.valueOf(firstName));
+        ps.setString(4, String.valueOf(lastName));
+        ps.setString(5, String.valueOf(address));
+        ps.setString(6, String.valueOf(relative));
+        return ps;
+    }
+
+    /**
+     * Method used by the Record object to write this packet in the
+     * compact binary format
+     * @param out The stream the packet is written to
+     */
+    public void writeWire(WireOutput out) throws IOException {
+
+        out.writeString(personNumber);
+        out.writeString(firstName);
+        out.writeString(lastName);
+        out.writeString(address);
+        out.writeString(relative);
+    }
+
+    /**
+     * Method used by the Record object to re-initialize this packet from
+     * the compact binary format
+     * @param in The stream the packet is read from
+     */
+    public void readWire(WireInput in) throws IOException {
+
+        personNumber = in.readString();
+        firstName = in.readString();
+        lastName = in.readString();
+        address = in.readString();
+        relative = in.readString();
+    }
+}
@@ -19,63 +19,61 @@ public class AmbulanceReceiveThread implements Runnable {
     private LogHandler lgHandler;
     private AmbulanceClient ambClient;
     private ObjectInputStream ois;
-    private int recordCount;
-    private int receivedPacket;
-    private  AmbulanceRecord ar;
+    private SendResultInterface ar;
 
     /**
      * Constructor, used to initialize this thread
      * @param lgHandler Reference to LogHandler object
      * @param ambClient Reference to AmbulanceClient object
      * @param ois The stream this thread will read objects from
-     * @param recordCount The number of acknowleges expected from server
-     * @param ar Reference to AmbulanceRecord object
+     * @param ar Object informed about the received acknowledgements
      */
     public AmbulanceReceiveThread(LogHandler lgHandler, 
-            AmbulanceClient ambClient, ObjectInputStream ois, int recordCount, 
-            AmbulanceRecord ar) {
+            AmbulanceClient ambClient, ObjectInputStream ois, 
+            SendResultInterface ar) {
 
         this.lgHandler = lgHandler;
         this.ambClient = ambClient;
         this.ois = ois;
-        this.recordCount = recordCount;
         this.ar = ar;
 
-        receivedPacket = 0;
-
         new Thread(this).start();
     }
 
     /**
-     * Background thread, used to read packets that server sends
+     * Background thread, used to read packets that server sends. Each
+     * acknowledgement completes the ticket of its record, duplicates for
+     * resent records are ignored.
      */
     public void run() {
 
         Log log;
 
         try {
-            while(receivedPacket != recordCount) {
+            while(!ambClient.isComplete()) {
                 ServerAcknowledgement sa = 
                     (ServerAcknowledgement) ois.readObject();
 
-                ar.resultsFromSend(sa.getClientRecordId(),
-                        sa.getServerRecordId(), sa.getServerMessage());
-
-                receivedPacket++;
+                if (ambClient.acknowledge(sa))
+                    ar.resultsFromSend(sa.getRecordId(),
+                            sa.getServerRecordId(), sa.getServerMessage());
             }
         } catch(IOException ie) {
-            log = new Log(ie.getMessage(), "AmbulanceReceiveThread/run",
-                    "Failed to read packets from server");
-            lgHandler.addLog(log);
-
-            ar.resultsFromSend(-2, -2, "Fel vid mottagning av data.");
+            /*The stream is closed by the send thread when the
+              transmission has failed*/
+            if (!ambClient.isComplete()) {
+                log = new Log(ie.getMessage(), "AmbulanceReceiveThread/run",
+                        "Failed to read packets from server");
+                lgHandler.addLog(log);
 
+                ambClient.fail("Fel vid mottagning av data.");
+            }
         } catch(ClassNotFoundException cnfe) {
             log = new Log(cnfe.getMessage(), "AmbulanceReceiveThread/run",
                     "Class versions is not the same at client and server");
             lgHandler.addLog(log);
 
-            ar.resultsFromSend(-2, -2, "Paketversion konflikt");
+            ambClient.fail("Paketversion konflikt");
         }
 
         try {
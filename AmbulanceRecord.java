@@ -12,7 +12,8 @@ import java.util.prefs.BackingStoreException;
   * @version 20030904
   * @author Oskar Nilsson
   */
-public class AmbulanceRecord extends JFrame
+public class AmbulanceRecord extends JFrame implements SendResultInterface,
+   DBStateInterface
 {
    private final String SERVERADDR = "u07w255";
    private final int SERVERPORT = 1080;
@@ -24,6 +25,8 @@ public class AmbulanceRecord extends JFrame
    private static DB2Connect dbcon;
    private static WordList wl;
    private static LogHandler lg;
+   private static RecordOutbox outbox;
+   private static SyncScheduler scheduler = null;
    private Vector patientRecords;
    private StatusField statusFld;
    private ClientKeytool serverCertTest, clientCertTest;
@@ -258,7 +261,7 @@ public class AmbulanceRecord extends JFrame
 
          int t[] = {id};
          new SendDialog(this, "Server komunikation",
-               "Skickar journalen till servern", lg, dbcon, t);
+               "Skickar journalen till servern", lg, outbox, t);
       }
       else
          statusFld.setText("Ingen journal är vald!");
@@ -277,42 +280,68 @@ public class AmbulanceRecord extends JFrame
    }
 
    /**
-     * Method used by the send thread to tell that transmission succeded.
+     * Method used by the record outbox to tell the result of a transmission.
+     * The outbox removes the record from the local database when it has
+     * been stored at the server. It is called from the send threads, so
+     * the GUI is updated on the event thread.
      * @param oldId The record id of the record that were succesfully
      * transmited. -1 certificate problem, -2 send failed.
      * @param serverId The record id that the reocord has on the server.
      * -1 certificate problem, -2 send failed
      * @param msg Message to inform the user of what went wrong.
      */
-   public void resultsFromSend(int oldId, int serverId, String msg)
+   public void resultsFromSend(final int oldId, int serverId, String msg)
    {
-      if (oldId < 0)
+      if (oldId >= 0)
       {
-         sendDialog.setMessage(msg);
-         sendDialog.addOk();
-         sendDialog = null;
-      }
-      else
-      {
-         // Remove the record
-         try {
-            dbcon.dbQueryUpdate (
-                  "DELETE FROM EPR.AMBULANCE_RECORD WHERE RECORD_ID = " +
-                  oldId);
-         } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this,
-                  "Sändingen lyckades, men journalen kunde inte tas bort");
-            lg.addLog(new Log(e.getMessage(),
-                    "AmbulanceRecord/resultsFromSend",
-                    "Remove record failed"));
-            
-            return;
-         }
-         recordTModel.updateTable();
-         sendDialog.setMessage("Sändningen lyckades");
-         sendDialog.addOk();
-         sendDialog = null;
+         // The server can be reached, retry a failed synchronization
+         if (scheduler != null)
+            scheduler.connectivityRestored();
+         if (msg == null)
+            msg = "Sändningen lyckades";
       }
+
+      // The queue is read here, the outbox calls from its own thread
+      int depth = outbox.getQueueDepth();
+      final String queued = depth > 0 ? msg + " (" + depth +
+         " journaler i kön, den äldsta sedan " +
+         (outbox.getOldestAge() / 60000) + " minuter)" : msg;
+      final String message = msg;
+
+      SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+               if (oldId >= 0)
+                  recordTModel.updateTable();
+
+               // Records sent in the background have no dialog to report to
+               if (sendDialog == null)
+               {
+                  statusFld.setText(queued);
+                  return;
+               }
+
+               sendDialog.setMessage(message);
+               sendDialog.addOk();
+               sendDialog = null;
+            }
+      });
+   }
+
+   /**
+     * Method called when the connection to the local database is lost
+     * and when it works again. The user is told in the status field.
+     * @param available true if the database can be reached again.
+     */
+   public void databaseStateChanged(final boolean available)
+   {
+      SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+               if (available)
+                  statusFld.setText("Kontakten med databasen är återställd");
+               else
+                  statusFld.setWarning("Kontakten med databasen är bruten");
+            }
+      });
    }
 
    /**
@@ -674,7 +703,6 @@ public class AmbulanceRecord extends JFrame
          pr = (PatientRecord) patientRecords.elementAt(i);
          pr.close();
       }
-      patientRecords.removeAllElements();
 
       recordTModel.updateTable(); 
    }
@@ -711,6 +739,31 @@ public class AmbulanceRecord extends JFrame
          sd.startSynchronization();
    }
 
+   /**
+     * Method that tells if a patient record is open for editing. The
+     * background synchronization waits while a record is open.
+     * @return true if a patient record is open.
+     */
+   public boolean isEditing()
+   {
+      return patientRecords.size() > 0;
+   }
+
+   /**
+     * Method that shows a message in the status field. It is called from
+     * the background synchronization, so the field is set on the event
+     * thread.
+     * @param msg The message to show.
+     */
+   public void setStatusMessage(final String msg)
+   {
+      SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+               statusFld.setText(msg);
+            }
+      });
+   }
+
    /**
      * Method that returns the server address.
      * return The server address.
@@ -769,9 +822,18 @@ public class AmbulanceRecord extends JFrame
       } catch (NullPointerException e) {
          JOptionPane.showMessageDialog(null, e.getMessage());
          System.exit(1);
+      } catch (SQLException e) {
+         JOptionPane.showMessageDialog(null, e.getMessage());
+         System.exit(1);
       }
       wl = new WordList(dbcon, lg);
       AmbulanceRecord ar = new AmbulanceRecord();
+      dbcon.setStateListener(ar);
+      outbox = new RecordOutbox(lg, dbcon, ar);
+      // Synchronize in the background, the first time before login
+      if (rk.getSyncInterval() > 0)
+         scheduler = new SyncScheduler(lg, dbcon, ar,
+               rk.getSyncInterval() * 60 * 1000L);
       ar.show();
       LoginDialog ld = new LoginDialog(ar, dbcon, lg);
       ar.enableLogBt();
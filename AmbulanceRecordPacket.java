@@ -10,6 +10,29 @@ import java.io.*;
  */
 public class AmbulanceRecordPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = -7535772664865919714L;
+
+    //SQLState returned by DB2 when a row does already exist
+    private static final String DUPLICATE_KEY = "23505";
+
+    //SQLState returned by DB2 when a column or index does already exist
+    private static final String DUPLICATE_COLUMN = "42711";
+    private static final String DUPLICATE_NAME = "42710";
+
+    //The columns written when a record is inserted
+    private static final String INSERT_QUERY = "INSERT INTO " +
+        "EPR.AMBULANCE_RECORD (DATE, AMBULANCE_NR, STATION_ID, " +
+        "PRIORITY_OUT, PRIORITY_IN, DRIVED_KM, ALARM_CAUSE, ALARM_TIME, " +
+        "LEFT_STATION_TIME, ACCIDENT_SCENE, ARRIVAL_ACCIDENT_TIME, " +
+        "LEFT_ACCIDENT_TIME, HOSPITAL_NAME, HAND_OVER_TIME, " +
+        "MISSION_CLOSED_TIME, DRIVER_ID, CARER_ID, SIGN_TIME, SIGN_ID, " +
+        "DELEGATING_DOCTOR, CREATION_TIME, DIAGNOSIS_ID, ALARM_CAUSE_ID, " +
+        "ACCIDENT_CITY, ACCIDENT_ZONE, ACCIDENT_PLACE, DROPOFF_CITY, " +
+        "DROPOFF_PLACE, DROPOFF_ZONE, RECORD_KEY) VALUES (?, ?, ?, ?, ?, " +
+        "?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, " +
+        "?, ?, ?)";
+
     private Date date = null;
     private int ambulanceNumber = 0;
     private int stationId = 0;
@@ -39,6 +62,10 @@ public class AmbulanceRecordPacket implements Serializable {
     private int dropOffPlaceId = 0;
     private int dropOffZoneId = 0;
     private Timestamp creationTime = null;
+
+    //Unique key of the record, made by the client that created it
+    private String recordKey = null;
+
     private boolean recordExist;
     private boolean signTimeExist;
 
@@ -51,16 +78,17 @@ public class AmbulanceRecordPacket implements Serializable {
      * Constructor used by ambulance client to create an AmbulanceRecordPacket
      * @param recordId is the record id for the patient record that 
      *                 will be send to the server
-     * @param db2 is the database connection to the ambulance client database
+     * @param snapshot is the rows read from the ambulance client database
+     * @param clientName is the name of the ambulance client in the
+     *                   network, used to make the record key unique
      */ 
-    public AmbulanceRecordPacket(int recordId, DB2Connect db2)
-        throws SQLException {
+    public AmbulanceRecordPacket(int recordId, RecordSnapshot snapshot,
+            String clientName) throws SQLException {
 
-            String query = "SELECT * FROM EPR.AMBULANCE_RECORD WHERE " +
-                "RECORD_ID =" + recordId;
-
-            ResultSet resultSet = db2.dbQuery(query);
-            resultSet.next();
+            SnapshotRow resultSet =
+                snapshot.getRow("AMBULANCE_RECORD", recordId);
+            if (resultSet == null)
+                throw new SQLException("Record " + recordId + " not found");
 
             date = resultSet.getDate("DATE");
             ambulanceNumber = resultSet.getInt("AMBULANCE_NR");
@@ -91,145 +119,211 @@ public class AmbulanceRecordPacket implements Serializable {
             dropOffPlaceId = resultSet.getInt("DROPOFF_PLACE");
             dropOffZoneId = resultSet.getInt("DROPOFF_ZONE");
             creationTime = resultSet.getTimestamp("CREATION_TIME");
+
+            //The same record gets the same key each time it is sent
+            recordKey = clientName + "/" + recordId + "/" + creationTime;
         }
 
     /**
      * Method used by the Record object to tell this object to input record
-     * information to the server database
+     * information to the server database. The record is inserted with
+     * its record key, a record that has been received before is found
+     * by the unique index on the key. The key column is added by
+     * upgradeSchema when the server starts; without it the insert fails.
      * @param db2 is the database connection at the server side
      */
     public int writeRecordPacket(DB2Connect db2) throws SQLException {
 
-        String query;
+        //Records from clients without record keys are looked up first
+        if (recordKey == null) {
+            int recordId = findLegacyRecord(db2);
+            if (recordId != -1)
+                return recordId;
+
+            recordKey = "SERVER/" + ambulanceNumber + "/" + date + "/" +
+                alarmTime + "/" + creationTime;
+        }
+
+        return insertRecord(db2);
+    }
+
+    /**
+     * Method used to insert the record with one statement
+     * @param db2 is the database connection at the server side
+     * @return The server record id
+     */
+    private int insertRecord(DB2Connect db2) throws SQLException {
+
         int recordId;
-        ResultSet resultSet;
-
-        query = "SELECT RECORD_ID FROM EPR.AMBULANCE_RECORD WHERE DATE = '" +
-            date + "'AND ALARM_TIME = '" + alarmTime + "' AND " +
-            "CREATION_TIME = '" + creationTime + "' AND AMBULANCE_NR = " + 
-            ambulanceNumber;
-
-        resultSet = db2.dbQuery(query);
-
-        /*
-         * If the record has been inserted to the central database
-         * before do not insert it again, return only the record's 
-         * record id 
-         */
-        if(resultSet.next()) {
-            recordId = resultSet.getInt("RECORD_ID");
-            recordExist = true;
-            signTimeExist = true;
-
-            //Otherwise if the record does not exist, insert it
-        } else {
-            query = "INSERT INTO EPR.AMBULANCE_RECORD " +
-                "(DATE, AMBULANCE_NR, STATION_ID, " +
-                "PRIORITY_OUT, PRIORITY_IN, DRIVED_KM, ALARM_CAUSE, " +
-                "ALARM_TIME, LEFT_STATION_TIME, ACCIDENT_SCENE,  " +
-                "ARRIVAL_ACCIDENT_TIME, LEFT_ACCIDENT_TIME, HOSPITAL_NAME, " +
-                "HAND_OVER_TIME, MISSION_CLOSED_TIME, DRIVER_ID, CARER_ID, " +
-                "SIGN_TIME, SIGN_ID, DELEGATING_DOCTOR, CREATION_TIME) " +
-                "VALUES ('" + date + "'," + ambulanceNumber + "," + 
-                stationId +"," + prioOut + "," + prioIn + "," + drivedKm + 
-                ",'" + alarmCause + "','" + alarmTime +"'," ;
-
-            if (leftStationTime == null) {
-                query = query + null + ",'" + accidentScene + "',";
-            } else {
-                query = query + "'" + leftStationTime + "','" +
-                    accidentScene + "',";
-            }
+        PreparedStatement insert = db2.prepareStatement(INSERT_QUERY,
+                Statement.RETURN_GENERATED_KEYS);
 
-            if (arrivalAccidentTime == null) {
-                query = query + null + "," ;
-            } else {
-                query = query + "'" + arrivalAccidentTime + "',";
-            }
+        try {
+            //The strings are written as before, a missing one as 'null'
+            insert.setDate(1, date);
+            insert.setInt(2, ambulanceNumber);
+            insert.setInt(3, stationId);
+            insert.setInt(4, prioOut);
+            insert.setInt(5, prioIn);
+            insert.setFloat(6, drivedKm);
+            insert.setString(7, String.valueOf(alarmCause));
+            insert.setTime(8, alarmTime);
+            insert.setTime(9, leftStationTime);
+            insert.setString(10, String.valueOf(accidentScene));
+            insert.setTime(11, arrivalAccidentTime);
+            insert.setTime(12, leftAccidentTime);
+            insert.setString(13, String.valueOf(hospitalName));
+            insert.setTime(14, handOverTime);
+            insert.setTime(15, missionClosedTime);
+            insert.setInt(16, driverId);
+            insert.setInt(17, carerId);
+            insert.setTimestamp(18, signTime);
+            insert.setInt(19, signId);
+            insert.setString(20, String.valueOf(delegatingDoctor));
+            insert.setTimestamp(21, creationTime);
 
-            if (leftAccidentTime == null) {
-                query = query + null + ",'" + hospitalName + "',";
-            } else {
-                query = query + "'" + leftAccidentTime + "','" + 
-                    hospitalName + "',";
-            }
+            //Diagnosis, zone and place are only set if they are known
+            setId(insert, 22, diagnosisId);
+            setId(insert, 23, alarmCauseId);
+            setId(insert, 24, accidentCityId);
+            setId(insert, 25, accidentZoneId);
+            setId(insert, 26, accidentPlaceId);
+            setId(insert, 27, dropOffCityId);
+            setId(insert, 28, dropOffPlaceId);
+            setId(insert, 29, dropOffZoneId);
+            insert.setString(30, recordKey);
 
-            if (handOverTime == null) {
-                query = query + null + ",";
-            } else {
-                query = query + "'" + handOverTime + "',";
-            }
+            try {
+                insert.executeUpdate();
+            } catch (SQLException sql) {
+                if (!DUPLICATE_KEY.equals(sql.getSQLState()))
+                    throw sql;
 
-            if (missionClosedTime == null) {
-                query = query + null + "," + driverId + "," + carerId + ",";
-            } else {
-                query = query + "'" + missionClosedTime + "'," +
-                    driverId + "," + carerId + ",";
+                /*
+                 * The record has been inserted to the central database
+                 * before, a resend. Do not insert it again, return only
+                 * the record's record id
+                 */
+                recordExist = true;
+                signTimeExist = true;
+                return findRecord(db2);
             }
 
-            if (signTime == null) {
-                query = query + null + "," + signId + ",'" + 
-                    delegatingDoctor + "','" + creationTime + "')";
-                signTimeExist = false;
-            } else {
-                query = query + "'" + signTime + "'," + signId + ",'" +
-                    delegatingDoctor + "','" + creationTime + "')";
+            ResultSet keys = insert.getGeneratedKeys();
+            keys.next();
+            recordId = keys.getInt(1);
+            keys.close();
+        } finally {
+            insert.close();
+        }
+
+        recordExist = false;
+        signTimeExist = signTime != null;
+        return recordId;
+    }
+
+    /**
+     * Method used to get the server record id of a record that has been
+     * received before
+     * @param db2 is the database connection at the server side
+     * @return The server record id
+     */
+    private int findRecord(DB2Connect db2) throws SQLException {
+
+        PreparedStatement select = db2.prepareStatement("SELECT RECORD_ID " +
+                "FROM EPR.AMBULANCE_RECORD WHERE RECORD_KEY = ?");
+        try {
+            select.setString(1, recordKey);
+            ResultSet resultSet = select.executeQuery();
+            if (!resultSet.next())
+                throw new SQLException("Record " + recordKey + " not found");
+            int recordId = resultSet.getInt(1);
+            resultSet.close();
+            return recordId;
+        } finally {
+            select.close();
+        }
+    }
+
+    /**
+     * Method used to look up a record sent by a client without record
+     * keys, the way it was done before the keys
+     * @param db2 is the database connection at the server side
+     * @return The server record id, -1 if the record is not found
+     */
+    private int findLegacyRecord(DB2Connect db2) throws SQLException {
+
+        int recordId = -1;
+        PreparedStatement select = db2.prepareStatement("SELECT RECORD_ID " +
+                "FROM EPR.AMBULANCE_RECORD WHERE DATE = ? AND " +
+                "ALARM_TIME = ? AND CREATION_TIME = ? AND AMBULANCE_NR = ?");
+
+        try {
+            select.setDate(1, date);
+            select.setTime(2, alarmTime);
+            select.setTimestamp(3, creationTime);
+            select.setInt(4, ambulanceNumber);
+
+            ResultSet resultSet = select.executeQuery();
+            if (resultSet.next()) {
+                recordId = resultSet.getInt("RECORD_ID");
+                recordExist = true;
                 signTimeExist = true;
             }
-
-            //Insert the record into the database
-            db2.dbQueryUpdate (query);
-
-            //Fetch the server record id
-            query = "SELECT RECORD_ID FROM EPR.AMBULANCE_RECORD " +
-                "WHERE DATE = '" + date + "' AND ALARM_TIME = '" +
-                alarmTime + "' AND CREATION_TIME = '" + creationTime + 
-                "' AND AMBULANCE_NR = " + ambulanceNumber;
-
-            resultSet = db2.dbQuery(query);
-            resultSet.next();
-            recordId = resultSet.getInt(1);
-            recordExist = false;
-
-            //Check diagnosis, zone, place and uppdate the patient record
-            query = "UPDATE EPR.AMBULANCE_RECORD SET ";
-            
-            if (diagnosisId != 0)
-                query = query + "DIAGNOSIS_ID = " + diagnosisId + ", ";
-            
-            if (alarmCauseId != 0)
-                query = query + "ALARM_CAUSE_ID = " + alarmCauseId + ", ";
-            
-            if (accidentCityId != 0)
-                query = query + "ACCIDENT_CITY = " + accidentCityId + ", ";
-            
-            if (accidentZoneId != 0)
-                query = query + "ACCIDENT_ZONE = " + accidentZoneId + ", ";
-            
-            if (accidentPlaceId != 0)
-                query = query + "ACCIDENT_PLACE = " + accidentPlaceId + ", ";
-
-            if (dropOffCityId != 0)
-                query = query + "DROPOFF_CITY = " + dropOffCityId + ", " ;
-            
-            if (dropOffPlaceId != 0)
-                query = query + "DROPOFF_PLACE = " + dropOffPlaceId + ", ";
-            
-            if(dropOffZoneId != 0)
-                query = query + "DROPOFF_ZONE = " + dropOffZoneId;
-            /*Dummy update of DOCTOR_ID parameter if some or none of 
-              the previous parameters has 0 value*/
-            else
-                query = query + "DELEGATING_DOCTOR = '" + 
-                    delegatingDoctor + "'";
-
-            query = query + " WHERE RECORD_ID = " + recordId;
-            
-            db2.dbQueryUpdate (query);
+            resultSet.close();
+        } finally {
+            select.close();
         }
         return recordId;
     }
 
+    /**
+     * Method used to add the record key column and its unique index to
+     * the server database. The records already in the database get keys
+     * made from their server record ids. Called once when the server
+     * starts, before any record is received; does nothing if the column
+     * and the index are already there.
+     * @param db2 is the database connection at the server side, in auto
+     * commit mode
+     */
+    public static void upgradeSchema(DB2Connect db2) throws SQLException {
+
+        try {
+            db2.dbQueryUpdate("ALTER TABLE EPR.AMBULANCE_RECORD " +
+                    "ADD COLUMN RECORD_KEY VARCHAR(128)");
+        } catch (SQLException sql) {
+            //Added by another connection at the same time
+            if (!DUPLICATE_COLUMN.equals(sql.getSQLState()))
+                throw sql;
+        }
+
+        db2.dbQueryUpdate("UPDATE EPR.AMBULANCE_RECORD SET RECORD_KEY = " +
+                "'SERVER/' || CHAR(RECORD_ID) WHERE RECORD_KEY IS NULL");
+
+        try {
+            db2.dbQueryUpdate("CREATE UNIQUE INDEX EPR.AMBULANCE_RECORD_KEY " +
+                    "ON EPR.AMBULANCE_RECORD (RECORD_KEY)");
+        } catch (SQLException sql) {
+            if (!DUPLICATE_NAME.equals(sql.getSQLState()))
+                throw sql;
+        }
+    }
+
+    /**
+     * Method used to set an id parameter, 0 is written as null
+     * @param ps The statement
+     * @param index The parameter index
+     * @param id The id
+     */
+    private void setId(PreparedStatement ps, int index, int id)
+        throws SQLException {
+
+        if (id == 0)
+            ps.setNull(index, Types.INTEGER);
+        else
+            ps.setInt(index, id);
+    }
+
     /**
      * Method used to indicate if a record does already exists in the
      * server database. This method is used by Record object
@@ -247,4 +341,82 @@ public class AmbulanceRecordPacket implements Serializable {
     public boolean doesSignTimeExist() {
         return signTimeExist;
     }
+
+    /**
+     * Method used by the Record object to write this packet in the
+     * compact binary format
+     * @param out The stream the packet is written to
+     */
+    public void writeWire(WireOutput out) throws IOException {
+
+        out.writeDate(date);
+        out.writeInt(ambulanceNumber);
+        out.writeInt(stationId);
+        out.writeInt(prioOut);
+        out.writeInt(prioIn);
+        out.writeFloat(drivedKm);
+        out.writeInt(alarmCauseId);
+        out.writeString(alarmCause);
+        out.writeTime(alarmTime);
+        out.writeTime(leftStationTime);
+        out.writeString(accidentScene);
+        out.writeTime(arrivalAccidentTime);
+        out.writeTime(leftAccidentTime);
+        out.writeString(hospitalName);
+        out.writeTime(handOverTime);
+        out.writeTime(missionClosedTime);
+        out.writeInt(driverId);
+        out.writeInt(carerId);
+        out.writeTimestamp(signTime);
+        out.writeInt(signId);
+        out.writeString(delegatingDoctor);
+        out.writeInt(diagnosisId);
+        out.writeInt(accidentCityId);
+        out.writeInt(accidentZoneId);
+        out.writeInt(accidentPlaceId);
+        out.writeInt(dropOffCityId);
+        out.writeInt(dropOffPlaceId);
+        out.writeInt(dropOffZoneId);
+        out.writeTimestamp(creationTime);
+        out.writeString(recordKey);
+    }
+
+    /**
+     * Method used by the Record object to re-initialize this packet from
+     * the compact binary format
+     * @param in The stream the packet is read from
+     */
+    public void readWire(WireInput in) throws IOException {
+
+        date = in.readDate();
+        ambulanceNumber = in.readInt();
+        stationId = in.readInt();
+        prioOut = in.readInt();
+        prioIn = in.readInt();
+        drivedKm = in.readFloat();
+        alarmCauseId = in.readInt();
+        alarmCause = in.readString();
+        alarmTime = in.readTime();
+        leftStationTime = in.readTime();
+        accidentScene = in.readString();
+        arrivalAccidentTime = in.readTime();
+        leftAccidentTime = in.readTime();
+        hospitalName = in.readString();
+        handOverTime = in.readTime();
+        missionClosedTime = in.readTime();
+        driverId = in.readInt();
+        carerId = in.readInt();
+        signTime = in.readTimestamp();
+        signId = in.readInt();
+        delegatingDoctor = in.readString();
+        diagnosisId = in.readInt();
+        accidentCityId = in.readInt();
+        accidentZoneId = in.readInt();
+        accidentPlaceId = in.readInt();
+        dropOffCityId = in.readInt();
+        dropOffPlaceId = in.readInt();
+        dropOffZoneId = in.readInt();
+        creationTime = in.readTimestamp();
+        recordKey = in.readString();
+    }
 }
@@ -0,0 +1,176 @@
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import javax.net.ssl.*;
+
+/**
+ * Starts the server side of the ambulance system: opens the pool of
+ * database connections and starts an IngestServer on each port set in
+ * ServerRegisterKey, together with the background threads the sessions
+ * rely on. A port set to -1 is not listened on. The server
+ * certificate and the trusted client certificates are read from the
+ * keystores given by the javax.net.ssl.keyStore and
+ * javax.net.ssl.trustStore system properties.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class AmbulanceServer {
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //The database connections shared by the servers
+    private DB2ConnectPool pool;
+
+    //The started IngestServer objects
+    private Vector servers = new Vector();
+
+    //Rebuilds the reference snapshot, null if no snapshots are built
+    private ReferenceSnapshotBuilder snapshotBuilder = null;
+
+    //Compacts the update log, null if the log is not compacted
+    private UpdateLogCompactor compactor = null;
+
+    //Holds the UpdateWatch requests, null if they are not supported
+    private UpdateNotifier notifier = null;
+
+    /**
+     * Constructor, opens the database connections and brings the server
+     * database up to the schema the sessions write
+     * @param srk The server settings
+     * @param lgHandler Reference to the LogHandler object
+     * @throws SQLException if the connections could not be opened or the
+     * schema could not be upgraded
+     */
+    public AmbulanceServer(ServerRegisterKey srk, LogHandler lgHandler)
+        throws SQLException {
+
+        this.lgHandler = lgHandler;
+        pool = new DB2ConnectPool(srk.getDBPath(), srk.getDBUser(),
+                srk.getDBPass(), srk.getPoolSize(), lgHandler);
+
+        //No session has started, so a connection is idle
+        DB2Connect db2 = null;
+        try {
+            db2 = pool.acquire(0);
+            AmbulanceRecordPacket.upgradeSchema(db2);
+        } catch (InterruptedException ie) {
+            pool.close();
+            throw new SQLException("Interrupted while upgrading schema");
+        } catch (SQLException sql) {
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "AmbulanceServer/AmbulanceServer",
+                        "Failed to upgrade schema, SQLState: " +
+                        sql.getSQLState()));
+            if (db2 != null)
+                pool.release(db2);
+            pool.close();
+            throw sql;
+        }
+        pool.release(db2);
+    }
+
+    /**
+     * Method used to start the background threads and an IngestServer on
+     * every port in the settings
+     * @param srk The server settings
+     * @throws IOException if a port could not be listened on
+     */
+    public synchronized void start(ServerRegisterKey srk) throws IOException {
+
+        int[] ports = { srk.getAmbulancePort(),
+            srk.getAmbulancePatientPort(), srk.getAmbulanceUpdatePort(),
+            srk.getAmbulanceChannelPort() };
+        SSLServerSocketFactory factory =
+            (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
+
+        if (srk.getSnapshotInterval() > 0)
+            snapshotBuilder = new ReferenceSnapshotBuilder(pool,
+                    srk.getSnapshotInterval() * 60 * 1000L, lgHandler);
+        if (srk.getCompactInterval() > 0)
+            compactor = new UpdateLogCompactor(pool,
+                    srk.getCompactInterval() * 60 * 1000L, lgHandler);
+        if (srk.getWatchPoll() > 0)
+            notifier = new UpdateNotifier(pool,
+                    srk.getWatchPoll() * 1000L, lgHandler);
+
+        for (int i = 0; i < ports.length; i++) {
+            if (ports[i] < 0)
+                continue;
+
+            SSLServerSocket socket =
+                (SSLServerSocket) factory.createServerSocket(ports[i]);
+            socket.setNeedClientAuth(true);
+
+            IngestServer server = new IngestServer(socket, pool,
+                    srk.getMaxSessions(), srk.getWorkers(),
+                    srk.getDBTimeout() * 1000L, srk.getCompressLevel(),
+                    srk.getCompressThreshold(), lgHandler);
+            server.setUpdateNotifier(notifier);
+            server.start();
+            servers.add(server);
+            lgHandler.addLog(new Log("Listening on port " + ports[i]));
+        }
+    }
+
+    /**
+     * Method used to stop the servers and close the database connections
+     */
+    public synchronized void stop() {
+        for (int i = 0; i < servers.size(); i++)
+            ((IngestServer) servers.get(i)).stop();
+        servers.clear();
+        if (snapshotBuilder != null)
+            snapshotBuilder.stop();
+        if (compactor != null)
+            compactor.stop();
+        if (notifier != null)
+            notifier.stop();
+        pool.close();
+    }
+
+    public static void main(String args[]) {
+
+        LogHandler lg = null;
+
+        // Create a log handler
+        try {
+            lg = new LogHandler("serverlogg.txt");
+        } catch (Exception e) {
+            System.err.println("LogHandler exp " + e.getMessage());
+            System.exit(1);
+        }
+        lg.addLog(new Log("Ambulance Server"));
+
+        ServerRegisterKey srk = null;
+
+        // Read the registry
+        try {
+            srk = new ServerRegisterKey();
+        } catch (Exception e) {
+            System.err.println("Kan inte ladda inställningar från registret");
+            System.exit(1);
+        }
+
+        try {
+            final AmbulanceServer as = new AmbulanceServer(srk, lg);
+            as.start(srk);
+
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                    public void run() {
+                        as.stop();
+                    }
+            });
+        } catch (NullPointerException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -10,6 +10,9 @@ import java.io.*;
  */ 
 public class AmbulanceStatisticsPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 5961531397853828077L;
+
     private int policeConnected;
     private int helmet;
     private int seatBelt;
@@ -27,17 +30,15 @@ public class AmbulanceStatisticsPacket implements Serializable {
      * Constructor used by ambulance client to read the statistical
      * information from the client database
      * @param recordId is the patient record id at the client side
-     * @param db2 is the database connection at the client side
+     * @param snapshot is the rows read from the client database
      */
-    public AmbulanceStatisticsPacket(int recordId, DB2Connect db2)
+    public AmbulanceStatisticsPacket(int recordId, RecordSnapshot snapshot)
         throws  SQLException {
             
             /*Check if there are any statistical obsservations for this
               patient record*/
-            String query = "SELECT * FROM EPR.STATISTICS WHERE RECORD_ID = " +
-                recordId;
-            ResultSet resultSet = db2.dbQuery(query);
-            statisticalObservationExist = resultSet.next();
+            SnapshotRow resultSet = snapshot.getRow("STATISTICS", recordId);
+            statisticalObservationExist = resultSet != null;
             
             //IF there are any information, store it
             if (statisticalObservationExist) {
@@ -58,18 +59,61 @@ public class AmbulanceStatisticsPacket implements Serializable {
     public void writeStatisticPacket(DB2Connect db2, int recordId)
         throws SQLException {
 
-            String query;
+            PreparedStatement ps;
 
             /*If there are statistical information for this 
               patient record write it to the server database*/
             if (statisticalObservationExist) {
-                query = "INSERT INTO EPR.STATISTICS " +
+                ps = db2.prepareStatement("INSERT INTO EPR.STATISTICS " +
                     "(RECORD_ID, POLICE_CONNECTED, HELMET, SEAT_BELT, " +
-                    "NECK_SUPPORT, AIRBAG) VALUES (" + recordId + "," +
-                    policeConnected + "," + helmet + "," + seatBelt +
-                    "," + neckSupport + "," + airbag + ")";
-                
-                db2.dbQueryUpdate (query);
+                    "NECK_SUPPORT, AIRBAG) VALUES (?, ?, ?, ?, ?, ?)");
+                try {
+                    ps.setInt(1, recordId);
+                    ps.setInt(2, policeConnected);
+                    ps.setInt(3, helmet);
+                    ps.setInt(4, seatBelt);
+                    ps.setInt(5, neckSupport);
+                    ps.setInt(6, airbag);
+                    ps.executeUpdate();
+                } finally {
+                    ps.close();
+                }
             }
         }
+
+    /**
+     * Method used by the Record object to write this packet in the
+     * compact binary format
+     * @param out The stream the packet is written to
+     */
+    public void writeWire(WireOutput out) throws IOException {
+
+        out.writeBoolean(statisticalObservationExist);
+        if (!statisticalObservationExist)
+            return;
+
+        out.writeInt(policeConnected);
+        out.writeInt(helmet);
+        out.writeInt(seatBelt);
+        out.writeInt(neckSupport);
+        out.writeInt(airbag);
+    }
+
+    /**
+     * Method used by the Record object to re-initialize this packet from
+     * the compact binary format
+     * @param in The stream the packet is read from
+     */
+    public void readWire(WireInput in) throws IOException {
+
+        statisticalObservationExist = in.readBoolean();
+        if (!statisticalObservationExist)
+            return;
+
+        policeConnected = in.readInt();
+        helmet = in.readInt();
+        seatBelt = in.readInt();
+        neckSupport = in.readInt();
+        airbag = in.readInt();
+    }
 }
@@ -1,10 +1,13 @@
 import java.awt.event.*;
+import java.sql.SQLException;
 import javax.swing.JTextField;
 import javax.swing.text.*;
 import javax.swing.event.CaretEvent;
 
 /**
- * Class implementing a key listener for text fields.
+ * Class implementing a key listener for text fields. The words are looked
+ * up off the event thread and inserted when they arrive, a key pressed
+ * before that cancels the lookup.
  *
  * @version 20030626
  * @author Oskar Nisson
@@ -14,6 +17,8 @@ public class AutoComplete_Listener extends KeyAdapter
 
    private WordList wl;
    private int userid;
+   private DBExecutor executor;
+   private DBTask lookup = null; // The lookup not yet done, null if none
 
    private JTextComponent inputFld;
    private Document inputDoc;
@@ -37,6 +42,7 @@ public class AutoComplete_Listener extends KeyAdapter
       this.wl = wl;
       this.inputFld = inputFld;
       this.userid = userid;
+      executor = wl.getExecutor();
       inputDoc = inputFld.getDocument();
     }
 
@@ -44,8 +50,6 @@ public class AutoComplete_Listener extends KeyAdapter
     * Handle the key pressed event.
     */
    public void keyPressed(KeyEvent e) {
-      String result;
-
       int keyCode = e.getKeyCode();
       int modifiers = e.getModifiers();
 
@@ -59,10 +63,7 @@ public class AutoComplete_Listener extends KeyAdapter
             case java.awt.event.KeyEvent.VK_ALT:
                break;
             default:
-               if ((result = wl.getFavorite(e.getKeyChar(), userid)) != null)
-                  insertFavorite(result);
-               else
-                  reset();
+               findFavorite(e.getKeyChar());
          }
       }
 /*      else if (e.isShiftDown())
@@ -84,6 +85,35 @@ public class AutoComplete_Listener extends KeyAdapter
       }
    }
 
+   /**
+     * Method that looks up the favorite associated with a key and inserts
+     * it when it is found.
+     * @param c The key pressed.
+     */
+   public void findFavorite(final char c)
+   {
+      lookup = executor.submit(new DBTask(this) {
+         public Object run(DB2Connect dbcon)
+         {
+            return wl.getFavorite(c, userid);
+         }
+
+         public void succeeded(Object result)
+         {
+            lookup = null;
+            if (result != null)
+               insertFavorite((String) result);
+            else
+               reset();
+         }
+
+         public void failed(SQLException e)
+         {
+            reset();
+         }
+      });
+   }
+
    /**
      * Method used to insert a favorite into the text compenent.
      * @param str The string to insert.
@@ -114,15 +144,34 @@ public class AutoComplete_Listener extends KeyAdapter
      */
    public void findWord()
    {
-      String sug = null;
       String text = null;
 
+      if (lookup != null) // The last lookup is not done
+         return;
+
       if (completeMode) // A word already suggested
       {
          try {
             inputDoc.remove(startCaretIdx, wordLength);
          } catch (BadLocationException e) {}
-         sug = wl.getNextWord();
+         wordLength = 0;
+         lookup = executor.submit(new DBTask(this) {
+            public Object run(DB2Connect dbcon)
+            {
+               return wl.getNextWord();
+            }
+
+            public void succeeded(Object result)
+            {
+               lookup = null;
+               showWord((String) result);
+            }
+
+            public void failed(SQLException e)
+            {
+               reset();
+            }
+         });
       }
       else  // The first suggestion
       {
@@ -143,11 +192,36 @@ public class AutoComplete_Listener extends KeyAdapter
 
          lastSeparatorIdx = firstIdx + last;
          matchLength = startCaretIdx - lastSeparatorIdx;
+         wordLength = 0;
+
+         final String word = (text.substring(last, startCaretIdx - firstIdx)).
+               toLowerCase();
+         lookup = executor.submit(new DBTask(this) {
+            public Object run(DB2Connect dbcon)
+            {
+               return wl.getWord(word);
+            }
 
-         sug = wl.getWord((text.substring(last, startCaretIdx - firstIdx)).
-               toLowerCase());
+            public void succeeded(Object result)
+            {
+               lookup = null;
+               showWord((String) result);
+            }
+
+            public void failed(SQLException e)
+            {
+               reset();
+            }
+         });
       }
+   }
 
+   /**
+     * Method that inserts the completion found by findWord.
+     * @param sug The completion, null if no word was found.
+     */
+   public void showWord(String sug)
+   {
       if (sug == null)  // Check if there exists any suggestions
       {
          completeMode = false;
@@ -174,6 +248,7 @@ public class AutoComplete_Listener extends KeyAdapter
      */
    public void useWord()
    {
+      cancelLookup();
       if (completeMode)
       {
          int caretIdx = inputFld.getCaretPosition();
@@ -187,6 +262,7 @@ public class AutoComplete_Listener extends KeyAdapter
      */
    public void reset()
    {
+      cancelLookup();
       if (completeMode)
       {
          try {
@@ -195,4 +271,16 @@ public class AutoComplete_Listener extends KeyAdapter
          completeMode = false;
       }
    }
+
+   /**
+     * Method that cancels a lookup that is not done.
+     */
+   private void cancelLookup()
+   {
+      if (lookup != null)
+      {
+         executor.cancel(this);
+         lookup = null;
+      }
+   }
 }
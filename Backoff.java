@@ -0,0 +1,61 @@
+import java.util.Random;
+
+/**
+ * Class that calculates the delays between the attempts of a task that
+ * fails, like sending records or reaching the server. The delay doubles
+ * for each failed attempt up to a longest delay. A random jitter can be
+ * added so the ambulances do not all retry at the same time.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class Backoff {
+
+    //Delay before the first retry in ms
+    private long baseDelay;
+
+    //Longest delay between two attempts in ms
+    private long maxDelay;
+
+    //Source of the jitter added to the delays
+    private Random random = new Random();
+
+    /**
+     * Constructor
+     * @param baseDelay Delay before the first retry in ms
+     * @param maxDelay Longest delay between two attempts in ms
+     */
+    public Backoff(long baseDelay, long maxDelay) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Method used to calculate the delay before the next attempt
+     * @param attempts The number of failed attempts so far
+     * @return The delay in ms
+     */
+    public long getDelay(int attempts) {
+
+        long delay = baseDelay;
+        for (int i = 0; i < attempts && delay < maxDelay; i++)
+            delay = delay * 2;
+        if (delay > maxDelay)
+            delay = maxDelay;
+        return delay;
+    }
+
+    /**
+     * Method used to calculate the delay before the next attempt with a
+     * random jitter, from half to all of the delay
+     * @param attempts The number of failed attempts so far
+     * @return The delay in ms
+     */
+    public long getJitteredDelay(int attempts) {
+
+        long delay = getDelay(attempts);
+
+        //Use half of the delay plus a random part of the other half
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+}
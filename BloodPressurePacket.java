@@ -11,6 +11,9 @@ import java.io.*;
  */
 public class BloodPressurePacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 8278741945090291952L;
+
     private Time obsTime;
     private int diastol;
     private int systol;
@@ -10,6 +10,9 @@ import java.io.*;
  */
 public class BodyPositionPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 5138150926364902611L;
+
     private Time obsTime;
     private int position;
 
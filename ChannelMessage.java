@@ -0,0 +1,75 @@
+import java.io.*;
+
+/**
+ * This object represent a message on the shared channel between an
+ * ambulance client and the server. A reply carries the request id of
+ * the request it answers.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class ChannelMessage implements Serializable {
+
+    //Version of the serialized form
+    private static final long serialVersionUID = -7768257060894707257L;
+
+    //Keeps the connection alive, the server echoes it
+    public static final int HEARTBEAT = 0;
+
+    //A Record, answered with a ServerAcknowledgement
+    public static final int RECORD = 1;
+
+    //An UpdatePacket, answered with the UpdatePacket holding the updates
+    public static final int UPDATE = 2;
+
+    //The Timestamp of the applied update version, echoed by the server
+    public static final int UPDATE_VERSION = 3;
+
+    //An AmbulancePatientInformation, answered with the filled in packet
+    public static final int PATIENT = 4;
+
+    private long requestId;
+    private int type;
+    private Object payload;
+
+    /**
+     * Constructor used for serialization
+     */
+    public ChannelMessage() { }
+
+    /**
+     * Constructor used to create a message
+     * @param requestId The id of the request, the reply uses the same id
+     * @param type The type of the message
+     * @param payload The packet carried by this message
+     */
+    public ChannelMessage(long requestId, int type, Object payload) {
+        this.requestId = requestId;
+        this.type = type;
+        this.payload = payload;
+    }
+
+    /**
+     * Method used to get the request id
+     * @return The request id
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Method used to get the type of the message
+     * @return The message type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Method used to get the packet carried by this message
+     * @return The packet
+     */
+    public Object getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,63 @@
+import java.io.*;
+
+/**
+ * Class that reads the messages the server sends on the shared channel
+ * and hands them to the channel, which passes each reply to the request
+ * with the same request id.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class ChannelReceiveThread implements Runnable {
+
+    private LogHandler lgHandler;
+    private ServerChannel channel;
+    private ServerConnection connection;
+
+    /**
+     * Constructor, used to initialize and start this thread
+     * @param lgHandler Reference to LogHandler object
+     * @param channel The channel the messages are handed to
+     * @param connection The connection this thread will read messages from
+     */
+    public ChannelReceiveThread(LogHandler lgHandler, ServerChannel channel,
+            ServerConnection connection) {
+
+        this.lgHandler = lgHandler;
+        this.channel = channel;
+        this.connection = connection;
+
+        Thread thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Background thread, used to read messages until the connection
+     * is closed
+     */
+    public void run() {
+
+        Log log;
+
+        try {
+            while (true) {
+                ChannelMessage msg = (ChannelMessage) connection.readObject();
+                channel.messageReceived(msg);
+            }
+        } catch (IOException ie) {
+            if (!connection.isClosed()) {
+                log = new Log(ie.getMessage(), "ChannelReceiveThread/run",
+                        "Failed to read packets from server");
+                lgHandler.addLog(log);
+            }
+            channel.connectionLost(connection, ie.getMessage());
+        } catch (ClassNotFoundException cnfe) {
+            log = new Log(cnfe.getMessage(), "ChannelReceiveThread/run",
+                    "Class versions is not the same at client and server");
+            lgHandler.addLog(log);
+
+            channel.connectionLost(connection, "Paketversion konflikt");
+        }
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Interface for objects that are informed when a request sent on the
+ * shared server channel is answered or has failed.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public interface ChannelReplyInterface {
+
+    /**
+     * Method called by the channel when the request is completed
+     * @param request The completed request
+     */
+    public void replyReceived(ChannelRequest request);
+}
@@ -0,0 +1,185 @@
+import java.io.*;
+
+/**
+ * Class that represent a request sent on the shared server channel that
+ * waits for its reply. Threads may wait on the request until the reply
+ * has arrived, or register a ChannelReplyInterface to be called back.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class ChannelRequest {
+
+    private long requestId;
+    private int type;
+    private ChannelReplyInterface listener;
+
+    //Set when the reply is received or the request has failed
+    private boolean done = false;
+
+    //The packet received as reply
+    private Object reply = null;
+
+    //Description of the failure, null if the request has not failed
+    private String error = null;
+
+    //The time in ms after which the request is given up
+    private long deadline;
+
+    //Set when the request was given up without a reply
+    private boolean expired = false;
+
+    /**
+     * Constructor
+     * @param requestId The id of the request
+     * @param type The message type of the request
+     * @param listener Object called when the request is completed, or null
+     * @param timeout Time in ms the reply is waited for before the
+     * channel gives the request up
+     */
+    public ChannelRequest(long requestId, int type,
+            ChannelReplyInterface listener, long timeout) {
+
+        this.requestId = requestId;
+        this.type = type;
+        this.listener = listener;
+        deadline = System.currentTimeMillis() + timeout;
+    }
+
+    /**
+     * Method used to get the request id
+     * @return The request id
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Method used to get the message type of the request
+     * @return The message type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Method used by the channel when the reply is received
+     * @param reply The packet received as reply
+     */
+    public void complete(Object reply) {
+        synchronized (this) {
+            if (done)
+                return;
+            this.reply = reply;
+            done = true;
+            notifyAll();
+        }
+        if (listener != null)
+            listener.replyReceived(this);
+    }
+
+    /**
+     * Method used when the request can not be answered
+     * @param error Description of the failure
+     */
+    public void fail(String error) {
+        synchronized (this) {
+            if (done)
+                return;
+            this.error = error;
+            done = true;
+            notifyAll();
+        }
+        if (listener != null)
+            listener.replyReceived(this);
+    }
+
+    /**
+     * Method used to cancel the request, a later reply is ignored
+     */
+    public void cancel() {
+        fail("Request cancelled");
+    }
+
+    /**
+     * Method used by the channel to give the request up when no reply
+     * has been received in time
+     */
+    public void expire() {
+        synchronized (this) {
+            if (done)
+                return;
+            expired = true;
+        }
+        fail("No reply from server");
+    }
+
+    /**
+     * Method used to indicate if the request should be given up
+     * @param now The current time in ms
+     * @return true if the request is done or its time is up
+     */
+    public synchronized boolean isOverdue(long now) {
+        return done || now >= deadline;
+    }
+
+    /**
+     * Method used to indicate if the request was given up without a reply
+     * @return true if no reply was received in time
+     */
+    public synchronized boolean hasExpired() {
+        return expired;
+    }
+
+    /**
+     * Method used to indicate if the request has failed
+     * @return true if the request failed or was cancelled
+     */
+    public synchronized boolean hasFailed() {
+        return done && error != null;
+    }
+
+    /**
+     * Method used to get the description of the failure
+     * @return The description, null if the request has not failed
+     */
+    public synchronized String getError() {
+        return error;
+    }
+
+    /**
+     * Method used to get the reply without waiting
+     * @return The packet received as reply, null if not received
+     */
+    public synchronized Object getReply() {
+        return reply;
+    }
+
+    /**
+     * Method used to wait for the reply
+     * @param timeout The longest time to wait in ms
+     * @return The packet received as reply
+     * @throws IOException If the request failed or no reply was received
+     * within the time
+     */
+    public synchronized Object waitForReply(long timeout)
+        throws IOException {
+
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while (!done) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0)
+                throw new IOException("No reply from server");
+            try {
+                wait(left);
+            } catch (InterruptedException ie) {
+                throw new InterruptedIOException(ie.getMessage());
+            }
+        }
+
+        if (error != null)
+            throw new IOException(error);
+        return reply;
+    }
+}
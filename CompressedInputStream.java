@@ -0,0 +1,193 @@
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Stream that reads the blocks written by CompressedOutputStream and
+ * inflates the compressed ones. The bytes before and after inflation
+ * are counted.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class CompressedInputStream extends FilterInputStream {
+
+    //Used to inflate the blocks
+    private Inflater inflater = new Inflater();
+
+    //The bytes of the current block
+    private byte[] buf = new byte[CompressedOutputStream.MAX_BLOCK];
+    private int pos = 0;
+    private int count = 0;
+
+    //Used to hold the compressed block
+    private byte[] deflated = new byte[CompressedOutputStream.MAX_BLOCK + 64];
+
+    //Bytes read by this stream, after and before inflation
+    private long rawBytes = 0;
+    private long wireBytes = 0;
+
+    /**
+     * Constructor
+     * @param in The stream the blocks are read from
+     */
+    public CompressedInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Method used to read a byte
+     * @return The byte, -1 at the end of the stream
+     */
+    public int read() throws IOException {
+        if (pos == count && !readBlock())
+            return -1;
+        return buf[pos++] & 0xFF;
+    }
+
+    /**
+     * Method used to read into a part of an array
+     * @param b The array
+     * @param off The first position to fill
+     * @param len The largest number of bytes to read
+     * @return The number of bytes read, -1 at the end of the stream
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (pos == count && !readBlock())
+            return -1;
+        int n = Math.min(len, count - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * Method used to get the number of bytes that can be read without
+     * blocking
+     * @return The bytes left in the current block
+     */
+    public int available() throws IOException {
+        return count - pos;
+    }
+
+    /**
+     * Method used to skip bytes
+     * @param n The number of bytes to skip
+     * @return The number of bytes skipped
+     */
+    public long skip(long n) throws IOException {
+        if (pos == count && !readBlock())
+            return 0;
+        int skipped = (int) Math.min(n, count - pos);
+        pos += skipped;
+        return skipped;
+    }
+
+    /**
+     * Method used to tell that mark is not supported
+     * @return false
+     */
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Method used to close the stream
+     */
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    /**
+     * Method used to read the next block
+     * @return false at the end of the stream
+     */
+    private boolean readBlock() throws IOException {
+
+        int type = in.read();
+        if (type == -1)
+            return false;
+
+        int length = readInt();
+        int wireLength = readInt();
+
+        if (length < 0 || length > buf.length ||
+                wireLength < 0 || wireLength > deflated.length)
+            throw new StreamCorruptedException("Block length " + length);
+
+        if (type == CompressedOutputStream.STORED) {
+            if (wireLength != length)
+                throw new StreamCorruptedException("Stored block length");
+            readFully(buf, length);
+        } else if (type == CompressedOutputStream.DEFLATED) {
+            readFully(deflated, wireLength);
+            inflater.reset();
+            inflater.setInput(deflated, 0, wireLength);
+            try {
+                int n = 0;
+                while (n < length && !inflater.finished())
+                    n += inflater.inflate(buf, n, length - n);
+                if (n != length)
+                    throw new StreamCorruptedException("Block too short");
+            } catch (DataFormatException dfe) {
+                throw new StreamCorruptedException(dfe.getMessage());
+            }
+        } else
+            throw new StreamCorruptedException("Block type " + type);
+
+        rawBytes += length;
+        wireBytes += wireLength + 9;
+        pos = 0;
+        count = length;
+        return true;
+    }
+
+    /**
+     * Method used to read an int with the most significant byte first
+     * @return The value
+     */
+    private int readInt() throws IOException {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b == -1)
+                throw new EOFException();
+            v = (v << 8) | b;
+        }
+        return v;
+    }
+
+    /**
+     * Method used to read a number of bytes from the underlying stream
+     * @param b The array to fill from the start
+     * @param len The number of bytes
+     */
+    private void readFully(byte[] b, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int r = in.read(b, n, len - n);
+            if (r == -1)
+                throw new EOFException();
+            n += r;
+        }
+    }
+
+    /**
+     * Method used to get the number of bytes read from this stream
+     * @return The number of bytes after inflation
+     */
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * Method used to get the number of bytes read from the underlying
+     * stream
+     * @return The number of bytes before inflation
+     */
+    public long getWireBytes() {
+        return wireBytes;
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Stream that collects the bytes written between two flushes into a
+ * block, and writes the block Deflate compressed if it is at least as
+ * large as the threshold and gets smaller by compression. Each block
+ * starts with its type, its length before compression and its length
+ * on the stream. The bytes before and after compression are counted.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class CompressedOutputStream extends FilterOutputStream {
+
+    //Block types
+    public static final int STORED = 0;
+    public static final int DEFLATED = 1;
+
+    //Largest block, a larger message is split in several blocks
+    public static final int MAX_BLOCK = 64 * 1024;
+
+    //Bytes written by all streams in this process, before and after
+    private static long totalRawBytes = 0;
+    private static long totalWireBytes = 0;
+
+    //Used to compress the blocks
+    private Deflater deflater;
+
+    //Blocks smaller than this are not compressed
+    private int threshold;
+
+    //The bytes of the current block
+    private byte[] buf = new byte[MAX_BLOCK];
+    private int count = 0;
+
+    //Used to hold the compressed block
+    private byte[] deflated = new byte[MAX_BLOCK + 64];
+
+    //Bytes written by this stream, before and after compression
+    private long rawBytes = 0;
+    private long wireBytes = 0;
+
+    /**
+     * Constructor
+     * @param out The stream the blocks are written to
+     * @param level The Deflate level, 0-9
+     * @param threshold The smallest block that is compressed
+     */
+    public CompressedOutputStream(OutputStream out, int level,
+            int threshold) {
+        super(out);
+        this.threshold = threshold;
+        deflater = new Deflater(level);
+    }
+
+    /**
+     * Method used to write a byte
+     * @param b The byte
+     */
+    public void write(int b) throws IOException {
+        if (count == buf.length)
+            writeBlock();
+        buf[count++] = (byte) b;
+    }
+
+    /**
+     * Method used to write a part of an array
+     * @param b The array
+     * @param off The first byte to write
+     * @param len The number of bytes to write
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buf.length)
+                writeBlock();
+            int n = Math.min(len, buf.length - count);
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Method used to write the current block and flush the stream
+     */
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Method used to write the current block and close the stream
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Method used to write the current block, compressed if it is
+     * worth it
+     */
+    private void writeBlock() throws IOException {
+
+        if (count == 0)
+            return;
+
+        int type = STORED;
+        byte[] data = buf;
+        int length = count;
+
+        if (count >= threshold) {
+            deflater.reset();
+            deflater.setInput(buf, 0, count);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished() && n < deflated.length)
+                n += deflater.deflate(deflated, n, deflated.length - n);
+
+            //Blocks that do not get smaller are stored
+            if (deflater.finished() && n < count) {
+                type = DEFLATED;
+                data = deflated;
+                length = n;
+            }
+        }
+
+        out.write(type);
+        writeInt(count);
+        writeInt(length);
+        out.write(data, 0, length);
+
+        synchronized (CompressedOutputStream.class) {
+            totalRawBytes += count;
+            totalWireBytes += length + 9;
+        }
+        rawBytes += count;
+        wireBytes += length + 9;
+        count = 0;
+    }
+
+    /**
+     * Method used to write an int with the most significant byte first
+     * @param v The value
+     */
+    private void writeInt(int v) throws IOException {
+        out.write((v >>> 24) & 0xFF);
+        out.write((v >>> 16) & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+        out.write(v & 0xFF);
+    }
+
+    /**
+     * Method used to get the number of bytes written to this stream
+     * @return The number of bytes before compression
+     */
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * Method used to get the number of bytes this stream has written to
+     * the underlying stream
+     * @return The number of bytes after compression
+     */
+    public long getWireBytes() {
+        return wireBytes;
+    }
+
+    /**
+     * Method used to get the number of bytes written to all compressed
+     * streams in this process
+     * @return The number of bytes before compression
+     */
+    public static synchronized long getTotalRawBytes() {
+        return totalRawBytes;
+    }
+
+    /**
+     * Method used to get the number of bytes all compressed streams in
+     * this process have written to their underlying streams
+     * @return The number of bytes after compression
+     */
+    public static synchronized long getTotalWireBytes() {
+        return totalWireBytes;
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Background thread that watches the connections of a DB2Connect. The
+ * idle connections are checked with a cheap query, and a broken one is
+ * closed so it is not leased again. When no connection is left a new one
+ * is opened, at once and then with a backoff up to MAX_DELAY. For a local
+ * database the JDBC applet server is started if the first attempts fail.
+ * The changes between lost and working are logged and reported to the
+ * DBStateInterface.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class ConnectionSupervisor implements Runnable {
+
+    //Time in ms between two checks while the connection works
+    private final long CHECK_INTERVAL = 5 * 1000;
+
+    //Delay in ms before the second reconnect
+    private final long BASE_DELAY = 100;
+
+    //Longest delay in ms between two reconnects
+    private final long MAX_DELAY = 5 * 1000;
+
+    //The number of failed reconnects before the applet server is started
+    private final int START_SERVER_AFTER = 3;
+
+    //The connections watched
+    private DB2Connect dbcon;
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //Informed when the state changes, null if none
+    private DBStateInterface listener = null;
+
+    //Set while the database can be reached
+    private boolean available = true;
+
+    //The delays between the reconnects
+    private Backoff backoff = new Backoff(BASE_DELAY, MAX_DELAY);
+
+    //The number of failed reconnects since the connection was lost
+    private int failures = 0;
+
+    //Set when a check is asked for before the next is due
+    private boolean checkNow = false;
+
+    //Set when the thread is stopped
+    private boolean stopped = false;
+
+    /**
+     * Constructor, starts the background thread
+     * @param dbcon The connections to watch
+     * @param lgHandler Reference to LogHandler object
+     */
+    public ConnectionSupervisor(DB2Connect dbcon, LogHandler lgHandler) {
+
+        this.dbcon = dbcon;
+        this.lgHandler = lgHandler;
+
+        Thread thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method used to set the object informed when the state changes
+     * @param listener The object, null for none
+     */
+    public synchronized void setListener(DBStateInterface listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Method used to see if the database can be reached
+     * @return false if the connection is lost and not yet opened again
+     */
+    public synchronized boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Method used to make the thread check the connections at once, used
+     * when a call has failed because its connection broke
+     */
+    public synchronized void check() {
+        checkNow = true;
+        notifyAll();
+    }
+
+    /**
+     * Method used to stop the background thread
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Method used to calculate the delay before the next reconnect, the
+     * first is made at once
+     * @return The delay in ms
+     */
+    private long getDelay() {
+
+        if (available || failures == 0)
+            return CHECK_INTERVAL;
+
+        return backoff.getDelay(failures - 1);
+    }
+
+    /**
+     * Method used to change the state and report it
+     * @param state true if the database can be reached
+     */
+    private void setAvailable(boolean state) {
+
+        DBStateInterface informed;
+        synchronized (this) {
+            if (available == state)
+                return;
+            available = state;
+            informed = listener;
+        }
+
+        lgHandler.addLog(new Log(state ? "Database connection restored" :
+                    "Database connection lost", "ConnectionSupervisor/run",
+                    state ? "Reconnected after " + failures + " attempts" :
+                    "Reconnecting"));
+        if (informed != null)
+            informed.databaseStateChanged(state);
+    }
+
+    /**
+     * Background thread, used to check the connections and reconnect
+     */
+    public void run() {
+
+        while (true) {
+            synchronized (this) {
+                long end = System.currentTimeMillis() + getDelay();
+                try {
+                    while (!stopped && !checkNow) {
+                        long left = end - System.currentTimeMillis();
+                        if (left <= 0)
+                            break;
+                        wait(left);
+                    }
+                } catch (InterruptedException ie) {
+                    lgHandler.addLog(new Log(ie.getMessage(),
+                                "ConnectionSupervisor/run",
+                                "InterruptedException"));
+                    return;
+                }
+                if (stopped)
+                    return;
+                checkNow = false;
+            }
+
+            if (dbcon.checkConnections()) {
+                setAvailable(true);
+                failures = 0;
+            } else {
+                setAvailable(false);
+                failures++;
+                if (failures == START_SERVER_AFTER)
+                    dbcon.startServer();
+            }
+        }
+    }
+}
@@ -1,17 +1,25 @@
 import java.sql.*;
 import java.lang.*;
+import java.lang.reflect.*;
 import java.io.*;
 import java.util.*;
 
 /**
- * Class that handles connections to the database.
+ * Class that handles connections to the database. Each thread leases a
+ * connection of a small pool, so a background thread does not wait for
+ * the statements of another thread or join its transaction. The lease is
+ * given back after each call, unless the thread has turned off auto
+ * commit or holds statements that are not closed yet. Then it is given
+ * back when the transaction ends or the last of them is closed. A result
+ * read in auto commit does not keep the lease, it stays open on the
+ * connection after it is given back.
  *
  * @author Kane Neman
  * @version 20030904
  */
 public class DB2Connect implements Runnable {
 
-    //Connection handle to the database
+    //Connection handle opened by connect, then kept by the pool
     private Connection con;
 
     //Process for executing db2jstrt command
@@ -46,6 +54,75 @@ public class DB2Connect implements Runnable {
 
     private boolean remote;
 
+    //The largest number of prepared statements kept per connection
+    private final int STATEMENT_CACHE_SIZE = 64;
+
+    //The largest number of connections open at the same time by default
+    private final int MAX_CONNECTIONS = 4;
+
+    //The largest number of connections open at the same time
+    private int maxConnections = MAX_CONNECTIONS;
+
+    //Time in ms an idle connection is kept open, the last one is kept
+    private final long IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    //Time in ms a connection may be idle before it is checked when leased
+    private final long VALIDATE_AFTER = 30 * 1000;
+
+    //The longest time in ms to wait for a free connection
+    private final long LEASE_TIMEOUT = 60 * 1000;
+
+    //Time in ms between two checks for leases of threads that have ended
+    private final long RECLAIM_INTERVAL = 1000;
+
+    //Query used to check that an idle connection still works
+    private final String VALIDATE_QUERY = "SELECT 1 FROM SYSIBM.SYSDUMMY1";
+
+    //Every open connection of the pool
+    private Vector connections = new Vector();
+
+    //The connections not leased to a thread
+    private Vector idle = new Vector();
+
+    //The connections leased to a thread, keyed by the thread
+    private Hashtable leases = new Hashtable();
+
+    //The number of connections being opened
+    private int opening = 0;
+
+    //Set from connect to disconnect
+    private boolean connected = false;
+
+    //The time in ms of the last check for leases of ended threads
+    private long lastReclaim = 0;
+
+    //Queries that take this many ms or more are written to the log
+    private final long SLOW_QUERY_TIME = 500;
+
+    //Time in ms an idle connection is left before the supervisor checks it
+    private final long PING_AFTER = 5 * 1000;
+
+    //The number of times a read is made when its connection breaks
+    private final int READ_ATTEMPTS = 2;
+
+    //DB2 error codes of a connection that is broken
+    private final int[] BROKEN_CODES = { -1224, -4499, -30080, -30081 };
+
+    //Threads whose transaction was lost with its connection
+    private Hashtable lostTransactions = new Hashtable();
+
+    //Watches the connections and reconnects, null until connected
+    private ConnectionSupervisor supervisor = null;
+
+    //The calls, time and rows of the queries per statement shape
+    private QueryStatistics statistics = new QueryStatistics();
+
+    //The number of parameterized queries that found a prepared statement
+    private long statementHits = 0;
+
+    //The number of parameterized queries that prepared a new statement
+    private long statementMisses = 0;
+
     static {//load the driver
         try {
             Class.forName("COM.ibm.db2.jdbc.net.DB2Driver");
@@ -70,6 +147,24 @@ public class DB2Connect implements Runnable {
         processThread = new Thread(this);
     }
 
+    /**
+     * Constructor for an object that opens at most a given number of
+     * connections, 1 when the object is itself one connection of a pool
+     * and is only used by one thread at a time.
+     * @param dbadress Address to the database.
+     * @param lgHandler Reference to the LogHandler object
+     * @param remote Indicates the access to a local or remote database.
+     * True indicates a remote database and false a local database
+     * @param maxConnections The largest number of connections open at
+     * the same time
+     */
+    public DB2Connect(String dbaddress, LogHandler lgHandler, boolean remote,
+            int maxConnections) {
+
+        this(dbaddress, lgHandler, remote);
+        this.maxConnections = maxConnections;
+    }
+
     /**
      * Background thread, used to sleep this process for each
      * failure attempt to run the db2jstrt command and connect to
@@ -129,8 +224,10 @@ public class DB2Connect implements Runnable {
      * @param userId The user name to connect with.
      * @param pwd The password to connect with.
      * @return Null if ok else an error message
+     * @throws java.sql.SQLException Thrown when no connection could be
+     * opened.
      */
-    public String connect(String userId, String pwd) {
+    public String connect(String userId, String pwd) throws SQLException {
 
         this.userId = userId;
         this.pwd = pwd;
@@ -150,39 +247,595 @@ public class DB2Connect implements Runnable {
         }
 
         if (con == null)
-            throw new NullPointerException("Failed to connect to DB");
+            throw new SQLException("Failed to connect to DB", "08001");
+
+        synchronized (this) {
+            PooledConnection pc = new PooledConnection(con);
+            connections.add(pc);
+            idle.add(pc);
+            connected = true;
+            notifyAll();
+            if (supervisor == null)
+                supervisor = new ConnectionSupervisor(this, lgHandler);
+        }
+        con = null;
         return message;
     }
 
     /**
-     * Method that disconnects from the database.
+     * Method that disconnects from the database. The query statistics
+     * are written to the log first.
      */
     public void disconnect() {
 
+        if (statistics.getShapeCount() > 0)
+            logQueryStatistics();
+
+        Vector open;
+        synchronized (this) {
+            if (supervisor != null)
+                supervisor.stop();
+            supervisor = null;
+            connected = false;
+            open = new Vector(connections);
+            connections.clear();
+            idle.clear();
+            leases.clear();
+            notifyAll();
+        }
+
+        for (int i = 0; i < open.size(); i++)
+            ((PooledConnection) open.elementAt(i)).close();
+    }
+
+    /**
+     * Method used to get the connection leased to the calling thread. A
+     * thread without a lease gets an idle connection, or a new one if
+     * fewer than maxConnections are open, or waits for one to be given
+     * back. A connection that has been idle a while is checked first.
+     * @return The connection
+     * @throws SQLException if no connection could be leased in time
+     */
+    private PooledConnection lease() throws SQLException {
+
+        Thread thread = Thread.currentThread();
+        long end = System.currentTimeMillis() + LEASE_TIMEOUT;
+        boolean mayOpen = true;
+
+        while (true) {
+            PooledConnection pc = null;
+
+            synchronized (this) {
+                reclaim();
+                pc = (PooledConnection) leases.get(thread);
+                if (pc != null)
+                    return pc;
+                if (lostTransactions.containsKey(thread))
+                    throw new SQLException("The transaction was lost with " +
+                            "its connection, it must be rolled back", "08003");
+
+                while (true) {
+                    if (!connected)
+                        throw new SQLException(
+                                "Not connected to the database");
+                    if (!idle.isEmpty()) {
+                        pc = takeIdle();
+                        break;
+                    }
+                    if (mayOpen &&
+                            connections.size() + opening < maxConnections) {
+                        opening++;
+                        break;
+                    }
+
+                    long left = end - System.currentTimeMillis();
+                    if (left <= 0)
+                        throw new SQLException("No free database connection");
+                    try {
+                        wait(Math.min(left, RECLAIM_INTERVAL));
+                    } catch (InterruptedException ie) {
+                        throw new SQLException("Interrupted while waiting " +
+                                "for a database connection");
+                    }
+                    reclaim();
+                }
+            }
+
+            if (pc == null) {
+                pc = open();
+                mayOpen = pc != null;
+            } else if (!validate(pc)) {
+                discard(pc);
+                pc = null;
+            }
+
+            if (pc != null) {
+                synchronized (this) {
+                    pc.owner = thread;
+                    pc.lease++;
+                    leases.put(thread, pc);
+                }
+                return pc;
+            }
+        }
+    }
+
+    /**
+     * Method used to take an idle connection, one without open results
+     * if there is one, so a transaction does not close the results of
+     * another thread. Called with the lock held.
+     * @return The connection
+     */
+    private PooledConnection takeIdle() {
+
+        for (int i = idle.size() - 1; i >= 0; i--) {
+            PooledConnection pc = (PooledConnection) idle.elementAt(i);
+            if (pc.reads == 0) {
+                idle.removeElementAt(i);
+                return pc;
+            }
+        }
+        return (PooledConnection) idle.remove(idle.size() - 1);
+    }
+
+    /**
+     * Method used to open one more connection for the pool
+     * @return The connection, null if it could not be opened but other
+     * connections are open
+     * @throws SQLException if it could not be opened and no other
+     * connection is open
+     */
+    private PooledConnection open() throws SQLException {
+
+        Connection opened = null;
+        SQLException failure = null;
+
         try {
-            con.close();
-        } catch(SQLException sql) {
-            while (sql != null) {
-                lgHandler.addLog(
-                        new Log(sql.getMessage(),
-                            "SQLState: " + sql.getSQLState(),
-                            "ERRORCode: " + sql.getErrorCode()));
+            opened = DriverManager.getConnection(dbaddress, userId, pwd);
+        } catch (SQLException sql) {
+            failure = sql;
+        }
+
+        synchronized (this) {
+            opening--;
+            notifyAll();
+
+            if (opened != null) {
+                PooledConnection pc = new PooledConnection(opened);
+                if (connected) {
+                    connections.add(pc);
+                    return pc;
+                }
+                pc.close();
+                throw new SQLException("Not connected to the database");
+            }
 
-                sql = sql.getNextException();
-            }//while
+            if (connections.isEmpty())
+                throw failure;
         }
+
+        lgHandler.addLog(new Log(failure.getMessage(), "DB2Connect/open",
+                    "Failed to open one more connection"));
+        return null;
     }
 
     /**
-     * Method that executes a database query.
+     * Method used to check a connection that has been idle a while
+     * @param pc The connection
+     * @return true if the connection works
+     */
+    private boolean validate(PooledConnection pc) {
+
+        if (System.currentTimeMillis() -
+                Math.max(pc.lastUsed, pc.lastChecked) < VALIDATE_AFTER)
+            return true;
+        return ping(pc);
+    }
+
+    /**
+     * Method used to check a connection with a cheap query
+     * @param pc The connection
+     * @return true if the connection works
+     */
+    private boolean ping(PooledConnection pc) {
+
+        try {
+            Statement stmt = pc.con.createStatement();
+            try {
+                stmt.executeQuery(VALIDATE_QUERY).close();
+            } finally {
+                stmt.close();
+            }
+            pc.lastChecked = System.currentTimeMillis();
+            return true;
+        } catch (SQLException sql) {
+            lgHandler.addLog(new Log(sql.getMessage(), "DB2Connect/ping",
+                        "Idle connection does not work, it is closed"));
+            return false;
+        }
+    }
+
+    /**
+     * Method used by the supervisor to check the idle connections not used
+     * or checked for PING_AFTER ms, and to open a connection when none is
+     * left
+     * @return true if a connection works or none is needed
+     */
+    boolean checkConnections() {
+
+        Vector checked = new Vector();
+        synchronized (this) {
+            if (!connected)
+                return true;
+            long now = System.currentTimeMillis();
+            for (int i = idle.size() - 1; i >= 0; i--) {
+                PooledConnection pc = (PooledConnection) idle.elementAt(i);
+                if (now - Math.max(pc.lastUsed, pc.lastChecked) >=
+                        PING_AFTER) {
+                    idle.removeElementAt(i);
+                    checked.add(pc);
+                }
+            }
+        }
+
+        for (int i = 0; i < checked.size(); i++) {
+            PooledConnection pc = (PooledConnection) checked.elementAt(i);
+            if (ping(pc)) {
+                synchronized (this) {
+                    if (connections.contains(pc)) {
+                        idle.add(pc);
+                        notifyAll();
+                    }
+                }
+            } else
+                discard(pc);
+        }
+
+        synchronized (this) {
+            if (!connected || !connections.isEmpty())
+                return true;
+            opening++;
+        }
+
+        try {
+            PooledConnection pc = open();
+            if (pc != null) {
+                synchronized (this) {
+                    idle.add(pc);
+                    notifyAll();
+                }
+            }
+            return true;
+        } catch (SQLException sql) {
+            return false;
+        }
+    }
+
+    /**
+     * Method used by the supervisor to start the JDBC applet server when
+     * the local database can not be reached
+     */
+    void startServer() {
+
+        if (remote)
+            return;
+        try {
+            p = Runtime.getRuntime().exec(JDBC_COMMAND);
+            p.waitFor();
+        } catch (Exception e) {
+            lgHandler.addLog(new Log(e.getMessage(),
+                        "DB2Connect/startServer",
+                        "Failed to execute db2jstrt command"));
+        }
+    }
+
+    /**
+     * Method used when a call on a connection has failed. A connection that
+     * is broken is closed so it is not leased again, and the supervisor
+     * checks the others. If the thread had a transaction on it, the
+     * thread can not use the database until it has rolled back.
+     * @param pc The connection
+     * @param sql The failure
+     * @return true if the connection broke outside a transaction, so a
+     * read may be made again on another connection
+     */
+    private boolean failed(PooledConnection pc, SQLException sql) {
+
+        if (!isBroken(pc, sql))
+            return false;
+
+        boolean pinned = pc.transaction || pc.out > 0;
+        synchronized (this) {
+            //Already closed by an earlier failure
+            if (!connections.contains(pc))
+                return false;
+            if (pc.transaction && pc.owner != null)
+                lostTransactions.put(pc.owner, Boolean.TRUE);
+            if (supervisor != null)
+                supervisor.check();
+        }
+        lgHandler.addLog(new Log(sql.getMessage(), "DB2Connect/failed",
+                    "Connection broken, it is closed"));
+        discard(pc);
+        return !pinned;
+    }
+
+    /**
+     * Method used to see if a failure means that the connection is broken
+     * @param pc The connection
+     * @param sql The failure
+     * @return true if the connection is broken
+     */
+    private boolean isBroken(PooledConnection pc, SQLException sql) {
+
+        String state = sql.getSQLState();
+        if (state != null && state.startsWith("08"))
+            return true;
+        for (int i = 0; i < BROKEN_CODES.length; i++) {
+            if (sql.getErrorCode() == BROKEN_CODES[i])
+                return true;
+        }
+        try {
+            return pc.con.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Method used to forget that the transaction of the calling thread was
+     * lost, used when the thread rolls back
+     * @return true if the transaction was lost
+     */
+    private synchronized boolean clearLostTransaction() {
+        return lostTransactions.remove(Thread.currentThread()) != null;
+    }
+
+    /**
+     * Method used to set the object informed when the database connection
+     * is lost and when it works again
+     * @param listener The object, null for none
+     */
+    public synchronized void setStateListener(DBStateInterface listener) {
+        if (supervisor != null)
+            supervisor.setListener(listener);
+    }
+
+    /**
+     * Method used to see if the database can be reached
+     * @return false if the connection is lost and not yet opened again
+     */
+    public synchronized boolean isAvailable() {
+        return connected && (supervisor == null || supervisor.isAvailable());
+    }
+
+    /**
+     * Method used to close a connection and remove it from the pool
+     * @param pc The connection
+     */
+    private void discard(PooledConnection pc) {
+
+        synchronized (this) {
+            connections.remove(pc);
+            idle.remove(pc);
+            if (pc.owner != null)
+                leases.remove(pc.owner);
+            notifyAll();
+        }
+        pc.close();
+    }
+
+    /**
+     * Method used after each call on a connection, it is given back at
+     * once unless the thread has a transaction or statements on it
+     * @param pc The connection
+     */
+    private void done(PooledConnection pc) {
+        if (!pc.transaction && pc.out == 0)
+            giveBack(pc);
+    }
+
+    /**
+     * Method used when a statement, or a result read in a transaction, is
+     * given to the caller, the connection is kept until it is closed
+     * @param pc The connection
+     * @return The lease the result or statement belongs to
+     */
+    private synchronized int handOut(PooledConnection pc) {
+        pc.out++;
+        return pc.lease;
+    }
+
+    /**
+     * Method used when a result is given to the caller. In auto commit the
+     * connection is not kept for the result, so a result that is never
+     * closed does not hold a connection for the thread.
+     * @param pc The connection
+     * @return The lease the result belongs to, 0 if it keeps none
+     */
+    private synchronized int readOut(PooledConnection pc) {
+        if (pc.transaction)
+            return handOut(pc);
+        pc.reads++;
+        return 0;
+    }
+
+    /**
+     * Method used when a result given to the caller is closed
+     * @param pc The connection
+     * @param lease The lease the result belongs to, 0 if it keeps none
+     */
+    private void readIn(PooledConnection pc, int lease) {
+        if (lease != 0) {
+            handedIn(pc, lease);
+            return;
+        }
+        synchronized (this) {
+            if (pc.reads > 0)
+                pc.reads--;
+        }
+    }
+
+    /**
+     * Method used when a result or statement given to the caller is
+     * closed. The connection is given back when the last one is closed,
+     * unless the thread has a transaction on it. A close after the lease
+     * has ended is ignored.
+     * @param pc The connection
+     * @param lease The lease the result or statement belongs to
+     */
+    private void handedIn(PooledConnection pc, int lease) {
+        synchronized (this) {
+            if (pc.lease != lease || pc.out == 0)
+                return;
+            pc.out--;
+        }
+        done(pc);
+    }
+
+    /**
+     * Method used to give a leased connection back to the idle ones. A
+     * transaction still open is rolled back.
+     * @param pc The connection
+     */
+    private void giveBack(PooledConnection pc) {
+
+        //A broken connection is already closed
+        synchronized (this) {
+            if (!connections.contains(pc))
+                return;
+        }
+
+        boolean usable = true;
+        if (pc.transaction) {
+            try {
+                pc.con.rollback();
+                pc.con.setAutoCommit(true);
+            } catch (SQLException sql) {
+                lgHandler.addLog(new Log(sql.getMessage(),
+                            "DB2Connect/giveBack",
+                            "Failed to roll back an open transaction"));
+                usable = false;
+            }
+        }
+
+        synchronized (this) {
+            if (pc.owner != null)
+                leases.remove(pc.owner);
+            pc.owner = null;
+            pc.transaction = false;
+            pc.out = 0;
+
+            if (!usable || !connected) {
+                discard(pc);
+                return;
+            }
+            pc.lastUsed = System.currentTimeMillis();
+            idle.add(pc);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Method used to give back the connections leased to threads that
+     * have ended and to close connections idle longer than IDLE_TIMEOUT.
+     * Called with the lock held, at most once every RECLAIM_INTERVAL.
+     */
+    private void reclaim() {
+
+        long now = System.currentTimeMillis();
+        if (now - lastReclaim < RECLAIM_INTERVAL)
+            return;
+        lastReclaim = now;
+
+        Vector ended = new Vector();
+        Enumeration threads = leases.keys();
+        while (threads.hasMoreElements()) {
+            Thread thread = (Thread) threads.nextElement();
+            if (!thread.isAlive())
+                ended.add(leases.get(thread));
+        }
+        for (int i = 0; i < ended.size(); i++)
+            giveBack((PooledConnection) ended.elementAt(i));
+
+        threads = lostTransactions.keys();
+        while (threads.hasMoreElements()) {
+            Thread thread = (Thread) threads.nextElement();
+            if (!thread.isAlive())
+                lostTransactions.remove(thread);
+        }
+
+        for (int i = idle.size() - 1; i >= 0 && connections.size() > 1; i--) {
+            PooledConnection pc = (PooledConnection) idle.elementAt(i);
+            if (now - pc.lastUsed > IDLE_TIMEOUT)
+                discard(pc);
+        }
+    }
+
+    /**
+     * Method used by a thread to give back the connection leased to it.
+     * A thread that has statements that are not closed keeps its
+     * connection until it calls this method or ends, they must be closed
+     * first. A transaction still open is rolled back, or
+     * forgotten if it was lost with its connection.
+     */
+    public void releaseConnection() {
+
+        clearLostTransaction();
+        PooledConnection pc;
+        synchronized (this) {
+            pc = (PooledConnection) leases.get(Thread.currentThread());
+        }
+        if (pc != null)
+            giveBack(pc);
+    }
+
+    /**
+     * Method used to get the number of open connections
+     * @return The number of connections
+     */
+    public synchronized int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Method used to get the number of open connections not leased
+     * @return The number of idle connections
+     */
+    public synchronized int getIdleConnectionCount() {
+        return idle.size();
+    }
+
+    /**
+     * Method that executes a database query. The statement is closed
+     * when the result is closed.
      * @throws java.sql.SQLException Thrown when the query failed.
      * @param query The SQL query
      * @return The result from the query
      */
     public ResultSet dbQuery(String query) throws java.sql.SQLException
     {
-        Statement stmt = con.createStatement();
-        return stmt.executeQuery(query);
+        for (int attempt = 1; ; attempt++) {
+            PooledConnection pc = lease();
+            try {
+                Statement stmt = pc.con.createStatement();
+                try {
+                    long start = System.currentTimeMillis();
+                    ResultSet rs = stmt.executeQuery(query);
+                    String shape = timed(query, start, 0);
+                    return closing(rs, stmt, pc, null, shape);
+                } catch (SQLException sql) {
+                    closeStatement(stmt);
+                    throw sql;
+                }
+            } catch (SQLException sql) {
+                //A read is made again on another connection
+                if (!failed(pc, sql) || attempt == READ_ATTEMPTS)
+                    throw sql;
+            } finally {
+                done(pc);
+            }
+        }
     }
 
     /**
@@ -193,12 +846,562 @@ public class DB2Connect implements Runnable {
       */
     public int dbQueryUpdate (String query) throws java.sql.SQLException
     {
-       Statement stmt = con.createStatement ();
-       return stmt.executeUpdate (query);
+       PooledConnection pc = lease();
+       try {
+          Statement stmt = pc.con.createStatement ();
+          try {
+             long start = System.currentTimeMillis();
+             int count = stmt.executeUpdate (query);
+             timed(query, start, count);
+             return count;
+          } finally {
+             closeStatement(stmt);
+          }
+       } catch (SQLException sql) {
+          failed(pc, sql);
+          throw sql;
+       } finally {
+          done(pc);
+       }
+    }
+
+    /**
+     * Method that executes a parameterized database query. The statement
+     * is prepared the first time the query is used and kept until the
+     * cache is full. The result must be closed, that gives the statement
+     * back to the cache.
+     * @throws java.sql.SQLException Thrown when the query failed.
+     * @param query The SQL query with ? for the parameters
+     * @param params The parameters, a null parameter is set as a NULL
+     * VARCHAR
+     * @return The result from the query
+     */
+    public ResultSet dbQuery(String query, Object[] params)
+        throws java.sql.SQLException
+    {
+        for (int attempt = 1; ; attempt++) {
+            PooledConnection pc = lease();
+            try {
+                PreparedStatement ps = checkOut(pc, query);
+                try {
+                    setParameters(ps, params);
+                    long start = System.currentTimeMillis();
+                    ResultSet rs = ps.executeQuery();
+                    String shape = timed(query, start, 0);
+                    return closing(rs, ps, pc, query, shape);
+                } catch (SQLException sql) {
+                    closeStatement(ps);
+                    throw sql;
+                }
+            } catch (SQLException sql) {
+                //A read is made again on another connection
+                if (!failed(pc, sql) || attempt == READ_ATTEMPTS)
+                    throw sql;
+            } finally {
+                done(pc);
+            }
+        }
+    }
+
+    /**
+     * Method that executes a parameterized database update query through
+     * the statement cache.
+     * @throws java.sql.SQLException Thrown when the query failed.
+     * @param query The SQL query with ? for the parameters
+     * @param params The parameters, a null parameter is set as a NULL
+     * VARCHAR
+     * @return The number of rows changed
+     */
+    public int dbQueryUpdate(String query, Object[] params)
+        throws java.sql.SQLException
+    {
+        PooledConnection pc = lease();
+        try {
+            PreparedStatement ps = checkOut(pc, query);
+            int count;
+            try {
+                setParameters(ps, params);
+                long start = System.currentTimeMillis();
+                count = ps.executeUpdate();
+                timed(query, start, count);
+            } catch (SQLException sql) {
+                closeStatement(ps);
+                throw sql;
+            }
+            checkIn(pc, query, ps);
+            return count;
+        } catch (SQLException sql) {
+            failed(pc, sql);
+            throw sql;
+        } finally {
+            done(pc);
+        }
+    }
+
+    /**
+     * Method used to take a prepared statement from the cache of a
+     * connection, or to prepare it if it is not there or in use
+     * @param pc The connection
+     * @param query The SQL query
+     * @return The statement, only used by the caller until it is given
+     * back
+     */
+    private PreparedStatement checkOut(PooledConnection pc, String query)
+        throws SQLException {
+
+        synchronized (this) {
+            PreparedStatement ps =
+                (PreparedStatement) pc.statements.remove(query);
+            if (ps != null) {
+                statementHits++;
+                return ps;
+            }
+            statementMisses++;
+        }
+        return pc.con.prepareStatement(query);
+    }
+
+    /**
+     * Method used to give a prepared statement back to the cache of its
+     * connection. If the same query was prepared again while it was in
+     * use, or the connection is closed, the statement is closed.
+     * @param pc The connection
+     * @param query The SQL query
+     * @param ps The statement
+     */
+    private void checkIn(PooledConnection pc, String query,
+            PreparedStatement ps) {
+
+        try {
+            ps.clearParameters();
+        } catch (SQLException sql) {
+            closeStatement(ps);
+            return;
+        }
+
+        synchronized (this) {
+            if (connections.contains(pc) &&
+                    !pc.statements.containsKey(query)) {
+                pc.statements.put(query, ps);
+                return;
+            }
+        }
+        closeStatement(ps);
+    }
+
+    /**
+     * Method used to set the parameters of a prepared statement
+     * @param ps The statement
+     * @param params The parameters, may be null if there are none
+     */
+    private void setParameters(PreparedStatement ps, Object[] params)
+        throws SQLException {
+
+        for (int i = 0; params != null && i < params.length; i++) {
+            if (params[i] == null)
+                ps.setNull(i + 1, Types.VARCHAR);
+            else
+                ps.setObject(i + 1, params[i]);
+        }
+    }
+
+    /**
+     * Method used to close a statement, a failure is only logged
+     * @param stmt The statement
+     */
+    private void closeStatement(Statement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException sql) {
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "DB2Connect/closeStatement",
+                        "Failed to close statement"));
+        }
+    }
+
+    /**
+     * Method used to wrap a result so that closing it also closes its
+     * statement, or gives a cached statement back to the cache. In a
+     * transaction the connection is kept until the result is closed.
+     * @param rs The result
+     * @param stmt The statement of the result
+     * @param pc The connection of the statement
+     * @param query The SQL query of a cached statement, null if the
+     * statement is closed
+     * @param shape The statement shape the rows read are counted for, null
+     * if they are not counted
+     * @return The wrapped result
+     */
+    private ResultSet closing(ResultSet rs, Statement stmt,
+            PooledConnection pc, String query, String shape) {
+        return (ResultSet) Proxy.newProxyInstance(
+                ResultSet.class.getClassLoader(),
+                new Class[] { ResultSet.class },
+                new ResultCloser(rs, stmt, pc, readOut(pc), query, shape));
+    }
+
+    /**
+     * Method used to wrap a statement given to the caller so that its
+     * executions are counted in the query statistics. The connection is
+     * kept until the statement is closed.
+     * @param stmt The statement
+     * @param query The SQL query of a prepared statement, null for a plain
+     * statement
+     * @param pc The connection of the statement
+     * @return The wrapped statement
+     */
+    private Statement timing(Statement stmt, String query,
+            PooledConnection pc) {
+        return (Statement) Proxy.newProxyInstance(
+                Statement.class.getClassLoader(),
+                new Class[] { query == null ? Statement.class :
+                    PreparedStatement.class },
+                new StatementTimer(stmt, query, pc, handOut(pc)));
+    }
+
+    /**
+     * Method used to count a call of a query in the statistics. A call
+     * that took SLOW_QUERY_TIME or more is written to the log with the
+     * shape of the query and the class and method that made it.
+     * @param query The SQL query
+     * @param start The time in ms the call started
+     * @param rows The number of rows changed, 0 for a select
+     * @return The shape of the query
+     */
+    private String timed(String query, long start, int rows) {
+
+        long time = System.currentTimeMillis() - start;
+        String shape = statistics.record(query, time, rows);
+        if (time >= SLOW_QUERY_TIME)
+            lgHandler.addLog(new Log(shape, getCaller(),
+                        "Slow query " + time + " ms"));
+        return shape;
+    }
+
+    /**
+     * Method used to find the class and method outside DB2Connect that
+     * made the current call
+     * @return The caller as Class/method
+     */
+    private String getCaller() {
+
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        for (int i = 0; i < stack.length; i++) {
+            String name = stack[i].getClassName();
+            if (!name.startsWith("DB2Connect") && name.indexOf('.') < 0 &&
+                    !name.startsWith("$Proxy"))
+                return name + "/" + stack[i].getMethodName();
+        }
+        return "DB2Connect/getCaller";
+    }
+
+    /**
+     * Method used to get the statistics of the queries made
+     * @return The statistics
+     */
+    public QueryStatistics getQueryStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Method used to write a summary of the query statistics to the log
+     */
+    public void logQueryStatistics() {
+        lgHandler.addLog(new Log(statistics.getSummary(),
+                    "DB2Connect/logQueryStatistics", "Query statistics"));
+    }
+
+    /**
+     * Method used to get the number of parameterized queries that found
+     * their prepared statement in the cache
+     * @return The number of hits
+     */
+    public synchronized long getStatementHitCount() {
+        return statementHits;
+    }
+
+    /**
+     * Method used to get the number of parameterized queries that had
+     * to prepare their statement
+     * @return The number of misses
+     */
+    public synchronized long getStatementMissCount() {
+        return statementMisses;
+    }
+
+    /**
+     * Method used to get the number of prepared statements in the cache
+     * @return The number of statements
+     */
+    public synchronized int getCachedStatementCount() {
+        int count = 0;
+        for (int i = 0; i < connections.size(); i++)
+            count += ((PooledConnection) connections.elementAt(i))
+                .statements.size();
+        return count;
+    }
+
+    /**
+     * Class that holds one open connection of the pool and the prepared
+     * statements of the parameterized queries made on it
+     */
+    private class PooledConnection {
+
+        //Connection handle to the database
+        private Connection con;
+
+        /*Prepared statements of the parameterized queries that are not
+          in use, keyed by the SQL text, the least recently used first*/
+        private LinkedHashMap statements =
+            new LinkedHashMap(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry eldest) {
+                    if (size() <= STATEMENT_CACHE_SIZE)
+                        return false;
+                    closeStatement((Statement) eldest.getValue());
+                    return true;
+                }
+            };
+
+        //The thread the connection is leased to, null if it is idle
+        private Thread owner = null;
+
+        //Set while the thread has turned off auto commit
+        private boolean transaction = false;
+
+        //The statements, and results read in a transaction, not closed
+        private int out = 0;
+
+        //The results read in auto commit and not closed
+        private int reads = 0;
+
+        //The number of times the connection has been leased
+        private int lease = 0;
+
+        //The time in ms the connection was last given back
+        private long lastUsed = System.currentTimeMillis();
+
+        //The time in ms the connection was last checked
+        private long lastChecked = 0;
+
+        /**
+         * Constructor
+         * @param con Connection handle to the database
+         */
+        public PooledConnection(Connection con) {
+            this.con = con;
+        }
+
+        /**
+         * Method used to close the cached statements and the connection
+         */
+        public void close() {
+
+            synchronized (DB2Connect.this) {
+                Iterator it = statements.values().iterator();
+                while (it.hasNext())
+                    closeStatement((Statement) it.next());
+                statements.clear();
+            }
+
+            try {
+                con.close();
+            } catch(SQLException sql) {
+                while (sql != null) {
+                    lgHandler.addLog(
+                            new Log(sql.getMessage(),
+                                "SQLState: " + sql.getSQLState(),
+                                "ERRORCode: " + sql.getErrorCode()));
+
+                    sql = sql.getNextException();
+                }//while
+            }
+        }
+    }
+
+    /**
+     * Class that passes the calls on to a result and releases the
+     * statement of the result when the result is closed
+     */
+    private class ResultCloser implements InvocationHandler {
+
+        private ResultSet rs;
+        private Statement stmt;
+        private PooledConnection pc;
+        private int lease;
+        private String query;
+        private String shape;
+        private int rows = 0;
+        private boolean closed = false;
+
+        /**
+         * Constructor
+         * @param rs The result
+         * @param stmt The statement of the result
+         * @param pc The connection of the statement
+         * @param lease The lease the result belongs to, 0 if it keeps none
+         * @param query The SQL query of a cached statement, null if the
+         * statement is closed
+         * @param shape The statement shape the rows read are counted for,
+         * null if they are not counted
+         */
+        public ResultCloser(ResultSet rs, Statement stmt,
+                PooledConnection pc, int lease, String query, String shape) {
+            this.rs = rs;
+            this.stmt = stmt;
+            this.pc = pc;
+            this.lease = lease;
+            this.query = query;
+            this.shape = shape;
+        }
+
+        /**
+         * Method called for every call on the wrapped result
+         */
+        public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable {
+
+            if (method.getName().equals("close") && args == null) {
+                if (closed)
+                    return null;
+                closed = true;
+                if (shape != null)
+                    statistics.addRows(shape, rows);
+                try {
+                    rs.close();
+                } finally {
+                    if (query == null)
+                        closeStatement(stmt);
+                    else
+                        checkIn(pc, query, (PreparedStatement) stmt);
+                    readIn(pc, lease);
+                }
+                return null;
+            }
+
+            try {
+                Object result = method.invoke(rs, args);
+                if (Boolean.TRUE.equals(result) &&
+                        method.getName().equals("next"))
+                    rows++;
+                return result;
+            } catch (InvocationTargetException ite) {
+                throw ite.getTargetException();
+            }
+        }
+    }
+
+    /**
+     * Class that passes the calls on to a statement given to the caller
+     * and counts its executions in the query statistics. A failure that
+     * means the connection is broken closes the connection.
+     */
+    private class StatementTimer implements InvocationHandler {
+
+        private Statement stmt;
+        private String query;
+        private PooledConnection pc;
+        private int lease;
+        private String batchQuery = null;
+        private boolean closed = false;
+
+        /**
+         * Constructor
+         * @param stmt The statement
+         * @param query The SQL query of a prepared statement, null for a
+         * plain statement
+         * @param pc The connection of the statement
+         * @param lease The lease the statement belongs to
+         */
+        public StatementTimer(Statement stmt, String query,
+                PooledConnection pc, int lease) {
+            this.stmt = stmt;
+            this.query = query;
+            this.pc = pc;
+            this.lease = lease;
+        }
+
+        /**
+         * Method called for every call on the wrapped statement
+         */
+        public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable {
+
+            String name = method.getName();
+            boolean sqlArg = args != null && args.length > 0 &&
+                args[0] instanceof String;
+
+            if (name.equals("close") && args == null) {
+                if (closed)
+                    return null;
+                closed = true;
+                try {
+                    return call(method, args);
+                } finally {
+                    handedIn(pc, lease);
+                }
+            }
+
+            //A plain statement batch is counted as its first query
+            if (name.equals("addBatch") && sqlArg && batchQuery == null)
+                batchQuery = (String) args[0];
+            else if (name.equals("clearBatch"))
+                batchQuery = null;
+
+            if (!name.startsWith("execute"))
+                return call(method, args);
+
+            String sql = sqlArg ? (String) args[0] : query;
+            if (name.equals("executeBatch")) {
+                if (query == null)
+                    sql = batchQuery;
+                batchQuery = null;
+            }
+
+            long start = System.currentTimeMillis();
+            Object result = call(method, args);
+            if (sql != null)
+                timed(sql, start, countRows(result));
+            return result;
+        }
+
+        /**
+         * Method used to pass a call on to the statement
+         */
+        private Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(stmt, args);
+            } catch (InvocationTargetException ite) {
+                if (ite.getTargetException() instanceof SQLException)
+                    failed(pc, (SQLException) ite.getTargetException());
+                throw ite.getTargetException();
+            }
+        }
+
+        /**
+         * Method used to get the number of rows changed from the result of
+         * an execute call
+         * @param result The result
+         * @return The number of rows, 0 if it is not known
+         */
+        private int countRows(Object result) {
+
+            if (result instanceof Integer)
+                return Math.max(((Integer) result).intValue(), 0);
+            int rows = 0;
+            if (result instanceof int[]) {
+                int[] counts = (int[]) result;
+                for (int i = 0; i < counts.length; i++)
+                    if (counts[i] > 0)
+                        rows += counts[i];
+            }
+            return rows;
+        }
     }
 
     /**
-     * Method that setsup a prepared statement.
+     * Method that setsup a prepared statement. The calling thread keeps
+     * its connection until the statement is closed, it calls
+     * releaseConnection or it ends.
      * @param query The SQL query
      * @return A preparedStatement.
      * @throws java.sql.SQLException Thrown when preparing the statment failed.
@@ -206,16 +1409,149 @@ public class DB2Connect implements Runnable {
     public PreparedStatement prepareStatement(String query) throws
         java.sql.SQLException
         {
-            return con.prepareStatement(query);
+            PooledConnection pc = lease();
+            try {
+                PreparedStatement ps = pc.con.prepareStatement(query);
+                return (PreparedStatement) timing(ps, query, pc);
+            } catch (SQLException sql) {
+                failed(pc, sql);
+                throw sql;
+            } finally {
+                done(pc);
+            }
+        }
+
+    /**
+     * Method that sets up a prepared statement that can return the keys
+     * generated by the database.
+     * @param query The SQL query
+     * @param autoGeneratedKeys RETURN_GENERATED_KEYS or NO_GENERATED_KEYS
+     * @return A preparedStatement.
+     * @throws java.sql.SQLException Thrown when preparing the statment failed.
+     */
+    public PreparedStatement prepareStatement(String query,
+            int autoGeneratedKeys) throws java.sql.SQLException {
+        PooledConnection pc = lease();
+        try {
+            PreparedStatement ps =
+                pc.con.prepareStatement(query, autoGeneratedKeys);
+            return (PreparedStatement) timing(ps, query, pc);
+        } catch (SQLException sql) {
+            failed(pc, sql);
+            throw sql;
+        } finally {
+            done(pc);
         }
+    }
 
     /**
      * This method is used to turn on/off
-     * the auto commit behaivior of the database
+     * the auto commit behaivior of the database. The calling thread
+     * keeps its connection while auto commit is turned off. Turning it on
+     * ends a transaction that was lost with its connection.
      * @param state true turn on the auto commit otherwise false turn it off
      */
     public void setAutoCommit(boolean state) throws SQLException {
-        con.setAutoCommit(state);
+        if (clearLostTransaction() && state)
+            return;
+        PooledConnection pc = lease();
+        try {
+            pc.con.setAutoCommit(state);
+            pc.transaction = !state;
+        } catch (SQLException sql) {
+            failed(pc, sql);
+            throw sql;
+        } finally {
+            done(pc);
+        }
+    }
+
+    /**
+     * Method used to make the changes since the last commit permanent,
+     * used when auto commit is turned off
+     */
+    public void commit() throws SQLException {
+        PooledConnection pc = lease();
+        try {
+            pc.con.commit();
+        } catch (SQLException sql) {
+            failed(pc, sql);
+            throw sql;
+        } finally {
+            done(pc);
+        }
+    }
+
+    /**
+     * Method used to undo the changes since the last commit, used when
+     * auto commit is turned off. A transaction lost with its connection
+     * has already been undone by the database.
+     */
+    public void rollback() throws SQLException {
+        if (clearLostTransaction())
+            return;
+        PooledConnection pc = lease();
+        try {
+            pc.con.rollback();
+        } catch (SQLException sql) {
+            failed(pc, sql);
+            throw sql;
+        } finally {
+            done(pc);
+        }
+    }
+
+    /**
+     * Method used to mark a point in the current transaction that the
+     * changes can be undone to
+     * @return The savepoint
+     */
+    public Savepoint setSavepoint() throws SQLException {
+        PooledConnection pc = lease();
+        try {
+            return pc.con.setSavepoint();
+        } catch (SQLException sql) {
+            failed(pc, sql);
+            throw sql;
+        } finally {
+            done(pc);
+        }
+    }
+
+    /**
+     * Method used to undo the changes made after a savepoint
+     * @param savepoint The savepoint
+     */
+    public void rollback(Savepoint savepoint) throws SQLException {
+        PooledConnection pc = lease();
+        try {
+            pc.con.rollback(savepoint);
+        } catch (SQLException sql) {
+            failed(pc, sql);
+            throw sql;
+        } finally {
+            done(pc);
+        }
+    }
+
+    /**
+     * Method used to create a statement, used to execute SQL queries
+     * in a batch. The caller closes the statement, the calling thread
+     * keeps its connection until then, it calls releaseConnection or it
+     * ends.
+     * @return A statement
+     */
+    public Statement createStatement() throws SQLException {
+        PooledConnection pc = lease();
+        try {
+            Statement stmt = pc.con.createStatement();
+            return timing(stmt, null, pc);
+        } catch (SQLException sql) {
+            failed(pc, sql);
+            throw sql;
+        } finally {
+            done(pc);
+        }
     }
 
     /**
@@ -229,8 +1565,24 @@ public class DB2Connect implements Runnable {
      */
     public ResultSet dbQuery(String query, int autoGeneratedKeys) throws 
         SQLException {
-            Statement stmt = con.createStatement();
-            stmt.executeUpdate(query, autoGeneratedKeys);
-            return stmt.getGeneratedKeys();
+            PooledConnection pc = lease();
+            try {
+                Statement stmt = pc.con.createStatement();
+                try {
+                    long start = System.currentTimeMillis();
+                    int count = stmt.executeUpdate(query, autoGeneratedKeys);
+                    timed(query, start, count);
+                    return closing(stmt.getGeneratedKeys(), stmt, pc, null,
+                            null);
+                } catch (SQLException sql) {
+                    closeStatement(stmt);
+                    throw sql;
+                }
+            } catch (SQLException sql) {
+                failed(pc, sql);
+                throw sql;
+            } finally {
+                done(pc);
+            }
         }
 }
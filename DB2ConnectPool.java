@@ -0,0 +1,142 @@
+import java.sql.*;
+import java.util.Vector;
+
+/**
+ * Class that holds a fixed number of open connections to the server
+ * database. A thread borrows a connection for one unit of work and gives
+ * it back when done. When every connection is borrowed the next thread
+ * waits until one is given back, so the database never gets more work
+ * at the same time than the pool has connections. Each DB2Connect of the
+ * pool opens a single connection.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class DB2ConnectPool {
+
+    //Every connection in the pool
+    private Vector connections = new Vector();
+
+    //The connections that are not borrowed
+    private Vector idle = new Vector();
+
+    //The number of threads waiting for a connection
+    private int waiting = 0;
+
+    //Set when the pool is closed
+    private boolean closed = false;
+
+    /**
+     * Constructor, opens the connections of the pool. If a connection can
+     * not be opened the ones already opened are closed.
+     * @param dbaddress Address to the database
+     * @param userId The user name to connect with
+     * @param pwd The password to connect with
+     * @param size The number of connections
+     * @param lgHandler Reference to the LogHandler object
+     * @throws SQLException if a connection could not be opened
+     */
+    public DB2ConnectPool(String dbaddress, String userId, String pwd,
+            int size, LogHandler lgHandler) throws SQLException {
+
+        try {
+            for (int i = 0; i < size; i++) {
+                DB2Connect db2 =
+                    new DB2Connect(dbaddress, lgHandler, true, 1);
+                db2.connect(userId, pwd);
+                connections.add(db2);
+                idle.add(db2);
+            }
+        } catch (SQLException sql) {
+            close();
+            throw sql;
+        }
+    }
+
+    /**
+     * Method used to borrow a connection. Waits if every connection is
+     * borrowed.
+     * @param timeout The longest time to wait in ms, 0 waits forever
+     * @return The connection
+     * @throws SQLException if no connection was given back in time or
+     * the pool is closed
+     */
+    public synchronized DB2Connect acquire(long timeout)
+        throws SQLException, InterruptedException {
+
+        long end = System.currentTimeMillis() + timeout;
+
+        waiting++;
+        try {
+            while (idle.isEmpty() && !closed) {
+                if (timeout == 0)
+                    wait();
+                else {
+                    long left = end - System.currentTimeMillis();
+                    if (left <= 0)
+                        throw new SQLException(
+                                "No free database connection");
+                    wait(left);
+                }
+            }
+        } finally {
+            waiting--;
+        }
+
+        if (closed)
+            throw new SQLException("Database pool is closed");
+
+        return (DB2Connect) idle.remove(idle.size() - 1);
+    }
+
+    /**
+     * Method used to give back a borrowed connection, called by the
+     * thread that borrowed it
+     * @param db2 The connection
+     */
+    public synchronized void release(DB2Connect db2) {
+        db2.releaseConnection();
+        if (closed) {
+            db2.disconnect();
+            return;
+        }
+        idle.add(db2);
+        notifyAll();
+    }
+
+    /**
+     * Method used to get the number of connections in the pool
+     * @return The number of connections
+     */
+    public synchronized int getSize() {
+        return connections.size();
+    }
+
+    /**
+     * Method used to get the number of connections not borrowed
+     * @return The number of idle connections
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Method used to get the number of threads waiting for a connection
+     * @return The number of waiting threads
+     */
+    public synchronized int getWaitingCount() {
+        return waiting;
+    }
+
+    /**
+     * Method used to close the pool. Idle connections are closed at once,
+     * borrowed ones when they are given back.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (int i = 0; i < idle.size(); i++)
+            ((DB2Connect) idle.elementAt(i)).disconnect();
+        idle.clear();
+        notifyAll();
+    }
+}
@@ -0,0 +1,244 @@
+import java.util.*;
+import javax.swing.SwingUtilities;
+
+/**
+ * Class that runs the database work of the GUI on worker threads, so the
+ * event thread does not wait for the local database while it is slow or
+ * busy with a synchronization. The work is submitted as DBTasks whose
+ * results are given back on the event thread.
+ *
+ * Tasks with the same key run one at a time in the order they were
+ * submitted. A task submitted with the key of one that has not started
+ * replaces it, so only the newest of a burst of requests is run.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class DBExecutor implements Runnable {
+
+    //The number of worker threads
+    private final int WORKERS = 2;
+
+    //The executors, keyed by their database connection
+    private static Hashtable executors = new Hashtable();
+
+    //Reference to the database
+    private DB2Connect dbcon;
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //The tasks not yet started, in the order they were submitted
+    private Vector queue = new Vector();
+
+    //The tasks being run
+    private Vector running = new Vector();
+
+    /**
+     * Constructor, starts the worker threads
+     * @param dbcon Reference to the database
+     * @param lgHandler Reference to LogHandler object
+     */
+    private DBExecutor(DB2Connect dbcon, LogHandler lgHandler) {
+
+        this.dbcon = dbcon;
+        this.lgHandler = lgHandler;
+
+        for (int i = 0; i < WORKERS; i++) {
+            Thread thread = new Thread(this);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Method used to get the executor of a database connection, it is
+     * created the first time
+     * @param dbcon Reference to the database
+     * @param lgHandler Reference to LogHandler object
+     * @return The executor
+     */
+    public static synchronized DBExecutor getInstance(DB2Connect dbcon,
+            LogHandler lgHandler) {
+
+        DBExecutor executor = (DBExecutor) executors.get(dbcon);
+        if (executor == null) {
+            executor = new DBExecutor(dbcon, lgHandler);
+            executors.put(dbcon, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Method used to submit a task. A task with the same key that has not
+     * started is cancelled and replaced, one that is running has its
+     * result dropped.
+     * @param task The task
+     * @return The task
+     */
+    public synchronized DBTask submit(DBTask task) {
+
+        if (task.getKey() != null)
+            cancel(task.getKey());
+
+        queue.add(task);
+        notifyAll();
+        return task;
+    }
+
+    /**
+     * Method used to cancel the tasks with a key
+     * @param key The key
+     */
+    public synchronized void cancel(Object key) {
+
+        for (int i = queue.size() - 1; i >= 0; i--) {
+            DBTask queued = (DBTask) queue.elementAt(i);
+            if (key.equals(queued.getKey())) {
+                queued.cancel();
+                queue.removeElementAt(i);
+            }
+        }
+        for (int i = 0; i < running.size(); i++) {
+            DBTask active = (DBTask) running.elementAt(i);
+            if (key.equals(active.getKey()))
+                active.cancel();
+        }
+    }
+
+    /**
+     * Method used to wait until the submitted tasks of a group have been
+     * run. Must not be called on the event thread, see whenDone.
+     * @param group The group, null to wait for every task
+     * @param timeout The longest time to wait in ms
+     * @return true if the tasks have been run
+     */
+    public synchronized boolean flush(Object group, long timeout)
+        throws InterruptedException {
+
+        long end = System.currentTimeMillis() + timeout;
+
+        while (contains(queue, group) || contains(running, group)) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0)
+                return false;
+            wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * Method used to run something on the event thread when the tasks of
+     * a group have been run, for example to close a record when its saves
+     * are done. The event thread does not wait meanwhile.
+     * @param group The group
+     * @param timeout The longest time to wait in ms, the callback is run
+     * anyway when it has passed
+     * @param callback Run on the event thread
+     */
+    public void whenDone(final Object group, final long timeout,
+            final Runnable callback) {
+
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    if (!flush(group, timeout))
+                        lgHandler.addLog(new Log("Tasks of " + group +
+                                    " not done in " + timeout + " ms",
+                                    "DBExecutor/whenDone", "flush"));
+                } catch (InterruptedException ie) {
+                    lgHandler.addLog(new Log(ie.getMessage(),
+                                "DBExecutor/whenDone",
+                                "InterruptedException"));
+                }
+                SwingUtilities.invokeLater(callback);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method used to see if a list has a task of a group
+     * @param tasks The tasks
+     * @param group The group, null for any task
+     * @return true if a task of the group is in the list
+     */
+    private boolean contains(Vector tasks, Object group) {
+
+        if (group == null)
+            return !tasks.isEmpty();
+        for (int i = 0; i < tasks.size(); i++) {
+            if (group.equals(((DBTask) tasks.elementAt(i)).getGroup()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Method used to get the number of tasks not yet done
+     * @return The number of tasks waiting or running
+     */
+    public synchronized int getPendingCount() {
+        return queue.size() + running.size();
+    }
+
+    /**
+     * Method used by a worker thread to take the first task that has no
+     * task with the same key running
+     * @return The task
+     */
+    private synchronized DBTask next() throws InterruptedException {
+
+        while (true) {
+            for (int i = 0; i < queue.size(); i++) {
+                DBTask task = (DBTask) queue.elementAt(i);
+                if (task.getKey() == null || !isRunning(task.getKey())) {
+                    queue.removeElementAt(i);
+                    running.add(task);
+                    return task;
+                }
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Method used to see if a task with a key is running
+     * @param key The key
+     * @return true if a task with the key is running
+     */
+    private boolean isRunning(Object key) {
+
+        for (int i = 0; i < running.size(); i++) {
+            if (key.equals(((DBTask) running.elementAt(i)).getKey()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Worker thread, used to run the tasks
+     */
+    public void run() {
+
+        try {
+            while (true) {
+                DBTask task = next();
+                try {
+                    task.execute(dbcon, lgHandler);
+                } finally {
+                    //A task must not keep a connection leased to the worker
+                    dbcon.releaseConnection();
+                    synchronized (this) {
+                        running.remove(task);
+                        notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            lgHandler.addLog(new Log(ie.getMessage(), "DBExecutor/run",
+                        "InterruptedException"));
+        }
+    }
+}
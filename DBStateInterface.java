@@ -0,0 +1,17 @@
+/**
+ * Interface for objects informed when the database connection is lost
+ * and when it works again.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public interface DBStateInterface {
+
+    /**
+     * Method called when the state of the database connection changes,
+     * called from the thread that watches the connection
+     * @param available true if the database can be reached again, false
+     * if the connection is lost
+     */
+    public void databaseStateChanged(boolean available);
+}
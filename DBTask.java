@@ -0,0 +1,171 @@
+import java.sql.*;
+import javax.swing.SwingUtilities;
+
+/**
+ * Class for one unit of database work run by a DBExecutor. The query is
+ * made in run on a worker thread, and the result is given to succeeded
+ * or failed on the Swing event thread, so they may update the GUI.
+ * A task that is cancelled, or superseded by a newer task with the same
+ * key, does not get its result.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public abstract class DBTask {
+
+    /*Tasks with the same key run one at a time in the order they were
+      submitted, a newer task supersedes one not yet done. null if the
+      task is independent of the others*/
+    private Object key;
+
+    //The group the task belongs to, like the saves of a record, or null
+    private Object group = null;
+
+    //Set when the task is cancelled
+    private boolean cancelled = false;
+
+    //Set when run has returned
+    private boolean done = false;
+
+    //The result from run
+    private Object result = null;
+
+    //The failure from run, null if it succeeded
+    private SQLException error = null;
+
+    /**
+     * Constructor, for a task independent of the others
+     */
+    public DBTask() {
+        this(null);
+    }
+
+    /**
+     * Constructor
+     * @param key Tasks with the same key run one at a time and a newer
+     * one supersedes an older, null if the task is independent
+     */
+    public DBTask(Object key) {
+        this.key = key;
+    }
+
+    /**
+     * Constructor for a task that can be waited for with the others of
+     * its group
+     * @param key Tasks with the same key run one at a time and a newer
+     * one supersedes an older, null if the task is independent
+     * @param group The group the task belongs to
+     */
+    public DBTask(Object key, Object group) {
+        this.key = key;
+        this.group = group;
+    }
+
+    /**
+     * Method called on a worker thread to do the database work
+     * @param dbcon Reference to the database
+     * @return The result given to succeeded
+     */
+    public abstract Object run(DB2Connect dbcon) throws SQLException;
+
+    /**
+     * Method called on the event thread when run has returned
+     * @param result The result from run
+     */
+    public void succeeded(Object result) {
+    }
+
+    /**
+     * Method called on the event thread when run has failed
+     * @param sql The failure
+     */
+    public void failed(SQLException sql) {
+    }
+
+    /**
+     * Method used to get the key of the task
+     * @return The key, null if the task is independent
+     */
+    public Object getKey() {
+        return key;
+    }
+
+    /**
+     * Method used to get the group of the task
+     * @return The group, null if the task belongs to none
+     */
+    public Object getGroup() {
+        return group;
+    }
+
+    /**
+     * Method used to cancel the task. A task not started is not run, and
+     * the result of a task already running is not given to it.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Method used to see if the task is cancelled
+     * @return true if the task is cancelled
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Method used to see if the database work is done
+     * @return true if run has returned or the task was cancelled before
+     * it started
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Method used by the worker thread to run the task and pass the
+     * result to the event thread
+     * @param dbcon Reference to the database
+     * @param lgHandler Reference to LogHandler object
+     */
+    void execute(DB2Connect dbcon, LogHandler lgHandler) {
+
+        if (!isCancelled()) {
+            try {
+                result = run(dbcon);
+            } catch (SQLException sql) {
+                error = sql;
+            } catch (RuntimeException re) {
+                lgHandler.addLog(new Log(re.toString(), "DBTask/execute",
+                            "Database task failed"));
+                error = new SQLException(re.toString());
+            }
+        }
+
+        synchronized (this) {
+            done = true;
+            if (cancelled)
+                return;
+        }
+
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                deliver();
+            }
+        });
+    }
+
+    /**
+     * Method used on the event thread to give the result to the task
+     */
+    private void deliver() {
+
+        if (isCancelled())
+            return;
+        if (error == null)
+            succeeded(result);
+        else
+            failed(error);
+    }
+}
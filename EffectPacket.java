@@ -9,6 +9,9 @@ import java.io.*;
  */ 
 public class EffectPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = -5600168175551026012L;
+
     private Time effectTime;
     private String effect;
 
@@ -9,6 +9,9 @@ import java.io.*;
  */ 
 public class ExaminationDescriptionPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 1146846842898251422L;
+
     private int examinationTypeId;
     private String descriptionField;
     private int withoutRemark;
@@ -10,6 +10,9 @@ import java.io.*;
  */
 public class EyePacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 8841213693834860895L;
+
     private Time obsTime;
     private String left;
     private String right;
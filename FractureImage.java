@@ -220,87 +220,110 @@ class FractureImage extends JComponent implements MouseListener
    }
 
    /**
-     * Method that saves the data in the database.
+     * Method that saves the data in the database. The query is run off the
+     * event thread, a newer save of the record supersedes one not yet run.
      */
    public void save()
    {
-      if (isInDb)
-      {
-         StringBuffer strBuf = new StringBuffer(300);
-         strBuf.append("UPDATE EPR.FRACTURE SET HED = ");
-         strBuf.append(selected[1] ? "'t'" : "'f'");
-         strBuf.append(", RSH = ").append(selected[2] ? "'t'" : "'f'");
-         strBuf.append(", RUA = ").append(selected[3] ? "'t'" : "'f'");
-         strBuf.append(", RLA = ").append(selected[4] ? "'t'" : "'f'");
-         strBuf.append(", RHA = ").append(selected[5] ? "'t'" : "'f'");
-         strBuf.append(", LSH = ").append(selected[6] ? "'t'" : "'f'");
-         strBuf.append(", LUA = ").append(selected[7] ? "'t'" : "'f'");
-         strBuf.append(", LLA = ").append(selected[8] ? "'t'" : "'f'");
-         strBuf.append(", LHA = ").append(selected[9] ? "'t'" : "'f'");
-         strBuf.append(", RRI = ").append(selected[10] ? "'t'" : "'f'");
-         strBuf.append(", LRI = ").append(selected[11] ? "'t'" : "'f'");
-         strBuf.append(", SPI = ").append(selected[12] ? "'t'" : "'f'");
-         strBuf.append(", PEL = ").append(selected[13] ? "'t'" : "'f'");
-         strBuf.append(", RTH = ").append(selected[14] ? "'t'" : "'f'");
-         strBuf.append(", RLL = ").append(selected[15] ? "'t'" : "'f'");
-         strBuf.append(", RFO = ").append(selected[16] ? "'t'" : "'f'");
-         strBuf.append(", LTH = ").append(selected[17] ? "'t'" : "'f'");
-         strBuf.append(", LLL = ").append(selected[18] ? "'t'" : "'f'");
-         strBuf.append(", LFO = ").append(selected[19] ? "'t'" : "'f'");
-         strBuf.append(", PP_RA = ").append(extr[0] ? parent.getExtr(0) : null);
-         strBuf.append(", PP_LA = ").append(extr[1] ? parent.getExtr(1) : null);
-         strBuf.append(", PP_RL = ").append(extr[2] ? parent.getExtr(2) : null);
-         strBuf.append(", PP_LL = ").append(extr[3] ? parent.getExtr(3) : null);
-         strBuf.append(" WHERE RECORD_ID = ").append(recordId);
-         try {
-            dbcon.dbQueryUpdate (strBuf.toString());
-         } catch (SQLException e) {
-            lg.addLog(new Log(e.getMessage(),
-                     "FractureImage/save",
-                     "Update fracture"));
+      final String update = getUpdateQuery();
+      final String insert = isInDb ? null : getInsertQuery();
+
+      DBExecutor.getInstance(dbcon, lg).submit(
+            new DBTask("FRACTURE " + recordId, new Integer(recordId)) {
+         public Object run(DB2Connect db) throws SQLException
+         {
+            // An earlier save may have inserted the row
+            if (db.dbQueryUpdate (update) == 0 && insert != null)
+               db.dbQueryUpdate (insert);
+            return null;
          }
-      }
-      else  // Not in database
-      {
-         StringBuffer strBuf = new StringBuffer(300);
-         strBuf.append("INSERT INTO EPR.FRACTURE (RECORD_ID, HED, RSH, " +
-               "RUA, RLA, RHA, LSH, LUA, LLA, LHA, RRI, LRI, SPI, PEL, " +
-               "RTH, RLL, RFO, LTH, LLL, LFO, PP_RA, PP_LA, PP_RL, PP_LL)" +
-               " VALUES("); 
-         strBuf.append(recordId);
-         strBuf.append(", ").append(selected[1] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[2] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[3] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[4] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[5] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[6] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[7] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[8] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[9] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[10] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[11] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[12] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[13] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[14] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[15] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[16] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[17] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[18] ? "'t'" : "'f'");
-         strBuf.append(", ").append(selected[19] ? "'t'" : "'f'");
-         strBuf.append(", ").append(extr[0] ? parent.getExtr(0) : null);
-         strBuf.append(", ").append(extr[1] ? parent.getExtr(1) : null);
-         strBuf.append(", ").append(extr[2] ? parent.getExtr(2) : null);
-         strBuf.append(", ").append(extr[3] ? parent.getExtr(3) : null);
-         strBuf.append(")");
-         try {
-            dbcon.dbQueryUpdate (strBuf.toString());
+
+         public void succeeded(Object result)
+         {
             isInDb = true;
-         } catch (SQLException e) {
+         }
+
+         public void failed(SQLException e)
+         {
             lg.addLog(new Log(e.getMessage(),
                      "FractureImage/save",
-                     "Insert fracture"));
+                     insert == null ? "Update fracture" : "Insert fracture"));
          }
-      }
+      });
+   }
+
+   /**
+     * Method that builds the query that updates the data in the database.
+     * @return The query.
+     */
+   private String getUpdateQuery()
+   {
+      StringBuffer strBuf = new StringBuffer(300);
+      strBuf.append("UPDATE EPR.FRACTURE SET HED = ");
+      strBuf.append(selected[1] ? "'t'" : "'f'");
+      strBuf.append(", RSH = ").append(selected[2] ? "'t'" : "'f'");
+      strBuf.append(", RUA = ").append(selected[3] ? "'t'" : "'f'");
+      strBuf.append(", RLA = ").append(selected[4] ? "'t'" : "'f'");
+      strBuf.append(", RHA = ").append(selected[5] ? "'t'" : "'f'");
+      strBuf.append(", LSH = ").append(selected[6] ? "'t'" : "'f'");
+      strBuf.append(", LUA = ").append(selected[7] ? "'t'" : "'f'");
+      strBuf.append(", LLA = ").append(selected[8] ? "'t'" : "'f'");
+      strBuf.append(", LHA = ").append(selected[9] ? "'t'" : "'f'");
+      strBuf.append(", RRI = ").append(selected[10] ? "'t'" : "'f'");
+      strBuf.append(", LRI = ").append(selected[11] ? "'t'" : "'f'");
+      strBuf.append(", SPI = ").append(selected[12] ? "'t'" : "'f'");
+      strBuf.append(", PEL = ").append(selected[13] ? "'t'" : "'f'");
+      strBuf.append(", RTH = ").append(selected[14] ? "'t'" : "'f'");
+      strBuf.append(", RLL = ").append(selected[15] ? "'t'" : "'f'");
+      strBuf.append(", RFO = ").append(selected[16] ? "'t'" : "'f'");
+      strBuf.append(", LTH = ").append(selected[17] ? "'t'" : "'f'");
+      strBuf.append(", LLL = ").append(selected[18] ? "'t'" : "'f'");
+      strBuf.append(", LFO = ").append(selected[19] ? "'t'" : "'f'");
+      strBuf.append(", PP_RA = ").append(extr[0] ? parent.getExtr(0) : null);
+      strBuf.append(", PP_LA = ").append(extr[1] ? parent.getExtr(1) : null);
+      strBuf.append(", PP_RL = ").append(extr[2] ? parent.getExtr(2) : null);
+      strBuf.append(", PP_LL = ").append(extr[3] ? parent.getExtr(3) : null);
+      strBuf.append(" WHERE RECORD_ID = ").append(recordId);
+      return strBuf.toString();
+   }
+
+   /**
+     * Method that builds the query that inserts the data in the database.
+     * @return The query.
+     */
+   private String getInsertQuery()
+   {
+      StringBuffer strBuf = new StringBuffer(300);
+      strBuf.append("INSERT INTO EPR.FRACTURE (RECORD_ID, HED, RSH, " +
+            "RUA, RLA, RHA, LSH, LUA, LLA, LHA, RRI, LRI, SPI, PEL, " +
+            "RTH, RLL, RFO, LTH, LLL, LFO, PP_RA, PP_LA, PP_RL, PP_LL)" +
+            " VALUES("); 
+      strBuf.append(recordId);
+      strBuf.append(", ").append(selected[1] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[2] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[3] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[4] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[5] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[6] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[7] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[8] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[9] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[10] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[11] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[12] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[13] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[14] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[15] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[16] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[17] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[18] ? "'t'" : "'f'");
+      strBuf.append(", ").append(selected[19] ? "'t'" : "'f'");
+      strBuf.append(", ").append(extr[0] ? parent.getExtr(0) : null);
+      strBuf.append(", ").append(extr[1] ? parent.getExtr(1) : null);
+      strBuf.append(", ").append(extr[2] ? parent.getExtr(2) : null);
+      strBuf.append(", ").append(extr[3] ? parent.getExtr(3) : null);
+      strBuf.append(")");
+      return strBuf.toString();
    }
 
    // ---- Mouse Listener ----
@@ -10,6 +10,9 @@ import java.io.*;
  */
 public class GCSPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = -458945193984075415L;
+
     private Time obsTime;
     private int eyes;
     private int motor;
@@ -0,0 +1,338 @@
+import java.io.*;
+import java.net.*;
+import java.util.Vector;
+import javax.net.ssl.*;
+
+/**
+ * Server that accepts the connections from the ambulance clients on one
+ * port and keeps each of them in an IngestSession. The sessions wait in
+ * a queue, and a fixed number of worker threads take the sessions that
+ * are due and answer one packet each before they put them back. An idle
+ * or slow client does not keep a thread. Many ambulances can be
+ * connected at the same time, but never more than the session limit;
+ * when the limit is reached no more connections are accepted until a
+ * session ends, and the waiting clients are held in the listen backlog.
+ * A session holding an UpdateWatch does not use the database while it
+ * waits, so it does not count against the limit until it is answered.
+ * The sessions share a pool of database connections, so the database
+ * gets at most as much work at the same time as the pool has
+ * connections.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class IngestServer implements Runnable {
+
+    //The socket the connections are accepted on
+    private SSLServerSocket serverSocket;
+
+    //The database connections shared by the sessions
+    private DB2ConnectPool pool;
+
+    //The largest number of sessions at the same time
+    private int maxSessions;
+
+    //The number of worker threads serving the sessions
+    private int workers;
+
+    //The open sessions that no worker serves right now
+    private Vector queue = new Vector();
+
+    //The number of open sessions
+    private int sessions = 0;
+
+    //The number of sessions holding an UpdateWatch
+    private int watching = 0;
+
+    //The number of sessions since the server started
+    private long totalSessions = 0;
+
+    //Time in ms a session waits for a database connection
+    private long dbTimeout;
+
+    //The Deflate level accepted from the clients, -1 to refuse
+    private int compressLevel;
+
+    //The smallest message that is compressed
+    private int compressThreshold;
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //Holds the UpdateWatch requests, null if they are not answered
+    private UpdateNotifier notifier = null;
+
+    //The thread accepting the connections
+    private Thread acceptThread = null;
+
+    //Set when the server is stopped
+    private boolean stopped = false;
+
+    /**
+     * Constructor
+     * @param serverSocket The bound socket the connections are accepted on
+     * @param pool The database connections shared by the sessions
+     * @param maxSessions The largest number of sessions at the same time
+     * @param workers The number of threads serving the sessions
+     * @param dbTimeout Time in ms a session waits for a database
+     * connection before it gives up
+     * @param compressLevel The Deflate level 0-9, -1 to refuse compression
+     * @param compressThreshold The smallest message that is compressed
+     * @param lgHandler Reference to the LogHandler object
+     */
+    public IngestServer(SSLServerSocket serverSocket, DB2ConnectPool pool,
+            int maxSessions, int workers, long dbTimeout, int compressLevel,
+            int compressThreshold, LogHandler lgHandler) {
+
+        this.serverSocket = serverSocket;
+        this.pool = pool;
+        this.maxSessions = maxSessions;
+        this.workers = workers;
+        this.dbTimeout = dbTimeout;
+        this.compressLevel = compressLevel;
+        this.compressThreshold = compressThreshold;
+        this.lgHandler = lgHandler;
+    }
+
+    /**
+     * Method used to start accepting connections and the worker threads
+     */
+    public synchronized void start() {
+        if (acceptThread == null) {
+            acceptThread = new Thread(this);
+            acceptThread.start();
+            for (int i = 0; i < workers; i++)
+                new Worker().start();
+        }
+    }
+
+    /**
+     * Method used to stop accepting connections. Open sessions are
+     * finished by their clients, then the worker threads end.
+     */
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ie) {
+            lgHandler.addLog(new Log(ie.getMessage(), "IngestServer/stop",
+                        "Failed to close server socket"));
+        }
+    }
+
+    /**
+     * Background thread, used to accept the connections and start a
+     * session for each of them
+     */
+    public void run() {
+
+        while (true) {
+            try {
+                //Wait for a session to end when the limit is reached
+                synchronized (this) {
+                    while (sessions - watching >= maxSessions && !stopped)
+                        wait();
+                    if (stopped)
+                        return;
+                }
+
+                SSLSocket socket = (SSLSocket) serverSocket.accept();
+
+                synchronized (this) {
+                    sessions++;
+                    totalSessions++;
+                    queue.add(new IngestSession(this, socket));
+                    notifyAll();
+                }
+            } catch (InterruptedException ie) {
+                lgHandler.addLog(new Log(ie.getMessage(), "IngestServer/run",
+                            "InterruptedException"));
+                return;
+            } catch (IOException ie) {
+                synchronized (this) {
+                    if (stopped)
+                        return;
+                }
+                lgHandler.addLog(new Log(ie.getMessage(), "IngestServer/run",
+                            "Failed to accept connection"));
+            }
+        }
+    }
+
+    /**
+     * Method used by a worker to take the first session in the queue that
+     * is due. The worker waits until a session is due.
+     * @return The session, null if the server is stopped and has no open
+     * sessions
+     */
+    private synchronized IngestSession nextSession()
+        throws InterruptedException {
+
+        while (true) {
+            if (stopped && sessions == 0)
+                return null;
+
+            long now = System.currentTimeMillis();
+            long next = Long.MAX_VALUE;
+            for (int i = 0; i < queue.size(); i++) {
+                IngestSession session = (IngestSession) queue.get(i);
+                if (session.getNextServe() <= now) {
+                    queue.remove(i);
+                    return session;
+                }
+                next = Math.min(next, session.getNextServe());
+            }
+
+            if (next == Long.MAX_VALUE)
+                wait();
+            else
+                wait(next - now);
+        }
+    }
+
+    /**
+     * Method used by a worker when it has served a session
+     * @param session The session
+     * @param open true if the session is still open
+     */
+    private synchronized void sessionServed(IngestSession session,
+            boolean open) {
+        if (open)
+            queue.add(session);
+        else
+            sessions--;
+        notifyAll();
+    }
+
+    /**
+     * Method used by a session when it starts to hold an UpdateWatch
+     */
+    synchronized void watchStarted() {
+        watching++;
+        notifyAll();
+    }
+
+    /**
+     * Method used by a session when its UpdateWatch is answered
+     */
+    synchronized void watchEnded() {
+        watching--;
+    }
+
+    /**
+     * Method used to get the database connections of the server
+     * @return The pool
+     */
+    public DB2ConnectPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Method used to get the time a session waits for a database
+     * connection
+     * @return The time in ms
+     */
+    public long getDbTimeout() {
+        return dbTimeout;
+    }
+
+    /**
+     * Method used to get the Deflate level accepted from the clients
+     * @return The level, -1 if compression is refused
+     */
+    public int getCompressLevel() {
+        return compressLevel;
+    }
+
+    /**
+     * Method used to get the smallest message that is compressed
+     * @return The number of bytes
+     */
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    /**
+     * Method used to let the sessions hold UpdateWatch requests until
+     * there are new updates
+     * @param notifier The notifier, null to answer the requests at once
+     * as not supported
+     */
+    public synchronized void setUpdateNotifier(UpdateNotifier notifier) {
+        this.notifier = notifier;
+    }
+
+    /**
+     * Method used to get the notifier that holds the UpdateWatch requests
+     * @return The notifier, null if the requests are not supported
+     */
+    public synchronized UpdateNotifier getUpdateNotifier() {
+        return notifier;
+    }
+
+    /**
+     * Method used to get the log handler of the server
+     * @return The log handler
+     */
+    public LogHandler getLogHandler() {
+        return lgHandler;
+    }
+
+    /**
+     * Method used to get the number of open sessions
+     * @return The number of sessions
+     */
+    public synchronized int getSessionCount() {
+        return sessions;
+    }
+
+    /**
+     * Method used to get the number of sessions holding an UpdateWatch
+     * @return The number of sessions
+     */
+    public synchronized int getWatchingCount() {
+        return watching;
+    }
+
+    /**
+     * Method used to get the number of sessions waiting to be served
+     * @return The number of sessions
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Method used to get the number of sessions since the server started
+     * @return The number of sessions
+     */
+    public synchronized long getTotalSessionCount() {
+        return totalSessions;
+    }
+
+    /**
+     * Thread that serves the sessions in the queue, one packet at a time
+     */
+    private class Worker extends Thread {
+
+        /**
+         * Background thread, used to serve the sessions that are due
+         * until the server is stopped and the sessions have ended
+         */
+        public void run() {
+
+            try {
+                IngestSession session;
+                while ((session = nextSession()) != null)
+                    sessionServed(session, session.serve());
+            } catch (InterruptedException ie) {
+                lgHandler.addLog(new Log(ie.getMessage(),
+                            "IngestServer/Worker/run",
+                            "InterruptedException"));
+            }
+        }
+    }
+}
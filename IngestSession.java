@@ -0,0 +1,392 @@
+import java.io.*;
+import java.sql.*;
+import javax.net.ssl.*;
+
+/**
+ * Serves one ambulance client connected to the IngestServer. The session
+ * has no thread of its own: a worker thread of the server calls serve
+ * when the session is due, and serve answers at most one packet. An idle
+ * client is only looked at for a moment, and a client that holds an
+ * UpdateWatch is answered by the first worker that finds the server has
+ * new updates.
+ *
+ * The packets the client sends are answered the same way on every port:
+ * a Record is written to the server database and acknowledged, an
+ * UpdatePacket is filled with the updates or followed by them in pages,
+ * the update version the client sends when it has applied them is
+ * stored as its last update, a patient information packet is filled in,
+ * and the messages on the shared channel are answered with the same
+ * request id. An UpdateWatch on the update port is held until the server
+ * has new updates. A database connection is only borrowed from the pool
+ * while a packet is written or read.
+ *
+ * If the database can not take a record, the record is refused and the
+ * session goes on with the next packet. The client then keeps the record
+ * in its outbox and sends it again later, after its other records.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class IngestSession {
+
+    //Time in ms a worker waits for a packet before it serves another
+    //session
+    private static final int POLL_TIMEOUT = 5;
+
+    //Time in ms before an idle session is looked at again
+    private static final long IDLE_DELAY = 100;
+
+    //Time in ms the client may take to finish a packet or answer a page,
+    //a slower client is disconnected
+    private static final int READ_TIMEOUT = 60 * 1000;
+
+    //The server this session belongs to
+    private IngestServer server;
+
+    //The accepted socket
+    private SSLSocket socket;
+
+    //The connection to the client, null until the streams are set up
+    private ServerConnection connection = null;
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //The client id of the last UpdatePacket, null if none is read
+    private String clientId = null;
+
+    //The UpdateWatch held, null if the client does not wait
+    private UpdateWatch watch = null;
+
+    //The time in ms the held UpdateWatch is answered at the latest
+    private long watchDeadline = 0;
+
+    //The time in ms the session is due to be served
+    private long nextServe = 0;
+
+    /**
+     * Constructor
+     * @param server The server this session belongs to
+     * @param socket The accepted socket
+     */
+    public IngestSession(IngestServer server, SSLSocket socket) {
+        this.server = server;
+        this.socket = socket;
+        lgHandler = server.getLogHandler();
+    }
+
+    /**
+     * Method used by a worker thread to serve the session. The first call
+     * sets up the connection, every other call answers the held
+     * UpdateWatch or reads and answers one packet if the client has sent
+     * one.
+     * @return true if the session is still open, false if it has ended
+     * and the connection is closed
+     */
+    public boolean serve() {
+
+        try {
+            if (connection == null) {
+                //The handshake is bounded like any other read
+                socket.setSoTimeout(READ_TIMEOUT);
+                connection = ServerConnection.accept(socket,
+                        server.getCompressLevel(),
+                        server.getCompressThreshold());
+                return true;
+            }
+
+            if (watch != null) {
+                answerWatch();
+                return true;
+            }
+
+            if (!connection.isReadable(POLL_TIMEOUT)) {
+                nextServe = System.currentTimeMillis() + IDLE_DELAY;
+                return true;
+            }
+
+            Object packet = connection.readObject();
+            if (packet instanceof UpdatePacket)
+                sendUpdates((UpdatePacket) packet);
+            else if (packet instanceof UpdateWatch)
+                startWatch((UpdateWatch) packet);
+            else {
+                Object reply = handle(packet);
+                if (reply != null)
+                    connection.writeObject(reply);
+            }
+            nextServe = 0;
+            return true;
+        } catch (EOFException eofe) {
+            //The client has closed the connection
+        } catch (IOException ie) {
+            if (!socket.isClosed())
+                lgHandler.addLog(new Log(ie.getMessage(),
+                            "IngestSession/serve",
+                            "Failed to read or write packet"));
+        } catch (ClassNotFoundException cnfe) {
+            lgHandler.addLog(new Log(cnfe.getMessage(), "IngestSession/serve",
+                        "Class versions is not the same at client and server"));
+        } catch (SQLException sql) {
+            while (sql != null) {
+                lgHandler.addLog(new Log(sql.getMessage(),
+                            "SQLState: " + sql.getSQLState(),
+                            "ERRORCode: " + sql.getErrorCode()));
+                sql = sql.getNextException();
+            }
+        } catch (InterruptedException ie) {
+            lgHandler.addLog(new Log(ie.getMessage(), "IngestSession/serve",
+                        "InterruptedException"));
+        } catch (RuntimeException re) {
+            //Only this session ends, the worker goes on with the others
+            lgHandler.addLog(new Log(re.toString(), "IngestSession/serve",
+                        "Failed to answer packet"));
+        }
+
+        close();
+        return false;
+    }
+
+    /**
+     * Method used to get the time the session is due to be served
+     * @return The time in ms, 0 if it is due at once
+     */
+    public long getNextServe() {
+        return nextServe;
+    }
+
+    /**
+     * Method used to answer a packet from the client
+     * @param packet The packet
+     * @return The reply, null if the packet is not answered
+     */
+    private Object handle(Object packet)
+        throws SQLException, InterruptedException {
+
+        if (packet instanceof ChannelMessage) {
+            ChannelMessage msg = (ChannelMessage) packet;
+            Object reply;
+
+            switch (msg.getType()) {
+                case ChannelMessage.RECORD:
+                case ChannelMessage.UPDATE:
+                case ChannelMessage.PATIENT:
+                    reply = handle(msg.getPayload());
+                    break;
+                case ChannelMessage.UPDATE_VERSION:
+                    handle(msg.getPayload());
+                    reply = msg.getPayload();
+                    break;
+                default:
+                    //Heartbeats are echoed
+                    reply = msg.getPayload();
+            }
+            return new ChannelMessage(msg.getRequestId(), msg.getType(),
+                    reply);
+        }
+
+        if (packet instanceof Record)
+            return writeRecord((Record) packet);
+
+        if (packet instanceof UpdatePacket) {
+            UpdatePacket updatePacket = (UpdatePacket) packet;
+            //A reply on the channel is one message, it can not be paged
+            updatePacket.setPageSize(0);
+            clientId = updatePacket.getClientId();
+            DB2Connect db2 = server.getPool().acquire(server.getDbTimeout());
+            try {
+                updatePacket.readUpdates(db2, lgHandler);
+            } finally {
+                server.getPool().release(db2);
+            }
+            return updatePacket;
+        }
+
+        if (packet instanceof AmbulancePatientInformation) {
+            AmbulancePatientInformation api =
+                (AmbulancePatientInformation) packet;
+            api.getPatientInformation();
+            return api;
+        }
+
+        //The update version sent when an update is applied, nothing to
+        //answer
+        if (packet instanceof Timestamp)
+            writeUpdateVersion((Timestamp) packet);
+        return null;
+    }
+
+    /**
+     * Method used to store the update version a client has applied, so
+     * the log compaction and the bundles know how far it has come. The
+     * stored version is never moved back.
+     * @param version The update version of the client
+     */
+    private void writeUpdateVersion(Timestamp version)
+        throws InterruptedException {
+
+        if (clientId == null) {
+            lgHandler.addLog(new Log("Update version " + version,
+                        "IngestSession/writeUpdateVersion",
+                        "No UpdatePacket read before the version"));
+            return;
+        }
+
+        try {
+            DB2Connect db2 = server.getPool().acquire(server.getDbTimeout());
+            try {
+                db2.dbQueryUpdate("UPDATE EPR.AMBULANCE_LAST_UPDATE SET " +
+                        "LAST_UPDATE = ? WHERE CLIENT_ID = ? AND " +
+                        "(LAST_UPDATE IS NULL OR LAST_UPDATE < ?)",
+                        new Object[] { version, clientId, version });
+            } finally {
+                server.getPool().release(db2);
+            }
+        } catch (SQLException sql) {
+            //The client sends its version again with its next UpdatePacket
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "IngestSession/writeUpdateVersion",
+                        "Failed to store the version of client " + clientId +
+                        ", SQLState: " + sql.getSQLState()));
+        }
+    }
+
+    /**
+     * Method used to answer an UpdatePacket on the update port. If the
+     * client asked for pages they are sent after the packet. The database
+     * connection is given back before anything is written, unless the
+     * pages are read from the update log; then it is borrowed until the
+     * last page is acknowledged, at most as long as writePages allows.
+     * @param updatePacket The packet from the client
+     */
+    private void sendUpdates(UpdatePacket updatePacket)
+        throws IOException, ClassNotFoundException, SQLException,
+                InterruptedException {
+
+        clientId = updatePacket.getClientId();
+        DB2Connect db2 = server.getPool().acquire(server.getDbTimeout());
+        try {
+            updatePacket.readUpdates(db2, lgHandler);
+
+            //Only pages read from the update log need the connection
+            if (!updatePacket.isPaged() || updatePacket.isCached()) {
+                server.getPool().release(db2);
+                db2 = null;
+            }
+
+            connection.writeObject(updatePacket);
+            if (updatePacket.isPaged())
+                updatePacket.writePages(db2, connection, lgHandler);
+        } finally {
+            if (db2 != null)
+                server.getPool().release(db2);
+        }
+    }
+
+    /**
+     * Method used to hold an UpdateWatch until the update version of the
+     * server is newer than the version of the client or the timeout has
+     * passed. No thread and no database connection is held while the
+     * client waits.
+     * @param updateWatch The request from the client
+     */
+    private void startWatch(UpdateWatch updateWatch) throws IOException {
+
+        UpdateNotifier notifier = server.getUpdateNotifier();
+
+        if (notifier == null) {
+            updateWatch.setResult(null, false);
+            connection.writeObject(updateWatch);
+            return;
+        }
+
+        //The session is not counted against the limit while it waits
+        watchDeadline = notifier.startWatch(updateWatch.getTimeout());
+        server.watchStarted();
+        watch = updateWatch;
+        answerWatch();
+    }
+
+    /**
+     * Method used to answer the held UpdateWatch if the server has new
+     * updates or its timeout has passed
+     */
+    private void answerWatch() throws IOException {
+
+        UpdateNotifier notifier = server.getUpdateNotifier();
+        long now = System.currentTimeMillis();
+
+        if (!notifier.isChanged(watch.getClientVersion()) &&
+                now < watchDeadline) {
+            nextServe = Math.min(now + IDLE_DELAY, watchDeadline);
+            return;
+        }
+
+        UpdateWatch answered = watch;
+        endWatch();
+        answered.setResult(notifier.getVersion(), true);
+        connection.writeObject(answered);
+        nextServe = 0;
+    }
+
+    /**
+     * Method used to stop holding the UpdateWatch
+     */
+    private void endWatch() {
+        if (watch != null) {
+            watch = null;
+            server.getUpdateNotifier().endWatch();
+            server.watchEnded();
+        }
+    }
+
+    /**
+     * Method used to write a received record to the server database
+     * @param record The record
+     * @return The acknowledgement to the client, a refusal if the record
+     * could not be written
+     */
+    private ServerAcknowledgement writeRecord(Record record)
+        throws InterruptedException {
+
+        try {
+            DB2Connect db2 = server.getPool().acquire(server.getDbTimeout());
+            try {
+                record.writeRecordPacket(db2);
+            } finally {
+                server.getPool().release(db2);
+            }
+        } catch (SQLException sql) {
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "IngestSession/writeRecord", "Record " +
+                        record.getClientRecordId() + " refused, SQLState: " +
+                        sql.getSQLState()));
+            return ServerAcknowledgement.refused(record.getClientRecordId(),
+                    "Servern kunde inte spara journalen");
+        }
+
+        String msg = "Journalen är mottagen av servern.";
+        if (!record.isRecordSigned())
+            msg = msg + "\nJournalen signeras automatiskt " +
+                record.getAutoSignTime();
+
+        return new ServerAcknowledgement(record.getClientRecordId(),
+                record.getServerRecordId(), msg);
+    }
+
+    /**
+     * Method used to close the connection to the client
+     */
+    private void close() {
+        endWatch();
+        try {
+            if (connection != null)
+                connection.close();
+            else
+                socket.close();
+        } catch (IOException ie) {
+            lgHandler.addLog(new Log(ie.getMessage(), "IngestSession/close",
+                        "Failed to close socket/streams"));
+        }
+    }
+}
@@ -221,20 +221,60 @@ public class MedicationTableModel extends AbstractTableModel
        }
        if (query != null)
        {
-          try {
-             dbcon.dbQueryUpdate (query.toString());
-             data[row][col] = value;
-          } catch (SQLException e) {
-             // Don't log error if the time is incorect, only give an error msg
-             if (e.getSQLState().equals("22007"))
-                pr.setMessage ("Värdet är felaktigt");
-             else // Not a time error, log it
-                lg.addLog(new Log(e.getMessage(),
-                         "MedicationTableModel/setValueAt",
-                         "Update given medications"));
-          }
-          fireTableCellUpdated(row, col);
+          // A newer value for the same cell supersedes one not yet written
+          final String sql = query.toString();
+          final int id = rowId[row];
+          final int column = col;
+          final Object newValue = value;
+          DBExecutor.getInstance(dbcon, lg).submit(
+                new DBTask("GIVEN_MEDICATIONS " + id + " " + col,
+                   new Integer(pr.getRecordId())) {
+             public Object run(DB2Connect db) throws SQLException
+             {
+                db.dbQueryUpdate (sql);
+                return null;
+             }
+
+             public void succeeded(Object result)
+             {
+                int row = findRow(id);
+                if (row != -1)
+                {
+                   data[row][column] = newValue;
+                   fireTableCellUpdated(row, column);
+                }
+             }
+
+             public void failed(SQLException e)
+             {
+                /* Don't log error if the time is incorect, only give an
+                   error msg */
+                if ("22007".equals(e.getSQLState()))
+                   pr.setMessage ("Värdet är felaktigt");
+                else // Not a time error, log it
+                   lg.addLog(new Log(e.getMessage(),
+                            "MedicationTableModel/setValueAt",
+                            "Update given medications"));
+                int row = findRow(id);
+                if (row != -1)
+                   fireTableCellUpdated(row, column);
+             }
+          });
        }
     }
 
+    /**
+     * Method used to find the row of a given medication, the rows may have
+     * been read again since the value was changed.
+     * @param id GIVEN_MEDICATION_ID of the row.
+     * @return The row number, -1 if the row is gone.
+     */
+    private int findRow(int id)
+    {
+       for (int i=0 ; rowId != null && i < rowId.length ; i++)
+          if (rowId[i] == id)
+             return i;
+       return -1;
+    }
+
 } //Class
@@ -10,6 +10,9 @@ import java.util.Vector;
  */ 
 public class MedicineEffectPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 8355805515123531037L;
+
     private int medicineId;
     private int dozage;
     private Time givenTime;
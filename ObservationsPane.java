@@ -116,7 +116,7 @@ public class ObservationsPane extends JPanel
  
          rs = dbcon.dbQuery("SELECT WITHOUT_REMARK, EXAMINATION_TYPE_ID, " +
               "DESCRIPTION_FIELD FROM EPR.EXAMINATION_DESCRIPTION WHERE " +
-              "RECORD_ID = " + recordId);
+              "RECORD_ID = ?", new Object[] { new Integer(recordId) });
          while (rs.next())
          {
             tmpID = rs.getInt(2) - 1;  // EXAMINATION_TYPE_ID
@@ -142,8 +142,9 @@ public class ObservationsPane extends JPanel
             selectedAttr[i] = false;
 
          rs = dbcon.dbQuery("SELECT EXAMINATION_ATTRIBUTE " +
-              "FROM EPR.EXAMINATION WHERE RECORD_ID = " +
-              recordId + " ORDER BY EXAMINATION_ATTRIBUTE");
+              "FROM EPR.EXAMINATION WHERE RECORD_ID = ? " +
+              "ORDER BY EXAMINATION_ATTRIBUTE",
+              new Object[] { new Integer(recordId) });
          while (rs.next())
             selectedAttr[rs.getInt(1)] = true;  // EXAMINATION_ATTRIBUTE
 
@@ -435,8 +436,8 @@ public class ObservationsPane extends JPanel
       fractureBt.setActionCommand("fracturebt");
 
       try {
-         rs = dbcon.dbQuery("SELECT * FROM EPR.FRACTURE WHERE RECORD_ID = " +
-               recordId);
+         rs = dbcon.dbQuery("SELECT * FROM EPR.FRACTURE WHERE RECORD_ID = ?",
+               new Object[] { new Integer(recordId) });
          if (rs.next())
          {
             for (int i=1 ; i <= 19 ; i++)
@@ -462,8 +463,8 @@ public class ObservationsPane extends JPanel
       luxationBt.setActionCommand("luxationbt");
 
       try {
-         rs = dbcon.dbQuery("SELECT * FROM EPR.LUXATION WHERE RECORD_ID = " +
-               recordId);
+         rs = dbcon.dbQuery("SELECT * FROM EPR.LUXATION WHERE RECORD_ID = ?",
+               new Object[] { new Integer(recordId) });
          if (rs.next())
          {
             for (int i=1 ; i <= 10 ; i++)
@@ -571,7 +572,7 @@ public class ObservationsPane extends JPanel
 
       try {
          rs = dbcon.dbQuery("SELECT RIGHT_SIDE, LEFT_SIDE FROM EPR.PARALYSIS " +
-               "WHERE RECORD_ID = " + recordId);
+               "WHERE RECORD_ID = ?", new Object[] { new Integer(recordId) });
          if (rs.next())
          {
             paralysisRight = rs.getInt(1);
@@ -10,6 +10,9 @@ import java.io.*;
  */
 public class ParalysisPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = -16944558453678050L;
+
     private int rightSide;
     private int leftSide;
 
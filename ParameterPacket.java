@@ -12,6 +12,9 @@ import java.io.*;
  */
 public class ParameterPacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = -7336832609670550813L;
+
     private Time obsTime;
     private int obsParamId;
     private String paramValue;
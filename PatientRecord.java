@@ -18,6 +18,10 @@ public class PatientRecord extends JFrame implements MessageInterface
    private DB2Connect dbcon;
    private WordList wl;
    private LogHandler lg;
+
+   // The longest time in ms to wait for the saves when closing
+   private final long SAVE_TIMEOUT = 30 * 1000;
+
    private StatusField statusFld;
 
    private int recordId;
@@ -306,7 +310,8 @@ public class PatientRecord extends JFrame implements MessageInterface
    }
 
    /**
-    * Method used to close the patient record.
+    * Method used to close the patient record. The main frame is told
+    * when the saves of the record are done.
     */
    public void close()
    {
@@ -359,7 +364,18 @@ public class PatientRecord extends JFrame implements MessageInterface
                   "PatientRecord/close",
                   "save misc"));
       }
-      dispose();
+      // The record may be sent once it is closed, so it is reported
+      // closed when its saves are done, without waiting for other records
+      setVisible(false);
+      final PatientRecord closed = this;
+      DBExecutor.getInstance(dbcon, lg).whenDone(new Integer(recordId),
+            SAVE_TIMEOUT, new Runnable() {
+         public void run()
+         {
+            dispose();
+            ar.recordClosed(closed);
+         }
+      });
    }
 
    /**
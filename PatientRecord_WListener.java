@@ -31,6 +31,5 @@ public class PatientRecord_WListener extends WindowAdapter
    public void windowClosing(WindowEvent e)
    {
       pr.close();
-      ar.recordClosed(pr);
    }
 }
@@ -0,0 +1,188 @@
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Class that collects the number of calls, the time and the number of
+ * rows of the database queries, per statement shape. The shape of a query
+ * is the SQL with the literals replaced by ?, so the same query with other
+ * values is counted together.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class QueryStatistics {
+
+    //The largest number of shapes kept, the rest are counted as OTHER_SHAPE
+    private final int MAX_SHAPES = 500;
+
+    //The shape used when MAX_SHAPES is reached
+    private final String OTHER_SHAPE = "(other queries)";
+
+    //Upper limits in ms of the latency buckets, the last bucket has none
+    private static final long[] BUCKETS = { 1, 5, 10, 50, 100, 500, 1000,
+        5000 };
+
+    //A string literal, with '' inside it
+    private static final Pattern STRING_LITERAL =
+        Pattern.compile("'(?:[^']|'')*'");
+
+    //A hex literal once its string is replaced
+    private static final Pattern HEX_LITERAL = Pattern.compile("(?i)\\bX\\?");
+
+    //A number literal that is not part of a name
+    private static final Pattern NUMBER_LITERAL =
+        Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+
+    //A run of white space
+    private static final Pattern WHITE_SPACE = Pattern.compile("\\s+");
+
+    //A list of ? in parentheses
+    private static final Pattern PARAMETER_LIST =
+        Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+
+    //The statistics, keyed by the shape, in the order first seen
+    private LinkedHashMap shapes = new LinkedHashMap();
+
+    /**
+     * Method used to get the shape of a query. String, hex and number
+     * literals are replaced by ?, a list of ? in parentheses by one ? and
+     * the white space by single spaces.
+     * @param query The SQL query
+     * @return The shape
+     */
+    public static String normalize(String query) {
+
+        String shape = STRING_LITERAL.matcher(query).replaceAll("?");
+        shape = HEX_LITERAL.matcher(shape).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = WHITE_SPACE.matcher(shape).replaceAll(" ").trim();
+        shape = PARAMETER_LIST.matcher(shape).replaceAll("(?)");
+        return shape;
+    }
+
+    /**
+     * Method used to record one call of a query
+     * @param query The SQL query
+     * @param time The time the call took in ms
+     * @param rows The number of rows changed, 0 for a select
+     * @return The shape the call was counted for, used to add the rows of
+     * a select when its result is closed
+     */
+    public String record(String query, long time, int rows) {
+
+        String shape = normalize(query);
+
+        synchronized (this) {
+            Shape stats = (Shape) shapes.get(shape);
+            if (stats == null) {
+                if (shapes.size() >= MAX_SHAPES) {
+                    shape = OTHER_SHAPE;
+                    stats = (Shape) shapes.get(shape);
+                }
+                if (stats == null) {
+                    stats = new Shape();
+                    shapes.put(shape, stats);
+                }
+            }
+
+            stats.calls++;
+            stats.time += time;
+            if (time > stats.maxTime)
+                stats.maxTime = time;
+            stats.rows += rows;
+
+            int bucket = 0;
+            while (bucket < BUCKETS.length && time >= BUCKETS[bucket])
+                bucket++;
+            stats.histogram[bucket]++;
+        }
+        return shape;
+    }
+
+    /**
+     * Method used to add the rows read from the result of a query
+     * @param shape The shape returned by record
+     * @param rows The number of rows
+     */
+    public synchronized void addRows(String shape, int rows) {
+        Shape stats = (Shape) shapes.get(shape);
+        if (stats != null)
+            stats.rows += rows;
+    }
+
+    /**
+     * Method used to remove the statistics collected so far
+     */
+    public synchronized void clear() {
+        shapes.clear();
+    }
+
+    /**
+     * Method used to get the number of shapes
+     * @return The number of shapes
+     */
+    public synchronized int getShapeCount() {
+        return shapes.size();
+    }
+
+    /**
+     * Method used to get a summary of the statistics, one line per shape
+     * with the most time first. The histogram gives the number of calls
+     * under 1, 5, 10, 50, 100, 500, 1000, 5000 ms and above.
+     * @return The summary
+     */
+    public synchronized String getSummary() {
+
+        Vector entries = new Vector(shapes.entrySet());
+        Collections.sort(entries, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long t1 = ((Shape) ((Map.Entry) o1).getValue()).time;
+                long t2 = ((Shape) ((Map.Entry) o2).getValue()).time;
+                return t1 > t2 ? -1 : (t1 < t2 ? 1 : 0);
+            }
+        });
+
+        StringBuffer summary = new StringBuffer();
+        summary.append("calls\ttotal ms\tavg ms\tmax ms\trows\t" +
+                "histogram\tquery\n");
+
+        for (int i = 0; i < entries.size(); i++) {
+            Map.Entry entry = (Map.Entry) entries.elementAt(i);
+            Shape stats = (Shape) entry.getValue();
+
+            summary.append(stats.calls).append('\t');
+            summary.append(stats.time).append('\t');
+            summary.append(stats.time / stats.calls).append('\t');
+            summary.append(stats.maxTime).append('\t');
+            summary.append(stats.rows).append('\t');
+            for (int b = 0; b < stats.histogram.length; b++) {
+                if (b > 0)
+                    summary.append('/');
+                summary.append(stats.histogram[b]);
+            }
+            summary.append('\t').append(entry.getKey()).append('\n');
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Class that holds the statistics of one shape
+     */
+    private static class Shape {
+
+        //The number of calls
+        private long calls = 0;
+
+        //The total time of the calls in ms
+        private long time = 0;
+
+        //The longest call in ms
+        private long maxTime = 0;
+
+        //The number of rows read or changed
+        private long rows = 0;
+
+        //The number of calls per latency bucket
+        private long[] histogram = new long[BUCKETS.length + 1];
+    }
+}
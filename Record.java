@@ -11,6 +11,9 @@ import java.util.Date;
  */  
 public class Record implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 1379758055078628518L;
+
     private AmbulanceRecordPacket arp;
     private AmbulancePatientPacket app;
     private AmbulanceMedicinePacket amp;
@@ -37,30 +40,69 @@ public class Record implements Serializable {
      * Constructor used by ambulance client to create a Record object
      * @param recordId The patient record that will be send to the server
      * @param db2 client database connection 
+     * @param clientName The name of the ambulance client in the network
+     */
+    public Record(int recordId, DB2Connect db2, String clientName)
+        throws SQLException {
+        this(recordId, new RecordSnapshot(new int[] {recordId}, db2),
+                clientName);
+    }
+
+    /**
+     * Constructor used by ambulance client to create a Record object
+     * from the rows already read for a batch of records
+     * @param recordId The patient record that will be send to the server
+     * @param snapshot The rows read from the client database
+     * @param clientName The name of the ambulance client in the network
      */
-    public Record(int recordId, DB2Connect db2) throws SQLException {
+    public Record(int recordId, RecordSnapshot snapshot, String clientName)
+        throws SQLException {
 
         this.clientRecordId = recordId;
-        arp = new AmbulanceRecordPacket(clientRecordId, db2);
-        app = new AmbulancePatientPacket(clientRecordId, db2);
-        amp = new AmbulanceMedicinePacket(clientRecordId, db2);
-        matas = new AmbulanceMatasPacket(clientRecordId, db2);
-        aep = new AmbulanceExaminationPacket(clientRecordId, db2);
-        asp = new AmbulanceStatisticsPacket(clientRecordId, db2);
-        aap = new AmbulanceActionPacket(clientRecordId, db2);
-        aParp = new AmbulanceParameterPacket(clientRecordId, db2);
+        arp = new AmbulanceRecordPacket(clientRecordId, snapshot, clientName);
+        app = new AmbulancePatientPacket(clientRecordId, snapshot);
+        amp = new AmbulanceMedicinePacket(clientRecordId, snapshot);
+        matas = new AmbulanceMatasPacket(clientRecordId, snapshot);
+        aep = new AmbulanceExaminationPacket(clientRecordId, snapshot);
+        asp = new AmbulanceStatisticsPacket(clientRecordId, snapshot);
+        aap = new AmbulanceActionPacket(clientRecordId, snapshot);
+        aParp = new AmbulanceParameterPacket(clientRecordId, snapshot);
     }
 
     /**
      * Method used by the server to write the received patient record
-     * to the server database
+     * to the server database. The whole record is written in one
+     * transaction, if any part fails nothing of the record is kept.
      * @param db2 is the database connection at the server
      */ 
     public void writeRecordPacket(DB2Connect db2) throws SQLException {
 
+        boolean committed = false;
+
+        db2.setAutoCommit(false);
+        try {
+            writePackets(db2);
+            db2.commit();
+            committed = true;
+        } finally {
+            try {
+                if (!committed)
+                    db2.rollback();
+            } finally {
+                db2.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Method used to write the packets of the record
+     * @param db2 is the database connection at the server
+     */ 
+    private void writePackets(DB2Connect db2) throws SQLException {
+
         Date date;
         long scheduleTime;
-        String query;
+        PreparedStatement ps;
 
         serverRecordId = arp.writeRecordPacket(db2);
         isRecordSigned = arp.doesSignTimeExist();
@@ -79,11 +121,16 @@ public class Record implements Serializable {
             autoSignTime= new Timestamp(scheduleTime);
 
             //insert the sign information into the database
-            query  = "INSERT INTO EPR.AUTO_SIGN (RECORD_ID, INSERT_TIME, " +
-                "SCHEDULED_SIGN_TIME) VALUES (" + serverRecordId + 
-                ", CURRENT TIMESTAMP, '" + autoSignTime + "')";
-
-            db2.dbQueryUpdate (query);
+            ps = db2.prepareStatement("INSERT INTO EPR.AUTO_SIGN " +
+                "(RECORD_ID, INSERT_TIME, SCHEDULED_SIGN_TIME) VALUES " +
+                "(?, CURRENT TIMESTAMP, ?)");
+            try {
+                ps.setInt(1, serverRecordId);
+                ps.setTimestamp(2, autoSignTime);
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
         }
 
         app.writePatientPacket(db2, serverRecordId);
@@ -139,4 +186,52 @@ public class Record implements Serializable {
     public boolean isLastPacket() {
         return lastPacket;
     }
+
+    /**
+     * Method used by WireRecord to write this record in the compact
+     * binary format
+     * @param out The stream the record is written to
+     */
+    public void writeWire(WireOutput out) throws IOException {
+
+        out.writeInt(clientRecordId);
+        out.writeBoolean(lastPacket);
+
+        arp.writeWire(out);
+        app.writeWire(out);
+        amp.writeWire(out);
+        matas.writeWire(out);
+        aep.writeWire(out);
+        asp.writeWire(out);
+        aap.writeWire(out);
+        aParp.writeWire(out);
+    }
+
+    /**
+     * Method used by WireRecord to re-initialize this record from the
+     * compact binary format
+     * @param in The stream the record is read from
+     */
+    public void readWire(WireInput in) throws IOException {
+
+        clientRecordId = in.readInt();
+        lastPacket = in.readBoolean();
+
+        arp = new AmbulanceRecordPacket();
+        arp.readWire(in);
+        app = new AmbulancePatientPacket();
+        app.readWire(in);
+        amp = new AmbulanceMedicinePacket();
+        amp.readWire(in);
+        matas = new AmbulanceMatasPacket();
+        matas.readWire(in);
+        aep = new AmbulanceExaminationPacket();
+        aep.readWire(in);
+        asp = new AmbulanceStatisticsPacket();
+        asp.readWire(in);
+        aap = new AmbulanceActionPacket();
+        aap.readWire(in);
+        aParp = new AmbulanceParameterPacket();
+        aParp.readWire(in);
+    }
 }
@@ -396,8 +396,8 @@ public class RecordInformationPane extends JPanel
       try {
          rs = dbcon.dbQuery(
                "SELECT ZONE_ID, ZONE_NAME " +
-               "FROM EPR.ZONE WHERE DISABLE = 0 AND CITY_ID = " +
-               inCityId + " ORDER BY ZONE_NAME");
+               "FROM EPR.ZONE WHERE DISABLE = 0 AND CITY_ID = ? " +
+               "ORDER BY ZONE_NAME", new Object[] { new Integer(inCityId) });
          inZoneVec = new Vector();
          inZoneVec.add(new ListEntry("",0));
          ListEntry tmp, inDef = null;
@@ -427,8 +427,8 @@ public class RecordInformationPane extends JPanel
       try {
           rs = dbcon.dbQuery(
                "SELECT ZONE_ID, ZONE_NAME " +
-               "FROM EPR.ZONE WHERE DISABLE = 0 AND CITY_ID = " +
-               outCityId + " ORDER BY ZONE_NAME");
+               "FROM EPR.ZONE WHERE DISABLE = 0 AND CITY_ID = ? " +
+               "ORDER BY ZONE_NAME", new Object[] { new Integer(outCityId) });
          outZoneVec = new Vector();
          outZoneVec.add(new ListEntry("",0));
          ListEntry tmp, outDef = null;
@@ -1008,26 +1008,12 @@ public class RecordInformationPane extends JPanel
       if (curItm.getNumber() == inCityId)
          return;
 
-      ResultSet rs;
-
-      try {
-         rs = dbcon.dbQuery(
-               "SELECT ZONE_ID, ZONE_NAME FROM EPR.ZONE WHERE CITY_ID = " +
-               curItm.getNumber() + " AND DISABLE = 0");
-         
-         inZoneCBox.removeAllItems();
-         inZoneCBox.addItem(new ListEntry("", 0));
+      inCityId = curItm.getNumber();
+      inZoneCBox.removeAllItems();
+      inZoneCBox.addItem(new ListEntry("", 0));
 
-         while (rs.next())
-            inZoneCBox.addItem(new ListEntry(rs.getString(2),  // ZONE_NAME
-                     rs.getInt(1)));   // ZONE_ID
-         rs.close();
-         inCityId = curItm.getNumber();
-      } catch (SQLException e) {
-          lg.addLog(new Log(e.getMessage(),
-                  "RecordInformationPane/inCityChange",
-                  "Read zone"));
-      }
+      DBExecutor.getInstance(dbcon, lg).submit(new ZoneTask(inZoneCBox,
+               inCityId, "RecordInformationPane/inCityChange"));
    }
 
    /**
@@ -1041,26 +1027,12 @@ public class RecordInformationPane extends JPanel
       if (curItm.getNumber() == outCityId)
          return;
 
-      ResultSet rs;
+      outCityId = curItm.getNumber();
+      outZoneCBox.removeAllItems();
+      outZoneCBox.addItem(new ListEntry("", 0));
 
-      try {
-         rs = dbcon.dbQuery(
-               "SELECT ZONE_ID, ZONE_NAME FROM EPR.ZONE WHERE CITY_ID = " +
-               curItm.getNumber() + " AND DISABLE = 0");
-         
-         outZoneCBox.removeAllItems();
-         outZoneCBox.addItem(new ListEntry("", 0));
-
-         while (rs.next())
-            outZoneCBox.addItem(new ListEntry(rs.getString(2), // ZONE_NAME
-                     rs.getInt(1)));   // ZONE_ID
-         rs.close();
-         outCityId = curItm.getNumber();
-      } catch (SQLException e) {
-           lg.addLog(new Log(e.getMessage(),
-                  "RecordInformationPane/outCityChange",
-                  "Read zone"));
-      }
+      DBExecutor.getInstance(dbcon, lg).submit(new ZoneTask(outZoneCBox,
+               outCityId, "RecordInformationPane/outCityChange"));
    }
 
    /**
@@ -1237,4 +1209,65 @@ public class RecordInformationPane extends JPanel
       importTimeBt.setEnabled (true);
    }
 
+   /**
+     * Task that reads the zones of a city and adds them to a zone combo
+     * box. A newer task for the same combo box supersedes it.
+     */
+   private class ZoneTask extends DBTask
+   {
+      private JComboBox zoneCBox;
+      private int cityId;
+      private String caller;
+
+      /**
+        * Constructor.
+        * @param zoneCBox The combo box to add the zones to.
+        * @param cityId ID of the city.
+        * @param caller The method that started the task, used in the log.
+        */
+      public ZoneTask(JComboBox zoneCBox, int cityId, String caller)
+      {
+         super(zoneCBox);
+         this.zoneCBox = zoneCBox;
+         this.cityId = cityId;
+         this.caller = caller;
+      }
+
+      /**
+        * Reads the zones, called on a worker thread.
+        */
+      public Object run(DB2Connect dbcon) throws SQLException
+      {
+         Vector zones = new Vector();
+         ResultSet rs = dbcon.dbQuery(
+               "SELECT ZONE_ID, ZONE_NAME FROM EPR.ZONE WHERE CITY_ID = ? " +
+               "AND DISABLE = 0", new Object[] { new Integer(cityId) });
+         try {
+            while (rs.next())
+               zones.add(new ListEntry(rs.getString(2),  // ZONE_NAME
+                        rs.getInt(1)));   // ZONE_ID
+         } finally {
+            rs.close();
+         }
+         return zones;
+      }
+
+      /**
+        * Adds the zones to the combo box.
+        */
+      public void succeeded(Object result)
+      {
+         Vector zones = (Vector) result;
+         for (int i=0 ; i < zones.size() ; i++)
+            zoneCBox.addItem(zones.elementAt(i));
+      }
+
+      /**
+        * Logs the failure.
+        */
+      public void failed(SQLException e)
+      {
+         lg.addLog(new Log(e.getMessage(), caller, "Read zone"));
+      }
+   }
 }
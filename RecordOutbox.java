@@ -0,0 +1,426 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Class that keeps a persistent queue of patient records waiting to be
+ * send to the server. The queue is stored in the EPR.RECORD_OUTBOX table
+ * so that queued records survive a restart of the client. A background
+ * thread drains the queue and retries failed transmissions with an
+ * exponential backoff, so records are uploaded on their own as soon as
+ * the server can be reached again.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class RecordOutbox implements Runnable, SendResultInterface {
+
+    //Delay before the first retry in ms
+    private final long BASE_DELAY = 15 * 1000;
+
+    //Longest delay between two attempts in ms
+    private final long MAX_DELAY = 15 * 60 * 1000;
+
+    //Longest time to wait for the send thread to report in ms
+    private final long SEND_TIMEOUT = 5 * 60 * 1000;
+
+    //SQLState returned by DB2 when a table does not exist
+    private final String UNDEFINED_NAME = "42704";
+
+    //SQLState returned by DB2 when a row does already exist
+    private final String DUPLICATE_KEY = "23505";
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //Reference to the client database connection
+    private DB2Connect dbcon;
+
+    //Object informed about the results, normally the client GUI
+    private SendResultInterface listener;
+
+    //The delays between the attempts of a record
+    private Backoff backoff = new Backoff(BASE_DELAY, MAX_DELAY);
+
+    //Client record ids sent in the current attempt and not yet acknowledged
+    private Vector pending = new Vector();
+
+    //Client record ids the server could not store in the current attempt
+    private Vector refused = new Vector();
+
+    //Set when the current attempt has failed
+    private boolean sendFailed = false;
+
+    //Set when the queue should be drained without waiting for the backoff
+    private boolean sendNow = false;
+
+    //Reference to this thread
+    private Thread thread;
+
+    /**
+     * Constructor, makes sure the outbox table exists and starts the
+     * background thread that drains the queue
+     * @param lgHandler Reference to LogHandler object
+     * @param dbcon Reference to the client database connection
+     * @param listener Object informed about the results of the
+     * transmissions
+     */
+    public RecordOutbox(LogHandler lgHandler, DB2Connect dbcon,
+            SendResultInterface listener) {
+
+        this.lgHandler = lgHandler;
+        this.dbcon = dbcon;
+        this.listener = listener;
+
+        try {
+            createTable();
+        } catch (SQLException sql) {
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "RecordOutbox/RecordOutbox",
+                        "Failed to create the outbox table"));
+        }
+
+        thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method used to create the outbox table the first time the
+     * client is started with an outbox
+     */
+    private void createTable() throws SQLException {
+        try {
+            ResultSet resultSet = dbcon.dbQuery(
+                    "SELECT COUNT(*) FROM EPR.RECORD_OUTBOX");
+            resultSet.close();
+        } catch (SQLException sql) {
+            if (!UNDEFINED_NAME.equals(sql.getSQLState()))
+                throw sql;
+
+            dbcon.dbQueryUpdate("CREATE TABLE EPR.RECORD_OUTBOX (" +
+                    "RECORD_ID INTEGER NOT NULL PRIMARY KEY, " +
+                    "QUEUED_TIME TIMESTAMP NOT NULL, " +
+                    "ATTEMPTS INTEGER NOT NULL DEFAULT 0, " +
+                    "NEXT_ATTEMPT TIMESTAMP NOT NULL)");
+        }
+    }
+
+    /**
+     * Method used to put patient records in the queue. The records will
+     * be send by the background thread as soon as possible.
+     * @param recordId The client record ids of the records to send
+     */
+    public void enqueue(int[] recordId) throws SQLException {
+
+        for (int i = 0; i < recordId.length; i++) {
+            try {
+                dbcon.dbQueryUpdate("INSERT INTO EPR.RECORD_OUTBOX " +
+                        "(RECORD_ID, QUEUED_TIME, ATTEMPTS, NEXT_ATTEMPT) " +
+                        "VALUES (" + recordId[i] + ", CURRENT TIMESTAMP, " +
+                        "0, CURRENT TIMESTAMP)");
+            } catch (SQLException sql) {
+                //The record is already queued, send it now anyway
+                if (DUPLICATE_KEY.equals(sql.getSQLState()))
+                    dbcon.dbQueryUpdate("UPDATE EPR.RECORD_OUTBOX SET " +
+                            "NEXT_ATTEMPT = CURRENT TIMESTAMP " +
+                            "WHERE RECORD_ID = " + recordId[i]);
+                else
+                    throw sql;
+            }
+        }
+        sendNow();
+    }
+
+    /**
+     * Method used to wake up the background thread and make it try to
+     * send the queued records without waiting for the backoff delay
+     */
+    public synchronized void sendNow() {
+        sendNow = true;
+        notifyAll();
+    }
+
+    /**
+     * Method used to indicate if a patient record is waiting in the queue
+     * @param recordId The client record id
+     * @return true if the record is queued otherwise false
+     */
+    public boolean isQueued(int recordId) {
+        try {
+            ResultSet resultSet = dbcon.dbQuery("SELECT RECORD_ID FROM " +
+                    "EPR.RECORD_OUTBOX WHERE RECORD_ID = " + recordId);
+            boolean queued = resultSet.next();
+            resultSet.close();
+            return queued;
+        } catch (SQLException sql) {
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "RecordOutbox/isQueued", "Failed to read the outbox"));
+            return false;
+        }
+    }
+
+    /**
+     * Method used to get the number of records waiting in the queue
+     * @return The number of queued records, -1 if it could not be read
+     */
+    public int getQueueDepth() {
+        try {
+            ResultSet resultSet = dbcon.dbQuery(
+                    "SELECT COUNT(*) FROM EPR.RECORD_OUTBOX");
+            resultSet.next();
+            int depth = resultSet.getInt(1);
+            resultSet.close();
+            return depth;
+        } catch (SQLException sql) {
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "RecordOutbox/getQueueDepth",
+                        "Failed to read the outbox"));
+            return -1;
+        }
+    }
+
+    /**
+     * Method used to get how long the oldest record has been waiting
+     * in the queue
+     * @return The age of the oldest queued record in ms, 0 if the
+     * queue is empty
+     */
+    public long getOldestAge() {
+        try {
+            ResultSet resultSet = dbcon.dbQuery(
+                    "SELECT MIN(QUEUED_TIME) FROM EPR.RECORD_OUTBOX");
+            resultSet.next();
+            Timestamp oldest = resultSet.getTimestamp(1);
+            resultSet.close();
+
+            if (oldest == null)
+                return 0;
+            return System.currentTimeMillis() - oldest.getTime();
+        } catch (SQLException sql) {
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "RecordOutbox/getOldestAge",
+                        "Failed to read the outbox"));
+            return 0;
+        }
+    }
+
+    /**
+     * Method used by the send threads to report the result of a
+     * transmission
+     * @param oldId The client record id, negative if the send failed
+     * @param serverId The record id at the server side
+     * @param msg Message to inform the user of what went wrong
+     */
+    public void resultsFromSend(int oldId, int serverId, String msg) {
+
+        boolean stored = oldId >= 0 && serverId >= 0;
+
+        if (stored) {
+            //The record is stored at the server, remove it locally
+            try {
+                dbcon.dbQueryUpdate("DELETE FROM EPR.RECORD_OUTBOX " +
+                        "WHERE RECORD_ID = " + oldId);
+                dbcon.dbQueryUpdate("DELETE FROM EPR.AMBULANCE_RECORD " +
+                        "WHERE RECORD_ID = " + oldId);
+            } catch (SQLException sql) {
+                lgHandler.addLog(new Log(sql.getMessage(),
+                            "RecordOutbox/resultsFromSend",
+                            "Remove record failed"));
+                msg = "Sändingen lyckades, men journalen kunde inte tas bort";
+            }
+        } else {
+            msg = msg + "\nJournalen ligger kvar i kön och skickas " +
+                "automatiskt senare.";
+        }
+
+        synchronized (this) {
+            if (oldId >= 0)
+                pending.remove(new Integer(oldId));
+            else
+                sendFailed = true;
+
+            //Only the refused record waits, the others are still sent
+            if (oldId >= 0 && !stored)
+                refused.add(new Integer(oldId));
+            notifyAll();
+        }
+
+        listener.resultsFromSend(oldId, serverId, msg);
+    }
+
+    /**
+     * Method used to get the records that are due to be send
+     * @return The client record ids in queue order
+     */
+    private int[] getDueRecords() throws SQLException {
+
+        Vector ids = new Vector();
+        //Records removed from the client are dropped from the queue
+        dbcon.dbQueryUpdate("DELETE FROM EPR.RECORD_OUTBOX AS O WHERE " +
+                "NOT EXISTS (SELECT * FROM EPR.AMBULANCE_RECORD AS A " +
+                "WHERE A.RECORD_ID = O.RECORD_ID)");
+
+        ResultSet resultSet = dbcon.dbQuery("SELECT RECORD_ID FROM " +
+                "EPR.RECORD_OUTBOX WHERE NEXT_ATTEMPT <= CURRENT TIMESTAMP " +
+                "ORDER BY QUEUED_TIME");
+
+        while (resultSet.next())
+            ids.add(new Integer(resultSet.getInt(1)));
+        resultSet.close();
+
+        int[] recordId = new int[ids.size()];
+        for (int i = 0; i < recordId.length; i++)
+            recordId[i] = ((Integer) ids.elementAt(i)).intValue();
+
+        return recordId;
+    }
+
+    /**
+     * Method used to get the time until the next queued record is due
+     * @return The time to wait in ms, 0 if the queue is empty
+     */
+    private long getTimeToNextAttempt() throws SQLException {
+
+        ResultSet resultSet = dbcon.dbQuery(
+                "SELECT MIN(NEXT_ATTEMPT) FROM EPR.RECORD_OUTBOX");
+        resultSet.next();
+        Timestamp next = resultSet.getTimestamp(1);
+        resultSet.close();
+
+        if (next == null)
+            return 0;
+        return Math.max(1, next.getTime() - System.currentTimeMillis());
+    }
+
+    /**
+     * Method used to reschedule the records that could not be send
+     * @param recordId The client record ids of the failed records
+     */
+    private void reschedule(Vector recordId) throws SQLException {
+
+        for (int i = 0; i < recordId.size(); i++) {
+            int id = ((Integer) recordId.elementAt(i)).intValue();
+
+            ResultSet resultSet = dbcon.dbQuery("SELECT ATTEMPTS FROM " +
+                    "EPR.RECORD_OUTBOX WHERE RECORD_ID = " + id);
+            if (!resultSet.next()) {
+                resultSet.close();
+                continue;
+            }
+            int attempts = resultSet.getInt(1);
+            resultSet.close();
+
+            Timestamp next = new Timestamp(System.currentTimeMillis() +
+                    backoff.getJitteredDelay(attempts));
+
+            dbcon.dbQueryUpdate("UPDATE EPR.RECORD_OUTBOX SET ATTEMPTS = " +
+                    (attempts + 1) + ", NEXT_ATTEMPT = '" + next + "' " +
+                    "WHERE RECORD_ID = " + id);
+        }
+    }
+
+    /**
+     * Method used to send a batch of queued records and wait for the
+     * send threads to report the result
+     * @param recordId The client record ids to send
+     */
+    private void send(int[] recordId) throws SQLException {
+
+        AmbulanceClient client = null;
+
+        synchronized (this) {
+            pending.removeAllElements();
+            refused.removeAllElements();
+            for (int i = 0; i < recordId.length; i++)
+                pending.add(new Integer(recordId[i]));
+            sendFailed = false;
+        }
+
+        try {
+            client = new AmbulanceClient(lgHandler, this, dbcon, recordId);
+        } catch (Exception e) {
+            lgHandler.addLog(new Log(e.getMessage(), "RecordOutbox/send",
+                        "Failed to create the send thread"));
+            synchronized (this) {
+                sendFailed = true;
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + SEND_TIMEOUT;
+
+        synchronized (this) {
+            while (!sendFailed && !pending.isEmpty()) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0)
+                    break;
+                try {
+                    wait(left);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+
+        //Do not leave a send thread hanging on a dead connection
+        if (client != null) {
+            try {
+                client.terminate();
+            } catch (java.io.IOException ie) {
+                lgHandler.addLog(new Log(ie.getMessage(), "RecordOutbox/send",
+                            "Failed to close socket/streams"));
+            }
+        }
+
+        Vector failed;
+        synchronized (this) {
+            failed = (Vector) pending.clone();
+            failed.addAll(refused);
+            pending.removeAllElements();
+            refused.removeAllElements();
+        }
+
+        if (!failed.isEmpty())
+            reschedule(failed);
+    }
+
+    /**
+     * Background thread, used to drain the queue
+     */
+    public void run() {
+
+        while (true) {
+            try {
+                int[] recordId = getDueRecords();
+
+                if (recordId.length > 0) {
+                    send(recordId);
+                    continue;
+                }
+
+                long wait = getTimeToNextAttempt();
+
+                synchronized (this) {
+                    if (!sendNow)
+                        wait(wait);
+                    sendNow = false;
+                }
+            } catch (SQLException sql) {
+                lgHandler.addLog(new Log(sql.getMessage(),
+                            "RecordOutbox/run",
+                            "Failed to read the outbox"));
+                try {
+                    synchronized (this) {
+                        wait(MAX_DELAY);
+                        sendNow = false;
+                    }
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            } catch (InterruptedException ie) {
+                lgHandler.addLog(new Log(ie.getMessage(), "RecordOutbox/run",
+                            "InterruptedException"));
+                return;
+            }
+        }
+    }
+}
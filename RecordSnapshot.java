@@ -0,0 +1,137 @@
+import java.sql.*;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * RecordSnapshot reads every table a patient record is built from, for
+ * one or many records at the same time. Each table is read with one
+ * query using an IN-list of the record ids, instead of one query per
+ * table and record. The rows are kept in memory grouped by record id,
+ * and the packets of the records are built from them.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class RecordSnapshot {
+
+    //The largest number of record ids in one IN-list
+    private final int MAX_IN_LIST = 100;
+
+    //Tables read by record id
+    private final String[] RECORD_TABLES = {
+        "AMBULANCE_RECORD", "PATIENT", "GIVEN_MEDICATIONS", "MATAS",
+        "EXAMINATION", "EXAMINATION_DESCRIPTION", "STATISTICS",
+        "ACTION_PERFORMED", "ACTION_DESCRIPTION",
+        "OBSERVATIONS_OF_PATIENT_PARAMETERS", "FRACTURE", "LUXATION",
+        "BLOOD_PRESSURE", "GCS", "EYE", "BODY_POSITION_OBSERVATION", "MISC",
+        "PARALYSIS" };
+
+    //The rows of each table, keyed by table name. Each value is a
+    //Hashtable of row Vectors keyed by the key column.
+    private Hashtable tables = new Hashtable();
+
+    /**
+     * Constructor used by ambulance client to read the records
+     * @param recordIds The record ids of the patient records
+     * @param db2 The client database connection
+     */
+    public RecordSnapshot(int[] recordIds, DB2Connect db2)
+        throws SQLException {
+
+        for (int start = 0; start < recordIds.length; start += MAX_IN_LIST) {
+            int end = Math.min(start + MAX_IN_LIST, recordIds.length);
+
+            StringBuffer inList = new StringBuffer("(");
+            for (int i = start; i < end; i++) {
+                if (i > start)
+                    inList.append(", ");
+                inList.append(recordIds[i]);
+            }
+            inList.append(")");
+
+            for (int i = 0; i < RECORD_TABLES.length; i++)
+                load(db2, RECORD_TABLES[i], "RECORD_ID",
+                        "SELECT * FROM EPR." + RECORD_TABLES[i] +
+                        " WHERE RECORD_ID IN " + inList);
+
+            //The effects and givers belong to the given medications
+            load(db2, "MEDICINE_EFFECTS", "GIVEN_MEDICINE_ID",
+                    "SELECT E.* FROM EPR.MEDICINE_EFFECTS E, " +
+                    "EPR.GIVEN_MEDICATIONS G WHERE " +
+                    "E.GIVEN_MEDICINE_ID = G.GIVEN_MEDICATION_ID AND " +
+                    "G.RECORD_ID IN " + inList);
+
+            load(db2, "MEDICATION_GIVEN_BY", "GIVEN_MEDICATION_ID",
+                    "SELECT B.* FROM EPR.MEDICATION_GIVEN_BY B, " +
+                    "EPR.GIVEN_MEDICATIONS G WHERE " +
+                    "B.GIVEN_MEDICATION_ID = G.GIVEN_MEDICATION_ID AND " +
+                    "G.RECORD_ID IN " + inList);
+        }
+    }
+
+    /**
+     * Method used to read the rows of a table and group them by key
+     * @param db2 The client database connection
+     * @param table The table name
+     * @param keyColumn The column the rows are grouped by
+     * @param query The query reading the rows
+     */
+    private void load(DB2Connect db2, String table, String keyColumn,
+            String query) throws SQLException {
+
+        Hashtable rows = (Hashtable) tables.get(table);
+        if (rows == null) {
+            rows = new Hashtable();
+            tables.put(table, rows);
+        }
+
+        ResultSet resultSet = db2.dbQuery(query);
+        try {
+            ResultSetMetaData meta = resultSet.getMetaData();
+            Hashtable columns = new Hashtable();
+            for (int i = 1; i <= meta.getColumnCount(); i++)
+                columns.put(meta.getColumnName(i).toUpperCase(),
+                        new Integer(i));
+
+            while (resultSet.next()) {
+                SnapshotRow row = new SnapshotRow(resultSet, columns);
+                Integer key = new Integer(row.getInt(keyColumn));
+
+                Vector keyRows = (Vector) rows.get(key);
+                if (keyRows == null) {
+                    keyRows = new Vector();
+                    rows.put(key, keyRows);
+                }
+                keyRows.add(row);
+            }
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * Method used to get the rows of a table with a key
+     * @param table The table name
+     * @param key The record id, or the given medication id for the
+     * medicine effects and givers
+     * @return A Vector of SnapshotRow, empty if there are no rows
+     */
+    public Vector getRows(String table, int key) {
+        Hashtable rows = (Hashtable) tables.get(table);
+        if (rows == null)
+            return new Vector();
+        Vector keyRows = (Vector) rows.get(new Integer(key));
+        return keyRows == null ? new Vector() : keyRows;
+    }
+
+    /**
+     * Method used to get the first row of a table with a key
+     * @param table The table name
+     * @param key The record id
+     * @return The row, null if there is no row
+     */
+    public SnapshotRow getRow(String table, int key) {
+        Vector keyRows = getRows(table, key);
+        return keyRows.size() == 0 ? null : (SnapshotRow) keyRows.elementAt(0);
+    }
+}
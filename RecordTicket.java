@@ -0,0 +1,92 @@
+/**
+ * Class that follows a patient record from the moment it is written to
+ * the server until the server has acknowledged it, so the sending thread
+ * knows which records to resend.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class RecordTicket {
+
+    //The record this ticket belongs to
+    private Record record;
+
+    //The time in ms the record was last written to the server
+    private long sentTime = 0;
+
+    //The number of times the record has been written to the server
+    private int attempts = 0;
+
+    //Set when the server has acknowledged the record or the send failed
+    private boolean done = false;
+
+    /**
+     * Constructor
+     * @param record The record that will be send to the server
+     */
+    public RecordTicket(Record record) {
+        this.record = record;
+    }
+
+    /**
+     * Method used to get the record this ticket belongs to
+     * @return The record
+     */
+    public Record getRecord() {
+        return record;
+    }
+
+    /**
+     * Method used to get the record id generated by ambulance client
+     * @return Ambulance client record id
+     */
+    public int getClientRecordId() {
+        return record.getClientRecordId();
+    }
+
+    /**
+     * Method used to register that the record has been written to
+     * the server
+     */
+    public synchronized void sent() {
+        sentTime = System.currentTimeMillis();
+        attempts++;
+    }
+
+    /**
+     * Method used to get the time the record was last written
+     * @return The time in ms, 0 if the record has not been written
+     */
+    public synchronized long getSentTime() {
+        return sentTime;
+    }
+
+    /**
+     * Method used to get the number of times the record has been written
+     * @return The number of attempts
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Method used to complete this ticket when the acknowledgement has
+     * been received or the send has failed
+     * @return false if the ticket was already completed otherwise true
+     */
+    public synchronized boolean complete() {
+        if (done)
+            return false;
+
+        done = true;
+        return true;
+    }
+
+    /**
+     * Method used to indicate if this ticket is completed
+     * @return true if the record is acknowledged or has failed
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+}
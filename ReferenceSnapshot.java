@@ -0,0 +1,329 @@
+import java.io.*;
+import java.sql.*;
+import java.util.Vector;
+
+/**
+ * This class represent a copy of the reference tables an ambulance
+ * client needs, taken from the server database at one update version.
+ * A client doing its first time synchronization loads the snapshot in
+ * one transaction and then only replays the updates inserted after the
+ * snapshot version, instead of replaying HISTORY from the start.
+ *
+ * The version is read before the tables. An update inserted while the
+ * tables are read can therefore be both in the snapshot and replayed,
+ * which the client handles like any update that is already applied.
+ *
+ * The update log can also write tables that are not in the snapshot.
+ * The updates to them up to the snapshot version are kept with the
+ * snapshot and replayed when it is loaded, so a client starting from
+ * the snapshot gets the same rows as one that replayed the whole log.
+ *
+ * The server keeps the latest snapshot and rebuilds it periodically,
+ * see ReferenceSnapshotBuilder.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class ReferenceSnapshot implements Serializable {
+
+    //Version of the serialized form
+    private static final long serialVersionUID = -2951465487573381768L;
+
+    //The reference tables, in the order they are loaded
+    private static final String[] TABLES = {
+        "CITY", "ZONE", "PLACE", "STATION", "AMBULANCE", "STAFF",
+        "MEDICINE", "MEDICAL_LEXICON", "ALARM_CAUSE", "DIAGNOSIS_GROUP",
+        "DIAGNOSIS_TYPE", "EXAMINATION_TYPES", "EXAMINATION_ATTRIBUTES",
+        "ACTION_ATTRIBUTES", "BODY_POSITION", "AUTO_COMPLETION" };
+
+    //The tables the updates are read from, in insert time order
+    private static final String[] UPDATE_TABLES = {
+        "HISTORY", "CURRENT_UPDATES" };
+
+    //SQLState of an update that is already applied
+    private static final String DUPLICATE_KEY = "23505";
+
+    //The number of rows inserted in one batch
+    private static final int BATCH_SIZE = 500;
+
+    //The latest snapshot built at the server, null if there is none
+    private static ReferenceSnapshot current = null;
+
+    //The insert time of the last update the snapshot contains
+    private Timestamp version;
+
+    //The time the snapshot was built
+    private Timestamp buildTime;
+
+    //The column names of each table, in the order of TABLES
+    private String[][] columns;
+
+    //The SQL types of the columns of each table
+    private int[][] types;
+
+    //The rows of each table, a Vector of Object[]
+    private Vector[] rows;
+
+    //The updates up to the version to tables not in TABLES
+    private Vector updates;
+
+    /**
+     * Constructor used for serialization
+     */
+    public ReferenceSnapshot() { }
+
+    /**
+     * Constructor used by the server to read the reference tables
+     * @param dbcon is the reference to the server database
+     */
+    public ReferenceSnapshot(DB2Connect dbcon) throws SQLException {
+
+        ResultSet resultSet;
+
+        //The version is read first, see the class comment
+        version = null;
+        for (int i = 0; i < 2; i++) {
+            resultSet = dbcon.dbQuery("SELECT MAX(INSERT_TIME) FROM EPR." +
+                    (i == 0 ? "HISTORY" : "CURRENT_UPDATES"));
+            try {
+                if (resultSet.next()) {
+                    Timestamp ts = resultSet.getTimestamp(1);
+                    if (ts != null && (version == null || ts.after(version)))
+                        version = ts;
+                }
+            } finally {
+                resultSet.close();
+            }
+        }
+
+        columns = new String[TABLES.length][];
+        types = new int[TABLES.length][];
+        rows = new Vector[TABLES.length];
+
+        for (int t = 0; t < TABLES.length; t++) {
+            resultSet = dbcon.dbQuery("SELECT * FROM EPR." + TABLES[t]);
+            try {
+                ResultSetMetaData meta = resultSet.getMetaData();
+                int count = meta.getColumnCount();
+
+                columns[t] = new String[count];
+                types[t] = new int[count];
+                for (int c = 0; c < count; c++) {
+                    columns[t][c] = meta.getColumnName(c + 1);
+                    types[t][c] = meta.getColumnType(c + 1);
+                }
+
+                rows[t] = new Vector();
+                while (resultSet.next()) {
+                    Object[] row = new Object[count];
+                    for (int c = 0; c < count; c++)
+                        row[c] = resultSet.getObject(c + 1);
+                    rows[t].add(row);
+                }
+            } finally {
+                resultSet.close();
+            }
+        }
+
+        readUpdates(dbcon);
+        buildTime = new Timestamp(System.currentTimeMillis());
+    }
+
+    /**
+     * Method used to read the updates up to the version that the tables
+     * of the snapshot do not contain. An update that is not a simple
+     * statement can write any table and is always kept.
+     * @param dbcon is the reference to the server database
+     */
+    private void readUpdates(DB2Connect dbcon) throws SQLException {
+
+        updates = new Vector();
+        if (version == null)
+            return;
+
+        for (int i = 0; i < UPDATE_TABLES.length; i++) {
+            PreparedStatement ps = dbcon.prepareStatement("SELECT " +
+                    "INSERT_TIME, QUERY FROM EPR." + UPDATE_TABLES[i] +
+                    " WHERE INSERT_TIME <= ? ORDER BY INSERT_TIME");
+            try {
+                ps.setTimestamp(1, version);
+                ResultSet resultSet = ps.executeQuery();
+                try {
+                    while (resultSet.next()) {
+                        Update u = new Update(resultSet.getTimestamp(1),
+                                resultSet.getString(2));
+                        if (!contains(u))
+                            updates.add(u);
+                    }
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                ps.close();
+            }
+        }
+    }
+
+    /**
+     * Method used to tell if an update only writes a table of the
+     * snapshot
+     * @param u The update
+     * @return true if the table is in the snapshot
+     */
+    private static boolean contains(Update u) {
+        if (u.getOperation() == null)
+            return false;
+
+        for (int t = 0; t < TABLES.length; t++)
+            if (TABLES[t].equals(u.getOperation().getTable()))
+                return true;
+        return false;
+    }
+
+    /**
+     * Method used by the client to replace its reference tables with the
+     * snapshot. The tables and the update version are written in one
+     * transaction, if any part fails nothing is kept.
+     * @param dbcon is the reference to the client database connection
+     */
+    public void load(DB2Connect dbcon) throws SQLException {
+
+        boolean committed = false;
+
+        dbcon.setAutoCommit(false);
+        try {
+            //Emptied in the reverse order of loading
+            for (int t = TABLES.length - 1; t >= 0; t--)
+                dbcon.dbQueryUpdate("DELETE FROM EPR." + TABLES[t]);
+
+            for (int t = 0; t < TABLES.length; t++)
+                loadTable(dbcon, t);
+            replayUpdates(dbcon);
+
+            PreparedStatement ps = dbcon.prepareStatement(
+                    "UPDATE EPR.SETTINGS SET UPDATE_VERSION = ?");
+            try {
+                ps.setTimestamp(1, version);
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+
+            dbcon.commit();
+            committed = true;
+        } finally {
+            try {
+                if (!committed)
+                    dbcon.rollback();
+            } finally {
+                dbcon.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Method used to replay the updates to the tables that are not in
+     * the snapshot. Updates the client does already have are skipped.
+     * @param dbcon is the reference to the client database connection
+     */
+    private void replayUpdates(DB2Connect dbcon) throws SQLException {
+
+        Statement stmt = dbcon.createStatement();
+        try {
+            for (int i = 0; i < updates.size(); i++) {
+                try {
+                    stmt.executeUpdate(((Update) updates.elementAt(i))
+                            .getQuery());
+                } catch (SQLException sql) {
+                    if (!DUPLICATE_KEY.equals(sql.getSQLState()))
+                        throw sql;
+                }
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Method used to insert the rows of a table in batches
+     * @param dbcon is the reference to the client database connection
+     * @param t The index of the table
+     */
+    private void loadTable(DB2Connect dbcon, int t) throws SQLException {
+
+        StringBuffer query = new StringBuffer("INSERT INTO EPR.");
+        query.append(TABLES[t]).append(" (");
+        for (int c = 0; c < columns[t].length; c++) {
+            if (c > 0)
+                query.append(", ");
+            query.append(columns[t][c]);
+        }
+        query.append(") VALUES (");
+        for (int c = 0; c < columns[t].length; c++)
+            query.append(c == 0 ? "?" : ", ?");
+        query.append(")");
+
+        PreparedStatement ps = dbcon.prepareStatement(query.toString());
+        try {
+            for (int r = 0; r < rows[t].size(); r++) {
+                Object[] row = (Object[]) rows[t].elementAt(r);
+                for (int c = 0; c < row.length; c++) {
+                    if (row[c] == null)
+                        ps.setNull(c + 1, types[t][c]);
+                    else
+                        ps.setObject(c + 1, row[c], types[t][c]);
+                }
+                ps.addBatch();
+
+                if ((r + 1) % BATCH_SIZE == 0)
+                    ps.executeBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            ps.close();
+        }
+    }
+
+    /**
+     * Method used to get the update version of the snapshot
+     * @return The insert time of the last update the snapshot contains
+     */
+    public Timestamp getVersion() {
+        return version;
+    }
+
+    /**
+     * Method used to get the time the snapshot was built
+     * @return The build time
+     */
+    public Timestamp getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * Method used to get the number of rows in the snapshot
+     * @return The number of rows of all tables
+     */
+    public int getRowCount() {
+        int count = 0;
+        for (int t = 0; t < rows.length; t++)
+            count += rows[t].size();
+        return count;
+    }
+
+    /**
+     * Method used by the server to get the latest snapshot
+     * @return The snapshot, null if there is none
+     */
+    public static synchronized ReferenceSnapshot getCurrent() {
+        return current;
+    }
+
+    /**
+     * Method used by the server to replace the latest snapshot
+     * @param snapshot The new snapshot
+     */
+    public static synchronized void setCurrent(ReferenceSnapshot snapshot) {
+        current = snapshot;
+    }
+}
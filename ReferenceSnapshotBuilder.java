@@ -0,0 +1,93 @@
+import java.sql.*;
+
+/**
+ * Background thread at the server that rebuilds the ReferenceSnapshot
+ * periodically. A snapshot is only published when a whole snapshot is
+ * read, so the clients always get a complete one.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class ReferenceSnapshotBuilder implements Runnable {
+
+    //Time in ms to wait for a database connection
+    private final long DB_TIMEOUT = 60 * 1000;
+
+    //The database connections of the server
+    private DB2ConnectPool pool;
+
+    //Time in ms between two snapshots
+    private long interval;
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //Set when the thread is stopped
+    private boolean stopped = false;
+
+    /**
+     * Constructor, starts the background thread which builds the first
+     * snapshot at once
+     * @param pool The database connections of the server
+     * @param interval Time in ms between two snapshots
+     * @param lgHandler Reference to the LogHandler object
+     */
+    public ReferenceSnapshotBuilder(DB2ConnectPool pool, long interval,
+            LogHandler lgHandler) {
+
+        this.pool = pool;
+        this.interval = interval;
+        this.lgHandler = lgHandler;
+
+        new Thread(this).start();
+    }
+
+    /**
+     * Method used to stop the background thread
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Background thread, used to build a snapshot and wait for the next
+     */
+    public void run() {
+
+        while (true) {
+            try {
+                DB2Connect db2 = pool.acquire(DB_TIMEOUT);
+                try {
+                    ReferenceSnapshot.setCurrent(new ReferenceSnapshot(db2));
+                } finally {
+                    pool.release(db2);
+                }
+            } catch (SQLException sql) {
+                //The previous snapshot is kept
+                lgHandler.addLog(new Log(sql.getMessage(),
+                            "ReferenceSnapshotBuilder/run",
+                            "Failed to build the snapshot"));
+            } catch (InterruptedException ie) {
+                lgHandler.addLog(new Log(ie.getMessage(),
+                            "ReferenceSnapshotBuilder/run",
+                            "InterruptedException"));
+                return;
+            }
+
+            synchronized (this) {
+                try {
+                    if (!stopped)
+                        wait(interval);
+                } catch (InterruptedException ie) {
+                    lgHandler.addLog(new Log(ie.getMessage(),
+                                "ReferenceSnapshotBuilder/run",
+                                "InterruptedException"));
+                    return;
+                }
+                if (stopped)
+                    return;
+            }
+        }
+    }
+}
@@ -46,12 +46,40 @@ public class RegisterKey {
     private final String AMB_PAT_KEY_PORT = "ambPatPort";
     //Name of the key that contains the port number for AmbulanceUpdate.java
     private final String AMB_UP_KEY_PORT = "ambUpPort";
+    //Name of the key that contains the port number for the shared channel
+    private final String AMB_CHAN_KEY_PORT = "ambChanPort";
     //Name of the key that contains the port number for ER.java
     private final String ER_KEY_PORT = "erPort";
     //Name of the key that contains the port number fort SOS.java
     private final String SOS_KEY_PORT = "sosPort";
     //Name of the key that contains the public key
     private final String PUB_KEY = "pubKey";
+    //Name of the key that contains the number of records sent ahead of acks
+    private final String SEND_KEY_WINDOW = "sendWindow";
+    //Number of records sent ahead of acks if no window is stored
+    private final int DEFAULT_SEND_WINDOW = 8;
+    //Name of the key that contains the format version of sent records
+    private final String WIRE_KEY_FORMAT = "wireFormat";
+    //Name of the key that contains the Deflate level offered to the server
+    private final String COMPRESS_KEY_LEVEL = "compressLevel";
+    //Name of the key that contains the smallest message that is compressed
+    private final String COMPRESS_KEY_THRESHOLD = "compressThreshold";
+    //Smallest compressed message if no threshold is stored
+    private final int DEFAULT_COMPRESS_THRESHOLD = 256;
+    //Name of the key that contains the bytes between object stream resets
+    private final String RESET_KEY_BYTES = "resetBytes";
+    //Name of the key that contains the number of updates in a sync page
+    private final String SYNC_KEY_PAGE_SIZE = "syncPageSize";
+    //Updates in a sync page if no page size is stored
+    private final int DEFAULT_SYNC_PAGE_SIZE = 250;
+    //Name of the key that contains the minutes between background syncs
+    private final String SYNC_KEY_INTERVAL = "syncInterval";
+    //Minutes between background syncs if no interval is stored
+    private final int DEFAULT_SYNC_INTERVAL = 30;
+    //Name of the key that contains the seconds an update watch is held
+    private final String WATCH_KEY_TIMEOUT = "watchTimeout";
+    //Seconds an update watch is held if no timeout is stored
+    private final int DEFAULT_WATCH_TIMEOUT = 300;
     //Default value to pass to get methods upon retreiving string key values
     private final String DEFAULT_STRING = null;
     //Default value to pass to get methods upon retreiving string key values
@@ -184,6 +212,18 @@ public class RegisterKey {
             preference.putInt(AMB_UP_KEY_PORT, portNumber);
      }
 
+    /**
+     * Method used to set the port number for the thread which handles
+     * the shared channel that carries records, synchronization and
+     * patient information requests
+     * @param portNumber The port that server listens to, -1 turns the
+     * shared channel off
+     */
+    public void setAmbulanceChannelPort(int portNumber) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(AMB_CHAN_KEY_PORT, portNumber);
+    }
+
     /**
      * Method used to set the port number for the thread which handles
      * the connection requests from ER clients
@@ -204,6 +244,87 @@ public class RegisterKey {
             preference.putInt(SOS_KEY_PORT, portNumber);
     }
 
+    /**
+     * Method used to set the number of patient records the client may
+     * send to the server before it has received their acknowledgements
+     * @param window The number of unacknowledged records
+     */
+    public void setSendWindow(int window) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(SEND_KEY_WINDOW, window);
+    }
+
+    /**
+     * Method used to set the format the patient records are sent in,
+     * 0 is the default serialization that all servers understand
+     * @param format The format version
+     */
+    public void setWireFormat(int format) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(WIRE_KEY_FORMAT, format);
+    }
+
+    /**
+     * Method used to set the Deflate level offered to the server when a
+     * connection is set up, -1 turns compression off
+     * @param level The Deflate level 0-9 or -1
+     */
+    public void setCompressLevel(int level) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(COMPRESS_KEY_LEVEL, level);
+    }
+
+    /**
+     * Method used to set the size in bytes of the smallest message that
+     * is compressed
+     * @param threshold The number of bytes
+     */
+    public void setCompressThreshold(int threshold) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(COMPRESS_KEY_THRESHOLD, threshold);
+    }
+
+    /**
+     * Method used to set how often the object streams to the server are
+     * reset, 0 resets after every message and -1 never resets
+     * @param bytes The number of bytes between two resets
+     */
+    public void setStreamResetBytes(int bytes) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(RESET_KEY_BYTES, bytes);
+    }
+
+    /**
+     * Method used to set the number of updates the server sends in each
+     * page during a synchronization, 0 gets all updates in one packet
+     * @param size The number of updates in a page
+     */
+    public void setSyncPageSize(int size) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(SYNC_KEY_PAGE_SIZE, size);
+    }
+
+    /**
+     * Method used to set how often the client synchronizes with the
+     * server in the background, 0 turns the background synchronization
+     * off
+     * @param minutes The minutes between two synchronizations
+     */
+    public void setSyncInterval(int minutes) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(SYNC_KEY_INTERVAL, minutes);
+    }
+
+    /**
+     * Method used to set how long the server holds a request to be told
+     * about new updates, 0 turns the requests off
+     * @param seconds The longest time the server holds a request
+     */
+    public void setWatchTimeout(int seconds) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(WATCH_KEY_TIMEOUT, seconds);
+    }
+
     /**
      * Method used to set the public key
      * @param pubKey The public key
@@ -362,6 +483,16 @@ public class RegisterKey {
         return retValue;
     }
 
+    /**
+     * Method used to get the server port number to the shared channel.
+     * The channel is optional, servers without it are reached on the
+     * separate ports.
+     * @return The port number, -1 if the channel is not used
+     */
+    public int getAmbulanceChannelPort() throws IllegalStateException {
+        return preference.getInt(AMB_CHAN_KEY_PORT, DEFAULT_INT);
+    }
+
     /**
      * Method used to get the server port number to ER thread
      * @return The port number
@@ -386,6 +517,96 @@ public class RegisterKey {
         return retValue;
     }
 
+    /**
+     * Method used to get the number of patient records the client may
+     * send to the server before it has received their acknowledgements
+     * @return The number of unacknowledged records
+     */
+    public int getSendWindow() throws IllegalStateException {
+        int retValue = preference.getInt(SEND_KEY_WINDOW, DEFAULT_SEND_WINDOW);
+        if (retValue < 1)
+            return DEFAULT_SEND_WINDOW;
+        return retValue;
+    }
+
+    /**
+     * Method used to get the format the patient records are sent in
+     * @return The format version, 0 if the records are serialized
+     */
+    public int getWireFormat() throws IllegalStateException {
+        return preference.getInt(WIRE_KEY_FORMAT, 0);
+    }
+
+    /**
+     * Method used to get the Deflate level offered to the server
+     * @return The Deflate level, -1 if compression is not offered
+     */
+    public int getCompressLevel() throws IllegalStateException {
+        int retValue = preference.getInt(COMPRESS_KEY_LEVEL, DEFAULT_INT);
+        if (retValue > 9)
+            return 9;
+        return retValue < 0 ? DEFAULT_INT : retValue;
+    }
+
+    /**
+     * Method used to get the size in bytes of the smallest message that
+     * is compressed
+     * @return The number of bytes
+     */
+    public int getCompressThreshold() throws IllegalStateException {
+        int retValue = preference.getInt(COMPRESS_KEY_THRESHOLD,
+                DEFAULT_COMPRESS_THRESHOLD);
+        if (retValue < 0)
+            return DEFAULT_COMPRESS_THRESHOLD;
+        return retValue;
+    }
+
+    /**
+     * Method used to get how often the object streams to the server are
+     * reset
+     * @return The number of bytes between two resets, 0 after every
+     * message and -1 never
+     */
+    public int getStreamResetBytes() throws IllegalStateException {
+        int retValue = preference.getInt(RESET_KEY_BYTES, 0);
+        return retValue < 0 ? DEFAULT_INT : retValue;
+    }
+
+    /**
+     * Method used to get the number of updates in each page during a
+     * synchronization
+     * @return The number of updates in a page, 0 if all updates are
+     * sent in one packet
+     */
+    public int getSyncPageSize() throws IllegalStateException {
+        int retValue = preference.getInt(SYNC_KEY_PAGE_SIZE,
+                DEFAULT_SYNC_PAGE_SIZE);
+        return retValue < 0 ? 0 : retValue;
+    }
+
+    /**
+     * Method used to get how often the client synchronizes with the
+     * server in the background
+     * @return The minutes between two synchronizations, 0 if the
+     * background synchronization is turned off
+     */
+    public int getSyncInterval() throws IllegalStateException {
+        int retValue = preference.getInt(SYNC_KEY_INTERVAL,
+                DEFAULT_SYNC_INTERVAL);
+        return retValue < 0 ? 0 : retValue;
+    }
+
+    /**
+     * Method used to get how long the server holds a request to be told
+     * about new updates
+     * @return The time in seconds, 0 if no requests are sent
+     */
+    public int getWatchTimeout() throws IllegalStateException {
+        int retValue = preference.getInt(WATCH_KEY_TIMEOUT,
+                DEFAULT_WATCH_TIMEOUT);
+        return retValue < 0 ? 0 : retValue;
+    }
+
      /**
      * Method used to get the public key
      * @return The public key
@@ -447,7 +668,7 @@ public class RegisterKey {
             "/" + getDBName();
     }
     
-    private static void process(byte[] source, int sourceLength, 
+    static void process(byte[] source, int sourceLength, 
             byte[] data, int dataLength) {
         for (int i = 0; i < sourceLength; i ++)
             source[i] ^= data[i%dataLength];
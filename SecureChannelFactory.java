@@ -0,0 +1,199 @@
+import java.io.*;
+import java.security.*;
+import javax.net.ssl.*;
+import java.util.prefs.*;
+
+/**
+ * Class that creates the secure connections to the server. The SSL
+ * context is shared by all connections in the process and is only
+ * rebuilt when the certificate files are changed on disk. Since the
+ * context is kept, its session cache lets later connections resume
+ * the TLS session instead of doing a full handshake.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class SecureChannelFactory {
+
+    //Number of TLS sessions kept for resumption
+    private final int SESSION_CACHE_SIZE = 16;
+
+    //Time in seconds a TLS session may be resumed
+    private final int SESSION_TIMEOUT = 8 * 3600;
+
+    //The factory shared by all connections in this process
+    private static SecureChannelFactory instance = null;
+
+    //Used to generate a SocketFactory
+    private SSLContext sslContext = null;
+
+    //Source of secure random numbers, seeded once
+    private SecureRandom secureRandom;
+
+    //Server name in the network
+    private String serverName;
+
+    //Ambulance client name in the network
+    private String clientName;
+
+    //The key to server certificate
+    private String pubKey;
+
+    //The path to directory where ceretificates are stored
+    private String certDir;
+
+    //The Deflate level offered to the server, -1 if no compression
+    private int compressLevel;
+
+    //The smallest message that is compressed
+    private int compressThreshold;
+
+    //Bytes between two resets of the object stream handle tables
+    private long resetBytes;
+
+    //Modification times of the certificate files the context was built from
+    private long serverCertModified = 0;
+    private long clientCertModified = 0;
+
+    /**
+     * Constructor, reads the settings from the registry and seeds the
+     * source of secure random numbers
+     */
+    private SecureChannelFactory() throws NullPointerException,
+    IllegalStateException, BackingStoreException {
+
+        RegisterKey rk = new RegisterKey();
+        clientName = rk.getClientName();
+        serverName = rk.getServerName();
+        pubKey = rk.getPubKey();
+        certDir = rk.getCertDirectory();
+        compressLevel = rk.getCompressLevel();
+        compressThreshold = rk.getCompressThreshold();
+        resetBytes = rk.getStreamResetBytes();
+
+        secureRandom = new SecureRandom();
+        secureRandom.nextInt();
+    }
+
+    /**
+     * Method used to get the factory shared by all connections
+     * @return The factory
+     */
+    public static synchronized SecureChannelFactory getInstance() throws
+        NullPointerException, IllegalStateException, BackingStoreException {
+
+        if (instance == null)
+            instance = new SecureChannelFactory();
+        return instance;
+    }
+
+    /**
+     * Method used to get the server name in the network
+     * @return The server name
+     */
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * Method used to get the ambulance client name in the network
+     * @return The client name
+     */
+    public String getClientName() {
+        return clientName;
+    }
+
+    /**
+     * Method used to set up the server keystore
+     * @param file The file containing the server certificate
+     */
+    private KeyStore loadServerKeystore(File file) throws
+        GeneralSecurityException, IOException {
+
+        KeyStore serverKeyStore = KeyStore.getInstance("JKS");
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            serverKeyStore.load(fis, pubKey.toCharArray());
+        } finally {
+            fis.close();
+        }
+        return serverKeyStore;
+    }
+
+    /**
+     * Method used to set up the client keystore
+     * @param file The file containing the client certificate
+     */
+    private KeyStore loadClientKeyStore(File file) throws
+        GeneralSecurityException, IOException {
+
+        KeyStore clientKeyStore = KeyStore.getInstance("JKS");
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            clientKeyStore.load(fis, clientName.toCharArray());
+        } finally {
+            fis.close();
+        }
+        return clientKeyStore;
+    }
+
+    /**
+     * Method used to get a socket factory for the secure connections. The
+     * SSL parameters are initialized the first time and again only if one
+     * of the certificate files has been changed.
+     * @return The socket factory
+     */
+    public synchronized SSLSocketFactory getSocketFactory() throws
+        GeneralSecurityException, IOException {
+
+        File serverFile = new File(certDir + "server.public");
+        File clientFile = new File(certDir + clientName + ".private");
+
+        if (sslContext != null &&
+                serverFile.lastModified() == serverCertModified &&
+                clientFile.lastModified() == clientCertModified)
+            return sslContext.getSocketFactory();
+
+        long serverModified = serverFile.lastModified();
+        long clientModified = clientFile.lastModified();
+
+        TrustManagerFactory tmf =
+            TrustManagerFactory.getInstance("SunX509");
+        tmf.init(loadServerKeystore(serverFile));
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(loadClientKeyStore(clientFile), clientName.toCharArray());
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(),
+                secureRandom);
+
+        SSLSessionContext sessions = context.getClientSessionContext();
+        sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(SESSION_TIMEOUT);
+
+        sslContext = context;
+        serverCertModified = serverModified;
+        clientCertModified = clientModified;
+
+        return sslContext.getSocketFactory();
+    }
+
+    /**
+     * Method used to open a connection to a port at the server
+     * @param port The port number the server listens to
+     * @return The connection with its object streams set up
+     */
+    public ServerConnection connect(int port) throws
+        GeneralSecurityException, IOException {
+
+        SSLSocket socket =
+            (SSLSocket) getSocketFactory().createSocket(serverName, port);
+
+        ServerConnection connection =
+            new ServerConnection(socket, compressLevel, compressThreshold);
+        connection.setResetBytes(resetBytes);
+
+        return connection;
+    }
+}
@@ -10,6 +10,7 @@ import javax.swing.*;
  */
 public class SendDialog extends JDialog
 {
+    private AmbulanceRecord parent;
     private AntennaPanel antennaPanel;
 
     private JLabel messageLbl;
@@ -20,11 +21,15 @@ public class SendDialog extends JDialog
       * @param parent A reference to the parent dialog.
       * @param title Title string for the dialog.
       * @param message Message string to show in the dialog.
+      * @param lg The log handler to report errors to.
+      * @param outbox The queue the records are put in for sending.
+      * @param t The ids of the records to send.
       */
     public SendDialog(AmbulanceRecord parent, String title, String message,
-          LogHandler lg, DB2Connect dbcon, int[] t)
+          LogHandler lg, RecordOutbox outbox, int[] t)
     {
         super(parent, title, true);
+        this.parent = parent;
         setSize(300,110);
         setResizable(false);
 
@@ -55,9 +60,9 @@ public class SendDialog extends JDialog
         parent.setSendDialog(this);
 
         try {
-           new AmbulanceClient(lg, parent, dbcon, t);
+           outbox.enqueue(t);
         } catch (Exception e) {
-           setMessage("Sändning misslyckades");
+           setMessage("Journalen kunde inte läggas i sändningskön");
            addOk();
         }
 
@@ -65,10 +70,12 @@ public class SendDialog extends JDialog
    }
 
     /**
-      * Method that closes the dialog ans stops the image thread.
+      * Method that closes the dialog ans stops the image thread. Queued
+      * records are still sent in the background.
       */
     public void destroy()
     {
+        parent.setSendDialog(null);
         antennaPanel.destroy();
         this.dispose();
     }
@@ -0,0 +1,20 @@
+/**
+ * Interface for objects that are informed about the result of a
+ * patient record transmission to the server.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public interface SendResultInterface {
+
+    /**
+     * Method used by the send threads to report the result of a transmission
+     * @param oldId The client record id of the record that were succesfully
+     * transmited. -1 certificate problem, -2 send failed.
+     * @param serverId The record id that the record has on the server.
+     * -1 certificate problem, -2 send failed, ServerAcknowledgement.REFUSED
+     * if the server could not store this record
+     * @param msg Message to inform the user of what went wrong.
+     */
+    public void resultsFromSend(int oldId, int serverId, String msg);
+}
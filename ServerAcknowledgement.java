@@ -6,10 +6,21 @@ import java.io.*;
  */  
 public class ServerAcknowledgement implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 4745983348999186870L;
+
+    /*The record ids of a refusal. A client that does not know refusals
+      has no record with this id, so it ignores the refusal and keeps
+      the record*/
+    public static final int REFUSED = -3;
+
     private int clientRecordId;
     private int serverRecordId;
     private String serverMessage;
 
+    //The client record id of a refused record, 0 if not refused
+    private int refusedRecordId = 0;
+
     public ServerAcknowledgement() { }
 
     public ServerAcknowledgement(int c, int s, String sm) { 
@@ -18,6 +29,37 @@ public class ServerAcknowledgement implements Serializable {
         serverMessage = sm;
     }
 
+    /**
+     * Method used to create the answer to a record the server could not
+     * store. The client keeps the record and sends it again later.
+     * @param c The client record id of the record
+     * @param sm Message to inform the user of what went wrong
+     * @return The refusal
+     */
+    public static ServerAcknowledgement refused(int c, String sm) {
+        ServerAcknowledgement sa =
+            new ServerAcknowledgement(REFUSED, REFUSED, sm);
+        sa.refusedRecordId = c;
+        return sa;
+    }
+
+    /**
+     * Method used to indicate if the server could not store the record
+     * @return true if the record was refused
+     */
+    public boolean isRefused() {
+        return clientRecordId == REFUSED;
+    }
+
+    /**
+     * Method used to get the client record id of the record answered,
+     * acknowledged or refused
+     * @return The client record id
+     */
+    public int getRecordId() {
+        return isRefused() ? refusedRecordId : clientRecordId;
+    }
+
 
     public int getClientRecordId() {
         return clientRecordId;
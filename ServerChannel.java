@@ -0,0 +1,348 @@
+import java.io.*;
+import java.security.*;
+import java.util.*;
+import java.util.prefs.*;
+
+/**
+ * Class for the long-lived connection to the server that carries the
+ * patient records, the synchronization and the patient information
+ * requests. Every request gets an id that the server uses in its reply,
+ * so several requests can be outstanding at the same time. A heartbeat
+ * keeps the connection alive, and a lost connection is set up again
+ * by the background thread.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class ServerChannel implements Runnable {
+
+    //Time in ms between two heartbeats
+    private final long HEARTBEAT_INTERVAL = 30 * 1000;
+
+    //Time in ms without any message before the connection is considered lost
+    private final long HEARTBEAT_TIMEOUT = 90 * 1000;
+
+    //Time in ms before the first reconnect attempt
+    private final long RECONNECT_DELAY = 1000;
+
+    //Longest time in ms between two reconnect attempts
+    private final long MAX_RECONNECT_DELAY = 5 * 60 * 1000;
+
+    //Time in ms a request waits for its reply before it is given up,
+    //longer than any caller waits
+    private final long REQUEST_TIMEOUT = 10 * 60 * 1000;
+
+    //The channel shared by all clients in this process
+    private static ServerChannel instance = null;
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //Creates the secure connections to the server
+    private SecureChannelFactory channelFactory;
+
+    //The port number the server listens to
+    private int port;
+
+    //Connection to server, null if not connected
+    private ServerConnection connection = null;
+
+    //Requests waiting for their replies, keyed by request id
+    private Hashtable pending = new Hashtable();
+
+    //The id of the next request
+    private long nextRequestId = 1;
+
+    //The time in ms the last message was received from server
+    private long lastReceived = 0;
+
+    //The delays between the reconnect attempts
+    private Backoff backoff = new Backoff(RECONNECT_DELAY, MAX_RECONNECT_DELAY);
+
+    //The number of failed reconnects since the connection was lost
+    private int reconnects = 0;
+
+    //Lock used to write one message at a time
+    private Object writeLock = new Object();
+
+    //Reference to the heartbeat thread
+    private Thread thread;
+
+    /**
+     * Constructor, starts the heartbeat thread
+     * @param lgHandler Reference to LogHandler object
+     * @param port The port number of the channel at the server
+     */
+    private ServerChannel(LogHandler lgHandler, int port) throws
+        NullPointerException, IllegalStateException, BackingStoreException {
+
+        this.lgHandler = lgHandler;
+        this.port = port;
+        channelFactory = SecureChannelFactory.getInstance();
+
+        thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method used to get the channel shared by all clients
+     * @param lgHandler Reference to LogHandler object
+     * @return The channel, null if no channel port is configured and
+     * the separate server ports should be used
+     */
+    public static synchronized ServerChannel getInstance(LogHandler lgHandler)
+        throws NullPointerException, IllegalStateException,
+               BackingStoreException {
+
+        if (instance == null) {
+            int port = new RegisterKey().getAmbulanceChannelPort();
+            if (port == -1)
+                return null;
+            instance = new ServerChannel(lgHandler, port);
+        }
+        return instance;
+    }
+
+    /**
+     * Method used to get the connection, a new connection is set up if
+     * there is none
+     * @return The connection to server
+     */
+    private synchronized ServerConnection getConnection() throws IOException {
+
+        if (connection != null && !connection.isClosed())
+            return connection;
+
+        try {
+            connection = channelFactory.connect(port);
+        } catch (GeneralSecurityException gse) {
+            lgHandler.addLog(new Log(gse.getMessage(),
+                        "ServerChannel/getConnection", "Security problem"));
+            throw new IOException("Certifikaten är ej giltiga");
+        }
+
+        lastReceived = System.currentTimeMillis();
+        reconnects = 0;
+        new ChannelReceiveThread(lgHandler, this, connection);
+
+        return connection;
+    }
+
+    /**
+     * Method used to indicate if the channel is connected
+     * @return true if there is an open connection
+     */
+    public synchronized boolean isConnected() {
+        return connection != null && !connection.isClosed();
+    }
+
+    /**
+     * Method used to send a request to the server
+     * @param type The message type, see ChannelMessage
+     * @param payload The packet to send
+     * @param listener Object called when the reply is received, or null
+     * @return The request, used to wait for the reply
+     */
+    public ChannelRequest send(int type, Object payload,
+            ChannelReplyInterface listener) throws IOException {
+        return send(type, payload, listener, false);
+    }
+
+    /**
+     * Method used to send a request to the server
+     * @param type The message type, see ChannelMessage
+     * @param payload The packet to send
+     * @param listener Object called when the reply is received, or null
+     * @param resend true if the payload has been sent before, the handle
+     * tables are then reset so the whole payload is sent again
+     * @return The request, used to wait for the reply
+     */
+    public ChannelRequest send(int type, Object payload,
+            ChannelReplyInterface listener, boolean resend)
+        throws IOException {
+
+        ServerConnection conn;
+        ChannelRequest request;
+
+        synchronized (this) {
+            conn = getConnection();
+            request = new ChannelRequest(nextRequestId++, type, listener,
+                    REQUEST_TIMEOUT);
+            pending.put(new Long(request.getRequestId()), request);
+        }
+
+        try {
+            synchronized (writeLock) {
+                ChannelMessage msg = new ChannelMessage(
+                        request.getRequestId(), type, payload);
+                if (resend)
+                    conn.writeFresh(msg);
+                else
+                    conn.writeObject(msg);
+            }
+        } catch (IOException ie) {
+            connectionLost(conn, ie.getMessage());
+            throw ie;
+        }
+
+        return request;
+    }
+
+    /**
+     * Method used to send a request and wait for its reply
+     * @param type The message type, see ChannelMessage
+     * @param payload The packet to send
+     * @param timeout The longest time to wait for the reply in ms
+     * @return The packet received as reply
+     */
+    public Object request(int type, Object payload, long timeout)
+        throws IOException {
+
+        ChannelRequest request = send(type, payload, null);
+        try {
+            return request.waitForReply(timeout);
+        } finally {
+            pending.remove(new Long(request.getRequestId()));
+        }
+    }
+
+    /**
+     * Method used by the receive thread when a message has arrived
+     * @param msg The received message
+     */
+    public void messageReceived(ChannelMessage msg) {
+
+        ChannelRequest request;
+
+        synchronized (this) {
+            lastReceived = System.currentTimeMillis();
+            request = (ChannelRequest) pending.remove(
+                    new Long(msg.getRequestId()));
+        }
+
+        //Replies to cancelled requests are ignored
+        if (request != null)
+            request.complete(msg.getPayload());
+    }
+
+    /**
+     * Method used to remove the requests that are cancelled or have not
+     * been answered in time, so requests the server never answers do not
+     * pile up. The expired ones are failed.
+     */
+    private void expireRequests() {
+
+        Vector overdue = new Vector();
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            Enumeration eNum = pending.elements();
+            while (eNum.hasMoreElements()) {
+                ChannelRequest request = (ChannelRequest) eNum.nextElement();
+                if (request.isOverdue(now))
+                    overdue.add(request);
+            }
+            for (int i = 0; i < overdue.size(); i++)
+                pending.remove(new Long(
+                            ((ChannelRequest) overdue.elementAt(i))
+                            .getRequestId()));
+        }
+
+        for (int i = 0; i < overdue.size(); i++)
+            ((ChannelRequest) overdue.elementAt(i)).expire();
+    }
+
+    /**
+     * Method used when the connection is broken. All outstanding requests
+     * are failed, the heartbeat thread sets up a new connection.
+     * @param conn The connection that is broken
+     * @param reason Description of the failure
+     */
+    public void connectionLost(ServerConnection conn, String reason) {
+
+        Vector failed;
+
+        synchronized (this) {
+            if (conn != connection)
+                return;
+            connection = null;
+            failed = new Vector(pending.values());
+            pending.clear();
+
+            //Wake the background thread to reconnect
+            notifyAll();
+        }
+
+        try {
+            conn.close();
+        } catch (IOException ie) {
+            lgHandler.addLog(new Log(ie.getMessage(),
+                        "ServerChannel/connectionLost",
+                        "Failed to close socket/streams"));
+        }
+
+        for (int i = 0; i < failed.size(); i++)
+            ((ChannelRequest) failed.elementAt(i)).fail(
+                    "Uppkopplingen till servern bröts");
+    }
+
+    /**
+     * Background thread, sends the heartbeats and sets up the connection
+     * again when it has been lost
+     */
+    public void run() {
+
+        long delay = HEARTBEAT_INTERVAL;
+
+        while (true) {
+            try {
+                //A lost connection wakes the thread to reconnect
+                synchronized (this) {
+                    wait(delay);
+                }
+            } catch (InterruptedException ie) {
+                return;
+            }
+
+            expireRequests();
+
+            ServerConnection conn;
+            long idle;
+
+            synchronized (this) {
+                conn = connection;
+                idle = System.currentTimeMillis() - lastReceived;
+            }
+
+            if (conn == null) {
+                //Try to connect again, wait longer after each failure
+                try {
+                    getConnection();
+                    delay = HEARTBEAT_INTERVAL;
+                } catch (IOException ie) {
+                    synchronized (this) {
+                        delay = backoff.getJitteredDelay(reconnects++);
+                    }
+                }
+                continue;
+            }
+
+            if (idle > HEARTBEAT_TIMEOUT) {
+                lgHandler.addLog(new Log("No message for " + idle + " ms",
+                            "ServerChannel/run", "Connection lost"));
+                connectionLost(conn, "No heartbeat");
+                delay = RECONNECT_DELAY;
+                continue;
+            }
+
+            try {
+                send(ChannelMessage.HEARTBEAT, null, null);
+            } catch (IOException ie) {
+                lgHandler.addLog(new Log(ie.getMessage(), "ServerChannel/run",
+                            "Failed to send heartbeat"));
+            }
+            delay = HEARTBEAT_INTERVAL;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+import java.io.*;
+import java.net.*;
+import javax.net.ssl.*;
+
+/**
+ * Class that represent an open connection to the server with the
+ * object streams used to exchange packets.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class ServerConnection {
+
+    //Sent first by a client that offers compression, never the start of
+    //an object stream
+    private static final int MAGIC = 0x4550525A;
+
+    //Compression methods, used as a bit mask in the offer
+    public static final int COMPRESS_NONE = 0;
+    public static final int COMPRESS_DEFLATE = 1;
+
+    //Connection to server
+    private SSLSocket socket;
+    private OutputStream out;
+    private StreamingObjectOutputStream oos;
+    private InputStream in;
+    private ObjectInputStream ois;
+
+    //The stream under the object stream of an accepted connection, used
+    //to look for the next message, null at the client
+    private PushbackInputStream pin = null;
+
+    //The compressed streams, null if compression is not used
+    private CompressedOutputStream cout = null;
+    private CompressedInputStream cin = null;
+
+    /**
+     * Constructor used to set up the object streams on a socket without
+     * compression. If the streams can not be set up the socket is closed.
+     * @param socket The socket connected to the server
+     */
+    public ServerConnection(SSLSocket socket) throws IOException {
+        this(socket, -1, 0);
+    }
+
+    /**
+     * Constructor used by a client to set up the object streams on a
+     * socket. If a level is given compression is offered to the server
+     * before the object streams are set up. If the streams can not be set
+     * up the socket is closed.
+     * @param socket The socket connected to the server
+     * @param level The Deflate level 0-9, -1 to not offer compression
+     * @param threshold The smallest message that is compressed
+     */
+    public ServerConnection(SSLSocket socket, int level, int threshold)
+        throws IOException {
+
+        this.socket = socket;
+
+        try {
+            out = socket.getOutputStream();
+            in = socket.getInputStream();
+
+            int method = COMPRESS_NONE;
+            if (level >= 0)
+                method = offerCompression();
+
+            openStreams(method, level, threshold);
+        } catch (IOException ie) {
+            close();
+            throw ie;
+        }
+    }
+
+    /**
+     * Constructor used by accept when the handshake is done
+     * @param socket The accepted socket
+     * @param in The stream the object stream is read from
+     * @param method The compression method agreed on
+     * @param level The Deflate level
+     * @param threshold The smallest message that is compressed
+     */
+    private ServerConnection(SSLSocket socket, PushbackInputStream in,
+            int method, int level, int threshold) throws IOException {
+
+        this.socket = socket;
+        this.in = in;
+        pin = in;
+
+        try {
+            out = socket.getOutputStream();
+            openStreams(method, level, threshold);
+        } catch (IOException ie) {
+            close();
+            throw ie;
+        }
+    }
+
+    /**
+     * Method used by the server to set up the object streams on an
+     * accepted socket. A client that offers compression is answered,
+     * other clients get plain object streams.
+     * @param socket The accepted socket
+     * @param level The Deflate level 0-9, -1 to refuse compression
+     * @param threshold The smallest message that is compressed
+     * @return The connection with its object streams set up
+     */
+    public static ServerConnection accept(SSLSocket socket, int level,
+            int threshold) throws IOException {
+
+        int method = COMPRESS_NONE;
+        PushbackInputStream pin;
+
+        try {
+            pin = new PushbackInputStream(socket.getInputStream(), 4);
+
+            byte[] head = new byte[4];
+            int n = 0;
+            while (n < head.length) {
+                int r = pin.read(head, n, head.length - n);
+                if (r == -1)
+                    throw new EOFException();
+                n += r;
+            }
+
+            if (new DataInputStream(new ByteArrayInputStream(head)).readInt()
+                    == MAGIC) {
+                int offered = pin.read();
+                if (offered == -1)
+                    throw new EOFException();
+                if (level >= 0 && (offered & COMPRESS_DEFLATE) != 0)
+                    method = COMPRESS_DEFLATE;
+
+                DataOutputStream dos =
+                    new DataOutputStream(socket.getOutputStream());
+                dos.writeInt(MAGIC);
+                dos.writeByte(method);
+                dos.flush();
+            } else
+                //An object stream header, the client did not offer anything
+                pin.unread(head);
+        } catch (IOException ie) {
+            socket.close();
+            throw ie;
+        }
+
+        return new ServerConnection(socket, pin, method, level, threshold);
+    }
+
+    /**
+     * Method used to offer compression to the server
+     * @return The compression method chosen by the server
+     */
+    private int offerCompression() throws IOException {
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeByte(COMPRESS_DEFLATE);
+        dos.flush();
+
+        DataInputStream dis = new DataInputStream(in);
+        if (dis.readInt() != MAGIC)
+            throw new StreamCorruptedException(
+                    "Server does not support compression");
+
+        int method = dis.readUnsignedByte();
+        if (method != COMPRESS_NONE && method != COMPRESS_DEFLATE)
+            throw new StreamCorruptedException("Compression " + method);
+        return method;
+    }
+
+    /**
+     * Method used to set up the object streams
+     * @param method The compression method agreed on
+     * @param level The Deflate level
+     * @param threshold The smallest message that is compressed
+     */
+    private void openStreams(int method, int level, int threshold)
+        throws IOException {
+
+        OutputStream os = out;
+        InputStream is = in;
+
+        if (method == COMPRESS_DEFLATE) {
+            cout = new CompressedOutputStream(out, level, threshold);
+            cin = new CompressedInputStream(in);
+            os = cout;
+            is = cin;
+        }
+
+        oos = new StreamingObjectOutputStream(os, 0);
+
+        //The stream header must reach the other side before it can
+        //set up its input stream
+        oos.flush();
+        ois = new ObjectInputStream(is);
+    }
+
+    /**
+     * Method used to write an object to the server
+     * @param obj The object that will be send to server
+     */
+    public void writeObject(Object obj) throws IOException {
+        oos.writeMessage(obj);
+    }
+
+    /**
+     * Method used to write an object that may have been written before.
+     * The handle tables are reset first, otherwise only a reference to
+     * the object already sent reaches the server.
+     * @param obj The object that will be send to server
+     */
+    public void writeFresh(Object obj) throws IOException {
+        oos.reset();
+        oos.writeMessage(obj);
+    }
+
+    /**
+     * Method used to set when the handle tables of the object streams are
+     * reset. Without resets they keep every object sent on the connection.
+     * @param resetBytes The bytes between two resets, 0 to reset after
+     * every message and -1 to never reset
+     */
+    public void setResetBytes(long resetBytes) {
+        oos.setResetBytes(resetBytes);
+    }
+
+    /**
+     * Method used to get the number of objects in the handle table of
+     * the output stream, the other side holds as many
+     * @return The number of objects written since the last reset
+     */
+    public int getHandleCount() {
+        return oos.getHandleCount();
+    }
+
+    /**
+     * Method used to get the largest size the handle table has had
+     * @return The number of objects
+     */
+    public int getMaxHandleCount() {
+        return oos.getMaxHandleCount();
+    }
+
+    /**
+     * Method used to read an object from the server
+     * @return The received object
+     */
+    public Object readObject() throws IOException, ClassNotFoundException {
+        return ois.readObject();
+    }
+
+    /**
+     * Method used to set how long readObject waits for the other side
+     * @param timeout The time in ms, 0 to wait forever
+     */
+    public void setReadTimeout(int timeout) throws IOException {
+        socket.setSoTimeout(timeout);
+    }
+
+    /**
+     * Method used by the server to wait a short time for the next message
+     * of an accepted connection. Nothing of the message is read, so it is
+     * read whole by readObject.
+     * @param timeout The longest time to wait in ms
+     * @return true if a message, or the end of the stream, can be read
+     */
+    public boolean isReadable(int timeout) throws IOException {
+
+        int readTimeout = socket.getSoTimeout();
+        socket.setSoTimeout(timeout);
+        try {
+            while (true) {
+                //Takes the resets sent after the last message, without
+                //waiting for more
+                ois.available();
+                if (cin != null && cin.available() > 0)
+                    return true;
+
+                int b = pin.read();
+                if (b == -1)
+                    return true;
+                pin.unread(b);
+                if (cin != null || b != ObjectStreamConstants.TC_RESET)
+                    return true;
+            }
+        } catch (SocketTimeoutException ste) {
+            return false;
+        } finally {
+            socket.setSoTimeout(readTimeout);
+        }
+    }
+
+    /**
+     * Method used to get the stream objects from the server are read from
+     * @return The object input stream
+     */
+    public ObjectInputStream getObjectInputStream() {
+        return ois;
+    }
+
+    /**
+     * Method used to indicate if the messages are compressed
+     * @return true if compression was agreed on with the other side
+     */
+    public boolean isCompressed() {
+        return cout != null;
+    }
+
+    /**
+     * Method used to get the number of bytes written before compression
+     * @return The number of bytes, 0 if compression is not used
+     */
+    public long getRawBytesWritten() {
+        return cout == null ? 0 : cout.getRawBytes();
+    }
+
+    /**
+     * Method used to get the number of bytes written after compression
+     * @return The number of bytes, 0 if compression is not used
+     */
+    public long getCompressedBytesWritten() {
+        return cout == null ? 0 : cout.getWireBytes();
+    }
+
+    /**
+     * Method used to get the number of bytes read after inflation
+     * @return The number of bytes, 0 if compression is not used
+     */
+    public long getRawBytesRead() {
+        return cin == null ? 0 : cin.getRawBytes();
+    }
+
+    /**
+     * Method used to get the number of bytes read before inflation
+     * @return The number of bytes, 0 if compression is not used
+     */
+    public long getCompressedBytesRead() {
+        return cin == null ? 0 : cin.getWireBytes();
+    }
+
+    /**
+     * Method used to indicate if the connection is closed
+     * @return true if the socket is closed otherwise false
+     */
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    /**
+     * Method used to close the socket and streams
+     */
+    public void close() throws IOException {
+        if (socket != null)
+            if (!socket.isClosed())
+                socket.close();
+        if (out != null)
+            out.close();
+        if (oos != null)
+            oos.close();
+        if (in != null)
+            in.close();
+        if (ois != null)
+            ois.close();
+    }
+}
@@ -0,0 +1,510 @@
+import java.util.prefs.*;
+
+/**
+ * Class for handling the registry settings of the server, stored under
+ * their own node next to the client settings. The exceptions of the
+ * methods are the same as in RegisterKey.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class ServerRegisterKey {
+
+    //Root node of the server settings
+    private final String ROOT = "Epr/Server";
+    //Name of the key that contains the server name
+    private final String SERVER_KEY_NAME = "serverName";
+    //Name of the key that contains the host name of the database
+    private final String DB_KEY_HOST = "dbHost";
+    //Name of the key that contains the database user name
+    private final String DB_KEY_USER = "dbUser";
+    //Name of the key that contains the database password
+    private final String DB_KEY_PASS = "dbPass";
+    //Name of the key that contains the portnumber to the database
+    private final String DB_KEY_PORT = "dbPort";
+    //Name of the key that contains the name of the database
+    private final String DB_KEY_NAME = "dbName";
+    //Name of the key that contains the port number for the records
+    private final String AMB_KEY_PORT = "ambPort";
+    //Name of the key that contains the port number for patient information
+    private final String AMB_PAT_KEY_PORT = "ambPatPort";
+    //Name of the key that contains the port number for synchronization
+    private final String AMB_UP_KEY_PORT = "ambUpPort";
+    //Name of the key that contains the port number for the shared channel
+    private final String AMB_CHAN_KEY_PORT = "ambChanPort";
+    //Name of the key that contains the number of database connections
+    private final String POOL_KEY_SIZE = "poolSize";
+    //Database connections if no pool size is stored
+    private final int DEFAULT_POOL_SIZE = 8;
+    //Name of the key that contains the largest number of sessions per port
+    private final String SESSION_KEY_MAX = "maxSessions";
+    //Sessions per port if no limit is stored
+    private final int DEFAULT_MAX_SESSIONS = 100;
+    //Name of the key that contains the threads serving the sessions per port
+    private final String WORKER_KEY_COUNT = "workers";
+    //Threads per port if no number is stored
+    private final int DEFAULT_WORKERS = 8;
+    //Name of the key that contains the seconds a session waits for the pool
+    private final String DB_KEY_TIMEOUT = "dbTimeout";
+    //Seconds a session waits for the pool if no timeout is stored
+    private final int DEFAULT_DB_TIMEOUT = 60;
+    //Name of the key that contains the Deflate level accepted from clients
+    private final String COMPRESS_KEY_LEVEL = "compressLevel";
+    //Deflate level if no level is stored
+    private final int DEFAULT_COMPRESS_LEVEL = 6;
+    //Name of the key that contains the smallest message that is compressed
+    private final String COMPRESS_KEY_THRESHOLD = "compressThreshold";
+    //Smallest compressed message if no threshold is stored
+    private final int DEFAULT_COMPRESS_THRESHOLD = 256;
+    //Name of the key that contains the minutes between two snapshots
+    private final String SNAPSHOT_KEY_INTERVAL = "snapshotInterval";
+    //Minutes between two snapshots if no interval is stored
+    private final int DEFAULT_SNAPSHOT_INTERVAL = 60;
+    //Name of the key that contains the minutes between two compactions
+    private final String COMPACT_KEY_INTERVAL = "compactInterval";
+    //Minutes between two compactions if no interval is stored
+    private final int DEFAULT_COMPACT_INTERVAL = 24 * 60;
+    //Name of the key that contains the seconds between version reads
+    private final String WATCH_KEY_POLL = "watchPoll";
+    //Seconds between two reads of the update version if none is stored
+    private final int DEFAULT_WATCH_POLL = 5;
+    //Default value to pass to get methods upon retreiving string key values
+    private final String DEFAULT_STRING = null;
+    //Default value to pass to get methods upon retreiving int key values
+    private final int DEFAULT_INT = -1;
+    //Exception message if the key value is null
+    private final String EXCEPTION_MESSAGE = "Key value is null";
+
+    //Reference to the prefs in windows registry
+    private Preferences preference = null;
+
+    /**
+     * Constructor for creating the node for first time if the node does
+     * not exist, otherwise if the node exists a reference to the node
+     * will be retrieved
+     */
+    public ServerRegisterKey() throws IllegalArgumentException,
+    NullPointerException, IllegalStateException, SecurityException,
+    BackingStoreException {
+        preference = Preferences.systemRoot().node(ROOT);
+        preference.flush();
+    }
+
+    /**
+     * Method used to set the server name in the registry
+     * @param serverName is the name of the server in the network
+     */
+    public void setServerName(String serverName) throws NullPointerException,
+    IllegalStateException, IllegalArgumentException {
+        preference.put(SERVER_KEY_NAME, serverName);
+    }
+
+    /**
+     * Method used to set the host name of the database in the registry
+     * @param host The host name of the database
+     */
+    public void setDBHost(String host) throws NullPointerException,
+    IllegalStateException, IllegalArgumentException {
+        preference.put(DB_KEY_HOST, host);
+    }
+
+    /**
+     * Method used to set the user name of the database in the registry
+     * @param userName The user name of the database
+     */
+    public void setDBUser(String userName) throws NullPointerException,
+    IllegalStateException, IllegalArgumentException {
+        preference.put(DB_KEY_USER, userName);
+    }
+
+    /**
+     * Method used to set the password to the database in the registry
+     * @param pass The password to the database
+     * @return -1 if the operation failes otherwise 0
+     */
+    public int setDBPass(String pass) throws NullPointerException,
+    IllegalStateException, IllegalArgumentException {
+
+        String s = getServerName();
+
+        //If server name could not be read
+        if (s == null)
+            return DEFAULT_INT;
+
+        byte [] data = s.getBytes();
+        byte [] source = pass.getBytes();
+
+        RegisterKey.process(source, source.length, data, data.length);
+        preference.put(DB_KEY_PASS, new String(source));
+
+        return 0;
+    }
+
+    /**
+     * Method used to set the database port number in the registry
+     * @param portNumber The database port number
+     */
+    public void setDBPort(String portNumber) throws NullPointerException,
+    IllegalStateException, IllegalArgumentException {
+        preference.put(DB_KEY_PORT, portNumber);
+    }
+
+    /**
+     * Method used to set the database name in the registry
+     * @param dbName The name of the database
+     */
+    public void setDBName(String dbName) throws NullPointerException,
+    IllegalStateException, IllegalArgumentException {
+        preference.put(DB_KEY_NAME, dbName);
+    }
+
+    /**
+     * Method used to set the port the patient records are received on
+     * @param portNumber The port number, -1 to not listen
+     */
+    public void setAmbulancePort(int portNumber) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(AMB_KEY_PORT, portNumber);
+    }
+
+    /**
+     * Method used to set the port the patient information requests are
+     * received on
+     * @param portNumber The port number, -1 to not listen
+     */
+    public void setAmbulancePatientPort(int portNumber) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(AMB_PAT_KEY_PORT, portNumber);
+    }
+
+    /**
+     * Method used to set the port the synchronization requests are
+     * received on
+     * @param portNumber The port number, -1 to not listen
+     */
+    public void setAmbulanceUpdatePort(int portNumber) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(AMB_UP_KEY_PORT, portNumber);
+    }
+
+    /**
+     * Method used to set the port of the shared channel
+     * @param portNumber The port number, -1 to not listen
+     */
+    public void setAmbulanceChannelPort(int portNumber) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(AMB_CHAN_KEY_PORT, portNumber);
+    }
+
+    /**
+     * Method used to set the number of connections to the database
+     * @param size The number of connections
+     */
+    public void setPoolSize(int size) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(POOL_KEY_SIZE, size);
+    }
+
+    /**
+     * Method used to set the largest number of sessions on each port
+     * @param sessions The number of sessions
+     */
+    public void setMaxSessions(int sessions) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(SESSION_KEY_MAX, sessions);
+    }
+
+    /**
+     * Method used to set the number of threads serving the sessions on
+     * each port
+     * @param workers The number of threads
+     */
+    public void setWorkers(int workers) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(WORKER_KEY_COUNT, workers);
+    }
+
+    /**
+     * Method used to set how long a session waits for a database
+     * connection
+     * @param seconds The time in seconds
+     */
+    public void setDBTimeout(int seconds) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(DB_KEY_TIMEOUT, seconds);
+    }
+
+    /**
+     * Method used to set the Deflate level accepted from the clients
+     * @param level The Deflate level 0-9, -1 to refuse compression
+     */
+    public void setCompressLevel(int level) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(COMPRESS_KEY_LEVEL, level);
+    }
+
+    /**
+     * Method used to set the size in bytes of the smallest message that
+     * is compressed
+     * @param threshold The number of bytes
+     */
+    public void setCompressThreshold(int threshold) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(COMPRESS_KEY_THRESHOLD, threshold);
+    }
+
+    /**
+     * Method used to set how often the reference snapshot is rebuilt
+     * @param minutes The minutes between two snapshots, 0 to not build
+     * snapshots
+     */
+    public void setSnapshotInterval(int minutes) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(SNAPSHOT_KEY_INTERVAL, minutes);
+    }
+
+    /**
+     * Method used to set how often the update log is compacted
+     * @param minutes The minutes between two compactions, 0 to not
+     * compact the log
+     */
+    public void setCompactInterval(int minutes) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(COMPACT_KEY_INTERVAL, minutes);
+    }
+
+    /**
+     * Method used to set how often the update version is read while
+     * clients wait for updates
+     * @param seconds The seconds between two reads, 0 to answer the
+     * clients at once that waiting is not supported
+     */
+    public void setWatchPoll(int seconds) throws
+        NullPointerException, IllegalStateException, IllegalArgumentException {
+            preference.putInt(WATCH_KEY_POLL, seconds);
+    }
+
+    /**
+     * Method used to get the server name
+     * @return The server name
+     */
+    public String getServerName() throws NullPointerException,
+    IllegalStateException {
+        String retValue = preference.get(SERVER_KEY_NAME, DEFAULT_STRING);
+        if (retValue == null)
+           throw new NullPointerException(EXCEPTION_MESSAGE);
+        return retValue;
+    }
+
+    /**
+     * Method used to get the host name of the database
+     * @return The host name, the server name if none is stored
+     */
+    public String getDBHost() throws NullPointerException,
+    IllegalStateException {
+        String retValue = preference.get(DB_KEY_HOST, DEFAULT_STRING);
+        if (retValue == null)
+            return getServerName();
+        return retValue;
+    }
+
+    /**
+     * Method used to get the database user name
+     * @return The database user name
+     */
+    public String getDBUser() throws NullPointerException,
+    IllegalStateException {
+        String retValue = preference.get(DB_KEY_USER, DEFAULT_STRING);
+        if (retValue == null)
+           throw new NullPointerException(EXCEPTION_MESSAGE);
+        return retValue;
+    }
+
+    /**
+     * Method used to get the database password
+     * @return The database password
+     */
+    public String getDBPass() throws NullPointerException,
+    IllegalStateException {
+
+        String p = preference.get(DB_KEY_PASS, DEFAULT_STRING);
+        String s = getServerName();
+
+        //IF data could not be read
+        if (p == null)
+           throw new NullPointerException(EXCEPTION_MESSAGE);
+
+        byte[] source = p.getBytes();
+        byte[] data = s.getBytes();
+
+        RegisterKey.process(source, source.length, data, data.length);
+
+        return new String(source);
+    }
+
+    /**
+     * Method used to get the database port number
+     * @return The database port number
+     */
+    public String getDBPort() throws NullPointerException,
+    IllegalStateException {
+        String retValue = preference.get(DB_KEY_PORT, DEFAULT_STRING);
+        if (retValue == null)
+           throw new NullPointerException(EXCEPTION_MESSAGE);
+        return retValue;
+    }
+
+    /**
+     * Method used to get the databse name
+     * @return The database name
+     */
+    public String getDBName() throws NullPointerException,
+    IllegalStateException {
+        String retValue = preference.get(DB_KEY_NAME, DEFAULT_STRING);
+        if (retValue == null)
+           throw new NullPointerException(EXCEPTION_MESSAGE);
+        return retValue;
+    }
+
+    /**
+     * Method used to get the port the patient records are received on
+     * @return The port number, -1 if the server does not listen
+     */
+    public int getAmbulancePort() throws IllegalStateException {
+        return preference.getInt(AMB_KEY_PORT, DEFAULT_INT);
+    }
+
+    /**
+     * Method used to get the port the patient information requests are
+     * received on
+     * @return The port number, -1 if the server does not listen
+     */
+    public int getAmbulancePatientPort() throws IllegalStateException {
+        return preference.getInt(AMB_PAT_KEY_PORT, DEFAULT_INT);
+    }
+
+    /**
+     * Method used to get the port the synchronization requests are
+     * received on
+     * @return The port number, -1 if the server does not listen
+     */
+    public int getAmbulanceUpdatePort() throws IllegalStateException {
+        return preference.getInt(AMB_UP_KEY_PORT, DEFAULT_INT);
+    }
+
+    /**
+     * Method used to get the port of the shared channel
+     * @return The port number, -1 if the server does not listen
+     */
+    public int getAmbulanceChannelPort() throws IllegalStateException {
+        return preference.getInt(AMB_CHAN_KEY_PORT, DEFAULT_INT);
+    }
+
+    /**
+     * Method used to get the number of connections to the database
+     * @return The number of connections
+     */
+    public int getPoolSize() throws IllegalStateException {
+        int retValue = preference.getInt(POOL_KEY_SIZE, DEFAULT_POOL_SIZE);
+        return retValue < 1 ? DEFAULT_POOL_SIZE : retValue;
+    }
+
+    /**
+     * Method used to get the largest number of sessions on each port
+     * @return The number of sessions
+     */
+    public int getMaxSessions() throws IllegalStateException {
+        int retValue = preference.getInt(SESSION_KEY_MAX,
+                DEFAULT_MAX_SESSIONS);
+        return retValue < 1 ? DEFAULT_MAX_SESSIONS : retValue;
+    }
+
+    /**
+     * Method used to get the number of threads serving the sessions on
+     * each port
+     * @return The number of threads
+     */
+    public int getWorkers() throws IllegalStateException {
+        int retValue = preference.getInt(WORKER_KEY_COUNT, DEFAULT_WORKERS);
+        return retValue < 1 ? DEFAULT_WORKERS : retValue;
+    }
+
+    /**
+     * Method used to get how long a session waits for a database
+     * connection
+     * @return The time in seconds
+     */
+    public int getDBTimeout() throws IllegalStateException {
+        int retValue = preference.getInt(DB_KEY_TIMEOUT, DEFAULT_DB_TIMEOUT);
+        return retValue < 1 ? DEFAULT_DB_TIMEOUT : retValue;
+    }
+
+    /**
+     * Method used to get the Deflate level accepted from the clients
+     * @return The Deflate level, -1 if compression is refused
+     */
+    public int getCompressLevel() throws IllegalStateException {
+        int retValue = preference.getInt(COMPRESS_KEY_LEVEL,
+                DEFAULT_COMPRESS_LEVEL);
+        if (retValue > 9)
+            return 9;
+        return retValue < 0 ? DEFAULT_INT : retValue;
+    }
+
+    /**
+     * Method used to get the size in bytes of the smallest message that
+     * is compressed
+     * @return The number of bytes
+     */
+    public int getCompressThreshold() throws IllegalStateException {
+        int retValue = preference.getInt(COMPRESS_KEY_THRESHOLD,
+                DEFAULT_COMPRESS_THRESHOLD);
+        if (retValue < 0)
+            return DEFAULT_COMPRESS_THRESHOLD;
+        return retValue;
+    }
+
+    /**
+     * Method used to get how often the reference snapshot is rebuilt
+     * @return The minutes between two snapshots, 0 if no snapshots are
+     * built
+     */
+    public int getSnapshotInterval() throws IllegalStateException {
+        int retValue = preference.getInt(SNAPSHOT_KEY_INTERVAL,
+                DEFAULT_SNAPSHOT_INTERVAL);
+        return retValue < 0 ? 0 : retValue;
+    }
+
+    /**
+     * Method used to get how often the update log is compacted
+     * @return The minutes between two compactions, 0 if the log is not
+     * compacted
+     */
+    public int getCompactInterval() throws IllegalStateException {
+        int retValue = preference.getInt(COMPACT_KEY_INTERVAL,
+                DEFAULT_COMPACT_INTERVAL);
+        return retValue < 0 ? 0 : retValue;
+    }
+
+    /**
+     * Method used to get how often the update version is read while
+     * clients wait for updates
+     * @return The seconds between two reads, 0 if waiting is not
+     * supported
+     */
+    public int getWatchPoll() throws IllegalStateException {
+        int retValue = preference.getInt(WATCH_KEY_POLL, DEFAULT_WATCH_POLL);
+        return retValue < 0 ? 0 : retValue;
+    }
+
+    /**
+     * Method used to get the database address, port number and
+     * name in a string
+     * @return The database address
+     */
+    public String getDBPath() throws NullPointerException,
+    IllegalStateException {
+        return "jdbc:db2://" + getDBHost() + ":" + getDBPort() +
+            "/" + getDBName();
+    }
+}
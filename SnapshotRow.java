@@ -0,0 +1,151 @@
+import java.sql.*;
+import java.util.Hashtable;
+
+/**
+ * SnapshotRow holds one row read by RecordSnapshot. The values are read
+ * the way a ResultSet would return them, so the packets can be built
+ * from a snapshot the same way they were built from a ResultSet.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class SnapshotRow {
+
+    //The column values in the order of the query
+    private Object[] values;
+
+    //Column index starting at 1, keyed by column name
+    private Hashtable columns;
+
+    /**
+     * Constructor used by RecordSnapshot to copy the current row
+     * @param resultSet The result set positioned on the row
+     * @param columns Column index starting at 1, keyed by column name
+     */
+    public SnapshotRow(ResultSet resultSet, Hashtable columns)
+        throws SQLException {
+
+        this.columns = columns;
+        values = new Object[columns.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = resultSet.getObject(i + 1);
+    }
+
+    /**
+     * Method used to get the value of a column
+     * @param column The column name
+     * @return The value, null if the column is null
+     */
+    public Object getObject(String column) throws SQLException {
+        Integer index = (Integer) columns.get(column.toUpperCase());
+        if (index == null)
+            throw new SQLException("Column not found: " + column);
+        return values[index.intValue() - 1];
+    }
+
+    /**
+     * Method used to get the value of a column as an int
+     * @param column The column name
+     * @return The value, 0 if the column is null
+     */
+    public int getInt(String column) throws SQLException {
+        Object value = getObject(column);
+        if (value == null)
+            return 0;
+        if (value instanceof Number)
+            return ((Number) value).intValue();
+        try {
+            return Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException nfe) {
+            throw new SQLException("Not a number: " + column);
+        }
+    }
+
+    /**
+     * Method used to get the value of a column as a float
+     * @param column The column name
+     * @return The value, 0 if the column is null
+     */
+    public float getFloat(String column) throws SQLException {
+        Object value = getObject(column);
+        if (value == null)
+            return 0;
+        if (value instanceof Number)
+            return ((Number) value).floatValue();
+        try {
+            return Float.parseFloat(value.toString().trim());
+        } catch (NumberFormatException nfe) {
+            throw new SQLException("Not a number: " + column);
+        }
+    }
+
+    /**
+     * Method used to get the value of a column as a String
+     * @param column The column name
+     * @return The value, null if the column is null
+     */
+    public String getString(String column) throws SQLException {
+        Object value = getObject(column);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Method used to get the value of a TIME column
+     * @param column The column name
+     * @return The value, null if the column is null
+     */
+    public Time getTime(String column) throws SQLException {
+        Object value = getObject(column);
+        if (value == null || value instanceof Time)
+            return (Time) value;
+        if (value instanceof java.util.Date)
+            return new Time(((java.util.Date) value).getTime());
+        return Time.valueOf(value.toString().trim());
+    }
+
+    /**
+     * Method used to get the value of a TIMESTAMP column
+     * @param column The column name
+     * @return The value, null if the column is null
+     */
+    public Timestamp getTimestamp(String column) throws SQLException {
+        Object value = getObject(column);
+        if (value == null || value instanceof Timestamp)
+            return (Timestamp) value;
+        if (value instanceof java.util.Date)
+            return new Timestamp(((java.util.Date) value).getTime());
+        return Timestamp.valueOf(value.toString().trim());
+    }
+
+    /**
+     * Method used to get the value of a DATE column
+     * @param column The column name
+     * @return The value, null if the column is null
+     */
+    public Date getDate(String column) throws SQLException {
+        Object value = getObject(column);
+        if (value == null || value instanceof Date)
+            return (Date) value;
+        if (value instanceof java.util.Date)
+            return new Date(((java.util.Date) value).getTime());
+        return Date.valueOf(value.toString().trim());
+    }
+
+    /**
+     * Method used to get the value of a column as a byte, a character
+     * column gives its first character
+     * @param index The column index starting at 1
+     * @return The value, 0 if the column is null
+     */
+    public byte getByte(int index) throws SQLException {
+        if (index < 1 || index > values.length)
+            throw new SQLException("Column index out of range: " + index);
+        Object value = values[index - 1];
+        if (value == null)
+            return 0;
+        if (value instanceof Number)
+            return ((Number) value).byteValue();
+        String s = value.toString();
+        return s.length() == 0 ? 0 : (byte) s.charAt(0);
+    }
+}
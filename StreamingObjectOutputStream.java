@@ -0,0 +1,169 @@
+import java.io.*;
+
+/**
+ * ObjectOutputStream used on the long-lived connections to the server.
+ * An ObjectOutputStream keeps every object it has written in its handle
+ * table, and the ObjectInputStream at the other side does the same, so
+ * both grow for as long as the connection is open. This stream resets
+ * both tables after a message, either after every message or when a
+ * number of bytes has been written since the last reset. The number of
+ * objects in the handle table is counted so it can be watched.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class StreamingObjectOutputStream extends ObjectOutputStream {
+
+    //Counts the bytes written to the underlying stream
+    private ByteCounter counter;
+
+    //Bytes between two resets, 0 resets after every message and
+    //-1 never resets
+    private long resetBytes;
+
+    //Bytes written when the handle table was last reset
+    private long resetPosition = 0;
+
+    //Objects written since the last reset, the size of the handle table
+    private int handles = 0;
+
+    //The largest size of the handle table
+    private int maxHandles = 0;
+
+    //The number of resets
+    private int resets = 0;
+
+    /**
+     * Constructor
+     * @param out The stream the objects are written to
+     * @param resetBytes The bytes between two resets, 0 to reset after
+     * every message and -1 to never reset
+     */
+    public StreamingObjectOutputStream(OutputStream out, long resetBytes)
+        throws IOException {
+        this(new ByteCounter(out), resetBytes);
+    }
+
+    /**
+     * Constructor used to keep a reference to the byte counter
+     * @param counter The counter wrapping the stream
+     * @param resetBytes The bytes between two resets
+     */
+    private StreamingObjectOutputStream(ByteCounter counter, long resetBytes)
+        throws IOException {
+
+        super(counter);
+        this.counter = counter;
+        this.resetBytes = resetBytes;
+
+        //replaceObject is called once for every object not already in
+        //the handle table
+        enableReplaceObject(true);
+    }
+
+    /**
+     * Method used to write one message and flush it. The handle table
+     * is reset after the message if the reset budget is used up.
+     * @param obj The message
+     */
+    public void writeMessage(Object obj) throws IOException {
+
+        writeObject(obj);
+
+        if (resetBytes == 0 ||
+                (resetBytes > 0 &&
+                 counter.getCount() - resetPosition >= resetBytes)) {
+            reset();
+            resetPosition = counter.getCount();
+        }
+        flush();
+    }
+
+    /**
+     * Method used to change the number of bytes between two resets
+     * @param resetBytes The bytes between two resets, 0 to reset after
+     * every message and -1 to never reset
+     */
+    public void setResetBytes(long resetBytes) {
+        this.resetBytes = resetBytes;
+    }
+
+    /**
+     * Method used to reset the handle table at both sides
+     */
+    public void reset() throws IOException {
+        super.reset();
+        handles = 0;
+        resets++;
+    }
+
+    /**
+     * Method called for every object that gets a handle, counts it
+     * @param obj The object
+     * @return The same object
+     */
+    protected Object replaceObject(Object obj) throws IOException {
+        handles++;
+        if (handles > maxHandles)
+            maxHandles = handles;
+        return obj;
+    }
+
+    /**
+     * Method used to get the number of objects in the handle table
+     * @return The number of objects written since the last reset
+     */
+    public int getHandleCount() {
+        return handles;
+    }
+
+    /**
+     * Method used to get the largest size the handle table has had
+     * @return The number of objects
+     */
+    public int getMaxHandleCount() {
+        return maxHandles;
+    }
+
+    /**
+     * Method used to get the number of resets
+     * @return The number of resets
+     */
+    public int getResetCount() {
+        return resets;
+    }
+
+    /**
+     * Method used to get the number of bytes written
+     * @return The number of bytes written to the underlying stream
+     */
+    public long getByteCount() {
+        return counter.getCount();
+    }
+
+    /**
+     * Stream that counts the bytes written through it
+     */
+    private static class ByteCounter extends FilterOutputStream {
+
+        private long count = 0;
+
+        public ByteCounter(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
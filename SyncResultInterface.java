@@ -0,0 +1,20 @@
+/**
+ * Interface for objects informed about the progress of a
+ * synchronization with the server.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public interface SyncResultInterface {
+
+    /**
+     * Method used to report the progress of the synchronization
+     * @param msg Message to inform the user about the status
+     */
+    public void setMessage(String msg);
+
+    /**
+     * Method called when the synchronization is complete
+     */
+    public void syncComplete();
+}
@@ -0,0 +1,214 @@
+/**
+ * Class that synchronizes the client with the server in the background.
+ * The first synchronization is made when the client is started, so the
+ * reference tables are up to date before the crew logs in, and then
+ * periodically. A failed synchronization is tried again with a jittered
+ * exponential backoff, or at once when the server can be reached again.
+ * An UpdateWatcher makes it synchronize as soon as the server has new
+ * updates.
+ * No synchronization is started while a patient record is open.
+ *
+ * Only one synchronization runs at a time, a synchronization started
+ * from the SynchronizeDialog waits for the background one to finish.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class SyncScheduler implements Runnable, SyncResultInterface {
+
+    //Delay before the first retry in ms
+    private final long BASE_DELAY = 30 * 1000;
+
+    //Longest delay between two attempts in ms
+    private final long MAX_DELAY = 30 * 60 * 1000;
+
+    //Time in ms between two checks of the connection and the open records
+    private final long CHECK_INTERVAL = 15 * 1000;
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //Reference to the client database connection
+    private DB2Connect dbcon;
+
+    //Reference to the ambulance GUI
+    private AmbulanceRecord ar;
+
+    //Time in ms between two synchronizations
+    private long interval;
+
+    //The shared channel to server, null if the separate ports are used
+    private ServerChannel channel = null;
+
+    //The delays between the failed synchronizations
+    private Backoff backoff = new Backoff(BASE_DELAY, MAX_DELAY);
+
+    //The number of failed synchronizations since the last one that worked
+    private int failures = 0;
+
+    //The time in ms the next synchronization is due
+    private long nextSync;
+
+    //The last message from the synchronization
+    private String lastMessage = "";
+
+    //Reference to this thread
+    private Thread thread;
+
+    /**
+     * Constructor, starts the background thread which synchronizes at once
+     * @param lgHandler Reference to LogHandler object
+     * @param dbcon Reference to the client database connection
+     * @param ar Reference to the ambulance GUI
+     * @param interval Time in ms between two synchronizations
+     */
+    public SyncScheduler(LogHandler lgHandler, DB2Connect dbcon,
+            AmbulanceRecord ar, long interval) {
+
+        this.lgHandler = lgHandler;
+        this.dbcon = dbcon;
+        this.ar = ar;
+        this.interval = interval;
+
+        try {
+            channel = ServerChannel.getInstance(lgHandler);
+        } catch (Exception e) {
+            lgHandler.addLog(new Log(e.getMessage(),
+                        "SyncScheduler/SyncScheduler",
+                        "Failed to read the channel port"));
+        }
+
+        nextSync = System.currentTimeMillis();
+
+        thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+
+        //Let the server tell when it has new updates
+        try {
+            int watchTimeout = new RegisterKey().getWatchTimeout();
+            if (watchTimeout > 0)
+                new UpdateWatcher(lgHandler, dbcon, this,
+                        watchTimeout * 1000L);
+        } catch (Exception e) {
+            lgHandler.addLog(new Log(e.getMessage(),
+                        "SyncScheduler/SyncScheduler",
+                        "Failed to start the update watcher"));
+        }
+    }
+
+    /**
+     * Method used to make the background thread synchronize as soon as
+     * no patient record is open
+     */
+    public synchronized void syncNow() {
+        nextSync = 0;
+        notifyAll();
+    }
+
+    /**
+     * Method used to tell that the server could be reached, for example
+     * when a record was sent. A synchronization that has failed is then
+     * tried again at once.
+     */
+    public synchronized void connectivityRestored() {
+        if (failures > 0)
+            syncNow();
+    }
+
+    /**
+     * Method used by the synchronization to report its progress
+     * @param msg Message to inform the user about the status
+     */
+    public synchronized void setMessage(String msg) {
+        lastMessage = msg;
+    }
+
+    /**
+     * Method called when the synchronization is complete
+     */
+    public void syncComplete() {
+        ar.setStatusMessage("Databasen är synkroniserad med servern");
+    }
+
+    /**
+     * Method used to wait until the next synchronization is due. The wait
+     * is ended early if a failed synchronization can be tried again
+     * because the channel has connected.
+     */
+    private synchronized void waitForNextSync() throws InterruptedException {
+
+        boolean wasConnected = channel != null && channel.isConnected();
+
+        while (System.currentTimeMillis() < nextSync) {
+            wait(Math.min(CHECK_INTERVAL,
+                        nextSync - System.currentTimeMillis()));
+
+            boolean connected = channel != null && channel.isConnected();
+            if (failures > 0 && connected && !wasConnected)
+                nextSync = 0;
+            wasConnected = connected;
+        }
+    }
+
+    /**
+     * Method used to run one synchronization and wait for it to finish
+     * @return true if the synchronization was completed
+     */
+    private boolean synchronize() throws InterruptedException {
+
+        AmbulanceClientUpdate update;
+
+        try {
+            update = new AmbulanceClientUpdate(lgHandler, this, dbcon, false);
+        } catch (Exception e) {
+            lgHandler.addLog(new Log(e.getMessage(),
+                        "SyncScheduler/synchronize",
+                        "Failed to start the synchronization"));
+            return false;
+        }
+
+        update.waitFor();
+        return update.isCompleted();
+    }
+
+    /**
+     * Background thread, used to synchronize when a synchronization is due
+     */
+    public void run() {
+
+        try {
+            while (true) {
+                waitForNextSync();
+
+                //A patient record is being edited, try again later
+                if (ar.isEditing()) {
+                    synchronized (this) {
+                        nextSync = System.currentTimeMillis() +
+                            CHECK_INTERVAL;
+                    }
+                    continue;
+                }
+
+                boolean completed = synchronize();
+
+                synchronized (this) {
+                    if (completed) {
+                        failures = 0;
+                        nextSync = System.currentTimeMillis() + interval;
+                    } else {
+                        lgHandler.addLog(new Log(lastMessage,
+                                    "SyncScheduler/run",
+                                    "Synchronization failed " +
+                                    (failures + 1) + " times"));
+                        nextSync = System.currentTimeMillis() +
+                            backoff.getJitteredDelay(failures++);
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            lgHandler.addLog(new Log(ie.getMessage(), "SyncScheduler/run",
+                        "InterruptedException"));
+        }
+    }
+}
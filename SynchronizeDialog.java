@@ -7,7 +7,8 @@ import java.awt.event.*;
   * @version 20030904
   * @author Oskar Nilsson
   */
-public class SynchronizeDialog extends JDialog implements AdminDialog
+public class SynchronizeDialog extends JDialog implements AdminDialog,
+   SyncResultInterface
 {
 
    private AmbulanceRecord ar;
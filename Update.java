@@ -16,9 +16,17 @@ import java.sql.*;
  */
 public class Update implements Serializable {
 
+    //Kept when the operation was added, so older clients can read it
+    private static final long serialVersionUID = 207752504970899109L;
+
     private Timestamp insertTime;
+
+    //The SQL query, null when it is kept as the operation
     private String query;
 
+    //The query as a typed change, null if it is not a simple statement
+    private UpdateOperation operation;
+
     /**
      * Constructor for creating an Update object
      * @param insertTime is the time the record was inserted into the 
@@ -27,7 +35,20 @@ public class Update implements Serializable {
      */
     public Update(Timestamp insertTime, String query) {
         this.insertTime = insertTime;
-        this.query = query;
+        operation = UpdateOperation.parse(query);
+        if (operation == null)
+            this.query = query;
+    }
+
+    /**
+     * Constructor for creating an Update object from a typed change
+     * @param insertTime is the time the record was inserted into the 
+     *                   server database
+     * @param operation is the change
+     */
+    public Update(Timestamp insertTime, UpdateOperation operation) {
+        this.insertTime = insertTime;
+        this.operation = operation;
     }
 
     /**
@@ -43,6 +64,41 @@ public class Update implements Serializable {
      * @return the SQL query
      */
     public String getQuery() {
+        if (query == null && operation != null)
+            return operation.toQuery();
         return query;
     }
+
+    /**
+     * Method to get the query as a typed change
+     * @return the change, null if the query is sent as SQL
+     */
+    public UpdateOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Method used to serialize the update. The query is written even when
+     * the operation is kept, so older clients can still run it.
+     * @param out The stream the update is written to
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("insertTime", insertTime);
+        fields.put("query", getQuery());
+        fields.put("operation", operation);
+        out.writeFields();
+    }
+
+    /**
+     * Method used to read a serialized update, only one form of the
+     * change is kept
+     * @param in The stream the update is read from
+     */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (operation != null)
+            query = null;
+    }
 }
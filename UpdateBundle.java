@@ -0,0 +1,100 @@
+import java.io.*;
+import java.sql.*;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * This class holds the updates between two update versions, shared by
+ * all clients that synchronize from the same version. The pages sent
+ * during a paged synchronization are built and encoded once for each
+ * page size.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class UpdateBundle {
+
+    //The update version of the log when the updates were read
+    private Timestamp logVersion;
+
+    //The Update objects in insert time order, never changed
+    private Vector updates;
+
+    //The encoded pages, a Vector of UpdatePage keyed by page size
+    private Hashtable pages = new Hashtable();
+
+    /**
+     * Constructor
+     * @param logVersion The update version of the log when the updates
+     * were read
+     * @param updates The Update objects in insert time order
+     */
+    public UpdateBundle(Timestamp logVersion, Vector updates) {
+        this.logVersion = logVersion;
+        this.updates = updates;
+    }
+
+    /**
+     * Method used to get the update version of the log
+     * @return The insert time of the newest update in the log, null if
+     * the log is empty
+     */
+    public Timestamp getLogVersion() {
+        return logVersion;
+    }
+
+    /**
+     * Method used to get the updates
+     * @return The Update objects in insert time order, must not be
+     * changed
+     */
+    public Vector getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Method used to get the updates in encoded pages. Updates with the
+     * same insert time are kept in the same page.
+     * @param pageSize The number of updates in a page
+     * @return A Vector of UpdatePage, the last one marked as last
+     */
+    public synchronized Vector getPages(int pageSize) throws IOException {
+
+        Integer key = new Integer(pageSize);
+        Vector bundlePages = (Vector) pages.get(key);
+        if (bundlePages != null)
+            return bundlePages;
+
+        bundlePages = new Vector();
+        Vector page = new Vector();
+        Timestamp last = null;
+
+        for (int i = 0; i < updates.size(); i++) {
+            Update u = (Update) updates.elementAt(i);
+            if (page.size() >= pageSize && !u.getInsertTime().equals(last)) {
+                bundlePages.add(encode(bundlePages.size(), page, false));
+                page = new Vector();
+            }
+            page.add(u);
+            last = u.getInsertTime();
+        }
+        bundlePages.add(encode(bundlePages.size(), page, true));
+
+        pages.put(key, bundlePages);
+        return bundlePages;
+    }
+
+    /**
+     * Method used to create an encoded page
+     * @param pageNumber The number of the page
+     * @param page The updates of the page
+     * @param last true if this is the last page
+     * @return The page
+     */
+    private UpdatePage encode(int pageNumber, Vector page, boolean last)
+        throws IOException {
+        UpdatePage updatePage = new UpdatePage(pageNumber, page, last, false);
+        updatePage.encode();
+        return updatePage;
+    }
+}
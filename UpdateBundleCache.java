@@ -0,0 +1,161 @@
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache at the server of the updates sent to the clients, so that the
+ * clients synchronizing from the same update version share one read of
+ * the update log. A bundle is keyed by the version the client has, and
+ * is only used while the log is at the version the bundle was read at;
+ * when new updates arrive every bundle is dropped. The least recently
+ * used bundle is dropped when the cache is full.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class UpdateBundleCache {
+
+    //The largest number of bundles kept
+    private final int MAX_BUNDLES = 16;
+
+    //The largest number of updates in a bundle that is kept
+    private final int MAX_UPDATES = 20000;
+
+    //The cache shared by all sessions in this process
+    private static UpdateBundleCache instance = null;
+
+    //The bundles keyed by the version of the clients, in access order
+    private LinkedHashMap bundles;
+
+    //The update version of the log the bundles were read at
+    private Timestamp logVersion = null;
+
+    //The number of lookups that found and did not find a bundle
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Constructor
+     */
+    private UpdateBundleCache() {
+        bundles = new LinkedHashMap(MAX_BUNDLES, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_BUNDLES;
+            }
+        };
+    }
+
+    /**
+     * Method used to get the cache shared by all sessions
+     * @return The cache
+     */
+    public static synchronized UpdateBundleCache getInstance() {
+        if (instance == null)
+            instance = new UpdateBundleCache();
+        return instance;
+    }
+
+    /**
+     * Method used to get the update version of the log, the insert time
+     * of the newest update
+     * @param dbcon is the reference to the server database
+     * @return The update version, null if the log is empty
+     */
+    public static Timestamp getLogVersion(DB2Connect dbcon)
+        throws SQLException {
+
+        Timestamp version = null;
+        String[] tables = { "CURRENT_UPDATES", "HISTORY" };
+
+        for (int i = 0; i < tables.length && version == null; i++) {
+            ResultSet resultSet = dbcon.dbQuery("SELECT MAX(INSERT_TIME) " +
+                    "FROM EPR." + tables[i]);
+            try {
+                if (resultSet.next())
+                    version = resultSet.getTimestamp(1);
+            } finally {
+                resultSet.close();
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Method used to get the bundle for a client
+     * @param clientVersion The update version of the client, empty for
+     * a first time synchronization
+     * @param version The update version of the log now
+     * @return The bundle, null if there is none for this log version
+     */
+    public synchronized UpdateBundle get(String clientVersion,
+            Timestamp version) {
+
+        //New updates have arrived, every bundle is out of date
+        if (!sameVersion(version, logVersion)) {
+            bundles.clear();
+            logVersion = version;
+        }
+
+        UpdateBundle bundle = (UpdateBundle) bundles.get(clientVersion);
+        if (bundle == null)
+            misses++;
+        else
+            hits++;
+        return bundle;
+    }
+
+    /**
+     * Method used to keep a bundle. A bundle read at another log version
+     * than the current is not kept.
+     * @param clientVersion The update version of the client, empty for
+     * a first time synchronization
+     * @param bundle The bundle
+     */
+    public synchronized void put(String clientVersion, UpdateBundle bundle) {
+        if (bundle.getUpdates().size() <= MAX_UPDATES &&
+                sameVersion(bundle.getLogVersion(), logVersion))
+            bundles.put(clientVersion, bundle);
+    }
+
+    /**
+     * Method used to drop every bundle, used when the log is changed
+     * without new updates, like when it is compacted
+     */
+    public synchronized void clear() {
+        bundles.clear();
+    }
+
+    /**
+     * Method used to get the largest number of updates in a bundle
+     * that is kept
+     * @return The number of updates
+     */
+    public int getMaxUpdates() {
+        return MAX_UPDATES;
+    }
+
+    /**
+     * Method used to get the number of lookups that found a bundle
+     * @return The number of hits
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Method used to get the number of lookups that did not find a
+     * bundle
+     * @return The number of misses
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Method used to compare two update versions
+     * @return true if both are null or equal
+     */
+    private boolean sameVersion(Timestamp a, Timestamp b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
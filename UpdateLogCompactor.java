@@ -0,0 +1,503 @@
+import java.sql.*;
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.regex.*;
+
+/**
+ * Background thread at the server that keeps the update log small. The
+ * log is HISTORY followed by CURRENT_UPDATES, and every synchronization
+ * reads the part of it the client does not have.
+ *
+ * A pass reads the log from the newest update to the oldest and
+ * remembers, for each row targeted by a simple statement, which columns
+ * later updates set and if the row is deleted later. A simple statement
+ * is an UPDATE that only sets columns to literals, or a DELETE, with
+ * the WHERE clause KEY = literal. An older UPDATE of the same row is
+ * then removed if all its columns are set again later or the row is
+ * deleted, and rewritten to the columns that are left if only some of
+ * them are. Any other statement on a table, like an INSERT or an
+ * UPDATE of a column used in a WHERE clause, makes the pass forget what
+ * it knows about the table, and a statement it can not read makes it
+ * forget everything. Only strictly later updates supersede an older
+ * one, since the clients order the updates by insert time only.
+ *
+ * The updates in CURRENT_UPDATES that every client has are then moved
+ * to HISTORY.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class UpdateLogCompactor implements Runnable {
+
+    //Time in ms to wait for a database connection
+    private final long DB_TIMEOUT = 60 * 1000;
+
+    //The number of changes written in one batch
+    private final int BATCH_SIZE = 500;
+
+    //A literal value in a statement
+    private static final String LITERAL =
+        "('(?:[^']|'')*'|-?[0-9]+(?:\\.[0-9]+)?|NULL|" +
+        "CURRENT (?:TIMESTAMP|DATE|TIME))";
+
+    //UPDATE EPR.table SET assignments WHERE column = literal
+    private static final Pattern UPDATE = Pattern.compile(
+            "\\s*UPDATE\\s+EPR\\.(\\w+)\\s+SET\\s+(.+?)\\s+WHERE\\s+" +
+            "(\\w+)\\s*=\\s*" + LITERAL + "\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    //DELETE FROM EPR.table WHERE column = literal
+    private static final Pattern DELETE = Pattern.compile(
+            "\\s*DELETE\\s+FROM\\s+EPR\\.(\\w+)\\s+WHERE\\s+" +
+            "(\\w+)\\s*=\\s*" + LITERAL + "\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    //One assignment, column = literal, followed by a comma or the end
+    private static final Pattern ASSIGNMENT = Pattern.compile(
+            "\\s*(\\w+)\\s*=\\s*" + LITERAL + "\\s*(,|$)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    //The table any other statement changes
+    private static final Pattern TABLE = Pattern.compile(
+            "\\s*(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+EPR\\.(\\w+)",
+            Pattern.CASE_INSENSITIVE);
+
+    //The database connections of the server
+    private DB2ConnectPool pool;
+
+    //Time in ms between two passes
+    private long interval;
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //Set when the thread is stopped
+    private boolean stopped = false;
+
+    //Updates removed, rewritten and moved to HISTORY since the start
+    private long removed = 0;
+    private long rewritten = 0;
+    private long moved = 0;
+
+    /**
+     * Constructor, starts the background thread which makes the first
+     * pass at once
+     * @param pool The database connections of the server
+     * @param interval Time in ms between two passes
+     * @param lgHandler Reference to the LogHandler object
+     */
+    public UpdateLogCompactor(DB2ConnectPool pool, long interval,
+            LogHandler lgHandler) {
+
+        this.pool = pool;
+        this.interval = interval;
+        this.lgHandler = lgHandler;
+
+        new Thread(this).start();
+    }
+
+    /**
+     * Method used to stop the background thread
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Background thread, used to make a pass and wait for the next
+     */
+    public void run() {
+
+        while (true) {
+            try {
+                DB2Connect db2 = pool.acquire(DB_TIMEOUT);
+                try {
+                    compact(db2);
+                } finally {
+                    pool.release(db2);
+                }
+            } catch (SQLException sql) {
+                lgHandler.addLog(new Log(sql.getMessage(),
+                            "UpdateLogCompactor/run",
+                            "Failed to compact the update log"));
+            } catch (InterruptedException ie) {
+                lgHandler.addLog(new Log(ie.getMessage(),
+                            "UpdateLogCompactor/run",
+                            "InterruptedException"));
+                return;
+            }
+
+            synchronized (this) {
+                try {
+                    if (!stopped)
+                        wait(interval);
+                } catch (InterruptedException ie) {
+                    lgHandler.addLog(new Log(ie.getMessage(),
+                                "UpdateLogCompactor/run",
+                                "InterruptedException"));
+                    return;
+                }
+                if (stopped)
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Method used to make one pass over the update log. The changes are
+     * written in one transaction.
+     * @param db2 is the reference to the server database
+     */
+    public void compact(DB2Connect db2) throws SQLException {
+
+        //Rows of the log to remove and to rewrite, as Object[] of
+        //table, insert time, query and the new query
+        Vector changes = new Vector();
+
+        //What later updates do to each table, keyed by table name
+        Hashtable tables = new Hashtable();
+
+        String[] logTables = { "CURRENT_UPDATES", "HISTORY" };
+        for (int i = 0; i < logTables.length; i++) {
+            ResultSet resultSet = db2.dbQuery("SELECT INSERT_TIME, QUERY " +
+                    "FROM EPR." + logTables[i] +
+                    " ORDER BY INSERT_TIME DESC");
+            try {
+                while (resultSet.next())
+                    scan(logTables[i], resultSet.getTimestamp(1),
+                            resultSet.getString(2), tables, changes);
+            } finally {
+                resultSet.close();
+            }
+        }
+
+        boolean committed = false;
+        int removedNow = 0;
+        int rewrittenNow = 0;
+        int movedNow = 0;
+
+        db2.setAutoCommit(false);
+        try {
+            for (int i = 0; i < logTables.length; i++) {
+                PreparedStatement delete = db2.prepareStatement(
+                        "DELETE FROM EPR." + logTables[i] +
+                        " WHERE INSERT_TIME = ? AND QUERY = ?");
+                PreparedStatement rewrite = db2.prepareStatement(
+                        "UPDATE EPR." + logTables[i] + " SET QUERY = ? " +
+                        "WHERE INSERT_TIME = ? AND QUERY = ?");
+                try {
+                    int batched = 0;
+                    for (int c = 0; c < changes.size(); c++) {
+                        Object[] change = (Object[]) changes.elementAt(c);
+                        if (!logTables[i].equals(change[0]))
+                            continue;
+
+                        if (change[3] == null) {
+                            delete.setTimestamp(1, (Timestamp) change[1]);
+                            delete.setString(2, (String) change[2]);
+                            delete.addBatch();
+                            removedNow++;
+                        } else {
+                            rewrite.setString(1, (String) change[3]);
+                            rewrite.setTimestamp(2, (Timestamp) change[1]);
+                            rewrite.setString(3, (String) change[2]);
+                            rewrite.addBatch();
+                            rewrittenNow++;
+                        }
+
+                        if (++batched % BATCH_SIZE == 0) {
+                            delete.executeBatch();
+                            rewrite.executeBatch();
+                        }
+                    }
+                    delete.executeBatch();
+                    rewrite.executeBatch();
+                } finally {
+                    delete.close();
+                    rewrite.close();
+                }
+            }
+
+            movedNow = moveToHistory(db2);
+
+            db2.commit();
+            committed = true;
+
+            //The cached updates are not the rows of the log any more
+            if (removedNow + rewrittenNow > 0)
+                UpdateBundleCache.getInstance().clear();
+        } finally {
+            try {
+                if (!committed)
+                    db2.rollback();
+            } finally {
+                db2.setAutoCommit(true);
+            }
+        }
+
+        synchronized (this) {
+            removed += removedNow;
+            rewritten += rewrittenNow;
+            moved += movedNow;
+        }
+    }
+
+    /**
+     * Method used to look at one update, from the newest to the oldest
+     * @param logTable The table the update is stored in
+     * @param insertTime The insert time of the update
+     * @param query The SQL query of the update
+     * @param tables What later updates do to each table
+     * @param changes The rows of the log to remove or rewrite
+     */
+    private void scan(String logTable, Timestamp insertTime, String query,
+            Hashtable tables, Vector changes) {
+
+        Matcher m = UPDATE.matcher(query);
+        if (m.matches()) {
+            String table = m.group(1).toUpperCase();
+            String keyColumn = m.group(3).toUpperCase();
+            Vector assignments = parseAssignments(m.group(2));
+
+            if (assignments != null &&
+                    !setsKeyColumn(tables, table, keyColumn, assignments)) {
+                RowState row = getTable(tables, table).getRow(keyColumn,
+                        m.group(4));
+
+                //The row is deleted by a later update
+                if (row.deleteTime != null &&
+                        row.deleteTime.after(insertTime)) {
+                    changes.add(new Object[] { logTable, insertTime, query,
+                            null });
+                    return;
+                }
+
+                //Keep the assignments not set again by a later update
+                Vector left = new Vector();
+                for (int i = 0; i < assignments.size(); i++) {
+                    String[] a = (String[]) assignments.elementAt(i);
+                    Timestamp later = (Timestamp) row.columns.get(a[0]);
+                    if (later == null || !later.after(insertTime))
+                        left.add(a);
+                }
+
+                if (left.size() == 0)
+                    changes.add(new Object[] { logTable, insertTime, query,
+                            null });
+                else if (left.size() < assignments.size())
+                    changes.add(new Object[] { logTable, insertTime, query,
+                            rebuild(m, left) });
+
+                for (int i = 0; i < left.size(); i++)
+                    row.columns.put(((String[]) left.elementAt(i))[0],
+                            insertTime);
+                return;
+            }
+        }
+
+        m = DELETE.matcher(query);
+        if (m.matches()) {
+            RowState row = getTable(tables, m.group(1).toUpperCase())
+                .getRow(m.group(2).toUpperCase(), m.group(3));
+            row.deleteTime = insertTime;
+            row.columns.clear();
+            return;
+        }
+
+        //Any other statement may touch every row of its table
+        m = TABLE.matcher(query);
+        if (m.lookingAt())
+            tables.remove(m.group(1).toUpperCase());
+        else
+            tables.clear();
+    }
+
+    /**
+     * Method used to check if an UPDATE sets a column used in a WHERE
+     * clause, which changes the rows the WHERE clauses select
+     * @param tables What later updates do to each table
+     * @param table The table name
+     * @param keyColumn The column in the WHERE clause of the UPDATE
+     * @param assignments The assignments of the UPDATE
+     * @return true if a column used in a WHERE clause is set
+     */
+    private boolean setsKeyColumn(Hashtable tables, String table,
+            String keyColumn, Vector assignments) {
+
+        TableState state = (TableState) tables.get(table);
+        for (int i = 0; i < assignments.size(); i++) {
+            String column = ((String[]) assignments.elementAt(i))[0];
+            if (column.equals(keyColumn) ||
+                    (state != null && state.keyColumns.containsKey(column)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Method used to split the SET part of an UPDATE into assignments
+     * @param set The SET part
+     * @return A Vector of String[] with column name and literal, null if
+     * an assignment is not a column set to a literal
+     */
+    private Vector parseAssignments(String set) {
+
+        Vector assignments = new Vector();
+        Matcher m = ASSIGNMENT.matcher(set);
+        int pos = 0;
+
+        while (pos < set.length()) {
+            if (!m.find(pos) || m.start() != pos)
+                return null;
+            assignments.add(new String[] { m.group(1).toUpperCase(),
+                    m.group(2) });
+            pos = m.end();
+            if (m.group(3).length() == 0)
+                break;
+        }
+        return pos == set.length() ? assignments : null;
+    }
+
+    /**
+     * Method used to build an UPDATE with some of its assignments
+     * @param m The matched UPDATE
+     * @param assignments The assignments to keep
+     * @return The SQL query
+     */
+    private String rebuild(Matcher m, Vector assignments) {
+        StringBuffer query = new StringBuffer("UPDATE EPR.");
+        query.append(m.group(1)).append(" SET ");
+        for (int i = 0; i < assignments.size(); i++) {
+            String[] a = (String[]) assignments.elementAt(i);
+            if (i > 0)
+                query.append(", ");
+            query.append(a[0]).append(" = ").append(a[1]);
+        }
+        query.append(" WHERE ").append(m.group(3)).append(" = ")
+            .append(m.group(4));
+        return query.toString();
+    }
+
+    /**
+     * Method used to get what later updates do to a table
+     * @param tables What later updates do to each table
+     * @param table The table name
+     * @return The state of the table
+     */
+    private TableState getTable(Hashtable tables, String table) {
+        TableState state = (TableState) tables.get(table);
+        if (state == null) {
+            state = new TableState();
+            tables.put(table, state);
+        }
+        return state;
+    }
+
+    /**
+     * Method used to move the updates every client has to HISTORY
+     * @param db2 is the reference to the server database
+     * @return The number of updates moved
+     */
+    private int moveToHistory(DB2Connect db2) throws SQLException {
+
+        Timestamp oldest = null;
+        ResultSet resultSet = db2.dbQuery("SELECT MIN(LAST_UPDATE) " +
+                "FROM EPR.AMBULANCE_LAST_UPDATE");
+        try {
+            if (resultSet.next())
+                oldest = resultSet.getTimestamp(1);
+        } finally {
+            resultSet.close();
+        }
+
+        //A client that has never synchronized needs everything
+        if (oldest == null)
+            return 0;
+
+        PreparedStatement ps = db2.prepareStatement("INSERT INTO " +
+                "EPR.HISTORY (INSERT_TIME, QUERY) SELECT INSERT_TIME, QUERY " +
+                "FROM EPR.CURRENT_UPDATES WHERE INSERT_TIME <= ?");
+        try {
+            ps.setTimestamp(1, oldest);
+            ps.executeUpdate();
+        } finally {
+            ps.close();
+        }
+
+        ps = db2.prepareStatement("DELETE FROM EPR.CURRENT_UPDATES " +
+                "WHERE INSERT_TIME <= ?");
+        try {
+            ps.setTimestamp(1, oldest);
+            return ps.executeUpdate();
+        } finally {
+            ps.close();
+        }
+    }
+
+    /**
+     * Method used to get the number of updates removed since the start
+     * @return The number of updates
+     */
+    public synchronized long getRemovedCount() {
+        return removed;
+    }
+
+    /**
+     * Method used to get the number of updates rewritten since the start
+     * @return The number of updates
+     */
+    public synchronized long getRewrittenCount() {
+        return rewritten;
+    }
+
+    /**
+     * Method used to get the number of updates moved to HISTORY since
+     * the start
+     * @return The number of updates
+     */
+    public synchronized long getMovedCount() {
+        return moved;
+    }
+
+    /**
+     * What the later updates do to the rows of one table
+     */
+    private static class TableState {
+
+        //The state of each row, keyed by the WHERE clause
+        public Hashtable rows = new Hashtable();
+
+        //The columns used in the WHERE clauses
+        public Hashtable keyColumns = new Hashtable();
+
+        /**
+         * Method used to get the state of a row
+         * @param keyColumn The column in the WHERE clause
+         * @param value The literal in the WHERE clause
+         * @return The state of the row
+         */
+        public RowState getRow(String keyColumn, String value) {
+            keyColumns.put(keyColumn, keyColumn);
+            String where = keyColumn + " = " + value;
+            RowState row = (RowState) rows.get(where);
+            if (row == null) {
+                row = new RowState();
+                rows.put(where, row);
+            }
+            return row;
+        }
+    }
+
+    /**
+     * What the later updates do to one row
+     */
+    private static class RowState {
+
+        //The insert time of the oldest later update setting each column
+        public Hashtable columns = new Hashtable();
+
+        //The insert time of the later delete, null if none
+        public Timestamp deleteTime = null;
+    }
+}
@@ -0,0 +1,181 @@
+import java.sql.*;
+
+/**
+ * Background thread at the server that watches the update version of
+ * the update log for the clients waiting in an UpdateWatch. One query
+ * every poll interval serves all waiting clients, and no queries are
+ * made while no client waits. The sessions holding a watch look at the
+ * version read last, no thread waits for a client.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class UpdateNotifier implements Runnable {
+
+    //Time in ms to wait for a database connection
+    private final long DB_TIMEOUT = 60 * 1000;
+
+    //The longest time in ms a client is held
+    private final long MAX_WAIT = 10 * 60 * 1000;
+
+    //The database connections of the server
+    private DB2ConnectPool pool;
+
+    //Time in ms between two reads of the update version
+    private long pollInterval;
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //The update version read last, null if it is not read yet
+    private Timestamp version = null;
+
+    //The number of clients waiting
+    private int waiting = 0;
+
+    //Set when the thread is stopped
+    private boolean stopped = false;
+
+    /**
+     * Constructor, starts the background thread
+     * @param pool The database connections of the server
+     * @param pollInterval Time in ms between two reads of the update
+     * version while clients wait
+     * @param lgHandler Reference to the LogHandler object
+     */
+    public UpdateNotifier(DB2ConnectPool pool, long pollInterval,
+            LogHandler lgHandler) {
+
+        this.pool = pool;
+        this.pollInterval = pollInterval;
+        this.lgHandler = lgHandler;
+
+        Thread thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method used to stop the background thread. Waiting clients are
+     * answered when their timeout has passed.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Method used by a session when it starts to hold an UpdateWatch
+     * @param timeout The time in ms the client asked to be held
+     * @return The time in ms when the client is answered at the latest
+     */
+    public synchronized long startWatch(long timeout) {
+
+        waiting++;
+
+        //Wake the background thread if it waits for a client
+        notifyAll();
+
+        return System.currentTimeMillis() +
+            Math.min(Math.max(timeout, 0), MAX_WAIT);
+    }
+
+    /**
+     * Method used by a session when its UpdateWatch is answered or the
+     * session has ended
+     */
+    public synchronized void endWatch() {
+        waiting--;
+    }
+
+    /**
+     * Method used to tell if the update version is newer than the version
+     * of a client
+     * @param clientVersion The update version of the client, null if the
+     * client has not synchronized yet
+     * @return true if the client has updates to fetch
+     */
+    public synchronized boolean isChanged(Timestamp clientVersion) {
+        return isNewer(version, clientVersion);
+    }
+
+    /**
+     * Method used to get the update version read last
+     * @return The update version of the server, null if it is not known
+     */
+    public synchronized Timestamp getVersion() {
+        return version;
+    }
+
+    /**
+     * Method used to get the number of clients waiting
+     * @return The number of clients
+     */
+    public synchronized int getWaitingCount() {
+        return waiting;
+    }
+
+    /**
+     * Method used to compare two update versions
+     * @return true if the server version is newer than the client version
+     */
+    private boolean isNewer(Timestamp serverVersion, Timestamp clientVersion) {
+        return serverVersion != null && (clientVersion == null ||
+                serverVersion.after(clientVersion));
+    }
+
+    /**
+     * Background thread, used to read the update version while clients
+     * wait
+     */
+    public void run() {
+
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (waiting == 0 && !stopped)
+                        wait();
+                } catch (InterruptedException ie) {
+                    lgHandler.addLog(new Log(ie.getMessage(),
+                                "UpdateNotifier/run",
+                                "InterruptedException"));
+                    return;
+                }
+                if (stopped)
+                    return;
+            }
+
+            try {
+                DB2Connect db2 = pool.acquire(DB_TIMEOUT);
+                try {
+                    Timestamp read = UpdateBundleCache.getLogVersion(db2);
+                    synchronized (this) {
+                        version = read;
+                    }
+                } finally {
+                    pool.release(db2);
+                }
+            } catch (SQLException sql) {
+                lgHandler.addLog(new Log(sql.getMessage(),
+                            "UpdateNotifier/run",
+                            "Failed to read the update version"));
+            } catch (InterruptedException ie) {
+                lgHandler.addLog(new Log(ie.getMessage(),
+                            "UpdateNotifier/run", "InterruptedException"));
+                return;
+            }
+
+            synchronized (this) {
+                try {
+                    if (!stopped)
+                        wait(pollInterval);
+                } catch (InterruptedException ie) {
+                    lgHandler.addLog(new Log(ie.getMessage(),
+                                "UpdateNotifier/run",
+                                "InterruptedException"));
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,584 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.Vector;
+
+/**
+ * This class represent an update from the server as a typed change
+ * instead of an SQL string: the table, the columns and values that are
+ * set and the key columns and values of the row. The client runs it
+ * through a PreparedStatement that is shared by all changes with the
+ * same table and columns, so the statements are only prepared once and
+ * can be run as a JDBC batch.
+ *
+ * Only the simple statements the server writes to the update log are
+ * read: INSERT INTO EPR.table [(columns)] VALUES (literals), UPDATE
+ * EPR.table SET column = literal, ... WHERE key = literal [AND ...] and
+ * DELETE FROM EPR.table WHERE key = literal [AND ...]. A literal is a
+ * string, a number or NULL. Any other statement is sent as SQL.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class UpdateOperation implements Serializable {
+
+    //Version of the serialized form
+    private static final long serialVersionUID = 6488243473083818067L;
+
+    //The kinds of change
+    public static final int INSERT = 1;
+    public static final int UPDATE = 2;
+    public static final int DELETE = 3;
+
+    //The codes of the values in the binary format
+    private static final int NULL_VALUE = 0;
+    private static final int STRING_VALUE = 1;
+    private static final int NUMBER_VALUE = 2;
+
+    private int type;
+    private String table;
+
+    //The columns set, null for an INSERT without a column list
+    private String[] columns;
+
+    //The values set, a String, a BigDecimal or null
+    private Object[] values;
+
+    //The key columns and values in the WHERE clause
+    private String[] keys;
+    private Object[] keyValues;
+
+    //The statement with parameter markers, built when first used
+    private transient String sql = null;
+
+    /**
+     * Constructor used for serialization
+     */
+    public UpdateOperation() { }
+
+    /**
+     * Constructor used to create a change
+     * @param type INSERT, UPDATE or DELETE
+     * @param table The table name without the schema
+     * @param columns The columns set, null for an INSERT of all columns
+     * @param values The values set
+     * @param keys The key columns
+     * @param keyValues The key values
+     */
+    public UpdateOperation(int type, String table, String[] columns,
+            Object[] values, String[] keys, Object[] keyValues) {
+        this.type = type;
+        this.table = table;
+        this.columns = columns;
+        this.values = values;
+        this.keys = keys;
+        this.keyValues = keyValues;
+    }
+
+    /**
+     * Method used to read an SQL statement from the update log
+     * @param query The statement
+     * @return The change, null if the statement is not a simple one
+     */
+    public static UpdateOperation parse(String query) {
+
+        if (query == null)
+            return null;
+
+        Vector tokens = tokenize(query);
+        if (tokens == null)
+            return null;
+
+        int[] pos = { 0 };
+        UpdateOperation op = null;
+
+        if (word(tokens, pos, "INSERT") && word(tokens, pos, "INTO"))
+            op = parseInsert(tokens, pos);
+        else {
+            pos[0] = 0;
+            if (word(tokens, pos, "UPDATE"))
+                op = parseUpdate(tokens, pos);
+            else if (word(tokens, pos, "DELETE") && word(tokens, pos, "FROM"))
+                op = parseDelete(tokens, pos);
+        }
+
+        //Anything after the statement is not read
+        if (op == null || pos[0] != tokens.size())
+            return null;
+        return op;
+    }
+
+    /**
+     * Method used to read the rest of an INSERT
+     */
+    private static UpdateOperation parseInsert(Vector tokens, int[] pos) {
+
+        String table = tableName(tokens, pos);
+        if (table == null)
+            return null;
+
+        String[] columns = null;
+        if (symbol(tokens, pos, "(")) {
+            Vector list = new Vector();
+            do {
+                String column = name(tokens, pos);
+                if (column == null)
+                    return null;
+                list.add(column);
+            } while (symbol(tokens, pos, ","));
+            if (!symbol(tokens, pos, ")"))
+                return null;
+            columns = (String[]) list.toArray(new String[list.size()]);
+        }
+
+        if (!word(tokens, pos, "VALUES") || !symbol(tokens, pos, "("))
+            return null;
+        Vector values = new Vector();
+        do {
+            if (!literal(tokens, pos, values))
+                return null;
+        } while (symbol(tokens, pos, ","));
+        if (!symbol(tokens, pos, ")"))
+            return null;
+
+        if (columns != null && columns.length != values.size())
+            return null;
+
+        return new UpdateOperation(INSERT, table, columns, values.toArray(),
+                new String[0], new Object[0]);
+    }
+
+    /**
+     * Method used to read the rest of an UPDATE
+     */
+    private static UpdateOperation parseUpdate(Vector tokens, int[] pos) {
+
+        String table = tableName(tokens, pos);
+        if (table == null || !word(tokens, pos, "SET"))
+            return null;
+
+        Vector columns = new Vector();
+        Vector values = new Vector();
+        do {
+            String column = name(tokens, pos);
+            if (column == null || !symbol(tokens, pos, "=") ||
+                    !literal(tokens, pos, values))
+                return null;
+            columns.add(column);
+        } while (symbol(tokens, pos, ","));
+
+        Vector keys = new Vector();
+        Vector keyValues = new Vector();
+        if (!where(tokens, pos, keys, keyValues))
+            return null;
+
+        return new UpdateOperation(UPDATE, table,
+                (String[]) columns.toArray(new String[columns.size()]),
+                values.toArray(),
+                (String[]) keys.toArray(new String[keys.size()]),
+                keyValues.toArray());
+    }
+
+    /**
+     * Method used to read the rest of a DELETE
+     */
+    private static UpdateOperation parseDelete(Vector tokens, int[] pos) {
+
+        String table = tableName(tokens, pos);
+        if (table == null)
+            return null;
+
+        Vector keys = new Vector();
+        Vector keyValues = new Vector();
+        if (!where(tokens, pos, keys, keyValues))
+            return null;
+
+        return new UpdateOperation(DELETE, table, new String[0],
+                new Object[0], (String[]) keys.toArray(new String[keys.size()]),
+                keyValues.toArray());
+    }
+
+    /**
+     * Method used to read WHERE key = literal [AND key = literal ...]. A
+     * key compared with NULL is not read, since it never matches.
+     */
+    private static boolean where(Vector tokens, int[] pos, Vector keys,
+            Vector keyValues) {
+
+        if (!word(tokens, pos, "WHERE"))
+            return false;
+        do {
+            String key = name(tokens, pos);
+            if (key == null || !symbol(tokens, pos, "=") ||
+                    !literal(tokens, pos, keyValues) ||
+                    keyValues.lastElement() == null)
+                return false;
+            keys.add(key);
+        } while (word(tokens, pos, "AND"));
+        return true;
+    }
+
+    /**
+     * Method used to read EPR.table
+     * @return The table name, null if there is none
+     */
+    private static String tableName(Vector tokens, int[] pos) {
+        if (!word(tokens, pos, "EPR") || !symbol(tokens, pos, "."))
+            return null;
+        return name(tokens, pos);
+    }
+
+    /**
+     * Method used to read a column or table name
+     * @return The name in upper case, null if the token is not a name
+     */
+    private static String name(Vector tokens, int[] pos) {
+        if (pos[0] >= tokens.size())
+            return null;
+        String token = (String) tokens.elementAt(pos[0]);
+        if (!Character.isLetter(token.charAt(0)) ||
+                token.equalsIgnoreCase("NULL"))
+            return null;
+        pos[0]++;
+        return token.toUpperCase();
+    }
+
+    /**
+     * Method used to read a keyword
+     * @return true if the next token is the keyword
+     */
+    private static boolean word(Vector tokens, int[] pos, String keyword) {
+        if (pos[0] >= tokens.size() ||
+                !keyword.equalsIgnoreCase((String) tokens.elementAt(pos[0])))
+            return false;
+        pos[0]++;
+        return true;
+    }
+
+    /**
+     * Method used to read a symbol like ( or ,
+     * @return true if the next token is the symbol
+     */
+    private static boolean symbol(Vector tokens, int[] pos, String symbol) {
+        if (pos[0] >= tokens.size() || !symbol.equals(tokens.elementAt(pos[0])))
+            return false;
+        pos[0]++;
+        return true;
+    }
+
+    /**
+     * Method used to read a literal
+     * @param values The Vector the value is added to
+     * @return true if the next token is a literal
+     */
+    private static boolean literal(Vector tokens, int[] pos, Vector values) {
+
+        if (pos[0] >= tokens.size())
+            return false;
+        String token = (String) tokens.elementAt(pos[0]);
+        char c = token.charAt(0);
+
+        if (c == '\'') {
+            //The quotes are removed and doubled quotes made single
+            StringBuffer value = new StringBuffer();
+            for (int i = 1; i < token.length() - 1; i++) {
+                value.append(token.charAt(i));
+                if (token.charAt(i) == '\'')
+                    i++;
+            }
+            values.add(value.toString());
+        } else if (c == '-' || Character.isDigit(c))
+            values.add(new BigDecimal(token));
+        else if (token.equalsIgnoreCase("NULL"))
+            values.add(null);
+        else
+            return false;
+
+        pos[0]++;
+        return true;
+    }
+
+    /**
+     * Method used to split a statement into names, literals and symbols
+     * @param query The statement
+     * @return The tokens, null if the statement has a token that is not
+     * read, like a comment or an operator
+     */
+    private static Vector tokenize(String query) {
+
+        Vector tokens = new Vector();
+        int i = 0;
+        int length = query.length();
+
+        while (i < length) {
+            char c = query.charAt(i);
+            int start = i;
+
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+
+            if (c == '\'') {
+                //A string literal, '' is a quote in the string
+                i++;
+                while (true) {
+                    if (i >= length)
+                        return null;
+                    if (query.charAt(i) == '\'') {
+                        if (i + 1 < length && query.charAt(i + 1) == '\'')
+                            i += 2;
+                        else
+                            break;
+                    } else
+                        i++;
+                }
+                i++;
+            } else if (Character.isLetter(c)) {
+                while (i < length && (Character.isLetterOrDigit(
+                                query.charAt(i)) || query.charAt(i) == '_'))
+                    i++;
+            } else if (Character.isDigit(c) || (c == '-' && i + 1 < length &&
+                        Character.isDigit(query.charAt(i + 1)))) {
+                i++;
+                while (i < length && Character.isDigit(query.charAt(i)))
+                    i++;
+                if (i + 1 < length && query.charAt(i) == '.' &&
+                        Character.isDigit(query.charAt(i + 1))) {
+                    i++;
+                    while (i < length && Character.isDigit(query.charAt(i)))
+                        i++;
+                }
+            } else if ("(),=.".indexOf(c) >= 0)
+                i++;
+            else
+                return null;
+
+            tokens.add(query.substring(start, i));
+        }
+        return tokens;
+    }
+
+    /**
+     * Method used to get the statement with parameter markers. All
+     * changes with the same statement can share a PreparedStatement.
+     * A NULL is written into the statement, not set as a parameter.
+     * @return The statement
+     */
+    public synchronized String getSql() {
+
+        if (sql != null)
+            return sql;
+
+        StringBuffer buf = new StringBuffer();
+
+        switch (type) {
+            case INSERT:
+                buf.append("INSERT INTO EPR.").append(table);
+                if (columns != null) {
+                    buf.append(" (");
+                    for (int i = 0; i < columns.length; i++)
+                        buf.append(i == 0 ? "" : ", ").append(columns[i]);
+                    buf.append(")");
+                }
+                buf.append(" VALUES (");
+                for (int i = 0; i < values.length; i++)
+                    buf.append(i == 0 ? "" : ", ")
+                        .append(values[i] == null ? "NULL" : "?");
+                buf.append(")");
+                break;
+            case UPDATE:
+                buf.append("UPDATE EPR.").append(table).append(" SET ");
+                for (int i = 0; i < columns.length; i++)
+                    buf.append(i == 0 ? "" : ", ").append(columns[i])
+                        .append(values[i] == null ? " = NULL" : " = ?");
+                break;
+            default:
+                buf.append("DELETE FROM EPR.").append(table);
+        }
+
+        for (int i = 0; i < keys.length; i++)
+            buf.append(i == 0 ? " WHERE " : " AND ").append(keys[i])
+                .append(" = ?");
+
+        sql = buf.toString();
+        return sql;
+    }
+
+    /**
+     * Method used to set the values of the change on a PreparedStatement
+     * made from getSql
+     * @param ps The statement
+     */
+    public void setParameters(PreparedStatement ps) throws SQLException {
+
+        int index = 1;
+
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != null)
+                setParameter(ps, index++, values[i]);
+        for (int i = 0; i < keyValues.length; i++)
+            setParameter(ps, index++, keyValues[i]);
+    }
+
+    /**
+     * Method used to set one value
+     */
+    private void setParameter(PreparedStatement ps, int index, Object value)
+        throws SQLException {
+        if (value instanceof BigDecimal)
+            ps.setBigDecimal(index, (BigDecimal) value);
+        else
+            ps.setString(index, (String) value);
+    }
+
+    /**
+     * Method used to get the change as an SQL statement with the values
+     * written as literals
+     * @return The statement
+     */
+    public String toQuery() {
+
+        String statement = getSql();
+        StringBuffer buf = new StringBuffer();
+        int index = 0;
+        Vector parameters = new Vector();
+
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != null)
+                parameters.add(values[i]);
+        for (int i = 0; i < keyValues.length; i++)
+            parameters.add(keyValues[i]);
+
+        for (int i = 0; i < statement.length(); i++) {
+            char c = statement.charAt(i);
+            if (c != '?') {
+                buf.append(c);
+                continue;
+            }
+            Object value = parameters.elementAt(index++);
+            if (value instanceof BigDecimal)
+                buf.append(value);
+            else {
+                buf.append('\'');
+                String s = (String) value;
+                for (int j = 0; j < s.length(); j++) {
+                    if (s.charAt(j) == '\'')
+                        buf.append('\'');
+                    buf.append(s.charAt(j));
+                }
+                buf.append('\'');
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Method used to get the kind of change
+     * @return INSERT, UPDATE or DELETE
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Method used to get the table the change is made in
+     * @return The table name without the schema
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Method used to write the change in the compact binary format
+     * @param out The stream the change is written to
+     */
+    public void writeWire(WireOutput out) throws IOException {
+
+        out.writeUnsigned(type);
+        out.writeString(table);
+
+        out.writeUnsigned(columns == null ? 0 : columns.length + 1);
+        for (int i = 0; columns != null && i < columns.length; i++)
+            out.writeString(columns[i]);
+        writeValues(out, values);
+
+        out.writeUnsigned(keys.length);
+        for (int i = 0; i < keys.length; i++)
+            out.writeString(keys[i]);
+        writeValues(out, keyValues);
+    }
+
+    /**
+     * Method used to read the change from the compact binary format
+     * @param in The stream the change is read from
+     */
+    public void readWire(WireInput in) throws IOException {
+
+        type = in.readLength();
+        if (type < INSERT || type > DELETE)
+            throw new StreamCorruptedException("Change type " + type);
+        table = in.readString();
+        if (table == null)
+            throw new StreamCorruptedException("Change without table");
+
+        int count = in.readLength();
+        columns = count == 0 ? null : new String[count - 1];
+        for (int i = 0; columns != null && i < columns.length; i++)
+            columns[i] = in.readString();
+        values = readValues(in);
+
+        keys = new String[in.readLength()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = in.readString();
+        keyValues = readValues(in);
+
+        if ((columns != null && columns.length != values.length) ||
+                keys.length != keyValues.length)
+            throw new StreamCorruptedException("Change of " + table);
+    }
+
+    /**
+     * Method used to write a list of values
+     */
+    private void writeValues(WireOutput out, Object[] list)
+        throws IOException {
+
+        out.writeUnsigned(list.length);
+        for (int i = 0; i < list.length; i++) {
+            if (list[i] == null)
+                out.writeUnsigned(NULL_VALUE);
+            else if (list[i] instanceof BigDecimal) {
+                out.writeUnsigned(NUMBER_VALUE);
+                out.writeString(list[i].toString());
+            } else {
+                out.writeUnsigned(STRING_VALUE);
+                out.writeString((String) list[i]);
+            }
+        }
+    }
+
+    /**
+     * Method used to read a list of values
+     */
+    private Object[] readValues(WireInput in) throws IOException {
+
+        Object[] list = new Object[in.readLength()];
+        for (int i = 0; i < list.length; i++) {
+            int code = in.readLength();
+            if (code == NULL_VALUE)
+                list[i] = null;
+            else if (code == NUMBER_VALUE) {
+                try {
+                    list[i] = new BigDecimal(in.readString());
+                } catch (RuntimeException re) {
+                    throw new StreamCorruptedException("Number value");
+                }
+            } else if (code == STRING_VALUE)
+                list[i] = in.readString();
+            else
+                throw new StreamCorruptedException("Value code " + code);
+        }
+        return list;
+    }
+}
@@ -1,5 +1,7 @@
 import java.io.*;
 import java.sql.*;
+import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
 /**
@@ -17,6 +19,26 @@ import java.util.Vector;
  */
 public class UpdatePacket implements Serializable {
 
+    //Version of the serialized form
+    private static final long serialVersionUID = 29136106498768519L;
+
+    //The largest number of updates applied in one transaction
+    private static final int CHUNK_SIZE = 500;
+
+    //SQLState of an update that is already applied
+    private static final String DUPLICATE_KEY = "23505";
+
+    //The tables the updates are read from, in the order they are sent
+    private static final String[] UPDATE_TABLES = {
+        "HISTORY", "CURRENT_UPDATES" };
+
+    //The number of pages the server sends ahead of the acknowledgements
+    private static final int PAGE_WINDOW = 2;
+
+    //Longest time in ms the pages are read from the update log, the
+    //client gets the rest with its next synchronization
+    private static final long PAGE_TIME = 5 * 60 * 1000;
+
     private String clientId;
     private String serverMessage = "";
     private Timestamp clientUpdateTime = null;
@@ -25,6 +47,17 @@ public class UpdatePacket implements Serializable {
     private String message;
     private boolean updateFailed = false;
     private Vector blockedUsers;
+    private int pageSize = 0;
+    private boolean paged = false;
+    private int updateCount = 0;
+    private boolean acceptSnapshot = false;
+    private ReferenceSnapshot snapshot = null;
+
+    //The last page the client has acknowledged, used by the server
+    private transient int ackedPage;
+
+    //The shared updates sent to the client, null if not cached
+    private transient UpdateBundle bundle = null;
 
     /**
      * Constructor used for serialization
@@ -60,14 +93,21 @@ public class UpdatePacket implements Serializable {
         resultSet = dbcon.dbQuery(query);
 
         //Store blocked users 
+        StringBuffer ids = new StringBuffer();
         while (resultSet.next()) {
             userId = resultSet.getInt("USER_ID");
             blockedUsers.add(new Integer(userId));
+            ids.append(ids.length() == 0 ? "" : ", ").append(userId);
         }
+        resultSet.close();
 
-        query = "DELETE FROM EPR.BLOCKED_USERS WHERE " +
-            "FAILED_ATTEMPTS >= 3";
-        dbcon.dbQueryUpdate (query);
+        /*Only the users read are deleted, a user blocked after the
+          query is sent with the next update*/
+        if (blockedUsers.size() > 0) {
+            query = "DELETE FROM EPR.BLOCKED_USERS WHERE " +
+                "USER_ID IN (" + ids + ")";
+            dbcon.dbQueryUpdate (query);
+        }
     }
 
     /** 
@@ -77,145 +117,14 @@ public class UpdatePacket implements Serializable {
     public void readUpdates(DB2Connect dbcon, LogHandler lgHandler) {
 
         updates = new Vector();
-        Integer userId;
         ResultSet resultSet;
         String query;
         Timestamp ts;
         Log log;
 
         //If there are any blocked users
-        for (int i = 0; i < blockedUsers.size(); i++) {
-
-            userId = (Integer) blockedUsers.elementAt(i);
-
-            try {
-
-                //Check to see if the user is already blocked
-                query = "SELECT * FROM EPR.STAFF WHERE " +
-                    "STAFF_ID = " + userId.intValue() + " AND " +
-                    "DISABLE = 1";
-
-                resultSet = dbcon.dbQuery(query);
-
-                if (resultSet.next()) {
-                    serverMessage = "Användaren " + 
-                        resultSet.getString("FIRST_NAME") + " " + 
-                        resultSet.getString("LAST_NAME") + 
-                        " är redan blockerad\n";
-                    continue;
-                }
-            } catch (SQLException sql) {
-                serverMessage = serverMessage + "Fel hos server. " +
-                    "Kunde inte slå upp blockerade användare.\n" +
-                    "Användare ID = " + userId.intValue() + " " +
-                    sql.getMessage() + "\n";
-
-                log = new Log(sql.getMessage(), 
-                        "UpdatePacket/readUpdates",
-                        "Failed to block user-id = " + userId.intValue());
-                lgHandler.addLog(log);
-
-                continue;
-            }
-
-            try {
-
-                query = "SELECT * FROM EPR.STAFF WHERE " +
-                    "STAFF_ID = " + userId.intValue();
-
-                resultSet = dbcon.dbQuery(query);
-                resultSet.next();
-
-                //Block the user at server     
-                query = "UPDATE EPR.STAFF SET DISABLE = 1 " +
-                    "WHERE STAFF_ID = " + userId.intValue();
-
-                dbcon.dbQueryUpdate (query);
-            } catch (SQLException sql) {
-                try {
-                    serverMessage = serverMessage + "Användaren " + 
-                        resultSet.getString("FIRST_NAME") + " " + 
-                        resultSet.getString("LAST_NAME") + 
-                        " kunde inte blockeras.\n" + sql.getMessage() +
-                        "\n";
-
-                    log = new Log(sql.getMessage(),
-                            "UpdatePacket/readUpdates",
-                            "Failed to block " + 
-                            resultSet.getString("FIRST_NAME") +
-                            resultSet.getString("LAST_NAME"));
-                    lgHandler.addLog(log);
-
-                    continue;
-                } catch (SQLException sql2) {
-                    serverMessage = serverMessage + sql2.getMessage() + "\n";
-
-                    log = new Log(sql2.getMessage(),
-                            "UpdatePacket/readUpdates",
-                            "Failed to read first or last name");
-                    lgHandler.addLog(log);
-
-                    continue;
-                }
-            }
-
-            try {
-
-                //Insert this query into the CURRENT_UPDATES 
-                query = "INSERT INTO EPR.CURRENT_UPDATES (INSERT_TIME, " +
-                    "QUERY) VALUES (CURRENT TIMESTAMP, '" +
-                    "UPDATE EPR.STAFF SET DISABLE = 1 " +
-                    "WHERE STAFF_ID = " + userId.intValue() + "')";
-
-                dbcon.dbQueryUpdate (query);
-            } catch (SQLException sql) {
-                try {
-                    serverMessage = serverMessage + "Server Fel.\n" +
-                        "Andra klienter kommer ej kunna få denna " +
-                        "updatering. Kontakta administratören!\n" +
-                        "Ärendet gäller användare \n" + 
-                        resultSet.getString("FIRST_NAME") + " " + 
-                        resultSet.getString("LAST_NAME") + 
-                        "med användar Id = " + userId.intValue() + "\n" +
-                        sql.getMessage() + "\n";
-
-                    log = new Log(sql.getMessage(),
-                            "UpdatePacket/readUpdates",
-                            "Failed to insert the blocked user into "+
-                            "CURRENT_UPDATES table, user: " +
-                            resultSet.getString("FIRST_NAME") + " " +
-                            resultSet.getString("LAST_NAME"));
-                    lgHandler.addLog(log);
-
-                    continue;
-                } catch (SQLException sql2) {
-                    serverMessage = serverMessage + sql2.getMessage() + "\n";
-
-                    log = new Log(sql2.getMessage(),
-                            "UpdatePacket/readUpdates",
-                            "Failed to read first or last name");
-                    lgHandler.addLog(log);
-
-                    continue;
-                }
-            }
-
-            try {
-                serverMessage = serverMessage + "Användaren " + 
-                    resultSet.getString("FIRST_NAME") + " " + 
-                    resultSet.getString("LAST_NAME") + 
-                    " har blockerats.\n";
-            } catch (SQLException sql) {
-                serverMessage = serverMessage + sql.getMessage() + "\n";
-
-                log = new Log(sql.getMessage(), 
-                        "UpdatePacket/readUpdates",
-                        "Failed to read first or last name");
-                lgHandler.addLog(log);
-
-                continue;
-            }
-        }
+        if (blockedUsers.size() > 0)
+            blockUsers(dbcon, lgHandler);
 
         try {
             /*check to see if the client name exist*/
@@ -243,56 +152,8 @@ public class UpdatePacket implements Serializable {
         }
 
 
-        //If it is a first time synchronization
-        if (!regularUpdate) {
-            try {
-                //Check in the HISTORY table to see if there are any updates
-                query = "SELECT * FROM EPR.HISTORY ORDER BY INSERT_TIME";
-
-                resultSet = dbcon.dbQuery(query);
-
-                //If there are any updates in the HISTORY ,take them first
-                while (resultSet.next()) {
-                    ts = resultSet.getTimestamp("INSERT_TIME");
-                    query = resultSet.getString("QUERY");
-                    updates.add(new Update(ts, query));
-                }
-
-                /*Check in the CURRENT_UPDATES table to see if there are
-                  any updates to fetch*/
-                query = "SELECT * FROM EPR.CURRENT_UPDATES ORDER BY " +
-                    "INSERT_TIME";
-
-                resultSet = dbcon.dbQuery(query);
-
-                //If there are not any updates to fetch
-                if (!resultSet.next()) {
-                    message = "Det fanns inga uppdateringar att hämta.";
-                    return;
-                }
-
-                //If there are any updates in the CURRENT_UPDATE, take them
-                do {
-                    ts = resultSet.getTimestamp("INSERT_TIME");
-                    query = resultSet.getString("QUERY");
-                    updates.add(new Update(ts, query));
-                }  while (resultSet.next());
-
-                /*If queries failed, save a log to inform the client 
-                  that updates could not be fetched*/
-            } catch (SQLException sql) {
-                message = "Servern misslyckades med att hämta uppdateringar.";
-
-                log = new Log(sql.getMessage(),
-                        "UpdatePacket/readUpdates",
-                        "Failed to read the updates");
-                lgHandler.addLog(log);
-
-                updateFailed = true;
-                return;
-            }
-            //Otherwise if a regular update is requested
-        } else {
+        //A regular update first checks the version stored at the server
+        if (regularUpdate) {
             try {
                 /*See if the server version is the same as the client
                   version.*/
@@ -326,39 +187,319 @@ public class UpdatePacket implements Serializable {
                 updateFailed = true;
                 return;
             }
+        }
+
+        /*A first time synchronization gets the snapshot of the reference
+          tables, and then only the updates after it*/
+        if (!regularUpdate && acceptSnapshot) {
+            snapshot = ReferenceSnapshot.getCurrent();
+            if (snapshot != null && snapshot.getVersion() != null) {
+                clientUpdateTime = snapshot.getVersion();
+                regularUpdate = true;
+            } else
+                snapshot = null;
+        }
+
+        try {
+            /*Clients at the same version share the updates read for the
+              first of them, as long as no new updates have arrived. A
+              paged synchronization of more updates than the cache keeps
+              only counts them here, they are sent by writePages.
+              Otherwise all updates are read into this packet. A client
+              that stopped in the middle of its first time
+              synchronization continues with the rest of HISTORY.*/
+            UpdateBundleCache cache = UpdateBundleCache.getInstance();
+            String from = regularUpdate ? clientUpdateTime.toString() : "";
+            Timestamp logVersion = UpdateBundleCache.getLogVersion(dbcon);
+
+            bundle = cache.get(from, logVersion);
+            if (bundle == null) {
+                if (pageSize > 0)
+                    updateCount = countUpdates(dbcon);
+
+                if (pageSize == 0 || updateCount <= cache.getMaxUpdates()) {
+                    Vector list = readUpdateList(dbcon);
+                    updateCount = list.size();
+                    if (updateCount <= cache.getMaxUpdates()) {
+                        bundle = new UpdateBundle(logVersion, list);
+                        cache.put(from, bundle);
+                    } else
+                        updates = list;
+                }
+            }
+
+            if (bundle != null) {
+                updateCount = bundle.getUpdates().size();
+                if (pageSize == 0)
+                    updates = bundle.getUpdates();
+            }
+
+            //If there are not any updates to fetch
+            if (updateCount == 0) {
+                message = "Det fanns inga uppdateringar att hämta.";
+                return;
+            }
+
+            paged = pageSize > 0;
+
+            /*If queries failed, save a log to inform the client 
+              that updates could not be fetched*/
+        } catch (SQLException sql) {
+            message = "Servern misslyckades med att hämta uppdateringar.";
+
+            log = new Log(sql.getMessage(),
+                    "UpdatePacket/readUpdates",
+                    "Failed to read the updates");
+            lgHandler.addLog(log);
+
+            updates = new Vector();
+            updateFailed = true;
+        }
+    }
 
+    /**
+     * Method used to block the users the client has blocked. The users
+     * are looked up with one query, and blocked and recorded in
+     * CURRENT_UPDATES in one transaction, so either all of them are
+     * blocked or none.
+     * @param dbcon is the reference to the server database
+     */
+    private void blockUsers(DB2Connect dbcon, LogHandler lgHandler) {
+
+        StringBuffer ids = new StringBuffer();
+        for (int i = 0; i < blockedUsers.size(); i++) {
+            if (i > 0)
+                ids.append(", ");
+            ids.append(((Integer) blockedUsers.elementAt(i)).intValue());
+        }
+
+        //The names of the users to block, and of those already blocked
+        Vector names = new Vector();
+        StringBuffer blocked = new StringBuffer();
+        boolean committed = false;
+
+        try {
+            dbcon.setAutoCommit(false);
             try {
-                //Get the appropriate updates for this client
-                query = "SELECT * FROM EPR.CURRENT_UPDATES WHERE " +
-                    "INSERT_TIME > '" + clientUpdateTime + "'";
+                ResultSet resultSet = dbcon.dbQuery("SELECT STAFF_ID, " +
+                        "FIRST_NAME, LAST_NAME, DISABLE FROM EPR.STAFF " +
+                        "WHERE STAFF_ID IN (" + ids + ")");
+                PreparedStatement ps = dbcon.prepareStatement(
+                        "INSERT INTO EPR.CURRENT_UPDATES (INSERT_TIME, " +
+                        "QUERY) VALUES (CURRENT TIMESTAMP, ?)");
+                try {
+                    while (resultSet.next()) {
+                        String name = resultSet.getString("FIRST_NAME") +
+                            " " + resultSet.getString("LAST_NAME");
+
+                        if (resultSet.getInt("DISABLE") == 1) {
+                            blocked.append("Användaren " + name +
+                                    " är redan blockerad\n");
+                            continue;
+                        }
+                        names.add(name);
+                        ps.setString(1, "UPDATE EPR.STAFF SET DISABLE = 1 " +
+                                "WHERE STAFF_ID = " +
+                                resultSet.getInt("STAFF_ID"));
+                        ps.addBatch();
+                    }
+                    if (names.size() > 0)
+                        ps.executeBatch();
+                } finally {
+                    ps.close();
+                    resultSet.close();
+                }
 
-                resultSet = dbcon.dbQuery(query);
+                //Block the users at server
+                if (names.size() > 0)
+                    dbcon.dbQueryUpdate("UPDATE EPR.STAFF SET DISABLE = 1 " +
+                            "WHERE STAFF_ID IN (" + ids + ")");
 
-                //If there are not any updates to fetch
-                if (!resultSet.next()) {
-                    message = "Det fanns inga uppdateringar att hämta.";
-                    return;
+                dbcon.commit();
+                committed = true;
+            } finally {
+                try {
+                    if (!committed)
+                        dbcon.rollback();
+                } finally {
+                    dbcon.setAutoCommit(true);
                 }
+            }
+        } catch (SQLException sql) {
+            serverMessage = serverMessage + blocked;
+            for (int i = 0; i < names.size(); i++)
+                serverMessage = serverMessage + "Användaren " +
+                    names.elementAt(i) + " kunde inte blockeras.\n";
+            serverMessage = serverMessage + "Fel hos server. " +
+                "Kunde inte blockera användare ID = " + ids + "\n" +
+                sql.getMessage() + "\n";
+
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "UpdatePacket/blockUsers",
+                        "Failed to block user-ids = " + ids));
+            return;
+        }
 
-                //If there are any updates fetch them
-                do {
-                    ts = resultSet.getTimestamp("INSERT_TIME");
-                    query = resultSet.getString("QUERY");
-                    updates.add(new Update(ts, query));
-                } while (resultSet.next());
+        serverMessage = serverMessage + blocked;
+        for (int i = 0; i < names.size(); i++)
+            serverMessage = serverMessage + "Användaren " +
+                names.elementAt(i) + " har blockerats.\n";
+    }
 
-                /*If the query failed, save a log to inform the client*/
-            } catch (SQLException sql) {
-                message = "Servern misslyckades med att hämta uppdateringar.";
+    /**
+     * Method used to count the updates the client does not have
+     * @param dbcon is the reference to the server database
+     * @return The number of updates
+     */
+    private int countUpdates(DB2Connect dbcon) throws SQLException {
 
-                log = new Log(sql.getMessage(), 
-                        "UpdatePacket/readUpdates",
-                        "Failed to read updates");
-                lgHandler.addLog(log);
+        int count = 0;
 
-                updateFailed = true;
+        for (int i = 0; i < UPDATE_TABLES.length; i++) {
+            ResultSet resultSet = dbcon.dbQuery("SELECT COUNT(*) FROM EPR." +
+                    UPDATE_TABLES[i] + " " + getUpdateCondition());
+            try {
+                resultSet.next();
+                count += resultSet.getInt(1);
+            } finally {
+                resultSet.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method used to read the updates the client does not have
+     * @param dbcon is the reference to the server database
+     * @return A Vector of Update objects in insert time order
+     */
+    private Vector readUpdateList(DB2Connect dbcon) throws SQLException {
+
+        Vector list = new Vector();
+
+        for (int i = 0; i < UPDATE_TABLES.length; i++) {
+            ResultSet resultSet = dbcon.dbQuery("SELECT * FROM EPR." +
+                    UPDATE_TABLES[i] + " " + getUpdateCondition() +
+                    "ORDER BY INSERT_TIME");
+            try {
+                while (resultSet.next())
+                    list.add(new Update(resultSet.getTimestamp("INSERT_TIME"),
+                                resultSet.getString("QUERY")));
+            } finally {
+                resultSet.close();
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Method used to get the condition that selects the updates the
+     * client does not have
+     * @return The WHERE clause, empty for a first time synchronization
+     */
+    private String getUpdateCondition() {
+        if (!regularUpdate)
+            return "";
+        return "WHERE INSERT_TIME > '" + clientUpdateTime + "' ";
+    }
+
+    /**
+     * Method used by the server to send the updates in pages after this
+     * packet is sent. Cached updates are sent in the pages encoded once
+     * for all clients, otherwise only a page at a time is read and held
+     * in memory. The server waits for the client when it is PAGE_WINDOW
+     * pages behind. Updates with the same insert time are kept in the
+     * same page. Pages read from the update log end with a failed page
+     * after PAGE_TIME, so a slow client can not hold the database
+     * connection for long.
+     * @param dbcon is the reference to the server database, not used if
+     * the updates are cached
+     * @param connection The connection to the client
+     */
+    public void writePages(DB2Connect dbcon, ServerConnection connection,
+            LogHandler lgHandler) throws IOException, ClassNotFoundException {
+
+        Vector page = new Vector();
+        int pageNumber = 0;
+        boolean failed = false;
+        Timestamp last = null;
+        ResultSet resultSet;
+        Timestamp ts;
+        long deadline = System.currentTimeMillis() + PAGE_TIME;
+
+        //No page is acknowledged yet
+        ackedPage = -1;
+
+        if (bundle != null) {
+            Vector pages = bundle.getPages(pageSize);
+            for (int i = 0; i < pages.size(); i++)
+                if (!sendPage(connection, (UpdatePage) pages.elementAt(i)))
+                    return;
+            return;
+        }
+
+        try {
+            for (int i = 0; i < UPDATE_TABLES.length && !failed; i++) {
+                resultSet = dbcon.dbQuery("SELECT * FROM EPR." +
+                        UPDATE_TABLES[i] + " " + getUpdateCondition() +
+                        "ORDER BY INSERT_TIME");
+                try {
+                    while (resultSet.next()) {
+                        ts = resultSet.getTimestamp("INSERT_TIME");
+
+                        if (page.size() >= pageSize && !ts.equals(last)) {
+                            //A slow client gets the rest next time
+                            if (System.currentTimeMillis() > deadline) {
+                                lgHandler.addLog(new Log("Client " + clientId,
+                                            "UpdatePacket/writePages",
+                                            "Paging stopped after page " +
+                                            pageNumber));
+                                failed = true;
+                                break;
+                            }
+                            if (!sendPage(connection, new UpdatePage(
+                                            pageNumber++, page, false, false)))
+                                return;
+                            page = new Vector();
+                        }
+                        page.add(new Update(ts, resultSet.getString("QUERY")));
+                        last = ts;
+                    }
+                } finally {
+                    resultSet.close();
+                }
             }
+        } catch (SQLException sql) {
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "UpdatePacket/writePages",
+                        "Failed to read the updates of page " + pageNumber));
+            failed = true;
+        }
+
+        sendPage(connection, new UpdatePage(pageNumber, page, true, failed));
+    }
+
+    /**
+     * Method used to send a page and read the acknowledgements the
+     * client has sent. The last page waits for every acknowledgement.
+     * @param connection The connection to the client
+     * @param page The page
+     * @return false if the client has asked the server to stop
+     */
+    private boolean sendPage(ServerConnection connection, UpdatePage page)
+        throws IOException, ClassNotFoundException {
+
+        connection.writeObject(page);
+
+        int waitFor = page.isLast() ? page.getPageNumber() :
+            page.getPageNumber() - PAGE_WINDOW + 1;
+
+        while (ackedPage < waitFor) {
+            ackedPage = ((Integer) connection.readObject()).intValue();
+            if (ackedPage == UpdatePage.STOP)
+                return false;
         }
+        return true;
     }
 
     /**
@@ -406,7 +547,85 @@ public class UpdatePacket implements Serializable {
     }
 
     /**
-     * Method used to execute the received updates  at the client side
+     * Method used by the client to ask the server to send the updates
+     * in pages, only when the update port is used
+     * @param pageSize The number of updates in a page, 0 to get all
+     * updates in this packet
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Method used by the client to tell that it can load a snapshot of
+     * the reference tables in a first time synchronization
+     * @param acceptSnapshot true if a snapshot can be loaded
+     */
+    public void setAcceptSnapshot(boolean acceptSnapshot) {
+        this.acceptSnapshot = acceptSnapshot;
+    }
+
+    /**
+     * Method used by the client to load the snapshot of the reference
+     * tables sent by the server, before the updates are applied
+     * @param dbcon is the reference to the client database connection
+     * @return false if the snapshot could not be loaded, true if it is
+     * loaded or there is none
+     */
+    public boolean loadSnapshot(DB2Connect dbcon, LogHandler lgHandler) {
+
+        if (snapshot == null)
+            return true;
+
+        try {
+            snapshot.load(dbcon);
+            snapshot = null;
+            return true;
+        } catch (SQLException sql) {
+            message = "Klienten kunde inte konfigureras. " +
+                "Kontakta administratören.";
+
+            lgHandler.addLog(new Log(sql.getMessage(),
+                        "UpdatePacket/loadSnapshot",
+                        "Failed to load the reference snapshot"));
+
+            updateFailed = true;
+            return false;
+        }
+    }
+
+    /**
+     * Method used to inform if the updates follow this packet in pages
+     * @return true if the updates are sent in pages otherwise false
+     */
+    public boolean isPaged() {
+        return paged;
+    }
+
+    /**
+     * Method used by the server to inform if the updates are taken from
+     * the cache shared by the clients, so no database connection is
+     * needed to send them
+     * @return true if the updates are cached otherwise false
+     */
+    public boolean isCached() {
+        return bundle != null;
+    }
+
+    /**
+     * Method used to get the number of updates the server has for the
+     * client
+     * @return The number of updates
+     */
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Method used to execute the received updates  at the client side.
+     * The updates are applied in chunks, and the update version is
+     * stored with each chunk, so an interrupted synchronization
+     * continues after the last applied chunk next time.
      * @param dbcon is the reference to the client database connection
      */
     public void writeUpdates(DB2Connect dbcon, LogHandler lgHandler) {
@@ -439,35 +658,16 @@ public class UpdatePacket implements Serializable {
             }
         }
 
-        //begin execute the received queries
-        for (queryCount = 0; queryCount < updates.size(); queryCount++) {
-            try {
-                u = (Update)updates.elementAt(queryCount);
-                dbcon.dbQueryUpdate (u.getQuery());
-                //If an update fails, don't execute the rest
-            } catch (SQLException sql) {
-                /*If the update does already exist, ignore it and
-                  continue with others*/
-                if(sql.getSQLState().equals("23505")) {
-                    //System.out.println("Uppdateringen fanns redan");
-                    continue;
-                    /*Otherwise if there are other problems,  do not
-                      run the rest of the update sequence*/
-                } else {
-                    log = new Log(sql.getMessage(),
-                            "UpdatePacket/writeUpdates",
-                            "Failed to execute the " + queryCount + 
-                            ":th query");
-                    lgHandler.addLog(log);
-
-                    break;
-                }
-            }
+        //Apply the updates in chunks, each chunk in one transaction
+        try {
+            queryCount = applyUpdates(dbcon, updates, lgHandler);
+        } catch (SQLException sql) {
+            log = new Log(sql.getMessage(),
+                    "UpdatePacket/writeUpdates",
+                    "Failed to start applying the updates");
+            lgHandler.addLog(log);
         }
 
-        message = queryCount + " av " + updates.size() + 
-            " uppdateringar lyckades.";
-
         /*Check to get the right update version for latest succeded version.
           This time will be used to update the server version and the client 
           version*/
@@ -476,6 +676,93 @@ public class UpdatePacket implements Serializable {
             clientUpdateTime = u.getInsertTime();
         }
 
+        finishUpdates(dbcon, queryCount, updates.size(), lgHandler);
+    }
+
+    /**
+     * Method used by the client to read the pages that follow this
+     * packet and apply them as they arrive. Each page is acknowledged
+     * when it is applied, so the server can send the next page while
+     * this one is applied.
+     * @param connection The connection to the server
+     * @param dbcon is the reference to the client database connection
+     */
+    public void readPages(ServerConnection connection, DB2Connect dbcon,
+            LogHandler lgHandler) throws IOException, ClassNotFoundException {
+
+        int queryCount = 0;
+        int received = 0;
+        int applied;
+        //The insert time applied before clientUpdateTime
+        Timestamp previousTime = clientUpdateTime;
+        UpdatePage page;
+        Vector pageUpdates;
+
+        do {
+            page = (UpdatePage) connection.readObject();
+            pageUpdates = page.getUpdates();
+            received += pageUpdates.size();
+
+            applied = 0;
+            try {
+                applied = applyUpdates(dbcon, pageUpdates, lgHandler);
+            } catch (SQLException sql) {
+                lgHandler.addLog(new Log(sql.getMessage(),
+                            "UpdatePacket/readPages",
+                            "Failed to start applying page " +
+                            page.getPageNumber()));
+            }
+
+            queryCount += applied;
+            for (int i = 0; i < applied; i++) {
+                Timestamp t = ((Update) pageUpdates.elementAt(i))
+                    .getInsertTime();
+                if (!t.equals(clientUpdateTime)) {
+                    previousTime = clientUpdateTime;
+                    clientUpdateTime = t;
+                }
+            }
+
+            /*Updates with the insert time of the failed one may have
+              been applied on the pages before, run them again next time*/
+            if (applied < pageUpdates.size() && ((Update) pageUpdates
+                        .elementAt(applied)).getInsertTime()
+                    .equals(clientUpdateTime))
+                clientUpdateTime = previousTime;
+
+            if (page.isFailed())
+                lgHandler.addLog(new Log("Server failed",
+                            "UpdatePacket/readPages",
+                            "Server failed to read the updates"));
+
+            //Stop the server if an update failed
+            if (applied < pageUpdates.size() || page.isFailed()) {
+                connection.writeObject(new Integer(UpdatePage.STOP));
+                break;
+            }
+            connection.writeObject(new Integer(page.getPageNumber()));
+        } while (!page.isLast());
+
+        finishUpdates(dbcon, queryCount, Math.max(updateCount, received),
+                lgHandler);
+    }
+
+    /**
+     * Method used to store the update version, message and server
+     * contact time when the updates are applied
+     * @param dbcon is the reference to the client database connection
+     * @param queryCount The number of updates applied
+     * @param total The number of updates received
+     */
+    private void finishUpdates(DB2Connect dbcon, int queryCount, int total,
+            LogHandler lgHandler) {
+
+        String query;
+        Log log;
+
+        message = queryCount + " av " + total + 
+            " uppdateringar lyckades.";
+
         /*Update the SETTINGS table with version, message and server
           contact time*/
 
@@ -527,4 +814,221 @@ public class UpdatePacket implements Serializable {
             updateFailed = true;
         }
     }
+
+    /**
+     * Method used to apply the updates in chunks. Each chunk is run as
+     * one batch in its own transaction together with the new update
+     * version. Updates that are already applied are skipped, and the
+     * first update that fails stops the rest.
+     * @param dbcon is the reference to the client database connection
+     * @param list The Update objects in insert time order
+     * @return The number of updates applied or skipped, the index of
+     * the first update with the insert time of the update that failed
+     */
+    private int applyUpdates(DB2Connect dbcon, Vector list,
+            LogHandler lgHandler) throws SQLException {
+
+        int applied = 0;
+        Statement stmt = dbcon.createStatement();
+        PreparedStatement version = null;
+        //The statements of the typed changes, keyed by their SQL
+        Hashtable statements = new Hashtable();
+
+        try {
+            version = dbcon.prepareStatement("UPDATE EPR.SETTINGS SET " +
+                    "UPDATE_VERSION = ?");
+            dbcon.setAutoCommit(false);
+
+            try {
+                while (applied < list.size()) {
+                    int end = chunkEnd(list, applied);
+                    int done = applyChunk(dbcon, stmt, statements, list,
+                            applied, end, lgHandler);
+
+                    /*The version can not tell the client has come past
+                      only some of the updates with one insert time, so
+                      they are all run again next time*/
+                    if (done < end)
+                        done = firstOfTime(list, done);
+
+                    //Store how far the client has come with the chunk
+                    if (done > applied) {
+                        version.setTimestamp(1,
+                                ((Update) list.elementAt(done - 1))
+                                .getInsertTime());
+                        version.executeUpdate();
+                    }
+                    dbcon.commit();
+                    applied = done;
+
+                    if (done < end)
+                        break;
+                }
+            } catch (SQLException sql) {
+                lgHandler.addLog(new Log(sql.getMessage(),
+                            "UpdatePacket/applyUpdates",
+                            "Failed to apply the chunk starting at the " +
+                            applied + ":th query"));
+                try {
+                    dbcon.rollback();
+                } catch (SQLException sql2) {
+                    lgHandler.addLog(new Log(sql2.getMessage(),
+                                "UpdatePacket/applyUpdates",
+                                "Rollback failed"));
+                }
+            } finally {
+                try {
+                    dbcon.setAutoCommit(true);
+                } catch (SQLException sql) {
+                    lgHandler.addLog(new Log(sql.getMessage(),
+                                "UpdatePacket/applyUpdates",
+                                "Failed to turn on auto commit"));
+                }
+            }
+        } finally {
+            stmt.close();
+            if (version != null)
+                version.close();
+            Enumeration e = statements.elements();
+            while (e.hasMoreElements())
+                ((PreparedStatement) e.nextElement()).close();
+        }
+        return applied;
+    }
+
+    /**
+     * Method used to apply one chunk of updates as a batch. Following
+     * typed changes with the same statement are added to one
+     * PreparedStatement batch, and the SQL queries to the batch of stmt,
+     * so the updates still run in order. If the batch fails it is undone
+     * and the updates are applied one at a time, so updates that already
+     * exist can be skipped.
+     * @param dbcon is the reference to the client database connection
+     * @param stmt The statement the SQL queries are run on
+     * @param statements The statements of the typed changes
+     * @param list The Update objects in insert time order
+     * @param start The index of the first update of the chunk
+     * @param end The index after the last update of the chunk
+     * @return The index after the last update applied or skipped
+     */
+    private int applyChunk(DB2Connect dbcon, Statement stmt,
+            Hashtable statements, Vector list, int start, int end,
+            LogHandler lgHandler) throws SQLException {
+
+        Savepoint savepoint = dbcon.setSavepoint();
+        Statement batch = null;
+        try {
+            for (int i = start; i < end; i++) {
+                Update u = (Update) list.elementAt(i);
+                Statement next = getStatement(dbcon, stmt, statements, u);
+
+                //The batch is run when the statement changes
+                if (batch != null && batch != next)
+                    batch.executeBatch();
+                batch = next;
+
+                if (u.getOperation() == null)
+                    stmt.addBatch(u.getQuery());
+                else {
+                    u.getOperation().setParameters((PreparedStatement) batch);
+                    ((PreparedStatement) batch).addBatch();
+                }
+            }
+            if (batch != null)
+                batch.executeBatch();
+            return end;
+        } catch (BatchUpdateException bue) {
+            batch.clearBatch();
+            dbcon.rollback(savepoint);
+        }
+
+        for (int i = start; i < end; i++) {
+            Update u = (Update) list.elementAt(i);
+            try {
+                if (u.getOperation() == null)
+                    stmt.executeUpdate(u.getQuery());
+                else {
+                    PreparedStatement ps = (PreparedStatement)
+                        getStatement(dbcon, stmt, statements, u);
+                    u.getOperation().setParameters(ps);
+                    ps.executeUpdate();
+                }
+            } catch (SQLException sql) {
+                /*If the update does already exist, ignore it and
+                  continue with others*/
+                if (DUPLICATE_KEY.equals(sql.getSQLState()))
+                    continue;
+
+                lgHandler.addLog(new Log(sql.getMessage(),
+                            "UpdatePacket/applyChunk",
+                            "Failed to execute the " + i + ":th query"));
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Method used to get the statement an update is run on. The
+     * statement of a typed change is prepared the first time it is used.
+     * @param dbcon is the reference to the client database connection
+     * @param stmt The statement the SQL queries are run on
+     * @param statements The statements of the typed changes
+     * @param u The update
+     * @return The statement
+     */
+    private Statement getStatement(DB2Connect dbcon, Statement stmt,
+            Hashtable statements, Update u) throws SQLException {
+
+        if (u.getOperation() == null)
+            return stmt;
+
+        String sql = u.getOperation().getSql();
+        PreparedStatement ps = (PreparedStatement) statements.get(sql);
+        if (ps == null) {
+            ps = dbcon.prepareStatement(sql);
+            statements.put(sql, ps);
+        }
+        return ps;
+    }
+
+    /**
+     * Method used to find where a chunk ends. Updates with the same
+     * insert time are kept in the same chunk, since the update version
+     * can only tell the client has come past all of them.
+     * @param list The Update objects in insert time order
+     * @param start The index of the first update of the chunk
+     * @return The index after the last update of the chunk
+     */
+    private int chunkEnd(Vector list, int start) {
+        int end = Math.min(start + CHUNK_SIZE, list.size());
+        while (end < list.size()) {
+            Timestamp last = ((Update) list.elementAt(end - 1))
+                .getInsertTime();
+            Timestamp next = ((Update) list.elementAt(end))
+                .getInsertTime();
+            if (last == null || !last.equals(next))
+                break;
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Method used to find the first update with the same insert time as
+     * an update
+     * @param list The Update objects in insert time order
+     * @param index The index of the update
+     * @return The index of the first update with its insert time
+     */
+    private int firstOfTime(Vector list, int index) {
+        if (index >= list.size())
+            return index;
+
+        Timestamp time = ((Update) list.elementAt(index)).getInsertTime();
+        while (index > 0 && time != null && time.equals(
+                    ((Update) list.elementAt(index - 1)).getInsertTime()))
+            index--;
+        return index;
+    }
 }
@@ -0,0 +1,158 @@
+import java.io.*;
+import java.sql.Timestamp;
+import java.util.Vector;
+
+/**
+ * This class represent one page of updates sent by the server during a
+ * paged synchronization. The client answers every page with its page
+ * number once the page is applied, or with STOP to stop the server.
+ *
+ * The updates are written in the compact binary format of WireOutput,
+ * so a page shared by many clients can be encoded once, see encode.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class UpdatePage implements Serializable {
+
+    //Version of the serialized form
+    private static final long serialVersionUID = 3325296230824388710L;
+
+    //Sent by the client instead of a page number to stop the server
+    public static final int STOP = -1;
+
+    //The largest encoded page accepted from the stream
+    private static final int MAX_ENCODED_LENGTH = 16 * 1024 * 1024;
+
+    private int pageNumber;
+    private transient Vector updates;
+    private boolean last;
+    private boolean failed;
+
+    //The encoded updates, null until encoded
+    private transient byte[] encoded = null;
+
+    /**
+     * Constructor used for serialization
+     */
+    public UpdatePage() { }
+
+    /**
+     * Constructor used by the server to create a page
+     * @param pageNumber The number of the page, starting at 0
+     * @param updates The Update objects of the page
+     * @param last true if this is the last page
+     * @param failed true if the server failed to read the updates, the
+     * page is then the last one
+     */
+    public UpdatePage(int pageNumber, Vector updates, boolean last,
+            boolean failed) {
+        this.pageNumber = pageNumber;
+        this.updates = updates;
+        this.last = last;
+        this.failed = failed;
+    }
+
+    /**
+     * Method used to get the number of the page
+     * @return The page number
+     */
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+    /**
+     * Method used to get the updates of the page
+     * @return A Vector of Update objects in insert time order
+     */
+    public Vector getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Method used to indicate if this is the last page
+     * @return true if no more pages follow
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+    /**
+     * Method used to indicate if the server failed to read the updates
+     * @return true if the server failed
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Method used to encode the updates once, before the page is sent to
+     * several clients. The page must not be changed after this.
+     */
+    public synchronized void encode() throws IOException {
+
+        if (encoded != null)
+            return;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        WireOutput wire = new WireOutput(out);
+
+        wire.writeUnsigned(updates.size());
+        for (int i = 0; i < updates.size(); i++) {
+            Update u = (Update) updates.elementAt(i);
+            wire.writeTimestamp(u.getInsertTime());
+
+            //A typed change, or the SQL query if there is none
+            UpdateOperation op = u.getOperation();
+            wire.writeBoolean(op != null);
+            if (op != null)
+                op.writeWire(wire);
+            else
+                wire.writeString(u.getQuery());
+        }
+        out.flush();
+        encoded = bytes.toByteArray();
+    }
+
+    /**
+     * Method used by serialization to write the page
+     * @param out The stream the page is written to
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        encode();
+        out.defaultWriteObject();
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    /**
+     * Method used by serialization to read the page
+     * @param in The stream the page is read from
+     */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+
+        in.defaultReadObject();
+
+        int length = in.readInt();
+        if (length < 0 || length > MAX_ENCODED_LENGTH)
+            throw new StreamCorruptedException("Page length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        WireInput wire = new WireInput(new DataInputStream(
+                    new ByteArrayInputStream(bytes)));
+        int count = wire.readLength();
+        updates = new Vector(count);
+        for (int i = 0; i < count; i++) {
+            Timestamp insertTime = wire.readTimestamp();
+            if (wire.readBoolean()) {
+                UpdateOperation op = new UpdateOperation();
+                op.readWire(wire);
+                updates.add(new Update(insertTime, op));
+            } else
+                updates.add(new Update(insertTime, wire.readString()));
+        }
+    }
+}
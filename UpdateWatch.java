@@ -0,0 +1,93 @@
+import java.io.*;
+import java.sql.*;
+
+/**
+ * This class represent a request from the client to be told when the
+ * server has updates the client does not have. The server holds the
+ * request on the update port until its update version is newer than the
+ * version of the client, or the timeout has passed, and then sends it
+ * back with the result.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class UpdateWatch implements Serializable {
+
+    //Version of the serialized form
+    private static final long serialVersionUID = -712115795579670527L;
+
+    private Timestamp clientVersion;
+    private long timeout;
+    private Timestamp serverVersion = null;
+    private boolean supported = false;
+
+    /**
+     * Constructor used for serialization
+     */
+    public UpdateWatch() { }
+
+    /**
+     * Constructor used by the client to create a request
+     * @param clientVersion The update version of the client, null if
+     * the client has not synchronized yet
+     * @param timeout The longest time in ms the server holds the request
+     */
+    public UpdateWatch(Timestamp clientVersion, long timeout) {
+        this.clientVersion = clientVersion;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Method used by the server to set the result
+     * @param serverVersion The update version of the server, null if the
+     * server does not watch its update version
+     * @param supported false if the server does not watch its update
+     * version
+     */
+    public void setResult(Timestamp serverVersion, boolean supported) {
+        this.serverVersion = serverVersion;
+        this.supported = supported;
+    }
+
+    /**
+     * Method used to get the update version of the client
+     * @return The version, null if the client has not synchronized yet
+     */
+    public Timestamp getClientVersion() {
+        return clientVersion;
+    }
+
+    /**
+     * Method used to get the longest time the server holds the request
+     * @return The time in ms
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Method used to get the update version of the server
+     * @return The version, null if it is not known
+     */
+    public Timestamp getServerVersion() {
+        return serverVersion;
+    }
+
+    /**
+     * Method used to indicate if the server has updates the client does
+     * not have
+     * @return true if the server version is newer than the client version
+     */
+    public boolean isChanged() {
+        return serverVersion != null && (clientVersion == null ||
+                serverVersion.after(clientVersion));
+    }
+
+    /**
+     * Method used to indicate if the server watches its update version
+     * @return false if the client should stop sending requests
+     */
+    public boolean isSupported() {
+        return supported;
+    }
+}
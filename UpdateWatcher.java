@@ -0,0 +1,170 @@
+import java.io.*;
+import java.security.GeneralSecurityException;
+import java.sql.*;
+import java.util.prefs.BackingStoreException;
+
+/**
+ * Background thread at the client that keeps an UpdateWatch waiting at
+ * the server on the update port. When the server answers that it has
+ * updates the client does not have, the SyncScheduler is told to
+ * synchronize, so changes like blocked staff reach the ambulance within
+ * seconds instead of at the next periodic synchronization.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class UpdateWatcher implements Runnable {
+
+    //Delay before the first reconnect in ms
+    private final long BASE_DELAY = 15 * 1000;
+
+    //Longest delay between two reconnects in ms
+    private final long MAX_DELAY = 15 * 60 * 1000;
+
+    //Time in ms added to the watch timeout before the read gives up
+    private final int READ_MARGIN = 60 * 1000;
+
+    //Reference to LogHandler object
+    private LogHandler lgHandler;
+
+    //Reference to the client database connection
+    private DB2Connect dbcon;
+
+    //Told to synchronize when the server has new updates
+    private SyncScheduler scheduler;
+
+    //The longest time in ms the server holds a request
+    private long timeout;
+
+    //The port number the server listens to
+    private int port;
+
+    //The delays between the reconnects
+    private Backoff backoff = new Backoff(BASE_DELAY, MAX_DELAY);
+
+    /**
+     * Constructor, starts the background thread
+     * @param lgHandler Reference to LogHandler object
+     * @param dbcon Reference to the client database connection
+     * @param scheduler Told to synchronize when the server has new updates
+     * @param timeout The longest time in ms the server holds a request
+     */
+    public UpdateWatcher(LogHandler lgHandler, DB2Connect dbcon,
+            SyncScheduler scheduler, long timeout) throws
+        NullPointerException, IllegalStateException, BackingStoreException {
+
+        this.lgHandler = lgHandler;
+        this.dbcon = dbcon;
+        this.scheduler = scheduler;
+        this.timeout = timeout;
+
+        port = new RegisterKey().getAmbulanceUpdatePort();
+
+        Thread thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method used to read the update version of the client
+     * @return The version, null if the client has not synchronized yet
+     */
+    private Timestamp readVersion() throws SQLException {
+        ResultSet resultSet = dbcon.dbQuery(
+                "SELECT UPDATE_VERSION FROM EPR.SETTINGS");
+        try {
+            return resultSet.next() ? resultSet.getTimestamp(1) : null;
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * Method used to close a connection
+     * @param connection The connection, may be null
+     */
+    private void close(ServerConnection connection) {
+        try {
+            if (connection != null)
+                connection.close();
+        } catch (IOException ie) {
+            lgHandler.addLog(new Log(ie.getMessage(), "UpdateWatcher/close",
+                        "Failed to close socket/streams"));
+        }
+    }
+
+    /**
+     * Background thread, used to send the requests and wait for the
+     * answers
+     */
+    public void run() {
+
+        ServerConnection connection = null;
+        //The newest server version already told to the scheduler
+        Timestamp notified = null;
+        int failures = 0;
+
+        while (true) {
+            try {
+                if (connection == null) {
+                    connection = SecureChannelFactory.getInstance()
+                        .connect(port);
+                    connection.setReadTimeout((int) timeout + READ_MARGIN);
+                }
+
+                /*Until the synchronization has run the version of the
+                  client is older than the one already told*/
+                Timestamp version = readVersion();
+                if (notified != null &&
+                        (version == null || notified.after(version)))
+                    version = notified;
+
+                connection.writeObject(new UpdateWatch(version, timeout));
+                UpdateWatch reply = (UpdateWatch) connection.readObject();
+                failures = 0;
+
+                if (!reply.isSupported()) {
+                    lgHandler.addLog(new Log("Update watch is not supported",
+                                "UpdateWatcher/run",
+                                "The server does not answer update watches"));
+                    close(connection);
+                    return;
+                }
+
+                if (reply.isChanged()) {
+                    notified = reply.getServerVersion();
+                    scheduler.syncNow();
+                }
+                continue;
+            } catch (GeneralSecurityException gse) {
+                lgHandler.addLog(new Log(gse.getMessage(), "UpdateWatcher/run",
+                            "Security problem"));
+            } catch (IOException ie) {
+                lgHandler.addLog(new Log(ie.getMessage(), "UpdateWatcher/run",
+                            "Failed to watch the server"));
+            } catch (ClassNotFoundException cnfe) {
+                lgHandler.addLog(new Log(cnfe.getMessage(),
+                            "UpdateWatcher/run",
+                            "Packet versions are not the same at server " +
+                            "or client"));
+            } catch (SQLException sql) {
+                lgHandler.addLog(new Log(sql.getMessage(), "UpdateWatcher/run",
+                            "Failed to read the update version"));
+            } catch (BackingStoreException bse) {
+                lgHandler.addLog(new Log(bse.getMessage(), "UpdateWatcher/run",
+                            "Failed to read the settings"));
+            }
+
+            close(connection);
+            connection = null;
+
+            try {
+                Thread.sleep(backoff.getJitteredDelay(failures++));
+            } catch (InterruptedException ie) {
+                lgHandler.addLog(new Log(ie.getMessage(), "UpdateWatcher/run",
+                            "InterruptedException"));
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.*;
+import java.sql.*;
+import java.util.Vector;
+
+/**
+ * Class used to read the patient record packets written by WireOutput
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class WireInput {
+
+    //The longest array or list accepted from the stream
+    private final int MAX_LENGTH = 100000;
+
+    //The stream the bytes are read from
+    private DataInput in;
+
+    //Strings already read, in the order they were read
+    private Vector strings = new Vector();
+
+    /**
+     * Constructor
+     * @param in The stream the bytes are read from
+     */
+    public WireInput(DataInput in) {
+        this.in = in;
+    }
+
+    /**
+     * Method used to read an unsigned varint
+     * @return The value
+     */
+    public long readUnsigned() throws IOException {
+
+        long value = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            if (shift > 63)
+                throw new StreamCorruptedException("Varint too long");
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * Method used to read the length of an array or a list
+     * @return The length
+     */
+    public int readLength() throws IOException {
+        long length = readUnsigned();
+        if (length > MAX_LENGTH)
+            throw new StreamCorruptedException("Length " + length);
+        return (int) length;
+    }
+
+    /**
+     * Method used to read a zigzag encoded int
+     * @return The value
+     */
+    public int readInt() throws IOException {
+        int value = (int) readUnsigned();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Method used to read a zigzag encoded long
+     * @return The value
+     */
+    public long readLong() throws IOException {
+        long value = readUnsigned();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Method used to read a boolean
+     * @return The value
+     */
+    public boolean readBoolean() throws IOException {
+        return in.readUnsignedByte() != 0;
+    }
+
+    /**
+     * Method used to read a float
+     * @return The value
+     */
+    public float readFloat() throws IOException {
+        return in.readFloat();
+    }
+
+    /**
+     * Method used to read a string
+     * @return The string, may be null
+     */
+    public String readString() throws IOException {
+
+        long code = readUnsigned();
+
+        if (code == 0)
+            return null;
+
+        if (code == 1) {
+            String value = in.readUTF();
+            strings.add(value);
+            return value;
+        }
+
+        if (code - 2 >= strings.size())
+            throw new StreamCorruptedException("Unknown string " + code);
+        return (String) strings.elementAt((int) (code - 2));
+    }
+
+    /**
+     * Method used to read a time
+     * @return The time, may be null
+     */
+    public Time readTime() throws IOException {
+
+        long code = readUnsigned();
+
+        if (code == 0)
+            return null;
+        if (code > 24 * 3600)
+            throw new StreamCorruptedException("Time " + code);
+
+        int seconds = (int) code - 1;
+        return Time.valueOf(two(seconds / 3600) + ":" +
+                two(seconds / 60 % 60) + ":" + two(seconds % 60));
+    }
+
+    /**
+     * Method used to read a date
+     * @return The date, may be null
+     */
+    public Date readDate() throws IOException {
+
+        long code = readUnsigned();
+
+        if (code == 0)
+            return null;
+
+        try {
+            return Date.valueOf((code / 10000) + "-" +
+                    two((int) (code / 100 % 100)) + "-" +
+                    two((int) (code % 100)));
+        } catch (IllegalArgumentException iae) {
+            throw new StreamCorruptedException("Date " + code);
+        }
+    }
+
+    /**
+     * Method used to read a timestamp
+     * @return The timestamp, may be null
+     */
+    public Timestamp readTimestamp() throws IOException {
+
+        if (!readBoolean())
+            return null;
+
+        Timestamp value = new Timestamp(readLong());
+        value.setNanos(value.getNanos() + (int) (readUnsigned() % 1000000));
+        return value;
+    }
+
+    /**
+     * Method used to read an array of area flags
+     * @return The area flags, may be null
+     */
+    public byte[] readAreas() throws IOException {
+
+        int length = readLength();
+
+        if (length == 0)
+            return null;
+
+        byte[] areas = new byte[length - 1];
+        byte[] set = new byte[(areas.length + 7) / 8];
+        byte[] yes = new byte[set.length];
+
+        in.readFully(set);
+        in.readFully(yes);
+
+        for (int i = 0; i < areas.length; i++) {
+            if ((set[i / 8] & (1 << (i % 8))) == 0)
+                continue;
+            if ((yes[i / 8] & (1 << (i % 8))) != 0)
+                areas[i] = 't';
+            else
+                areas[i] = 'f';
+        }
+
+        //Values other than 't' and 'f' were written after the bitsets
+        int others = readLength();
+        for (int i = 0; i < others; i++) {
+            int index = readLength();
+            if (index >= areas.length)
+                throw new StreamCorruptedException("Area " + index);
+            areas[index] = in.readByte();
+        }
+
+        return areas;
+    }
+
+    /**
+     * Method used to format a number with two digits
+     * @param value The number
+     * @return The number with a leading zero if below ten
+     */
+    private String two(int value) {
+        return value < 10 ? "0" + value : String.valueOf(value);
+    }
+}
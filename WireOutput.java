@@ -0,0 +1,195 @@
+import java.io.*;
+import java.sql.*;
+import java.util.Hashtable;
+
+/**
+ * Class used to write the patient record packets in the compact binary
+ * format. Numbers are written as varints, strings are written once and
+ * later referred to by their index in the string table, times are packed
+ * into the seconds of the day and the fracture and luxation areas are
+ * written as bitsets.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class WireOutput {
+
+    //The stream the bytes are written to
+    private DataOutput out;
+
+    //Strings already written, keyed by string, value is the table index
+    private Hashtable strings = new Hashtable();
+
+    /**
+     * Constructor
+     * @param out The stream the bytes are written to
+     */
+    public WireOutput(DataOutput out) {
+        this.out = out;
+    }
+
+    /**
+     * Method used to write an unsigned varint, seven bits in each byte
+     * @param value The value, treated as unsigned
+     */
+    public void writeUnsigned(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Method used to write an int, small negative values are kept short
+     * by zigzag encoding
+     * @param value The value
+     */
+    public void writeInt(int value) throws IOException {
+        writeUnsigned(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Method used to write a long with zigzag encoding
+     * @param value The value
+     */
+    public void writeLong(long value) throws IOException {
+        writeUnsigned((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Method used to write a boolean
+     * @param value The value
+     */
+    public void writeBoolean(boolean value) throws IOException {
+        out.writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * Method used to write a float
+     * @param value The value
+     */
+    public void writeFloat(float value) throws IOException {
+        out.writeFloat(value);
+    }
+
+    /**
+     * Method used to write a string. 0 is null, 1 is a new string
+     * followed by its characters, a higher value is the index of a string
+     * already written plus 2.
+     * @param value The string, may be null
+     */
+    public void writeString(String value) throws IOException {
+
+        if (value == null) {
+            writeUnsigned(0);
+            return;
+        }
+
+        Integer index = (Integer) strings.get(value);
+        if (index != null) {
+            writeUnsigned(index.intValue() + 2);
+            return;
+        }
+
+        strings.put(value, new Integer(strings.size()));
+        writeUnsigned(1);
+        out.writeUTF(value);
+    }
+
+    /**
+     * Method used to write a time as the seconds of the day plus one,
+     * 0 is null
+     * @param value The time, may be null
+     */
+    public void writeTime(Time value) throws IOException {
+
+        if (value == null) {
+            writeUnsigned(0);
+            return;
+        }
+
+        //The string form is HH:MM:SS in the local time zone
+        String s = value.toString();
+        int seconds = Integer.parseInt(s.substring(0, 2)) * 3600 +
+            Integer.parseInt(s.substring(3, 5)) * 60 +
+            Integer.parseInt(s.substring(6, 8));
+        writeUnsigned(seconds + 1);
+    }
+
+    /**
+     * Method used to write a date packed as YYYYMMDD, 0 is null
+     * @param value The date, may be null
+     */
+    public void writeDate(Date value) throws IOException {
+
+        if (value == null) {
+            writeUnsigned(0);
+            return;
+        }
+
+        //The string form is YYYY-MM-DD in the local time zone
+        String s = value.toString();
+        writeUnsigned(Integer.parseInt(s.substring(0, 4)) * 10000 +
+                Integer.parseInt(s.substring(5, 7)) * 100 +
+                Integer.parseInt(s.substring(8, 10)));
+    }
+
+    /**
+     * Method used to write a timestamp as the milliseconds and the
+     * nanoseconds below a millisecond
+     * @param value The timestamp, may be null
+     */
+    public void writeTimestamp(Timestamp value) throws IOException {
+
+        writeBoolean(value != null);
+        if (value == null)
+            return;
+
+        writeLong(value.getTime());
+        writeUnsigned(value.getNanos() % 1000000);
+    }
+
+    /**
+     * Method used to write an array of area flags as bitsets. The first
+     * bitset holds the areas that are set, the second which of them
+     * are 't', the rest are 'f'.
+     * @param areas The area flags, 0 if not set, may be null
+     */
+    public void writeAreas(byte[] areas) throws IOException {
+
+        if (areas == null) {
+            writeUnsigned(0);
+            return;
+        }
+
+        writeUnsigned(areas.length + 1);
+
+        byte[] set = new byte[(areas.length + 7) / 8];
+        byte[] yes = new byte[set.length];
+
+        for (int i = 0; i < areas.length; i++) {
+            if (areas[i] != 0)
+                set[i / 8] |= 1 << (i % 8);
+            if (areas[i] == 't')
+                yes[i / 8] |= 1 << (i % 8);
+        }
+
+        out.write(set);
+        out.write(yes);
+
+        //Values other than 't' and 'f' follow as position and value
+        int others = 0;
+        for (int i = 0; i < areas.length; i++)
+            if (areas[i] != 0 && areas[i] != 't' && areas[i] != 'f')
+                others++;
+
+        writeUnsigned(others);
+        for (int i = 0; i < areas.length; i++) {
+            if (areas[i] != 0 && areas[i] != 't' && areas[i] != 'f') {
+                writeUnsigned(i);
+                out.writeByte(areas[i]);
+            }
+        }
+    }
+}
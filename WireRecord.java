@@ -0,0 +1,76 @@
+import java.io.*;
+
+/**
+ * WireRecord carries a Record in the compact binary format instead of
+ * the default serialization. The format version is written first so
+ * the server can refuse formats it does not know. When read the
+ * WireRecord is replaced by the Record it carries, so the receiver
+ * gets a Record whichever format the client used.
+ *
+ * @author agent
+ * @version 20261018
+ */
+public class WireRecord implements Externalizable {
+
+    //Version of the serialized form
+    private static final long serialVersionUID = -6854608943731046533L;
+
+    //Format version written by this client, 0 means default serialization
+    public static final int FORMAT_VERSION = 1;
+
+    //The record carried
+    private Record record;
+
+    /**
+     * Constructor used for serialization
+     */
+    public WireRecord() { }
+
+    /**
+     * Constructor used by ambulance client to wrap a record
+     * @param record The record that will be send to server
+     */
+    public WireRecord(Record record) {
+        this.record = record;
+    }
+
+    /**
+     * Method used to get the record carried
+     * @return The record
+     */
+    public Record getRecord() {
+        return record;
+    }
+
+    /**
+     * Method used to write the record in the compact binary format
+     * @param out The stream the record is written to
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        record.writeWire(new WireOutput(out));
+    }
+
+    /**
+     * Method used to read the record from the compact binary format
+     * @param in The stream the record is read from
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION)
+            throw new InvalidClassException("WireRecord",
+                    "Unknown format version " + version);
+
+        record = new Record();
+        record.readWire(new WireInput(in));
+    }
+
+    /**
+     * Method used by serialization to replace this object by the record
+     * @return The record carried
+     */
+    private Object readResolve() throws ObjectStreamException {
+        return record;
+    }
+}
@@ -1,4 +1,5 @@
 import java.sql.*;
+import java.util.Vector;
 
 /**
   * Class implementing a word list. The words are stored in a database.
@@ -12,7 +13,12 @@ public class WordList
    private DB2Connect dbcon;
    private LogHandler lg;
    
-   private ResultSet rs = null;
+   //The words that matched the last call to getWord
+   private Vector words = new Vector();
+   //The index of the next word getNextWord returns
+   private int nextWord = 0;
+   //The largest number of matching words read by getWord
+   private final int MAX_WORDS = 50;
  
    /**
      * Constructor, sets the reference to the database.
@@ -25,23 +31,36 @@ public class WordList
       this.lg = lg;
    }
 
+   /**
+     * Method used to get the executor that runs the lookups off the
+     * event thread.
+     * @return The executor of the database.
+     */
+   public DBExecutor getExecutor()
+   {
+      return DBExecutor.getInstance(dbcon, lg);
+   }
+
    /**
      * Method used to get the favorite associated with the key.
      * @param c The key pressed.
      * @param userid ID of the user.
      * @return The string associated with the key. null if no string exists.
      */
-   public String getFavorite(char c, int userid)
+   public synchronized String getFavorite(char c, int userid)
    {
       try {
-         if (rs != null)
+         ResultSet rs = dbcon.dbQuery("SELECT STRING FROM " +
+               "EPR.AUTO_COMPLETION WHERE KEY = ? AND USER_ID = ?",
+               new Object[] { String.valueOf(c), new Integer(userid) });
+         try {
+            if (rs.next())
+               return rs.getString("STRING");
+            else
+               return null;
+         } finally {
             rs.close();
-         rs = dbcon.dbQuery("SELECT STRING FROM EPR.AUTO_COMPLETION WHERE " +
-               "KEY = '" + c + "' AND USER_ID = " + userid);
-         if (rs.next())
-            return rs.getString("STRING");
-         else
-            return null;
+         }
       } catch (SQLException e) {
           lg.addLog(new Log(e.getMessage(),
                   "WordList/getFavorite",
@@ -51,27 +70,33 @@ public class WordList
    }
 
    /**
-     * Method that finds words that begin with word.
+     * Method that finds words that begin with word. At most MAX_WORDS
+     * matching words are read at once, so no result is left open between
+     * the calls.
      * @param word The string that the word should start with.
      * @return The first word that match, null if no word exists.
      */
-   public String getWord(String word)
+   public synchronized String getWord(String word)
    {
+      words = new Vector();
+      nextWord = 0;
       try {
-         if (rs != null)
+         ResultSet rs = dbcon.dbQuery("SELECT WORD FROM " +
+               "EPR.MEDICAL_LEXICON WHERE WORD LIKE ? " +
+               "FETCH FIRST " + MAX_WORDS + " ROWS ONLY",
+               new Object[] { word + "%" });
+         try {
+            while (rs.next())
+               words.add(rs.getString("WORD"));
+         } finally {
             rs.close();
-         rs = dbcon.dbQuery("SELECT * FROM EPR.MEDICAL_LEXICON " +
-               "WHERE WORD LIKE '" + word + "%'");
-         if (rs.next())
-            return rs.getString("WORD");
-         else
-            return null;
+         }
       } catch(SQLException e) {
            lg.addLog(new Log(e.getMessage(),
                   "WordList/getWord",
                   "Read medical lexicon"));
       }
-      return null;
+      return getNextWord();
    }
 
    /**
@@ -79,19 +104,11 @@ public class WordList
      * getWord.
      * @return The next suggestion, null if no word exits.
      */
-   public String getNextWord()
+   public synchronized String getNextWord()
    {
-      try {
-         if (rs.next())
-            return rs.getString("WORD");
-         else
-            return null;
-      } catch(SQLException e) {
-         lg.addLog(new Log(e.getMessage(),
-                  "WordList/getNextWord",
-                  "Read next word"));
-      }
-      return null;
+      if (nextWord >= words.size())
+         return null;
+      return (String) words.elementAt(nextWord++);
    }
 
 }